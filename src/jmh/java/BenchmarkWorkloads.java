@@ -0,0 +1,128 @@
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import okhttp3.FormBody;
+import okhttp3.HttpUrl;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.ByteString;
+
+import java.io.IOException;
+
+/**
+ * Operations measured by the JMH benchmarks. JMH refuses benchmarks in the
+ * default package and named packages cannot see it, so the benchmarks in
+ * {@code benchmarks} bind to these methods by name.
+ */
+public class BenchmarkWorkloads {
+    static final HttpUrl BASE_URL = HttpUrl.get(VaccineApiClient.DEFAULT_BASE_URL);
+
+    static final String USER_JSON = "{\"citizen_id\": \"1102003283576\", \"name\": \"Tatpol\", "
+            + "\"surname\": \"Samakpong\", \"birth_date\": \"2001/06/05\", \"occupation\": \"Student\", "
+            + "\"phone_number\": \"0970638897\", \"is_risk\": \"False\", \"address\": \"122/167\", "
+            + "\"vaccine_taken\": \"[]\"}";
+    static final String REGISTRATION_JSON = "{\"feedback\": \"registration success!\"}";
+    private static final ByteString USER_BYTES = ByteString.encodeUtf8(USER_JSON);
+    private static final ByteString REGISTRATION_BYTES = ByteString.encodeUtf8(REGISTRATION_JSON);
+    private static final String ALREADY_REGISTERED = "registration failed: this person already registered";
+
+    private static final Citizen CITIZEN = new Citizen.Builder()
+            .citizenId("1102003283576")
+            .name("Tatpol")
+            .surname("Samakpong")
+            .birthDate("2001/06/05")
+            .occupation("Student")
+            .phoneNumber("0970638897")
+            .isRisk(false)
+            .address("122/167")
+            .build();
+    private static final RegistrationEncoder encoder = new RegistrationEncoder(BASE_URL);
+
+    private static final Gson gson = new Gson();
+    private static final TypeAdapter<UserResponseBody> userAdapter = gson.getAdapter(UserResponseBody.class);
+    private static final TypeAdapter<RegistrationResponseBody> registrationAdapter =
+            gson.getAdapter(RegistrationResponseBody.class);
+    private static final RegistrationResponseBody registration =
+            gson.fromJson(REGISTRATION_JSON, RegistrationResponseBody.class);
+
+    public static HttpUrl queryParams() {
+        return new UserRegistrationUrl.Builder(BASE_URL)
+                .citizenId("1102003283576")
+                .name("Tatpol")
+                .surname("Samakpong")
+                .birthDate("2001/06/05")
+                .occupation("Student")
+                .phoneNumber("0970638897")
+                .isRisk(false)
+                .address("122/167")
+                .build();
+    }
+
+    public static RequestBody formBody() {
+        return new FormBody.Builder()
+                .add("name", "Tatpol")
+                .add("surname", "Samakpong")
+                .add("citizen_id", "1102003283576")
+                .add("birth_date", "2001/06/05")
+                .add("occupation", "Student")
+                .add("phone_number", "0970638897")
+                .add("is_risk", "false")
+                .add("address", "122/167")
+                .build();
+    }
+
+    public static HttpUrl encoderQuery() {
+        return encoder.queryUrl(CITIZEN);
+    }
+
+    public static byte[] encoderForm() {
+        return encoder.formBody(CITIZEN);
+    }
+
+    public static byte[] encoderJson() {
+        return encoder.jsonBody(CITIZEN);
+    }
+
+    public static Object userFreshGson() {
+        return new Gson().fromJson(USER_JSON, UserResponseBody.class);
+    }
+
+    public static Object userSharedGson() {
+        return gson.fromJson(USER_JSON, UserResponseBody.class);
+    }
+
+    public static Object userSharedAdapter() throws IOException {
+        return userAdapter.fromJson(USER_JSON);
+    }
+
+    public static Object registrationFreshGson() {
+        return new Gson().fromJson(REGISTRATION_JSON, RegistrationResponseBody.class);
+    }
+
+    public static Object registrationSharedGson() {
+        return gson.fromJson(REGISTRATION_JSON, RegistrationResponseBody.class);
+    }
+
+    public static Object registrationSharedAdapter() throws IOException {
+        return registrationAdapter.fromJson(REGISTRATION_JSON);
+    }
+
+    public static Object userSourceDecoder() throws IOException {
+        return ResponseDecoder.readUser(new Buffer().write(USER_BYTES));
+    }
+
+    public static Object registrationSourceDecoder() throws IOException {
+        return ResponseDecoder.readRegistration(new Buffer().write(REGISTRATION_BYTES));
+    }
+
+    public static boolean isRegistrationSuccessful() {
+        return registration.isRegistrationSuccessful();
+    }
+
+    public static boolean alreadyRegisteredContains() {
+        return ALREADY_REGISTERED.contains("already registered");
+    }
+
+    public static boolean alreadyRegisteredOutcome() {
+        return RegistrationOutcome.of(ALREADY_REGISTERED) == RegistrationOutcome.ALREADY_REGISTERED;
+    }
+}
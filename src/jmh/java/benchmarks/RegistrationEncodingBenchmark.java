@@ -0,0 +1,51 @@
+package benchmarks;
+
+import okhttp3.HttpUrl;
+import okhttp3.RequestBody;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of encoding one registration as query parameters with
+ * {@code UserRegistrationUrl.Builder} and as a form body with {@code FormBody.Builder}
+ * against {@code RegistrationEncoder} in its query, form and JSON modes
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrationEncodingBenchmark {
+    private static final MethodHandle QUERY_PARAMS = Workloads.find("queryParams", HttpUrl.class);
+    private static final MethodHandle FORM_BODY = Workloads.find("formBody", RequestBody.class);
+    private static final MethodHandle ENCODER_QUERY = Workloads.find("encoderQuery", HttpUrl.class);
+    private static final MethodHandle ENCODER_FORM = Workloads.find("encoderForm", byte[].class);
+    private static final MethodHandle ENCODER_JSON = Workloads.find("encoderJson", byte[].class);
+
+    @Benchmark
+    public HttpUrl queryParams() throws Throwable {
+        return (HttpUrl) QUERY_PARAMS.invokeExact();
+    }
+
+    @Benchmark
+    public RequestBody formBody() throws Throwable {
+        return (RequestBody) FORM_BODY.invokeExact();
+    }
+
+    @Benchmark
+    public HttpUrl encoderQuery() throws Throwable {
+        return (HttpUrl) ENCODER_QUERY.invokeExact();
+    }
+
+    @Benchmark
+    public byte[] encoderForm() throws Throwable {
+        return (byte[]) ENCODER_FORM.invokeExact();
+    }
+
+    @Benchmark
+    public byte[] encoderJson() throws Throwable {
+        return (byte[]) ENCODER_JSON.invokeExact();
+    }
+}
@@ -0,0 +1,92 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding response bodies with a fresh Gson per response, a
+ * shared Gson, a shared pre-resolved type adapter and the decoder reading
+ * the bytes of the body, and matching a feedback by text or by outcome
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseDecodingBenchmark {
+    private static final MethodHandle USER_FRESH_GSON = Workloads.find("userFreshGson", Object.class);
+    private static final MethodHandle USER_SHARED_GSON = Workloads.find("userSharedGson", Object.class);
+    private static final MethodHandle USER_SHARED_ADAPTER = Workloads.find("userSharedAdapter", Object.class);
+    private static final MethodHandle REGISTRATION_FRESH_GSON =
+            Workloads.find("registrationFreshGson", Object.class);
+    private static final MethodHandle REGISTRATION_SHARED_GSON =
+            Workloads.find("registrationSharedGson", Object.class);
+    private static final MethodHandle REGISTRATION_SHARED_ADAPTER =
+            Workloads.find("registrationSharedAdapter", Object.class);
+    private static final MethodHandle USER_SOURCE_DECODER = Workloads.find("userSourceDecoder", Object.class);
+    private static final MethodHandle REGISTRATION_SOURCE_DECODER =
+            Workloads.find("registrationSourceDecoder", Object.class);
+    private static final MethodHandle IS_REGISTRATION_SUCCESSFUL =
+            Workloads.find("isRegistrationSuccessful", boolean.class);
+    private static final MethodHandle ALREADY_REGISTERED_CONTAINS =
+            Workloads.find("alreadyRegisteredContains", boolean.class);
+    private static final MethodHandle ALREADY_REGISTERED_OUTCOME =
+            Workloads.find("alreadyRegisteredOutcome", boolean.class);
+
+    @Benchmark
+    public Object userFreshGson() throws Throwable {
+        return (Object) USER_FRESH_GSON.invokeExact();
+    }
+
+    @Benchmark
+    public Object userSharedGson() throws Throwable {
+        return (Object) USER_SHARED_GSON.invokeExact();
+    }
+
+    @Benchmark
+    public Object userSharedAdapter() throws Throwable {
+        return (Object) USER_SHARED_ADAPTER.invokeExact();
+    }
+
+    @Benchmark
+    public Object userSourceDecoder() throws Throwable {
+        return (Object) USER_SOURCE_DECODER.invokeExact();
+    }
+
+    @Benchmark
+    public Object registrationFreshGson() throws Throwable {
+        return (Object) REGISTRATION_FRESH_GSON.invokeExact();
+    }
+
+    @Benchmark
+    public Object registrationSharedGson() throws Throwable {
+        return (Object) REGISTRATION_SHARED_GSON.invokeExact();
+    }
+
+    @Benchmark
+    public Object registrationSharedAdapter() throws Throwable {
+        return (Object) REGISTRATION_SHARED_ADAPTER.invokeExact();
+    }
+
+    @Benchmark
+    public Object registrationSourceDecoder() throws Throwable {
+        return (Object) REGISTRATION_SOURCE_DECODER.invokeExact();
+    }
+
+    @Benchmark
+    public boolean isRegistrationSuccessful() throws Throwable {
+        return (boolean) IS_REGISTRATION_SUCCESSFUL.invokeExact();
+    }
+
+    @Benchmark
+    public boolean alreadyRegisteredContains() throws Throwable {
+        return (boolean) ALREADY_REGISTERED_CONTAINS.invokeExact();
+    }
+
+    @Benchmark
+    public boolean alreadyRegisteredOutcome() throws Throwable {
+        return (boolean) ALREADY_REGISTERED_OUTCOME.invokeExact();
+    }
+}
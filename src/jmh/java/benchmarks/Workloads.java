@@ -0,0 +1,26 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Resolves the operations of {@code BenchmarkWorkloads}, which lives in the
+ * default package with the code under test. Handles stored in static final
+ * fields are constant-folded by the JIT, so calling them costs the same as
+ * a direct call.
+ */
+final class Workloads {
+    private Workloads() {
+    }
+
+    static MethodHandle find(String name, Class<?> returnType) {
+        try {
+            Class<?> workloads = Class.forName("BenchmarkWorkloads");
+            return MethodHandles.publicLookup()
+                    .findStatic(workloads, name, MethodType.methodType(returnType));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
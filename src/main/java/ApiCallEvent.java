@@ -0,0 +1,66 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event describing the phases of one API call, emitted by
+ * {@link CallMetrics} when created with JFR events enabled. Phases that did
+ * not happen, e.g. DNS on a pooled connection, are recorded as 0.
+ */
+@Name("vaccine.api.Call")
+@Label("API Call")
+@Category({"Vaccine API"})
+@Description("Phases of an HTTP call to World Class Government API")
+@StackTrace(false)
+public class ApiCallEvent extends Event {
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Status")
+    String status;
+
+    @Label("DNS")
+    @Timespan(Timespan.NANOSECONDS)
+    long dns;
+
+    @Label("Connect")
+    @Timespan(Timespan.NANOSECONDS)
+    long connect;
+
+    @Label("TLS")
+    @Timespan(Timespan.NANOSECONDS)
+    long tls;
+
+    @Label("Time To First Byte")
+    @Timespan(Timespan.NANOSECONDS)
+    long ttfb;
+
+    @Label("Body Read")
+    @Timespan(Timespan.NANOSECONDS)
+    long bodyRead;
+
+    @Label("Total")
+    @Timespan(Timespan.NANOSECONDS)
+    long total;
+
+    static void emit(String endpoint, String status, long dns, long connect, long tls,
+                     long ttfb, long bodyRead, long total) {
+        ApiCallEvent event = new ApiCallEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.endpoint = endpoint;
+        event.status = status;
+        event.dns = Math.max(0, dns);
+        event.connect = Math.max(0, connect);
+        event.tls = Math.max(0, tls);
+        event.ttfb = Math.max(0, ttfb);
+        event.bodyRead = Math.max(0, bodyRead);
+        event.total = total;
+        event.commit();
+    }
+}
@@ -0,0 +1,354 @@
+import okhttp3.HttpUrl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Deletes many registrations concurrently, with a bounded number of
+ * deletions in flight.
+ *
+ * Every response is released on the dispatcher thread that received it,
+ * so a purge cannot exhaust the connection pool. A citizen that is not
+ * registered counts as purged. With verification, each deletion is
+ * followed by a lookup that bypasses the lookup cache, holding the same
+ * slot, and a citizen the server still returns is reported.
+ *
+ * Usage: {@code BulkPurge <baseUrl|stand-in> <firstId>-<lastId>|<file of ids> [verify]}
+ */
+public class BulkPurge {
+    public enum Outcome {
+        /**
+         * The deletion request failed or was refused with another status than 404
+         */
+        FAILED,
+        /**
+         * The server acknowledged the deletion but still returns the citizen
+         */
+        STILL_PRESENT,
+        /**
+         * The follow-up lookup failed, so the deletion is unconfirmed
+         */
+        UNVERIFIED
+    }
+
+    /**
+     * Citizen the purge could not be sure to have removed
+     */
+    public static class Failure {
+        private final String citizenId;
+        private final Outcome outcome;
+        private final IOException error;
+
+        Failure(String citizenId, Outcome outcome, IOException error) {
+            this.citizenId = citizenId;
+            this.outcome = outcome;
+            this.error = error;
+        }
+
+        public String citizenId() {
+            return citizenId;
+        }
+
+        public Outcome outcome() {
+            return outcome;
+        }
+
+        /**
+         * @return error of the failed request, or null if the citizen is still present
+         */
+        public IOException error() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return outcome + " " + citizenId + (error != null ? ": " + error : "");
+        }
+    }
+
+    /**
+     * Counters of one purge
+     */
+    public static class Report {
+        private final LongAdder deleted = new LongAdder();
+        private final LongAdder notFound = new LongAdder();
+        private final LongAdder verified = new LongAdder();
+        private final LongAdder[] failures = new LongAdder[Outcome.values().length];
+        private final long startNanos = System.nanoTime();
+        private volatile long elapsedNanos;
+
+        Report() {
+            for (int i = 0; i < failures.length; i++) {
+                failures[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @return citizens deleted by this purge
+         */
+        public long deleted() {
+            return deleted.sum();
+        }
+
+        /**
+         * @return citizens that were not registered
+         */
+        public long notFound() {
+            return notFound.sum();
+        }
+
+        /**
+         * @return citizens a follow-up lookup confirmed absent
+         */
+        public long verified() {
+            return verified.sum();
+        }
+
+        public long count(Outcome outcome) {
+            return failures[outcome.ordinal()].sum();
+        }
+
+        /**
+         * @return citizens processed, whatever the outcome
+         */
+        public long processed() {
+            return deleted() + notFound() + count(Outcome.FAILED);
+        }
+
+        /**
+         * @return duration of the purge, up to now while it runs
+         */
+        public long elapsedNanos() {
+            return elapsedNanos > 0 ? elapsedNanos : System.nanoTime() - startNanos;
+        }
+
+        /**
+         * @return citizens processed per second
+         */
+        public double throughput() {
+            return processed() * 1e9 / Math.max(1, elapsedNanos());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("deleted=%d not_found=%d failed=%d verified=%d still_present=%d unverified=%d"
+                            + " seconds=%.1f per_second=%.0f",
+                    deleted(), notFound(), count(Outcome.FAILED), verified(), count(Outcome.STILL_PRESENT),
+                    count(Outcome.UNVERIFIED), elapsedNanos() / 1e9, throughput());
+        }
+    }
+
+    private final VaccineApiClient api;
+    private final int maxInFlight;
+    private final boolean verify;
+
+    private BulkPurge(Builder builder) {
+        api = builder.api;
+        maxInFlight = builder.maxInFlight;
+        verify = builder.verify;
+    }
+
+    /**
+     * Delete every citizen of the iterator. The calling thread pulls ids
+     * and blocks whenever the in-flight limit is reached, so the ids are
+     * never materialized in memory. A sink throwing stops the purge, which
+     * then fails with an {@link IllegalStateException} once the deletions
+     * in flight have an outcome.
+     *
+     * @param citizenIds ids to delete
+     * @param sink       receives the failures from the dispatcher threads,
+     *                   so it must be thread-safe
+     * @return counters of the purge, once every deletion has an outcome
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public Report run(Iterator<String> citizenIds, Consumer<Failure> sink) throws InterruptedException {
+        Report report = new Report();
+        InFlightWindow window = new InFlightWindow(maxInFlight);
+        CompletableFuture<Void> done;
+        try {
+            while (!window.isFailed() && citizenIds.hasNext()) {
+                String citizenId = citizenIds.next();
+                window.submit(() -> purge(citizenId, report, sink), (ignored, error) -> {
+                    // the purge handles every failure of the api, so this is the sink's
+                    if (error != null) {
+                        throw error instanceof CompletionException
+                                ? (CompletionException) error
+                                : new CompletionException(error);
+                    }
+                });
+            }
+        } finally {
+            done = window.finish();
+        }
+        try {
+            done.get();
+        } catch (ExecutionException e) {
+            // only a failing sink gets here
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            report.elapsedNanos = System.nanoTime() - report.startNanos;
+        }
+        return report;
+    }
+
+    private CompletableFuture<Void> purge(String citizenId, Report report, Consumer<Failure> sink) {
+        return api.deleteUserAsync(citizenId).handle((ignored, error) -> {
+            if (error == null) {
+                report.deleted.increment();
+                return true;
+            }
+            IOException cause = VaccineApiClient.asIOException(error);
+            if (cause instanceof VaccineApiException && ((VaccineApiException) cause).code() == 404) {
+                report.notFound.increment();
+                return true;
+            }
+            fail(report, sink, new Failure(citizenId, Outcome.FAILED, cause));
+            return false;
+        }).thenCompose(purged -> {
+            if (!purged || !verify) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return api.fetchUserAsync(citizenId).handle((user, error) -> {
+                if (error != null) {
+                    fail(report, sink,
+                            new Failure(citizenId, Outcome.UNVERIFIED, VaccineApiClient.asIOException(error)));
+                } else if (user != null && citizenId.equals(user.getCitizenId())) {
+                    fail(report, sink, new Failure(citizenId, Outcome.STILL_PRESENT, null));
+                } else {
+                    report.verified.increment();
+                }
+                return null;
+            });
+        });
+    }
+
+    private static void fail(Report report, Consumer<Failure> sink, Failure failure) {
+        report.failures[failure.outcome().ordinal()].increment();
+        sink.accept(failure);
+    }
+
+    /**
+     * Every citizen id between two ids, both included
+     *
+     * @param first first id of the range, 13 digits
+     * @param last  last id of the range, 13 digits
+     */
+    public static Iterator<String> range(String first, String last) {
+        return range(first, last, false);
+    }
+
+    /**
+     * Citizen ids between two ids, both included
+     *
+     * @param first      first id of the range, 13 digits
+     * @param last       last id of the range, 13 digits
+     * @param checkDigit true to only yield the ids with a valid check digit,
+     *                   one in ten, when every registration was validated
+     *                   with {@link RegistrationValidator#hasValidCheckDigit}
+     */
+    public static Iterator<String> range(String first, String last, boolean checkDigit) {
+        // with check digits only, iterate over the 12-digit prefixes
+        long from = checkDigit ? digits(first) / 10 : digits(first);
+        long to = checkDigit ? digits(last) / 10 : digits(last);
+        return new Iterator<String>() {
+            private long next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next <= to;
+            }
+
+            @Override
+            public String next() {
+                if (next > to) {
+                    throw new NoSuchElementException();
+                }
+                long id = next++;
+                return checkDigit ? RegistrationValidator.withCheckDigit(id) : String.format("%013d", id);
+            }
+        };
+    }
+
+    private static long digits(String citizenId) {
+        if (citizenId.length() != 13 || !citizenId.chars().allMatch(Character::isDigit)) {
+            throw new IllegalArgumentException("citizen id must have 13 digits: " + citizenId);
+        }
+        return Long.parseLong(citizenId);
+    }
+
+    public static class Builder {
+        private final VaccineApiClient api;
+        private int maxInFlight = 64;
+        private boolean verify;
+
+        /**
+         * @param api client used to delete the citizens
+         */
+        public Builder(VaccineApiClient api) {
+            this.api = api;
+        }
+
+        /**
+         * Maximum number of deletions awaiting an outcome, keep it below
+         * the dispatcher's maximum number of requests per host
+         */
+        public Builder maxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight < 1: " + maxInFlight);
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Whether each deletion is confirmed by a lookup, disabled by default
+         */
+        public Builder verify(boolean verify) {
+            this.verify = verify;
+            return this;
+        }
+
+        public BulkPurge build() {
+            return new BulkPurge(this);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: BulkPurge <baseUrl|stand-in> <firstId>-<lastId>|<file of ids> [verify]");
+            System.exit(2);
+        }
+        StandInServer standIn = args[0].equals("stand-in") ? new StandInServer(new StandInApi(), 0) : null;
+        try (VaccineApiClient api = new VaccineApiClient.Builder()
+                .baseUrl(standIn != null ? standIn.url() : HttpUrl.get(args[0]))
+                .build()) {
+            BulkPurge purge = new Builder(api)
+                    .verify(args.length > 2 && args[2].equals("verify"))
+                    .build();
+            Report report;
+            if (args[1].matches("\\d{13}-\\d{13}")) {
+                report = purge.run(range(args[1].substring(0, 13), args[1].substring(14)), System.out::println);
+            } else {
+                try (Stream<String> lines = Files.lines(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+                    report = purge.run(lines.map(String::trim).filter(line -> !line.isEmpty()).iterator(),
+                            System.out::println);
+                }
+            }
+            System.err.println(report);
+        } finally {
+            if (standIn != null) {
+                standIn.close();
+            }
+        }
+    }
+}
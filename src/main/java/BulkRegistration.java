@@ -0,0 +1,69 @@
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Registers a stream of citizens concurrently through the asynchronous
+ * calls of {@link VaccineApiClient}, keeping at most a fixed number of
+ * requests in flight.
+ */
+public class BulkRegistration {
+    private final VaccineApiClient api;
+    private final int maxInFlight;
+
+    /**
+     * @param api         client used to send the registrations
+     * @param maxInFlight maximum number of registrations awaiting an answer
+     */
+    public BulkRegistration(VaccineApiClient api, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight < 1: " + maxInFlight);
+        }
+        this.api = api;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Submit every citizen of the stream. The calling thread pulls records
+     * and blocks whenever the in-flight limit is reached, so the stream is
+     * never materialized in memory.
+     *
+     * @param citizens records to register
+     * @param sink     receives one result per record from the dispatcher
+     *                 threads, so it must be thread-safe
+     * @return future completed once every submitted record has a result,
+     *         or failed with the first exception thrown by the sink, which
+     *         stops the submission of further records
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public CompletableFuture<Void> registerAll(Stream<Citizen> citizens, Consumer<RegistrationResult> sink)
+            throws InterruptedException {
+        return registerAll(citizens.iterator(), sink);
+    }
+
+    /**
+     * @see #registerAll(Stream, Consumer)
+     */
+    public CompletableFuture<Void> registerAll(Iterator<Citizen> citizens, Consumer<RegistrationResult> sink)
+            throws InterruptedException {
+        InFlightWindow window = new InFlightWindow(maxInFlight);
+        CompletableFuture<Void> done;
+        try {
+            while (!window.isFailed() && citizens.hasNext()) {
+                Citizen citizen = citizens.next();
+                window.submit(() -> api.registerAsync(citizen), (response, error) ->
+                        sink.accept(error == null
+                                ? RegistrationResult.success(citizen, response)
+                                : RegistrationResult.failure(citizen, VaccineApiClient.asIOException(error))));
+            }
+        } finally {
+            done = window.finish();
+        }
+        return done;
+    }
+}
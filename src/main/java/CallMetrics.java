@@ -0,0 +1,367 @@
+import com.google.gson.stream.JsonWriter;
+import okhttp3.*;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Per-phase timings of HTTP calls, tagged by endpoint and status code.
+ *
+ * Install it with {@link VaccineApiClient.Builder#metrics}: it listens to
+ * OkHttp call events and records DNS, connect, TLS, request write, time to
+ * first byte, body read and total time of every call in histograms that
+ * can be recorded into without locking. {@link VaccineApiClient} adds the
+ * Gson decode time. Snapshots are exported in Prometheus text format or
+ * JSON, together with gauges such as the limit of a
+ * {@link ConcurrencyLimiter}, and every call can also be emitted as a JFR
+ * event.
+ */
+public class CallMetrics implements EventListener.Factory {
+    public enum Phase {
+        DNS, CONNECT, TLS, REQUEST_WRITE, TTFB, BODY_READ, DECODE, TOTAL;
+
+        private final String label = name().toLowerCase(Locale.ROOT);
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private final ConcurrentMap<String, Histogram[]> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final boolean jfrEvents;
+
+    public CallMetrics() {
+        this(false);
+    }
+
+    /**
+     * @param jfrEvents whether every call is also emitted as an {@link ApiCallEvent}
+     */
+    public CallMetrics(boolean jfrEvents) {
+        this.jfrEvents = jfrEvents;
+    }
+
+    @Override
+    public EventListener create(Call call) {
+        return new Listener(endpoint(call.request()));
+    }
+
+    /**
+     * Map a request to a bounded set of endpoint names
+     */
+    static String endpoint(Request request) {
+        List<String> segments = request.url().pathSegments();
+        String path;
+        if (segments.size() == 2 && segments.get(0).equals("registration") && !segments.get(1).isEmpty()) {
+            path = "/registration/{citizen_id}";
+        } else if (segments.size() == 1 && segments.get(0).equals("registration")) {
+            path = "/registration";
+        } else if (segments.size() == 1 && segments.get(0).equals("reservations")) {
+            path = "/reservations";
+        } else {
+            path = "other";
+        }
+        return request.method() + " " + path;
+    }
+
+    /**
+     * Record one phase of a call
+     *
+     * @param endpoint name returned by {@link #endpoint(Request)}
+     * @param status   HTTP status code, or "error" if the call failed
+     */
+    public void record(String endpoint, String status, Phase phase, long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        histograms(endpoint + " " + status)[phase.ordinal()].recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Record the time spent decoding a response body
+     */
+    void recordDecode(Response response, long nanos) {
+        record(endpoint(response.request()), String.valueOf(response.code()), Phase.DECODE, nanos);
+    }
+
+    private Histogram[] histograms(String key) {
+        Histogram[] phases = histograms.get(key);
+        if (phases == null) {
+            phases = histograms.computeIfAbsent(key, k -> {
+                Histogram[] created = new Histogram[Phase.values().length];
+                for (int i = 0; i < created.length; i++) {
+                    created[i] = new ConcurrentHistogram(3);
+                }
+                return created;
+            });
+        }
+        return phases;
+    }
+
+    /**
+     * Export a value sampled at snapshot time, replacing any gauge of the
+     * same name
+     *
+     * @param name Prometheus metric name
+     * @param help description of the metric
+     */
+    public void gauge(String name, String help, DoubleSupplier value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * @return current value of a gauge, or NaN if no gauge has that name
+     */
+    public double gaugeValue(String name) {
+        Gauge gauge = gauges.get(name);
+        return gauge == null ? Double.NaN : gauge.value.getAsDouble();
+    }
+
+    /**
+     * @return latencies in microseconds of a phase, or null if nothing was recorded
+     */
+    public Histogram histogram(String endpoint, String status, Phase phase) {
+        Histogram[] phases = histograms.get(endpoint + " " + status);
+        return phases == null ? null : phases[phase.ordinal()];
+    }
+
+    /**
+     * Write a snapshot as Prometheus summaries, in seconds
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        for (Map.Entry<String, Gauge> entry : new TreeMap<>(gauges).entrySet()) {
+            out.write("# HELP " + entry.getKey() + " " + entry.getValue().help + "\n");
+            out.write("# TYPE " + entry.getKey() + " gauge\n");
+            out.write(String.format(Locale.ROOT, "%s %s%n", entry.getKey(), entry.getValue().value.getAsDouble()));
+        }
+        out.write("# HELP vaccine_api_call_phase_seconds Duration of each phase of API calls\n");
+        out.write("# TYPE vaccine_api_call_phase_seconds summary\n");
+        for (Map.Entry<String, Histogram[]> entry : new TreeMap<>(histograms).entrySet()) {
+            int split = entry.getKey().lastIndexOf(' ');
+            String endpoint = entry.getKey().substring(0, split);
+            String status = entry.getKey().substring(split + 1);
+            for (Phase phase : Phase.values()) {
+                Histogram histogram = entry.getValue()[phase.ordinal()].copy();
+                if (histogram.getTotalCount() == 0) {
+                    continue;
+                }
+                String labels = "endpoint=\"" + endpoint + "\",status=\"" + status + "\",phase=\"" + phase.label() + "\"";
+                for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+                    out.write(String.format(Locale.ROOT, "vaccine_api_call_phase_seconds{%s,quantile=\"%s\"} %.6f%n",
+                            labels, quantile, histogram.getValueAtPercentile(quantile * 100) / 1e6));
+                }
+                out.write(String.format(Locale.ROOT, "vaccine_api_call_phase_seconds_sum{%s} %.6f%n",
+                        labels, histogram.getMean() * histogram.getTotalCount() / 1e6));
+                out.write(String.format(Locale.ROOT, "vaccine_api_call_phase_seconds_count{%s} %d%n",
+                        labels, histogram.getTotalCount()));
+            }
+        }
+    }
+
+    /**
+     * Replace the file with a Prometheus snapshot, atomically so that a
+     * textfile collector never reads a partial file
+     */
+    public void writePrometheus(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writePrometheus(out);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write a snapshot as JSON, in milliseconds, keyed by endpoint and
+     * status then by phase, after the gauges keyed by name
+     */
+    public void writeJson(Writer out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent("  ");
+        writer.beginObject();
+        for (Map.Entry<String, Gauge> entry : new TreeMap<>(gauges).entrySet()) {
+            writer.name(entry.getKey()).value(entry.getValue().value.getAsDouble());
+        }
+        for (Map.Entry<String, Histogram[]> entry : new TreeMap<>(histograms).entrySet()) {
+            writer.name(entry.getKey()).beginObject();
+            for (Phase phase : Phase.values()) {
+                Histogram histogram = entry.getValue()[phase.ordinal()].copy();
+                if (histogram.getTotalCount() == 0) {
+                    continue;
+                }
+                writer.name(phase.label()).beginObject()
+                        .name("count").value(histogram.getTotalCount())
+                        .name("p50").value(histogram.getValueAtPercentile(50) / 1e3)
+                        .name("p99").value(histogram.getValueAtPercentile(99) / 1e3)
+                        .name("p99.9").value(histogram.getValueAtPercentile(99.9) / 1e3)
+                        .name("max").value(histogram.getMaxValue() / 1e3)
+                        .endObject();
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
+    private static class Gauge {
+        private final String help;
+        private final DoubleSupplier value;
+
+        Gauge(String help, DoubleSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Timestamps of one call. OkHttp delivers the events of a call
+     * sequentially, so no synchronization is needed.
+     */
+    private class Listener extends EventListener {
+        private final String endpoint;
+        private String status = "error";
+        private long callStart;
+        private long dnsStart;
+        private long dns = -1;
+        private long connectStart;
+        private long secureConnectStart;
+        private long connect = -1;
+        private long tls = -1;
+        private long requestStart;
+        private long requestEnd;
+        private long responseStart;
+        private long bodyStart;
+        private long bodyRead = -1;
+
+        Listener(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            dns = System.nanoTime() - dnsStart;
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStart = System.nanoTime();
+            secureConnectStart = 0;
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = System.nanoTime();
+            connect = secureConnectStart - connectStart;
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            tls = System.nanoTime() - secureConnectStart;
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            if (secureConnectStart == 0) {
+                connect = System.nanoTime() - connectStart;
+            }
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            requestStart = System.nanoTime();
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            requestEnd = System.nanoTime();
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            requestEnd = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            responseStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            status = String.valueOf(response.code());
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            bodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            bodyRead = System.nanoTime() - bodyStart;
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            finish();
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            status = "error";
+            finish();
+        }
+
+        private void finish() {
+            long total = System.nanoTime() - callStart;
+            Histogram[] phases = histograms(endpoint + " " + status);
+            recordInto(phases, Phase.DNS, dns);
+            recordInto(phases, Phase.CONNECT, connect);
+            recordInto(phases, Phase.TLS, tls);
+            if (requestEnd > 0) {
+                recordInto(phases, Phase.REQUEST_WRITE, requestEnd - requestStart);
+            }
+            if (responseStart > 0) {
+                recordInto(phases, Phase.TTFB, responseStart - requestEnd);
+            }
+            recordInto(phases, Phase.BODY_READ, bodyRead);
+            recordInto(phases, Phase.TOTAL, total);
+            if (jfrEvents) {
+                ApiCallEvent.emit(endpoint, status, dns, connect, tls, responseStart - requestEnd, bodyRead, total);
+            }
+        }
+
+        private void recordInto(Histogram[] phases, Phase phase, long nanos) {
+            if (nanos >= 0) {
+                phases[phase.ordinal()].recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+            }
+        }
+    }
+}
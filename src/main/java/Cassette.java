@@ -0,0 +1,446 @@
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * File of recorded HTTP exchanges, written by a recording
+ * {@link CassetteInterceptor} and served back by a replaying one.
+ *
+ * The file starts with the magic {@code VCAS} and a format version, then
+ * holds one entry per exchange:
+ * <pre>
+ * int    length of the rest of the entry
+ * long   start of the exchange, in nanoseconds since the recording started
+ * long   duration of the exchange in nanoseconds
+ * short  status code
+ * short  key length, then the key in UTF-8
+ * short  content type length, then the content type in UTF-8
+ * int    headers length, then the response headers in UTF-8, one
+ *        {@code name: value} line each
+ * int    body length, then the body
+ * </pre>
+ * A cassette opened for replay is memory-mapped and only an index of
+ * entry offsets is kept on the heap; bodies are copied out on demand.
+ */
+public class Cassette implements Closeable {
+    private static final int MAGIC = 0x56434153;
+    private static final int VERSION = 2;
+    // response headers that describe the recorded transfer rather than the answer
+    private static final List<String> TRANSFER_HEADERS = List.of(
+            "connection", "content-encoding", "content-length", "content-type", "keep-alive", "transfer-encoding");
+    // request headers that change the answer, so they are part of the key
+    private static final List<String> CONDITIONAL_HEADERS = List.of("If-None-Match", "If-Modified-Since");
+    private static final long NOT_REPLAYED = Long.MIN_VALUE;
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * One recorded exchange
+     */
+    public static class Exchange {
+        private final String key;
+        private final long startNanos;
+        private final long durationNanos;
+        private final int code;
+        private final String contentType;
+        private final Headers headers;
+        private final byte[] body;
+
+        public Exchange(String key, long startNanos, long durationNanos, int code, String contentType,
+                        Headers headers, byte[] body) {
+            this.key = key;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.code = code;
+            this.contentType = contentType;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * @return what the request is matched on, see {@link Cassette#key(Request)}
+         */
+        public String key() {
+            return key;
+        }
+
+        public long startNanos() {
+            return startNanos;
+        }
+
+        public long durationNanos() {
+            return durationNanos;
+        }
+
+        public int code() {
+            return code;
+        }
+
+        /**
+         * @return content type of the response, empty if it had none
+         */
+        public String contentType() {
+            return contentType;
+        }
+
+        /**
+         * @return headers of the response, such as its ETag, without those
+         *         describing how it was transferred
+         */
+        public Headers headers() {
+            return headers;
+        }
+
+        public byte[] body() {
+            return body;
+        }
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer;
+    private final long startNanos;
+    private final MappedByteBuffer mapped;
+    private final Map<String, int[]> offsets;
+    private final Map<String, AtomicInteger> cursors;
+    private final int size;
+    private final AtomicLong replayOrigin = new AtomicLong(NOT_REPLAYED);
+    private int recorded;
+
+    private Cassette(FileChannel channel) {
+        this.channel = channel;
+        this.writeBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        this.startNanos = System.nanoTime();
+        this.mapped = null;
+        this.offsets = null;
+        this.cursors = null;
+        this.size = 0;
+    }
+
+    private Cassette(FileChannel channel, MappedByteBuffer mapped) throws IOException {
+        this.channel = channel;
+        this.writeBuffer = null;
+        this.startNanos = 0;
+        this.mapped = mapped;
+        if (mapped.remaining() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+            throw new IOException("not a cassette");
+        }
+        if (mapped.getInt(4) != VERSION) {
+            throw new IOException("unsupported cassette version " + mapped.getInt(4));
+        }
+        Map<String, List<Integer>> positions = new HashMap<>();
+        int count = 0;
+        int position = HEADER_SIZE;
+        while (position + 4 <= mapped.limit()) {
+            int length = mapped.getInt(position);
+            if (length <= 0 || position + 4 + length > mapped.limit()) {
+                // torn tail of an interrupted recording
+                break;
+            }
+            positions.computeIfAbsent(readKey(position), k -> new ArrayList<>()).add(position);
+            position += 4 + length;
+            count++;
+        }
+        offsets = new HashMap<>();
+        cursors = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+            offsets.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+            cursors.put(entry.getKey(), new AtomicInteger());
+        }
+        size = count;
+    }
+
+    /**
+     * Create an empty cassette to record into, replacing the file
+     */
+    public static Cassette create(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        Cassette cassette = new Cassette(channel);
+        cassette.writeBuffer.putInt(MAGIC).putInt(VERSION);
+        return cassette;
+    }
+
+    /**
+     * Open a recorded cassette for replay
+     */
+    public static Cassette open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("cassette larger than 2 GB: " + file);
+            }
+            return new Cassette(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Key a request is recorded and matched under: method, path, then the
+     * query parameters merged with the fields of a form or JSON body,
+     * sorted by name so that the order they were sent in does not matter,
+     * then the conditional headers
+     */
+    public static String key(Request request) throws IOException {
+        Map<String, String> params = new TreeMap<>();
+        for (String name : request.url().queryParameterNames()) {
+            params.put(name, request.url().queryParameter(name));
+        }
+        RequestBody body = request.body();
+        if (body != null && body.contentLength() != 0) {
+            Buffer content = new Buffer();
+            body.writeTo(content);
+            putBodyFields(body.contentType(), content.readUtf8(), params);
+        }
+        StringBuilder key = new StringBuilder(request.method()).append(' ').append(request.url().encodedPath());
+        char separator = '?';
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            key.append(separator).append(param.getKey()).append('=').append(param.getValue());
+            separator = '&';
+        }
+        for (String name : CONDITIONAL_HEADERS) {
+            String value = request.header(name);
+            if (value != null) {
+                key.append(' ').append(name).append(": ").append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Merge the fields of a form or JSON body. A JSON field is named by its
+     * path, e.g. {@code [0].name} in a batch, and any other body is kept
+     * whole under the empty name.
+     */
+    private static void putBodyFields(MediaType contentType, String content, Map<String, String> params) {
+        String subtype = contentType != null ? contentType.subtype() : "";
+        if (subtype.equals("x-www-form-urlencoded")) {
+            for (String pair : content.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+            return;
+        }
+        if (subtype.equals("json")) {
+            try {
+                putJsonFields("", JsonParser.parseString(content), params);
+                return;
+            } catch (JsonParseException e) {
+                // matched on the raw body below
+            }
+        }
+        params.put("", content);
+    }
+
+    private static void putJsonFields(String path, JsonElement element, Map<String, String> params) {
+        if (element.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> field : element.getAsJsonObject().entrySet()) {
+                putJsonFields(path.isEmpty() ? field.getKey() : path + "." + field.getKey(), field.getValue(), params);
+            }
+        } else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            for (int i = 0; i < array.size(); i++) {
+                putJsonFields(path + "[" + i + "]", array.get(i), params);
+            }
+        } else if (!element.isJsonNull()) {
+            params.put(path, element.getAsString());
+        }
+    }
+
+    /**
+     * Keep the headers of a response worth replaying
+     */
+    static Headers replayedHeaders(Headers headers) {
+        Headers.Builder kept = new Headers.Builder();
+        for (int i = 0; i < headers.size(); i++) {
+            if (!TRANSFER_HEADERS.contains(headers.name(i).toLowerCase(Locale.ROOT))) {
+                kept.addUnsafeNonAscii(headers.name(i), headers.value(i));
+            }
+        }
+        return kept.build();
+    }
+
+    /**
+     * @return nanoseconds since the recording started
+     */
+    long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Append an exchange to a cassette being recorded
+     */
+    public synchronized void append(Exchange exchange) throws IOException {
+        if (writeBuffer == null) {
+            throw new IllegalStateException("cassette opened for replay");
+        }
+        byte[] key = exchange.key.getBytes(StandardCharsets.UTF_8);
+        byte[] contentType = exchange.contentType.getBytes(StandardCharsets.UTF_8);
+        if (key.length > Short.MAX_VALUE || contentType.length > Short.MAX_VALUE) {
+            throw new IOException("request key too long to record: " + exchange.key);
+        }
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < exchange.headers.size(); i++) {
+            lines.append(exchange.headers.name(i)).append(": ").append(exchange.headers.value(i)).append('\n');
+        }
+        byte[] headers = lines.toString().getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 8 + 2 + 2 + key.length + 2 + contentType.length + 4 + headers.length + 4
+                + exchange.body.length;
+        ByteBuffer entry = 4 + length <= writeBuffer.capacity() ? writeBuffer : ByteBuffer.allocate(4 + length);
+        if (entry.remaining() < 4 + length) {
+            flushBuffer();
+        }
+        entry.putInt(length)
+                .putLong(exchange.startNanos)
+                .putLong(exchange.durationNanos)
+                .putShort((short) exchange.code)
+                .putShort((short) key.length).put(key)
+                .putShort((short) contentType.length).put(contentType)
+                .putInt(headers.length).put(headers)
+                .putInt(exchange.body.length).put(exchange.body);
+        if (entry != writeBuffer) {
+            flushBuffer();
+            entry.flip();
+            while (entry.hasRemaining()) {
+                channel.write(entry);
+            }
+        }
+        recorded++;
+    }
+
+    private void flushBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Take the next exchange recorded under a key. Exchanges recorded
+     * under the same key are served in the order they were recorded, the
+     * last one being repeated once they are exhausted.
+     *
+     * @return the exchange, or null if nothing was recorded under the key
+     */
+    public Exchange next(String key) {
+        if (mapped == null) {
+            throw new IllegalStateException("cassette opened for recording");
+        }
+        int[] positions = offsets.get(key);
+        if (positions == null) {
+            return null;
+        }
+        int index = Math.min(cursors.get(key).getAndIncrement(), positions.length - 1);
+        return read(positions[index]);
+    }
+
+    /**
+     * Restart every key from its first exchange, and the clock of a timed
+     * replay
+     */
+    public void rewind() {
+        if (cursors != null) {
+            cursors.values().forEach(cursor -> cursor.set(0));
+        }
+        replayOrigin.set(NOT_REPLAYED);
+    }
+
+    /**
+     * Time a timed replay waits before answering an exchange. The replay
+     * clock starts at the first exchange replayed since the cassette was
+     * opened or rewound; no exchange is answered before its recorded
+     * offset from there, and each one lasts at least its recorded duration.
+     *
+     * @return nanoseconds to wait from now
+     */
+    long replayDelayNanos(Exchange exchange) {
+        long now = System.nanoTime();
+        replayOrigin.compareAndSet(NOT_REPLAYED, now - exchange.startNanos);
+        long start = Math.max(now, replayOrigin.get() + exchange.startNanos);
+        return start - now + exchange.durationNanos;
+    }
+
+    /**
+     * @return number of exchanges recorded so far, or in the replayed file
+     */
+    public synchronized int size() {
+        return mapped != null ? size : recorded;
+    }
+
+    private String readKey(int position) {
+        int keyLength = mapped.getShort(position + 22);
+        return string(position + 24, keyLength);
+    }
+
+    private Exchange read(int position) {
+        int keyLength = mapped.getShort(position + 22);
+        int contentTypePosition = position + 24 + keyLength;
+        int contentTypeLength = mapped.getShort(contentTypePosition);
+        int headersPosition = contentTypePosition + 2 + contentTypeLength;
+        int headersLength = mapped.getInt(headersPosition);
+        Headers.Builder headers = new Headers.Builder();
+        for (String line : string(headersPosition + 4, headersLength).split("\n")) {
+            int colon = line.indexOf(": ");
+            if (colon > 0) {
+                headers.addUnsafeNonAscii(line.substring(0, colon), line.substring(colon + 2));
+            }
+        }
+        int bodyPosition = headersPosition + 4 + headersLength;
+        byte[] body = new byte[mapped.getInt(bodyPosition)];
+        mapped.get(bodyPosition + 4, body);
+        return new Exchange(
+                string(position + 24, keyLength),
+                mapped.getLong(position + 4),
+                mapped.getLong(position + 12),
+                mapped.getShort(position + 20),
+                string(contentTypePosition + 2, contentTypeLength),
+                headers.build(),
+                body);
+    }
+
+    private String string(int position, int length) {
+        byte[] bytes = new byte[length];
+        mapped.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (writeBuffer != null) {
+                flushBuffer();
+                channel.force(false);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the exchanges of the registration and reservations endpoints
+ * into a {@link Cassette}, or answers them from one without touching the
+ * network.
+ *
+ * Installed with {@link VaccineApiClient.Builder#cassette} ahead of every
+ * other interceptor, so a recording holds the responses the caller saw
+ * after retries and a replay skips throttling and retries altogether.
+ * Replay serves responses at full speed, or on the recorded schedule, each
+ * after its recorded gap from the first one and its recorded duration, to
+ * reproduce the pacing and latency of the recorded traffic.
+ */
+public class CassetteInterceptor implements Interceptor {
+    public enum Mode {
+        RECORD, REPLAY, REPLAY_TIMED
+    }
+
+    private final Cassette cassette;
+    private final Mode mode;
+
+    /**
+     * @param cassette created with {@link Cassette#create} to record, or
+     *                 opened with {@link Cassette#open} to replay
+     */
+    public CassetteInterceptor(Cassette cassette, Mode mode) {
+        this.cassette = cassette;
+        this.mode = mode;
+    }
+
+    public Cassette cassette() {
+        return cassette;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!isApiRoute(request.url())) {
+            return chain.proceed(request);
+        }
+        return mode == Mode.RECORD ? record(chain, request) : replay(request);
+    }
+
+    /**
+     * Tell the routes of the api from anything else sent through the
+     * client, such as health checks. Routes are matched on the end of the
+     * path, so a base url with a path prefix still matches.
+     */
+    static boolean isApiRoute(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        int size = segments.size();
+        String last = segments.get(size - 1);
+        if (last.equals("registration") || last.equals("reservations")) {
+            return true;
+        }
+        // registration/batch, or the registration of one citizen
+        return size >= 2 && segments.get(size - 2).equals("registration") && !last.isEmpty();
+    }
+
+    private Response record(Chain chain, Request request) throws IOException {
+        String key = Cassette.key(request);
+        long start = cassette.elapsedNanos();
+        Response response = chain.proceed(request);
+        ResponseBody body = response.body();
+        MediaType contentType = body != null ? body.contentType() : null;
+        byte[] content;
+        try (response) {
+            content = body != null ? body.bytes() : new byte[0];
+        }
+        cassette.append(new Cassette.Exchange(key, start, cassette.elapsedNanos() - start, response.code(),
+                contentType != null ? contentType.toString() : "", Cassette.replayedHeaders(response.headers()),
+                content));
+        return response.newBuilder()
+                .body(ResponseBody.create(content, contentType))
+                .build();
+    }
+
+    private Response replay(Request request) throws IOException {
+        String key = Cassette.key(request);
+        Cassette.Exchange exchange = cassette.next(key);
+        if (exchange == null) {
+            throw new IOException("no recorded exchange for " + key);
+        }
+        if (mode == Mode.REPLAY_TIMED) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(cassette.replayDelayNanos(exchange));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while replaying " + key);
+            }
+        }
+        MediaType contentType = exchange.contentType().isEmpty() ? null : MediaType.parse(exchange.contentType());
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(exchange.code())
+                .message("")
+                .headers(exchange.headers())
+                .body(ResponseBody.create(exchange.body(), contentType))
+                .build();
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Registration record of a citizen, holding the eight fields accepted by
+ * the {@code /registration} endpoint. Fields left unset are {@code null}
+ * and are omitted from the request.
+ */
+public class Citizen {
+    private final String citizenId;
+    private final String name;
+    private final String surname;
+    private final String birthDate;
+    private final String occupation;
+    private final String phoneNumber;
+    private final Boolean isRisk;
+    private final String address;
+
+    private Citizen(Builder builder) {
+        citizenId = builder.citizenId;
+        name = builder.name;
+        surname = builder.surname;
+        birthDate = builder.birthDate;
+        occupation = builder.occupation;
+        phoneNumber = builder.phoneNumber;
+        isRisk = builder.isRisk;
+        address = builder.address;
+    }
+
+    public String getCitizenId() {
+        return citizenId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSurname() {
+        return surname;
+    }
+
+    public String getBirthDate() {
+        return birthDate;
+    }
+
+    public String getOccupation() {
+        return occupation;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public Boolean getIsRisk() {
+        return isRisk;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public static class Builder {
+        private String citizenId;
+        private String name;
+        private String surname;
+        private String birthDate;
+        private String occupation;
+        private String phoneNumber;
+        private Boolean isRisk;
+        private String address;
+
+        public Builder citizenId(String citizenId) {
+            this.citizenId = citizenId;
+            return this;
+        }
+
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder surname(String surname) {
+            this.surname = surname;
+            return this;
+        }
+
+        public Builder birthDate(String birthDate) {
+            this.birthDate = birthDate;
+            return this;
+        }
+
+        public Builder occupation(String occupation) {
+            this.occupation = occupation;
+            return this;
+        }
+
+        public Builder phoneNumber(String phoneNumber) {
+            this.phoneNumber = phoneNumber;
+            return this;
+        }
+
+        public Builder isRisk(Boolean isRisk) {
+            this.isRisk = isRisk;
+            return this;
+        }
+
+        public Builder address(String address) {
+            this.address = address;
+            return this;
+        }
+
+        public Citizen build() {
+            return new Citizen(this);
+        }
+    }
+}
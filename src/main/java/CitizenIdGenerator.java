@@ -0,0 +1,50 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out unique, checksum-valid citizen ids, starting from a random
+ * prefix so that separate processes are unlikely to collide. Thread-safe.
+ */
+public class CitizenIdGenerator {
+    private static final long FIRST_PREFIX = 100_000_000_000L;
+    private static final long PREFIX_COUNT = 900_000_000_000L;
+
+    private final long start;
+    private final AtomicLong next = new AtomicLong();
+
+    public CitizenIdGenerator() {
+        this(ThreadLocalRandom.current().nextLong(PREFIX_COUNT));
+    }
+
+    /**
+     * @param offset position of the first id among the 12 digit prefixes
+     */
+    public CitizenIdGenerator(long offset) {
+        this.start = Math.floorMod(offset, PREFIX_COUNT);
+    }
+
+    /**
+     * @return a citizen id never returned before by this generator
+     */
+    public String next() {
+        return RegistrationValidator.withCheckDigit(FIRST_PREFIX + (start + next.getAndIncrement()) % PREFIX_COUNT);
+    }
+
+    /**
+     * @param name    name given to the citizen, telling which tool made it
+     * @param surname surname given to the citizen
+     * @return a synthetic citizen with the next id and otherwise valid fields
+     */
+    public Citizen nextCitizen(String name, String surname) {
+        return new Citizen.Builder()
+                .citizenId(next())
+                .name(name)
+                .surname(surname)
+                .birthDate("2001/06/05")
+                .occupation("Student")
+                .phoneNumber("0970638897")
+                .isRisk(false)
+                .address("122/167")
+                .build();
+    }
+}
@@ -0,0 +1,284 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented, append-only table of citizens keyed by their numeric
+ * citizen ID, used to hold a local dataset of millions of records.
+ *
+ * Instead of one {@link Citizen} and eight Strings per record, each field
+ * is a column of primitives: IDs are longs, free text is UTF-8 bytes packed
+ * into one array with end offsets, and low-cardinality fields (birth date,
+ * occupation, vaccines taken) are dictionary codes. A record costs roughly
+ * a hundred bytes of heap.
+ */
+public class CitizenTable {
+    private long[] ids;
+    private int size;
+    private final LongIntMap index;
+    private final TextColumn names = new TextColumn();
+    private final TextColumn surnames = new TextColumn();
+    private final DictionaryColumn birthDates = new DictionaryColumn();
+    private final DictionaryColumn occupations = new DictionaryColumn();
+    private final TextColumn phoneNumbers = new TextColumn();
+    private final BitSet riskKnown = new BitSet();
+    private final BitSet risk = new BitSet();
+    private final TextColumn addresses = new TextColumn();
+    private final DictionaryColumn vaccinesTaken = new DictionaryColumn();
+    private long skippedRows;
+
+    public CitizenTable() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedSize number of citizens the table is sized for, it grows past it
+     */
+    public CitizenTable(int expectedSize) {
+        ids = new long[Math.max(16, expectedSize)];
+        index = new LongIntMap(expectedSize);
+    }
+
+    /**
+     * Load the citizens of a CSV file with the columns of a registration,
+     * plus an optional {@code vaccine_taken} column. Rows whose citizen ID
+     * is not 13 digits, or repeats an earlier row, are skipped and counted
+     * in {@link #skippedRows()}.
+     *
+     * @param csv file to load
+     * @return the loaded table
+     * @throws IOException if the file could not be read or misses a column
+     */
+    public static CitizenTable load(Path csv) throws IOException {
+        CitizenTable table = new CitizenTable();
+        try (CsvRecordReader reader = new CsvRecordReader(csv)) {
+            CsvRecordReader.Row header = reader.next();
+            if (header == null) {
+                return table;
+            }
+            int[] columns = CsvImport.columns(header);
+            int vaccineTaken = header.indexOf("vaccine_taken");
+            CsvRecordReader.Row row;
+            while ((row = reader.next()) != null) {
+                long citizenId = parseCitizenId(row.fieldCount() > columns[0] ? row.field(columns[0]) : null);
+                if (citizenId < 0 || table.contains(citizenId)) {
+                    table.skippedRows++;
+                    continue;
+                }
+                Citizen citizen = new Citizen.Builder()
+                        .citizenId(row.string(columns[0]))
+                        .name(string(row, columns[1]))
+                        .surname(string(row, columns[2]))
+                        .birthDate(string(row, columns[3]))
+                        .occupation(string(row, columns[4]))
+                        .phoneNumber(string(row, columns[5]))
+                        .isRisk(parseRisk(string(row, columns[6])))
+                        .address(string(row, columns[7]))
+                        .build();
+                table.add(citizen, vaccineTaken < 0 ? null : string(row, vaccineTaken));
+            }
+        }
+        return table;
+    }
+
+    private static String string(CsvRecordReader.Row row, int column) {
+        return column < row.fieldCount() && row.field(column).length() > 0 ? row.string(column) : null;
+    }
+
+    private static Boolean parseRisk(String value) {
+        if ("true".equalsIgnoreCase(value)) {
+            return Boolean.TRUE;
+        }
+        return "false".equalsIgnoreCase(value) ? Boolean.FALSE : null;
+    }
+
+    /**
+     * @return the citizen ID as a number, or -1 if it is not 13 digits
+     */
+    public static long parseCitizenId(CharSequence citizenId) {
+        if (citizenId == null || citizenId.length() != 13) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < 13; i++) {
+            char c = citizenId.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return the 13-digit citizen ID of a number returned by {@link #parseCitizenId}
+     */
+    public static String formatCitizenId(long citizenId) {
+        String digits = Long.toString(citizenId);
+        return digits.length() >= 13 ? digits : "0000000000000".substring(digits.length()) + digits;
+    }
+
+    /**
+     * Append a citizen
+     *
+     * @param citizen      to append, its citizen ID must be 13 digits
+     * @param vaccineTaken vaccines the citizen is known to have taken, or null if unknown
+     * @return row of the citizen
+     * @throws IllegalArgumentException if the citizen ID is invalid or already in the table
+     */
+    public int add(Citizen citizen, String vaccineTaken) {
+        long citizenId = parseCitizenId(citizen.getCitizenId());
+        if (citizenId < 0) {
+            throw new IllegalArgumentException("invalid citizen ID: " + citizen.getCitizenId());
+        }
+        if (index.putIfAbsent(citizenId, size) >= 0) {
+            throw new IllegalArgumentException("duplicate citizen ID: " + citizen.getCitizenId());
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size + (size >> 1));
+        }
+        int row = size++;
+        ids[row] = citizenId;
+        names.add(row, citizen.getName());
+        surnames.add(row, citizen.getSurname());
+        birthDates.add(row, citizen.getBirthDate());
+        occupations.add(row, citizen.getOccupation());
+        phoneNumbers.add(row, citizen.getPhoneNumber());
+        if (citizen.getIsRisk() != null) {
+            riskKnown.set(row);
+            risk.set(row, citizen.getIsRisk());
+        }
+        addresses.add(row, citizen.getAddress());
+        vaccinesTaken.add(row, vaccineTaken);
+        return row;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return rows skipped by {@link #load(Path)}
+     */
+    public long skippedRows() {
+        return skippedRows;
+    }
+
+    /**
+     * @return row of the citizen, or -1 if absent
+     */
+    public int rowOf(long citizenId) {
+        return index.get(citizenId);
+    }
+
+    public boolean contains(long citizenId) {
+        return index.get(citizenId) >= 0;
+    }
+
+    public long citizenId(int row) {
+        checkRow(row);
+        return ids[row];
+    }
+
+    /**
+     * Materialize the citizen of a row
+     */
+    public Citizen citizen(int row) {
+        checkRow(row);
+        return new Citizen.Builder()
+                .citizenId(formatCitizenId(ids[row]))
+                .name(names.get(row))
+                .surname(surnames.get(row))
+                .birthDate(birthDates.get(row))
+                .occupation(occupations.get(row))
+                .phoneNumber(phoneNumbers.get(row))
+                .isRisk(riskKnown.get(row) ? risk.get(row) : null)
+                .address(addresses.get(row))
+                .build();
+    }
+
+    /**
+     * @return vaccines the citizen of a row is known to have taken, or null if unknown
+     */
+    public String vaccineTaken(int row) {
+        checkRow(row);
+        return vaccinesTaken.get(row);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + size);
+        }
+    }
+
+    /**
+     * Nullable Strings packed as UTF-8 into one growing byte array
+     */
+    private static class TextColumn {
+        private byte[] bytes = new byte[1024];
+        private int length;
+        private int[] ends = new int[16];
+        private final BitSet nulls = new BitSet();
+
+        void add(int row, String value) {
+            if (row == ends.length) {
+                ends = Arrays.copyOf(ends, row + (row >> 1));
+            }
+            if (value == null) {
+                nulls.set(row);
+            } else {
+                byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                if (length + encoded.length > bytes.length) {
+                    bytes = Arrays.copyOf(bytes, Math.max(length + encoded.length, bytes.length + (bytes.length >> 1)));
+                }
+                System.arraycopy(encoded, 0, bytes, length, encoded.length);
+                length += encoded.length;
+            }
+            ends[row] = length;
+        }
+
+        String get(int row) {
+            if (nulls.get(row)) {
+                return null;
+            }
+            int start = row == 0 ? 0 : ends[row - 1];
+            return new String(bytes, start, ends[row] - start, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Nullable Strings stored as codes into a dictionary of distinct values
+     */
+    private static class DictionaryColumn {
+        private int[] codes = new int[16];
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> codesByValue = new HashMap<>();
+
+        void add(int row, String value) {
+            if (row == codes.length) {
+                codes = Arrays.copyOf(codes, row + (row >> 1));
+            }
+            if (value == null) {
+                codes[row] = -1;
+                return;
+            }
+            Integer code = codesByValue.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                codesByValue.put(value, code);
+            }
+            codes[row] = code;
+        }
+
+        String get(int row) {
+            return codes[row] < 0 ? null : values.get(codes[row]);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limit of concurrent requests that adapts to the latency and errors of
+ * the server, so that callers find its sustainable throughput on their own.
+ *
+ * The limit follows a gradient: every answered request compares its round
+ * trip time with a slowly moving average of past ones. While the two stay
+ * within the tolerance the limit grows by about the square root of itself
+ * per round trip; once requests queue up on the server and latency rises,
+ * the limit shrinks in proportion. A dropped request (failure in transit,
+ * timeout, 429 or 5xx) cuts the limit multiplicatively, as in AIMD.
+ */
+public class ConcurrencyLimiter {
+    private static final double TOLERANCE = 1.5;
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final int LONG_WINDOW = 600;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double limit;
+    private double longRttNanos;
+    private long samples;
+    private int inFlight;
+
+    /**
+     * @param initialLimit limit before any request was answered
+     * @param minLimit     lowest limit, at least 1
+     * @param maxLimit     highest limit, keep it below the dispatcher's
+     *                     maximum number of requests
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException(
+                    "invalid limits: initial " + initialLimit + ", min " + minLimit + ", max " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Wait until fewer requests than the limit are in flight, then count
+     * one more. Every acquisition must be followed by exactly one of
+     * {@link #onSuccess}, {@link #onDropped} or {@link #onIgnore}.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                released.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return false if no request could be counted before the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a request the server answered, adjusting the limit to its
+     * round trip time
+     */
+    public void onSuccess(long rttNanos) {
+        lock.lock();
+        try {
+            int concurrent = inFlight;
+            release();
+            samples++;
+            long window = Math.min(samples, LONG_WINDOW);
+            longRttNanos = samples == 1 ? rttNanos : longRttNanos + (rttNanos - longRttNanos) / window;
+            // a limit the callers do not use can't be validated, so don't grow it
+            if (concurrent * 2 < limit && rttNanos <= longRttNanos * TOLERANCE) {
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / Math.max(rttNanos, 1)));
+            double target = limit * gradient + Math.sqrt(limit);
+            // a round trip brings about limit answers, each moves the limit a share of the way
+            update(limit + (target - limit) / limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a request that failed or was answered with an overload
+     * status, cutting the limit
+     */
+    public void onDropped() {
+        lock.lock();
+        try {
+            release();
+            update(limit * BACKOFF_RATIO);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a request whose outcome says nothing of the server's load,
+     * such as a cancelled one
+     */
+    public void onIgnore() {
+        lock.lock();
+        try {
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        inFlight--;
+        released.signal();
+    }
+
+    private void update(double newLimit) {
+        int before = (int) limit;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        if ((int) limit > before) {
+            released.signalAll();
+        }
+    }
+
+    /**
+     * @return current number of requests allowed in flight
+     */
+    public int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,305 @@
+import okhttp3.HttpUrl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registers every citizen of a CSV export, resuming from its
+ * {@link ImportJournal} after a crash.
+ *
+ * The file is read with {@link CsvRecordReader} and validated on the mapped
+ * bytes, so rejected rows never become Strings. Valid rows are registered
+ * in batches through {@link BulkRegistration}. A batch is journaled as
+ * started before it is sent, and every outcome is journaled as it arrives.
+ * Rows finished by a previous run are skipped. Rows that were sent but
+ * never answered are looked up before being sent again.
+ *
+ * The header must name the columns {@code citizen_id, name, surname,
+ * birth_date, occupation, phone_number, is_risk, address}, in any order.
+ *
+ * Usage: {@code CsvImport <csv> <journal> <baseUrl|stand-in>}
+ */
+public class CsvImport {
+    private final VaccineApiClient api;
+    private final Path csv;
+    private final Path journalFile;
+    private final int batchSize;
+    private final BulkRegistration bulk;
+
+    /**
+     * Counters of one import run
+     */
+    public static class Summary {
+        private final LongAdder registered = new LongAdder();
+        private final LongAdder alreadyRegistered = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+
+        /**
+         * @return rows registered by this run
+         */
+        public long registered() {
+            return registered.sum();
+        }
+
+        /**
+         * @return rows found registered on the server before this run sent them
+         */
+        public long alreadyRegistered() {
+            return alreadyRegistered.sum();
+        }
+
+        /**
+         * @return rows refused by validation or by the server
+         */
+        public long rejected() {
+            return rejected.sum();
+        }
+
+        /**
+         * @return rows whose request failed, retried by the next run
+         */
+        public long failed() {
+            return failed.sum();
+        }
+
+        /**
+         * @return rows finished by a previous run
+         */
+        public long skipped() {
+            return skipped.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "registered=" + registered() + " alreadyRegistered=" + alreadyRegistered()
+                    + " rejected=" + rejected() + " failed=" + failed() + " skipped=" + skipped();
+        }
+    }
+
+    private CsvImport(Builder builder) {
+        api = builder.api;
+        csv = builder.csv;
+        journalFile = builder.journal;
+        batchSize = builder.batchSize;
+        bulk = new BulkRegistration(api, builder.maxInFlight);
+    }
+
+    /**
+     * Import the file, or the rows a previous run did not finish
+     *
+     * @return counters of this run
+     * @throws IOException if the file or the journal could not be read or written
+     * @throws InterruptedException if interrupted while registering
+     */
+    public Summary run() throws IOException, InterruptedException {
+        Summary summary = new Summary();
+        try (CsvRecordReader reader = new CsvRecordReader(csv);
+             ImportJournal journal = new ImportJournal(journalFile)) {
+            CsvRecordReader.Row header = reader.next();
+            if (header == null) {
+                return summary;
+            }
+            int[] columns = columns(header);
+            List<Citizen> batch = new ArrayList<>(batchSize);
+            Map<Citizen, Integer> rows = new IdentityHashMap<>();
+            CsvRecordReader.Row row;
+            while ((row = reader.next()) != null) {
+                int rowNumber = Math.toIntExact(reader.rowNumber() - 1);
+                if (journal.isFinished(rowNumber)) {
+                    summary.skipped.increment();
+                    continue;
+                }
+                if (validate(row, columns) != RegistrationValidator.Violation.NONE) {
+                    journal.append(rowNumber, ImportJournal.REJECTED);
+                    summary.rejected.increment();
+                    continue;
+                }
+                Citizen citizen = citizen(row, columns);
+                if (journal.isInDoubt(rowNumber) && api.isUserExisted(citizen.getCitizenId())) {
+                    journal.append(rowNumber, ImportJournal.REGISTERED);
+                    summary.alreadyRegistered.increment();
+                    continue;
+                }
+                batch.add(citizen);
+                rows.put(citizen, rowNumber);
+                if (batch.size() == batchSize) {
+                    register(batch, rows, journal, summary);
+                }
+            }
+            register(batch, rows, journal, summary);
+        }
+        return summary;
+    }
+
+    private void register(List<Citizen> batch, Map<Citizen, Integer> rows, ImportJournal journal, Summary summary)
+            throws IOException, InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (Citizen citizen : batch) {
+            journal.append(rows.get(citizen), ImportJournal.STARTED);
+        }
+        journal.flush();
+        // a journal failure stops the batch and is rethrown here
+        InFlightWindow.await(bulk.registerAll(batch.iterator(), result -> {
+            byte outcome = outcome(result);
+            if (outcome == ImportJournal.REGISTERED) {
+                (result.isRegistrationSuccessful() ? summary.registered : summary.alreadyRegistered).increment();
+            } else if (outcome == ImportJournal.REJECTED) {
+                summary.rejected.increment();
+            } else {
+                summary.failed.increment();
+            }
+            try {
+                journal.append(rows.get(result.getCitizen()), outcome);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+        journal.flush();
+        batch.clear();
+        rows.clear();
+    }
+
+    private static byte outcome(RegistrationResult result) {
+        if (result.isRegistrationSuccessful()) {
+            return ImportJournal.REGISTERED;
+        }
+        if (result.getResponse() != null) {
+            return result.getResponse().outcome() == RegistrationOutcome.ALREADY_REGISTERED
+                    ? ImportJournal.REGISTERED
+                    : ImportJournal.REJECTED;
+        }
+        if (result.getError() instanceof VaccineApiException) {
+            int code = ((VaccineApiException) result.getError()).code();
+            return code >= 400 && code < 500 ? ImportJournal.REJECTED : ImportJournal.FAILED;
+        }
+        return ImportJournal.FAILED;
+    }
+
+    /**
+     * @return index of each registration field in the rows, in the order of
+     *         {@link RegistrationEncoder#FIELDS}
+     */
+    static int[] columns(CsvRecordReader.Row header) throws IOException {
+        String[] fields = RegistrationEncoder.FIELDS;
+        int[] columns = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            columns[i] = header.indexOf(fields[i]);
+            if (columns[i] < 0) {
+                throw new IOException("missing column " + fields[i]);
+            }
+        }
+        return columns;
+    }
+
+    private static RegistrationValidator.Violation validate(CsvRecordReader.Row row, int[] columns) {
+        return RegistrationValidator.validate(
+                field(row, columns[0]), field(row, columns[1]), field(row, columns[2]), field(row, columns[3]),
+                field(row, columns[4]), field(row, columns[5]), isRisk(field(row, columns[6])),
+                field(row, columns[7]));
+    }
+
+    private static Citizen citizen(CsvRecordReader.Row row, int[] columns) {
+        return new Citizen.Builder()
+                .citizenId(row.string(columns[0]))
+                .name(row.string(columns[1]))
+                .surname(row.string(columns[2]))
+                .birthDate(row.string(columns[3]))
+                .occupation(row.string(columns[4]))
+                .phoneNumber(row.string(columns[5]))
+                .isRisk(isRisk(field(row, columns[6])))
+                .address(row.string(columns[7]))
+                .build();
+    }
+
+    /**
+     * @return the field, or null if the row is too short or the field empty
+     */
+    private static CharSequence field(CsvRecordReader.Row row, int column) {
+        if (column >= row.fieldCount()) {
+            return null;
+        }
+        CharSequence field = row.field(column);
+        return field.length() == 0 ? null : field;
+    }
+
+    private static Boolean isRisk(CharSequence field) {
+        if (field == null) {
+            return null;
+        }
+        if (field.length() == 4 && Character.toLowerCase(field.charAt(0)) == 't'
+                && field.toString().equalsIgnoreCase("true")) {
+            return Boolean.TRUE;
+        }
+        if (field.length() == 5 && Character.toLowerCase(field.charAt(0)) == 'f'
+                && field.toString().equalsIgnoreCase("false")) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    public static class Builder {
+        private final VaccineApiClient api;
+        private final Path csv;
+        private final Path journal;
+        private int batchSize = 1000;
+        private int maxInFlight = 64;
+
+        /**
+         * @param api     client used to register the citizens
+         * @param csv     file to import
+         * @param journal journal of the import, reused to resume it
+         */
+        public Builder(VaccineApiClient api, Path csv, Path journal) {
+            this.api = api;
+            this.csv = csv;
+            this.journal = journal;
+        }
+
+        /**
+         * Rows registered between two forced writes of the journal
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder maxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public CsvImport build() {
+            return new CsvImport(this);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: CsvImport <csv> <journal> <baseUrl|stand-in>");
+            System.exit(2);
+        }
+        StandInServer standIn = args[2].equals("stand-in") ? new StandInServer(new StandInApi(), 0) : null;
+        try (VaccineApiClient api = new VaccineApiClient.Builder()
+                .baseUrl(standIn != null ? standIn.url() : HttpUrl.get(args[2]))
+                .build()) {
+            long start = System.nanoTime();
+            Summary summary = new Builder(api, Paths.get(args[0]), Paths.get(args[1])).build().run();
+            System.out.printf("%s in %.1f s%n", summary, (System.nanoTime() - start) / 1e9);
+        } finally {
+            if (standIn != null) {
+                standIn.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a UTF-8 CSV file through memory-mapped windows, so files larger
+ * than the heap are read without copying them.
+ *
+ * Fields are exposed as {@link CharSequence} views over the mapped bytes,
+ * valid until the next row is read, so a row can be inspected without
+ * creating a String per field. Quoted fields with doubled quotes and both
+ * {@code \n} and {@code \r\n} line endings are supported; empty lines are
+ * skipped.
+ */
+public class CsvRecordReader implements Closeable {
+    private static final long DEFAULT_WINDOW_SIZE = 256L << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long windowSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;
+    private long rowNumber = -1;
+    private final Row row = new Row();
+
+    public CsvRecordReader(Path file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize bytes mapped at once, must exceed the longest row
+     */
+    CsvRecordReader(Path file, long windowSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        map(0);
+    }
+
+    /**
+     * Read the next row, the first one being the header
+     *
+     * @return the next row, reused between calls, or null at the end of the file
+     * @throws IOException if the file could not be mapped or a row is longer than a window
+     */
+    public Row next() throws IOException {
+        while (true) {
+            if (windowStart + position >= size) {
+                return null;
+            }
+            int start = position;
+            int end = parse(start);
+            if (end < 0) {
+                if (start == 0) {
+                    throw new IOException("row " + (rowNumber + 1) + " is longer than " + windowSize + " bytes");
+                }
+                map(windowStart + start);
+                continue;
+            }
+            if (row.count == 1 && row.ends[0] == row.starts[0] && !row.quoted[0]) {
+                continue;
+            }
+            rowNumber++;
+            return row;
+        }
+    }
+
+    /**
+     * @return index of the last row returned, 0 being the header
+     */
+    public long rowNumber() {
+        return rowNumber;
+    }
+
+    /**
+     * Parse the row starting at the given position of the window
+     *
+     * @return position after the row, or -1 if the row continues past the window
+     */
+    private int parse(int start) {
+        row.reset();
+        int limit = window.limit();
+        boolean lastWindow = windowStart + limit >= size;
+        int i = start;
+        while (true) {
+            int fieldStart = i;
+            boolean quoted = false;
+            boolean escaped = false;
+            int fieldEnd;
+            if (i < limit && window.get(i) == '"') {
+                quoted = true;
+                fieldStart = ++i;
+                while (true) {
+                    if (i >= limit) {
+                        if (!lastWindow) {
+                            return -1;
+                        }
+                        fieldEnd = i;
+                        break;
+                    }
+                    if (window.get(i) == '"') {
+                        if (i + 1 < limit && window.get(i + 1) == '"') {
+                            escaped = true;
+                            i += 2;
+                            continue;
+                        }
+                        if (i + 1 >= limit && !lastWindow) {
+                            return -1;
+                        }
+                        fieldEnd = i++;
+                        break;
+                    }
+                    i++;
+                }
+            } else {
+                fieldEnd = -1;
+            }
+            while (i < limit && window.get(i) != ',' && window.get(i) != '\n') {
+                i++;
+            }
+            if (i >= limit && !lastWindow) {
+                return -1;
+            }
+            if (fieldEnd < 0) {
+                fieldEnd = i;
+            }
+            boolean endOfRow = i >= limit || window.get(i) == '\n';
+            if (endOfRow && fieldEnd > fieldStart && window.get(fieldEnd - 1) == '\r' && !quoted) {
+                fieldEnd--;
+            }
+            row.add(fieldStart, fieldEnd, quoted, escaped);
+            if (endOfRow) {
+                position = Math.min(i + 1, limit);
+                return position;
+            }
+            i++;
+        }
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+        row.buffer = window;
+        position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Fields of one row, backed by the mapped file
+     */
+    public static class Row {
+        private MappedByteBuffer buffer;
+        private int count;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private boolean[] quoted = new boolean[16];
+        private boolean[] escaped = new boolean[16];
+        private Field[] fields = new Field[0];
+
+        private void reset() {
+            count = 0;
+        }
+
+        private void add(int start, int end, boolean isQuoted, boolean isEscaped) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                quoted = Arrays.copyOf(quoted, count * 2);
+                escaped = Arrays.copyOf(escaped, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            quoted[count] = isQuoted;
+            escaped[count] = isEscaped;
+            count++;
+        }
+
+        public int fieldCount() {
+            return count;
+        }
+
+        /**
+         * Find a column by name, typically in the header row
+         *
+         * @return index of the first field equal to the name once trimmed, or -1
+         */
+        public int indexOf(String name) {
+            for (int i = 0; i < count; i++) {
+                if (string(i).trim().equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * View of a field as Latin-1 characters, exact for ASCII content such
+         * as ids and dates. The view is reused and valid until the next row.
+         */
+        public CharSequence field(int index) {
+            if (index >= count) {
+                throw new IndexOutOfBoundsException("field " + index + " of " + count);
+            }
+            if (fields.length <= index) {
+                Field[] grown = Arrays.copyOf(fields, Math.max(index + 1, count));
+                for (int i = fields.length; i < grown.length; i++) {
+                    grown[i] = new Field();
+                }
+                fields = grown;
+            }
+            Field field = fields[index];
+            field.buffer = buffer;
+            field.start = starts[index];
+            field.end = ends[index];
+            return field;
+        }
+
+        /**
+         * Decode a field from UTF-8, unescaping doubled quotes
+         */
+        public String string(int index) {
+            if (index >= count) {
+                throw new IndexOutOfBoundsException("field " + index + " of " + count);
+            }
+            String value = decode(buffer, starts[index], ends[index]);
+            return escaped[index] ? value.replace("\"\"", "\"") : value;
+        }
+    }
+
+    private static String decode(MappedByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Field implements CharSequence {
+        private MappedByteBuffer buffer;
+        private int start;
+        private int end;
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return decode(buffer, start, end);
+        }
+    }
+}
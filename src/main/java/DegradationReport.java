@@ -0,0 +1,220 @@
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the client's latency and throughput degrade under fault
+ * profiles.
+ *
+ * The same load run is fired at a local stand-in server once without
+ * faults, as the baseline, then once per {@link FaultInjector} profile,
+ * after an unreported warm-up run.
+ * Each run starts from an empty stand-in and a fresh client, so runs do
+ * not share connections or data. The load only covers the
+ * {@code registration} route, so {@code reservations} rules of a profile
+ * have no effect on the report.
+ *
+ * Usage: {@code DegradationReport <requestsPerSecond> <seconds> <profile|file>...}
+ */
+public class DegradationReport {
+    private static final String[] OPERATIONS = {LoadGenerator.REGISTER, LoadGenerator.LOOKUP, LoadGenerator.DELETE};
+
+    /**
+     * Outcome of the run under one profile
+     */
+    public static class Row {
+        private final String profile;
+        private final double seconds;
+        private final LoadReport report;
+        private final Histogram latencies = new Histogram(3);
+
+        Row(String profile, double seconds, LoadReport report) {
+            this.profile = profile;
+            this.seconds = seconds;
+            this.report = report;
+            for (String operation : OPERATIONS) {
+                latencies.add(report.latencies(operation));
+            }
+        }
+
+        public String profile() {
+            return profile;
+        }
+
+        public LoadReport report() {
+            return report;
+        }
+
+        /**
+         * @return requests that succeeded per second
+         */
+        public double goodput() {
+            return report.successCount() / seconds;
+        }
+
+        /**
+         * @return share of the requests that failed, from 0 to 1
+         */
+        public double errorRate() {
+            long total = report.successCount() + report.errorCount();
+            return total == 0 ? 0 : (double) report.errorCount() / total;
+        }
+
+        /**
+         * @return latency at a percentile over every operation, in milliseconds
+         */
+        public double latencyMillis(double percentile) {
+            return latencies.getValueAtPercentile(percentile) / 1000.0;
+        }
+    }
+
+    private final VaccineApiClient.Builder client;
+    private final double requestsPerSecond;
+    private final long durationNanos;
+    private final int[] mix;
+    private final Map<String, FaultInjector> profiles;
+
+    private DegradationReport(Builder builder) {
+        client = builder.client;
+        requestsPerSecond = builder.requestsPerSecond;
+        durationNanos = builder.durationNanos;
+        mix = builder.mix;
+        profiles = new LinkedHashMap<>(builder.profiles);
+    }
+
+    /**
+     * Run the baseline then every profile
+     *
+     * @return one row per run, the baseline first
+     * @throws IOException          if the stand-in server could not start
+     * @throws InterruptedException if interrupted during a run
+     */
+    public List<Row> run() throws IOException, InterruptedException {
+        List<Row> rows = new ArrayList<>();
+        StandInApi standIn = new StandInApi();
+        try (StandInServer server = new StandInServer(standIn, 0)) {
+            // the first run pays for class loading and JIT compilation, which would flatter every profile
+            run(server, "warm-up", null);
+            rows.add(run(server, "baseline", null));
+            for (Map.Entry<String, FaultInjector> profile : profiles.entrySet()) {
+                rows.add(run(server, profile.getKey(), profile.getValue()));
+            }
+        }
+        return rows;
+    }
+
+    private Row run(StandInServer server, String name, FaultInjector faults) throws InterruptedException {
+        server.api().clear();
+        server.faults(faults);
+        try (VaccineApiClient api = client.baseUrl(server.url()).build()) {
+            LoadReport report = new LoadGenerator.Builder(api)
+                    .requestsPerSecond(requestsPerSecond)
+                    .duration(durationNanos, TimeUnit.NANOSECONDS)
+                    .mix(mix[0], mix[1], mix[2])
+                    .build()
+                    .run();
+            return new Row(name, durationNanos / 1e9, report);
+        } finally {
+            server.faults(null);
+        }
+    }
+
+    /**
+     * Print one line per run, with the p99 and goodput relative to the
+     * baseline, the first row
+     */
+    public static void print(List<Row> rows, PrintStream out) {
+        out.printf("%-40s %10s %8s %10s %10s %10s %8s %8s%n",
+                "profile", "goodput/s", "errors", "p50", "p99", "p99.9", "p99 x", "goodput x");
+        Row baseline = rows.get(0);
+        for (Row row : rows) {
+            String profile = row.profile().length() > 40 ? row.profile().substring(0, 37) + "..." : row.profile();
+            out.printf("%-40s %10.1f %7.2f%% %10.2f %10.2f %10.2f %8.2f %8.2f%n",
+                    profile,
+                    row.goodput(),
+                    row.errorRate() * 100,
+                    row.latencyMillis(50),
+                    row.latencyMillis(99),
+                    row.latencyMillis(99.9),
+                    row.latencyMillis(99) / Math.max(baseline.latencyMillis(99), 0.001),
+                    row.goodput() / Math.max(baseline.goodput(), 0.001));
+        }
+    }
+
+    public static class Builder {
+        private final VaccineApiClient.Builder client;
+        private double requestsPerSecond = 100;
+        private long durationNanos = TimeUnit.SECONDS.toNanos(10);
+        private int[] mix = {1, 1, 1};
+        private final Map<String, FaultInjector> profiles = new LinkedHashMap<>();
+
+        /**
+         * @param client configuration of the client under test, its base url
+         *               is replaced with the stand-in's
+         */
+        public Builder(VaccineApiClient.Builder client) {
+            this.client = client;
+        }
+
+        public Builder requestsPerSecond(double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        /**
+         * Duration of each run
+         */
+        public Builder duration(long duration, TimeUnit unit) {
+            this.durationNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Relative weights of the operations, see {@link LoadGenerator.Builder#mix}
+         */
+        public Builder mix(int register, int lookup, int delete) {
+            this.mix = new int[]{register, lookup, delete};
+            return this;
+        }
+
+        public Builder profile(String name, FaultInjector faults) {
+            profiles.put(name, faults);
+            return this;
+        }
+
+        public DegradationReport build() {
+            return new DegradationReport(this);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: DegradationReport <requestsPerSecond> <seconds> <profile|file>...");
+            System.exit(2);
+        }
+        Builder builder = new Builder(new VaccineApiClient.Builder())
+                .requestsPerSecond(Double.parseDouble(args[0]))
+                .duration(Long.parseLong(args[1]), TimeUnit.SECONDS);
+        for (int i = 2; i < args.length; i++) {
+            Path file = Paths.get(args[i]);
+            if (Files.isRegularFile(file)) {
+                builder.profile(file.getFileName().toString(),
+                        FaultInjector.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)));
+            } else {
+                FaultInjector faults = FaultInjector.parse(args[i]);
+                builder.profile(faults.toString(), faults);
+            }
+        }
+        print(builder.build().run(), System.out);
+    }
+}
@@ -0,0 +1,410 @@
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads the calls of a client over several deployments of the API.
+ *
+ * Calls about a citizen (registration, lookup, deletion) are routed by
+ * consistent hashing on the citizen id, so each citizen always lands on
+ * the same node while it is available, and losing a node only moves the
+ * citizens it served. Other calls go round-robin. Installed with
+ * {@link VaccineApiClient.Builder#endpoints}, the pool rewrites the
+ * scheme, host and port of each request, so nodes must share the same
+ * base path.
+ *
+ * A node stops receiving calls when
+ * <ul>
+ * <li>its active health check failed twice in a row, until it passes
+ * twice in a row, see {@link #startHealthChecks}</li>
+ * <li>it failed several calls in a row (transport errors or 5xx), as an
+ * outlier ejected for a time that doubles with each ejection, back to the
+ * base time once it served the maximum ejection time without being
+ * ejected again</li>
+ * </ul>
+ * No more than a share of the nodes is ejected at once, and when no node
+ * is available calls go to the node the hash picks anyway.
+ */
+public class EndpointPool implements Interceptor, Closeable {
+    private static final int UNHEALTHY_THRESHOLD = 2;
+    private static final int HEALTHY_THRESHOLD = 2;
+
+    /**
+     * One deployment of the API with its health
+     */
+    private class Node {
+        private final HttpUrl url;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile boolean healthy = true;
+        private volatile long ejectedUntilNanos;
+        private volatile boolean ejected;
+        private int ejections;
+        private int checkStreak;
+
+        Node(HttpUrl url) {
+            this.url = url;
+        }
+
+        boolean isAvailable(long now) {
+            return healthy && (!ejected || now - ejectedUntilNanos >= 0);
+        }
+
+        void onSuccess() {
+            consecutiveFailures.set(0);
+        }
+
+        void onFailure() {
+            if (consecutiveFailures.incrementAndGet() >= ejectionThreshold) {
+                eject(this);
+            }
+        }
+
+        synchronized void onCheck(boolean passed) {
+            if (passed == healthy) {
+                checkStreak = 0;
+                return;
+            }
+            if (++checkStreak >= (passed ? HEALTHY_THRESHOLD : UNHEALTHY_THRESHOLD)) {
+                healthy = passed;
+                checkStreak = 0;
+            }
+        }
+    }
+
+    private final Node[] nodes;
+    private final long[] ring;
+    private final Node[] owners;
+    private final int ejectionThreshold;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+    private final int maxEjected;
+    private final String healthPath;
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    private ScheduledExecutorService checker;
+
+    private EndpointPool(Builder builder) {
+        nodes = builder.urls.stream().map(Node::new).toArray(Node[]::new);
+        ejectionThreshold = builder.ejectionThreshold;
+        baseEjectionNanos = builder.baseEjectionNanos;
+        maxEjectionNanos = builder.maxEjectionNanos;
+        maxEjected = nodes.length * builder.maxEjectionPercent / 100;
+        healthPath = builder.healthPath;
+        // virtual nodes even out the share of each node on the ring
+        int points = nodes.length * builder.virtualNodes;
+        long[] hashes = new long[points];
+        Integer[] order = new Integer[points];
+        for (int n = 0; n < nodes.length; n++) {
+            HttpUrl url = nodes[n].url;
+            for (int v = 0; v < builder.virtualNodes; v++) {
+                int point = n * builder.virtualNodes + v;
+                hashes[point] = hash(url.scheme() + "://" + url.host() + ":" + url.port() + "#" + v);
+                order[point] = point;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        ring = new long[points];
+        owners = new Node[points];
+        for (int i = 0; i < points; i++) {
+            ring[i] = hashes[order[i]];
+            owners[i] = nodes[order[i] / builder.virtualNodes];
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a with a final avalanche, so that close ids land far apart
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * @return base urls of the nodes, in the order they were given
+     */
+    public List<HttpUrl> nodes() {
+        List<HttpUrl> urls = new ArrayList<>(nodes.length);
+        for (Node node : nodes) {
+            urls.add(node.url);
+        }
+        return Collections.unmodifiableList(urls);
+    }
+
+    /**
+     * @return false if the node is unhealthy or ejected
+     */
+    public boolean isAvailable(HttpUrl url) {
+        Node node = find(url);
+        return node != null && node.isAvailable(System.nanoTime());
+    }
+
+    /**
+     * Pick the node serving a citizen: the first available node clockwise
+     * from the hash of the id
+     *
+     * @param citizenId id to route, null to go round-robin
+     * @return base url of the node
+     */
+    public HttpUrl route(String citizenId) {
+        return select(citizenId).url;
+    }
+
+    private Node select(String citizenId) {
+        long now = System.nanoTime();
+        if (citizenId == null) {
+            int start = Math.floorMod(roundRobin.getAndIncrement(), nodes.length);
+            for (int i = 0; i < nodes.length; i++) {
+                Node node = nodes[(start + i) % nodes.length];
+                if (node.isAvailable(now)) {
+                    return node;
+                }
+            }
+            return nodes[start];
+        }
+        int index = Arrays.binarySearch(ring, hash(citizenId));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        for (int i = 0; i < owners.length; i++) {
+            Node node = owners[(index + i) % owners.length];
+            if (node.isAvailable(now)) {
+                return node;
+            }
+        }
+        return owners[index % owners.length];
+    }
+
+    private Node find(HttpUrl url) {
+        for (Node node : nodes) {
+            if (node.url.port() == url.port() && node.url.host().equals(url.host())
+                    && node.url.scheme().equals(url.scheme())) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void eject(Node node) {
+        long now = System.nanoTime();
+        if (node.ejected && now - node.ejectedUntilNanos < 0) {
+            return;
+        }
+        int ejected = 0;
+        for (Node other : nodes) {
+            if (other != node && other.ejected && now - other.ejectedUntilNanos < 0) {
+                ejected++;
+            }
+        }
+        if (ejected >= maxEjected) {
+            return;
+        }
+        synchronized (node) {
+            // the backoff decays only with time served, a passing health check says nothing of real traffic
+            if (node.ejected && now - node.ejectedUntilNanos >= maxEjectionNanos) {
+                node.ejections = 0;
+            }
+            long duration = baseEjectionNanos << Math.min(node.ejections, 20);
+            node.ejections++;
+            node.ejectedUntilNanos = now + Math.min(duration, maxEjectionNanos);
+            node.ejected = true;
+            node.consecutiveFailures.set(0);
+        }
+    }
+
+    /**
+     * Route a request of the client to its node, counting the outcome
+     * towards the node's outlier detection
+     */
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (find(request.url()) == null) {
+            // not addressed to the pool
+            return chain.proceed(request);
+        }
+        Node node = select(citizenId(request));
+        HttpUrl url = request.url().newBuilder()
+                .scheme(node.url.scheme())
+                .host(node.url.host())
+                .port(node.url.port())
+                .build();
+        Response response;
+        try {
+            response = chain.proceed(request.newBuilder().url(url).build());
+        } catch (IOException e) {
+            if (!chain.call().isCanceled()) {
+                node.onFailure();
+            }
+            throw e;
+        }
+        if (response.code() >= 500) {
+            node.onFailure();
+        } else {
+            node.onSuccess();
+        }
+        return response;
+    }
+
+    /**
+     * @return id of the citizen a request is about: its String tag, the
+     *         segment after {@code registration} in the path, or the
+     *         {@code citizen_id} query parameter
+     */
+    static String citizenId(Request request) {
+        String tag = request.tag(String.class);
+        if (tag != null) {
+            return tag;
+        }
+        List<String> segments = request.url().pathSegments();
+        int registration = segments.indexOf("registration");
+        if (registration >= 0 && registration + 1 < segments.size() && !segments.get(registration + 1).isEmpty()) {
+            return segments.get(registration + 1);
+        }
+        return request.url().queryParameter("citizen_id");
+    }
+
+    /**
+     * Check every node once, a node failing when it cannot be reached or
+     * answers with a 5xx
+     *
+     * @param client client the checks are sent with, without the pool
+     */
+    public void checkHealth(OkHttpClient client) {
+        for (Node node : nodes) {
+            Request request = new Request.Builder()
+                    .url(node.url.resolve(healthPath))
+                    .build();
+            boolean passed;
+            try (Response response = client.newCall(request).execute()) {
+                passed = response.code() < 500;
+            } catch (IOException e) {
+                passed = false;
+            }
+            node.onCheck(passed);
+        }
+    }
+
+    /**
+     * Check every node at a fixed rate on a background thread until closed
+     *
+     * @param client client the checks are sent with, a call timeout below
+     *               the period keeps a hung node from delaying the others
+     */
+    public synchronized void startHealthChecks(OkHttpClient client, long period, TimeUnit unit) {
+        if (checker != null) {
+            throw new IllegalStateException("health checks already started");
+        }
+        OkHttpClient checks = client.newBuilder()
+                .callTimeout(Math.max(1, unit.toMillis(period) / 2), TimeUnit.MILLISECONDS)
+                .build();
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "endpoint-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleAtFixedRate(() -> checkHealth(checks), 0, period, unit);
+    }
+
+    /**
+     * Stop the health checks
+     */
+    @Override
+    public synchronized void close() {
+        if (checker != null) {
+            checker.shutdownNow();
+            checker = null;
+        }
+    }
+
+    public static class Builder {
+        private final List<HttpUrl> urls = new ArrayList<>();
+        private int virtualNodes = 160;
+        private int ejectionThreshold = 5;
+        private long baseEjectionNanos = TimeUnit.SECONDS.toNanos(30);
+        private long maxEjectionNanos = TimeUnit.MINUTES.toNanos(5);
+        private int maxEjectionPercent = 50;
+        private String healthPath = "./";
+
+        /**
+         * @param urls base urls of the nodes, differing only by scheme, host or port
+         */
+        public Builder(List<HttpUrl> urls) {
+            if (urls.isEmpty()) {
+                throw new IllegalArgumentException("no node");
+            }
+            for (HttpUrl url : urls) {
+                if (!url.encodedPath().equals(urls.get(0).encodedPath())) {
+                    throw new IllegalArgumentException("nodes must share the base path: " + url);
+                }
+                this.urls.add(url);
+            }
+        }
+
+        /**
+         * Points of each node on the hash ring, more spread the load more evenly
+         */
+        public Builder virtualNodes(int virtualNodes) {
+            this.virtualNodes = virtualNodes;
+            return this;
+        }
+
+        /**
+         * Eject a node after this many calls failed in a row
+         */
+        public Builder ejectionThreshold(int ejectionThreshold) {
+            this.ejectionThreshold = ejectionThreshold;
+            return this;
+        }
+
+        /**
+         * Length of a first ejection, doubled for each further one up to the maximum
+         */
+        public Builder ejectionTime(long base, long max, TimeUnit unit) {
+            this.baseEjectionNanos = unit.toNanos(base);
+            this.maxEjectionNanos = unit.toNanos(max);
+            return this;
+        }
+
+        /**
+         * Most nodes ejected at once, as a percentage of the pool
+         */
+        public Builder maxEjectionPercent(int maxEjectionPercent) {
+            this.maxEjectionPercent = maxEjectionPercent;
+            return this;
+        }
+
+        /**
+         * Path the health checks get, relative to the base url of each node
+         */
+        public Builder healthPath(String healthPath) {
+            this.healthPath = healthPath;
+            return this;
+        }
+
+        public EndpointPool build() {
+            return new EndpointPool(this);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Faults a {@link StandInServer} injects into its answers, so the client can
+ * be measured against a slow or flaky backend.
+ *
+ * A profile is a list of rules, each applying to a route (the first path
+ * segment, {@code registration} or {@code reservations}, or {@code *} for
+ * every route) with a percentage of the requests it hits. Delay rules roll
+ * independently and add up; of the other faults at most one hits a request.
+ * Profiles can be written as text, one rule per line or separated by
+ * {@code ;}:
+ * <pre>
+ * registration delay 100% 20ms exponential
+ * registration reset 2%
+ * reservations truncate 5%
+ * * server-error 1%
+ * registration bad-request 1%
+ * </pre>
+ */
+public class FaultInjector {
+    public enum Fault {
+        /**
+         * Answer after a delay drawn from a {@link Distribution}
+         */
+        DELAY,
+        /**
+         * Close the connection without answering
+         */
+        RESET,
+        /**
+         * Announce the full body, send half of it then close the connection
+         */
+        TRUNCATE,
+        /**
+         * Answer 500 without handling the request
+         */
+        SERVER_ERROR,
+        /**
+         * Answer the 400 page of the public deployment without handling the request
+         */
+        BAD_REQUEST;
+
+        /**
+         * @return name of the fault in a profile, e.g. {@code server-error}
+         */
+        public String label() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+
+        static Fault parse(String label) {
+            for (Fault fault : values()) {
+                if (fault.label().equals(label)) {
+                    return fault;
+                }
+            }
+            throw new IllegalArgumentException("unknown fault " + label);
+        }
+    }
+
+    public enum Distribution {
+        FIXED, UNIFORM, EXPONENTIAL,
+        /**
+         * Pareto with shape 1.5: most delays are short, a few are many times the mean
+         */
+        PARETO;
+
+        long sample(long meanNanos, ThreadLocalRandom random) {
+            double u = random.nextDouble();
+            switch (this) {
+                case FIXED:
+                    return meanNanos;
+                case UNIFORM:
+                    return (long) (u * 2 * meanNanos);
+                case EXPONENTIAL:
+                    return (long) (-meanNanos * Math.log(1 - u));
+                default:
+                    // scale so that the mean is meanNanos, capped to keep a run bounded
+                    double sample = meanNanos / 3.0 / Math.pow(1 - u, 1 / 1.5);
+                    return (long) Math.min(sample, 100.0 * meanNanos);
+            }
+        }
+    }
+
+    /**
+     * What to do with one request
+     */
+    public static class Decision {
+        static final Decision NONE = new Decision(0, null);
+
+        private final long delayNanos;
+        private final Fault fault;
+
+        Decision(long delayNanos, Fault fault) {
+            this.delayNanos = delayNanos;
+            this.fault = fault;
+        }
+
+        public long delayNanos() {
+            return delayNanos;
+        }
+
+        /**
+         * @return fault other than a delay to inject, or null to answer normally
+         */
+        public Fault fault() {
+            return fault;
+        }
+    }
+
+    private static class Rule {
+        private final String route;
+        private final Fault fault;
+        private final double percent;
+        private final long delayNanos;
+        private final Distribution distribution;
+        private final LongAdder injected = new LongAdder();
+
+        Rule(String route, Fault fault, double percent, long delayNanos, Distribution distribution) {
+            this.route = route;
+            this.fault = fault;
+            this.percent = percent;
+            this.delayNanos = delayNanos;
+            this.distribution = distribution;
+        }
+
+        boolean matches(String route) {
+            return this.route.equals("*") || this.route.equals(route);
+        }
+
+        @Override
+        public String toString() {
+            String rule = route + " " + fault.label() + " " + formatPercent(percent);
+            if (fault == Fault.DELAY) {
+                rule += " " + TimeUnit.NANOSECONDS.toMillis(delayNanos) + "ms "
+                        + distribution.name().toLowerCase(Locale.ROOT);
+            }
+            return rule;
+        }
+    }
+
+    private final List<Rule> rules;
+    private final Map<String, Rule[]> delaysByRoute = new LinkedHashMap<>();
+    private final Map<String, Rule[]> faultsByRoute = new LinkedHashMap<>();
+
+    private FaultInjector(List<Rule> rules) {
+        this.rules = rules;
+        for (String route : new String[]{"registration", "reservations", "*"}) {
+            delaysByRoute.put(route, select(route, true));
+            faultsByRoute.put(route, select(route, false));
+        }
+    }
+
+    private Rule[] select(String route, boolean delays) {
+        return rules.stream()
+                .filter(rule -> rule.matches(route) && (rule.fault == Fault.DELAY) == delays)
+                .toArray(Rule[]::new);
+    }
+
+    /**
+     * Parse a profile written as in the description of this class
+     *
+     * @throws IllegalArgumentException if a rule is malformed
+     */
+    public static FaultInjector parse(String profile) {
+        Builder builder = new Builder();
+        for (String line : profile.split("[;\n]")) {
+            String[] words = line.trim().split("\\s+");
+            if (words.length == 1 && words[0].isEmpty()) {
+                continue;
+            }
+            if (words.length < 3) {
+                throw new IllegalArgumentException("expected <route> <fault> <percent>%: " + line.trim());
+            }
+            Fault fault = Fault.parse(words[1]);
+            double percent = parsePercent(words[2]);
+            if (fault == Fault.DELAY) {
+                if (words.length < 4 || !words[3].endsWith("ms")) {
+                    throw new IllegalArgumentException("expected a delay in ms: " + line.trim());
+                }
+                long millis = Long.parseLong(words[3].substring(0, words[3].length() - 2));
+                Distribution distribution = words.length > 4
+                        ? Distribution.valueOf(words[4].toUpperCase(Locale.ROOT))
+                        : Distribution.FIXED;
+                builder.delay(words[0], percent, millis, TimeUnit.MILLISECONDS, distribution);
+            } else {
+                builder.fault(words[0], fault, percent);
+            }
+        }
+        return builder.build();
+    }
+
+    private static double parsePercent(String word) {
+        if (!word.endsWith("%")) {
+            throw new IllegalArgumentException("expected a percentage: " + word);
+        }
+        return Double.parseDouble(word.substring(0, word.length() - 1));
+    }
+
+    private static String formatPercent(double percent) {
+        return (percent == Math.rint(percent) ? String.valueOf((long) percent) : String.valueOf(percent)) + "%";
+    }
+
+    /**
+     * Roll the dice for one request
+     *
+     * @param route first segment of the request path
+     */
+    public Decision decide(String route) {
+        Rule[] delays = delaysByRoute.get(route);
+        if (delays == null) {
+            delays = delaysByRoute.get("*");
+        }
+        Rule[] faults = faultsByRoute.get(route);
+        if (faults == null) {
+            faults = faultsByRoute.get("*");
+        }
+        if (delays.length == 0 && faults.length == 0) {
+            return Decision.NONE;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delayNanos = 0;
+        for (Rule rule : delays) {
+            if (random.nextDouble() * 100 < rule.percent) {
+                rule.injected.increment();
+                delayNanos += rule.distribution.sample(rule.delayNanos, random);
+            }
+        }
+        Fault fault = null;
+        double roll = random.nextDouble() * 100;
+        for (Rule rule : faults) {
+            roll -= rule.percent;
+            if (roll < 0) {
+                rule.injected.increment();
+                fault = rule.fault;
+                break;
+            }
+        }
+        return delayNanos == 0 && fault == null ? Decision.NONE : new Decision(delayNanos, fault);
+    }
+
+    /**
+     * @return number of requests a fault was injected into, on every route
+     */
+    public long injectedCount(Fault fault) {
+        long count = 0;
+        for (Rule rule : rules) {
+            if (rule.fault == fault) {
+                count += rule.injected.sum();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the profile in the syntax {@link #parse} reads
+     */
+    @Override
+    public String toString() {
+        StringBuilder profile = new StringBuilder();
+        for (Rule rule : rules) {
+            if (profile.length() > 0) {
+                profile.append("; ");
+            }
+            profile.append(rule);
+        }
+        return profile.toString();
+    }
+
+    public static class Builder {
+        private final List<Rule> rules = new ArrayList<>();
+
+        /**
+         * Delay a share of the requests of a route
+         *
+         * @param route        first path segment, or {@code *} for every route
+         * @param percent      share of the requests delayed, from 0 to 100
+         * @param mean         mean delay
+         * @param distribution how delays spread around the mean
+         */
+        public Builder delay(String route, double percent, long mean, TimeUnit unit, Distribution distribution) {
+            checkPercent(percent);
+            rules.add(new Rule(route, Fault.DELAY, percent, unit.toNanos(mean), distribution));
+            return this;
+        }
+
+        /**
+         * Inject a fault other than a delay into a share of the requests of a route
+         *
+         * @param route   first path segment, or {@code *} for every route
+         * @param percent share of the requests hit, from 0 to 100
+         */
+        public Builder fault(String route, Fault fault, double percent) {
+            if (fault == Fault.DELAY) {
+                throw new IllegalArgumentException("use delay() for delays");
+            }
+            checkPercent(percent);
+            rules.add(new Rule(route, fault, percent, 0, Distribution.FIXED));
+            return this;
+        }
+
+        private static void checkPercent(double percent) {
+            if (!(percent >= 0 && percent <= 100)) {
+                throw new IllegalArgumentException("percentage out of 0..100: " + percent);
+            }
+        }
+
+        /**
+         * @throws IllegalArgumentException if the faults of a route add up to more than 100%
+         */
+        public FaultInjector build() {
+            FaultInjector injector = new FaultInjector(new ArrayList<>(rules));
+            for (Map.Entry<String, Rule[]> route : injector.faultsByRoute.entrySet()) {
+                double total = 0;
+                for (Rule rule : route.getValue()) {
+                    total += rule.percent;
+                }
+                if (total > 100) {
+                    throw new IllegalArgumentException("faults of " + route.getKey() + " add up to " + total + "%");
+                }
+            }
+            return injector;
+        }
+    }
+}
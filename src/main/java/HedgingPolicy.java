@@ -0,0 +1,66 @@
+import org.HdrHistogram.ConcurrentHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when a slow lookup gets a second, hedged request: once the first
+ * request has been outstanding for longer than a percentile of the observed
+ * lookup latencies, bounded by a minimum and maximum delay.
+ */
+public class HedgingPolicy {
+    private static final long MIN_SAMPLES = 20;
+
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final ConcurrentHistogram latencies = new ConcurrentHistogram(2);
+    private final LongAdder hedged = new LongAdder();
+
+    /**
+     * Hedge after the 95th percentile of observed latencies
+     *
+     * @param minDelay lower bound of the hedging delay
+     * @param maxDelay upper bound of the hedging delay, used until enough
+     *                 latencies are observed
+     * @param unit     unit of both delays
+     */
+    public HedgingPolicy(long minDelay, long maxDelay, TimeUnit unit) {
+        this(95, minDelay, maxDelay, unit);
+    }
+
+    public HedgingPolicy(double percentile, long minDelay, long maxDelay, TimeUnit unit) {
+        this.percentile = percentile;
+        this.minDelayNanos = unit.toNanos(minDelay);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    /**
+     * @return time to wait for the first request before hedging
+     */
+    public long delayNanos() {
+        if (latencies.getTotalCount() < MIN_SAMPLES) {
+            return maxDelayNanos;
+        }
+        long delay = TimeUnit.MICROSECONDS.toNanos(latencies.getValueAtPercentile(percentile));
+        return Math.max(minDelayNanos, Math.min(maxDelayNanos, delay));
+    }
+
+    /**
+     * Record the latency of a completed lookup request
+     */
+    public void record(long latencyNanos) {
+        latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    void hedged() {
+        hedged.increment();
+    }
+
+    /**
+     * @return number of lookups that sent a hedged request
+     */
+    public long hedgedCount() {
+        return hedged.sum();
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Append-only journal of the rows processed by a {@link CsvImport}, so an
+ * interrupted import resumes without registering anyone twice.
+ *
+ * Each entry is 5 bytes: the row number and its state. A row is journaled
+ * as {@link #STARTED} before its registration is sent and with its outcome
+ * once answered. On reopen the journal is replayed into bitmaps, and a
+ * torn entry left by a crash is discarded.
+ */
+public class ImportJournal implements Closeable {
+    /**
+     * Registration sent, outcome unknown
+     */
+    public static final byte STARTED = 1;
+    /**
+     * Citizen is registered, by this import or before it
+     */
+    public static final byte REGISTERED = 2;
+    /**
+     * Record refused by validation or by the server, retrying is pointless
+     */
+    public static final byte REJECTED = 3;
+    /**
+     * Request failed in transit, the row is retried on resume
+     */
+    public static final byte FAILED = 4;
+
+    private static final int ENTRY_SIZE = 5;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(ENTRY_SIZE * 8192);
+    private final BitSet started = new BitSet();
+    private final BitSet finished = new BitSet();
+
+    /**
+     * Open the journal, replaying the entries of a previous run
+     *
+     * @param file journal file, created if absent
+     * @throws IOException if the journal could not be read
+     */
+    public ImportJournal(Path file) throws IOException {
+        channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long complete = channel.size() / ENTRY_SIZE * ENTRY_SIZE;
+        if (complete > 0) {
+            MappedByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, complete);
+            while (entries.hasRemaining()) {
+                apply(entries.getInt(), entries.get());
+            }
+        }
+        if (complete < channel.size()) {
+            channel.truncate(complete);
+        }
+        channel.position(complete);
+    }
+
+    private void apply(int row, byte state) {
+        if (state == STARTED) {
+            started.set(row);
+        } else if (state == FAILED) {
+            started.clear(row);
+        } else {
+            finished.set(row);
+        }
+    }
+
+    /**
+     * @return true if the row has a final outcome
+     */
+    public synchronized boolean isFinished(int row) {
+        return finished.get(row);
+    }
+
+    /**
+     * @return true if the registration of the row was sent but never
+     *         answered, so the server may or may not have stored it
+     */
+    public synchronized boolean isInDoubt(int row) {
+        return started.get(row) && !finished.get(row);
+    }
+
+    /**
+     * @return number of rows with a final outcome
+     */
+    public synchronized int finishedCount() {
+        return finished.cardinality();
+    }
+
+    /**
+     * Append an entry, written out on the next {@link #flush()} or when
+     * the buffer is full
+     */
+    public synchronized void append(int row, byte state) throws IOException {
+        if (buffer.remaining() < ENTRY_SIZE) {
+            writeBuffer();
+        }
+        buffer.putInt(row).put(state);
+        apply(row, state);
+    }
+
+    /**
+     * Write buffered entries and force them to the storage device
+     */
+    public synchronized void flush() throws IOException {
+        writeBuffer();
+        channel.force(false);
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
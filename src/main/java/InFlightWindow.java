@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the asynchronous calls a producer loop keeps in flight, and tells
+ * when the last of them has been handled.
+ *
+ * The producer submits each call, blocking while the window is full, then
+ * calls {@link #finish} once it has nothing left to submit. The returned
+ * future completes once every handler has run. The first exception thrown
+ * by a handler fails it instead, and from then on calls are no longer
+ * submitted, so the producer stops.
+ */
+public class InFlightWindow {
+    private final Semaphore slots;
+    // one extra count for the producer so the future can't complete mid-stream
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    /**
+     * @param maxInFlight maximum number of calls awaiting an answer
+     */
+    public InFlightWindow(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight < 1: " + maxInFlight);
+        }
+        slots = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Wait for a free slot, then make the call and hand its outcome to the
+     * handler. A call throwing instead of returning its future is handled
+     * as a failed call.
+     *
+     * @param call    starts the asynchronous call
+     * @param handler receives the result or the failure of the call, on the
+     *                thread completing it
+     * @return false if a handler failed, in which case the call was not made
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public <T> boolean submit(Supplier<CompletableFuture<T>> call, BiConsumer<? super T, Throwable> handler)
+            throws InterruptedException {
+        slots.acquire();
+        if (done.isCompletedExceptionally()) {
+            slots.release();
+            return false;
+        }
+        pending.incrementAndGet();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((result, error) -> {
+            try {
+                handler.accept(result, error);
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            } finally {
+                slots.release();
+                arrive();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @return true if a handler failed, so the producer should stop
+     */
+    public boolean isFailed() {
+        return done.isCompletedExceptionally();
+    }
+
+    /**
+     * Tell the window the producer submitted its last call, to be called
+     * exactly once, in a finally block
+     *
+     * @return future completed once every submitted call is handled, or
+     *         failed with the first exception thrown by a handler
+     */
+    public CompletableFuture<Void> finish() {
+        arrive();
+        return done;
+    }
+
+    private void arrive() {
+        if (pending.decrementAndGet() == 0) {
+            done.complete(null);
+        }
+    }
+
+    /**
+     * Wait for a future of the window, rethrowing the failure of a handler
+     *
+     * @throws IOException if a handler failed with an IOException, possibly
+     *                     wrapped in an {@link UncheckedIOException}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    static void await(CompletableFuture<?> future) throws IOException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives registration, lookup and delete requests at a fixed arrival rate.
+ *
+ * Requests are fired on a schedule that does not wait for previous answers
+ * (open model), and latency is measured from the time a request was meant
+ * to start, so a stalled backend shows up in the percentiles instead of
+ * silently lowering the request rate.
+ *
+ * Usage: {@code LoadGenerator <baseUrl|stand-in> <requestsPerSecond> <seconds> [register:lookup:delete]}
+ */
+public class LoadGenerator {
+    public static final String REGISTER = "register";
+    public static final String LOOKUP = "lookup";
+    public static final String DELETE = "delete";
+
+    private final VaccineApiClient api;
+    private final double requestsPerSecond;
+    private final long durationNanos;
+    private final int registerWeight;
+    private final int lookupWeight;
+    private final int deleteWeight;
+    private final LoadReport report = new LoadReport();
+
+    private final CitizenIdGenerator citizenIds = new CitizenIdGenerator();
+    private final Queue<String> deletable = new ConcurrentLinkedQueue<>();
+    private final AtomicReferenceArray<String> recent = new AtomicReferenceArray<>(4096);
+    private final AtomicInteger recentCount = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private LoadGenerator(Builder builder) {
+        api = builder.api;
+        requestsPerSecond = builder.requestsPerSecond;
+        durationNanos = builder.durationNanos;
+        registerWeight = builder.registerWeight;
+        lookupWeight = builder.lookupWeight;
+        deleteWeight = builder.deleteWeight;
+    }
+
+    public LoadReport report() {
+        return report;
+    }
+
+    /**
+     * Fire requests for the configured duration then wait for the
+     * outstanding ones
+     *
+     * @return report of the run
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public LoadReport run() throws InterruptedException {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        long start = System.nanoTime();
+        long total = durationNanos / intervalNanos;
+        int weights = registerWeight + lookupWeight + deleteWeight;
+        for (long i = 0; i < total; i++) {
+            long intendedStart = start + i * intervalNanos;
+            long wait = intendedStart - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int pick = ThreadLocalRandom.current().nextInt(weights);
+            if (pick < registerWeight) {
+                fire(REGISTER, register(), intendedStart);
+            } else if (pick < registerWeight + lookupWeight) {
+                fire(LOOKUP, api.userRequest(anyCitizenId()), intendedStart);
+            } else {
+                String citizenId = deletable.poll();
+                fire(DELETE, api.deleteRequest(citizenId != null ? citizenId : anyCitizenId()), intendedStart);
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return report;
+    }
+
+    private Request register() {
+        return api.registrationRequest(citizenIds.nextCitizen("Load", "Generator"));
+    }
+
+    private String anyCitizenId() {
+        int count = Math.min(recentCount.get(), recent.length());
+        if (count == 0) {
+            return citizenIds.next();
+        }
+        return recent.get(ThreadLocalRandom.current().nextInt(count));
+    }
+
+    private void fire(String operation, Request request, long intendedStart) {
+        inFlight.incrementAndGet();
+        api.httpClient().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                report.recordFailure(operation, System.nanoTime() - intendedStart);
+                report.error(operation, e.getClass().getSimpleName());
+                inFlight.decrementAndGet();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    String failure = failure(operation, response);
+                    report.record(operation, response.code(), System.nanoTime() - intendedStart);
+                    if (failure != null) {
+                        report.error(operation, failure);
+                    } else {
+                        report.success();
+                        if (operation.equals(REGISTER)) {
+                            String citizenId = call.request().tag(String.class);
+                            deletable.add(citizenId);
+                            recent.set(recentCount.getAndIncrement() & (recent.length() - 1), citizenId);
+                        }
+                    }
+                } catch (IOException e) {
+                    // a truncated answer fails while its body is read
+                    report.recordFailure(operation, System.nanoTime() - intendedStart);
+                    report.error(operation, e.getClass().getSimpleName());
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return feedback of a failed request, or null if it succeeded
+     */
+    private String failure(String operation, Response response) throws IOException {
+        if (response.isSuccessful() && !operation.equals(REGISTER)) {
+            // only a fully received answer is a success
+            response.body().source().readAll(Okio.blackhole());
+            return null;
+        }
+        try {
+            RegistrationResponseBody body = api.readRegistration(response);
+            if (response.isSuccessful() && body.isRegistrationSuccessful()) {
+                return null;
+            }
+            return body.getFeedback();
+        } catch (VaccineApiException e) {
+            return "HTTP " + response.code() + " " + response.message();
+        }
+    }
+
+    public static class Builder {
+        private final VaccineApiClient api;
+        private double requestsPerSecond = 100;
+        private long durationNanos = TimeUnit.SECONDS.toNanos(10);
+        private int registerWeight = 1;
+        private int lookupWeight = 1;
+        private int deleteWeight = 1;
+
+        public Builder(VaccineApiClient api) {
+            this.api = api;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the rate is not positive, or
+         *                                  so high requests would be less
+         *                                  than a nanosecond apart
+         */
+        public Builder requestsPerSecond(double requestsPerSecond) {
+            if (!(requestsPerSecond > 0) || (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond) == 0) {
+                throw new IllegalArgumentException("invalid rate: " + requestsPerSecond + "/s");
+            }
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        public Builder duration(long duration, TimeUnit unit) {
+            this.durationNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Relative weights of the operations in the request mix
+         */
+        public Builder mix(int register, int lookup, int delete) {
+            if (register < 0 || lookup < 0 || delete < 0 || register + lookup + delete == 0) {
+                throw new IllegalArgumentException("invalid mix " + register + ":" + lookup + ":" + delete);
+            }
+            this.registerWeight = register;
+            this.lookupWeight = lookup;
+            this.deleteWeight = delete;
+            return this;
+        }
+
+        public LoadGenerator build() {
+            return new LoadGenerator(this);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: LoadGenerator <baseUrl|stand-in> <requestsPerSecond> <seconds> "
+                    + "[register:lookup:delete]");
+            System.exit(2);
+        }
+        StandInServer standIn = args[0].equals("stand-in") ? new StandInServer(new StandInApi(), 0) : null;
+        try (VaccineApiClient api = new VaccineApiClient.Builder()
+                .baseUrl(standIn != null ? standIn.url() : HttpUrl.get(args[0]))
+                .build()) {
+            Builder builder = new Builder(api)
+                    .requestsPerSecond(Double.parseDouble(args[1]))
+                    .duration(Long.parseLong(args[2]), TimeUnit.SECONDS);
+            if (args.length > 3) {
+                String[] mix = args[3].split(":");
+                builder.mix(Integer.parseInt(mix[0]), Integer.parseInt(mix[1]), Integer.parseInt(mix[2]));
+            }
+            builder.build().run().print(System.out);
+        } finally {
+            if (standIn != null) {
+                standIn.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and errors collected during a load run, with one histogram per
+ * operation and status code. Every method is thread-safe.
+ */
+public class LoadReport {
+    private final ConcurrentMap<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LongAdder successes = new LongAdder();
+
+    /**
+     * Record the latency of one answered request
+     *
+     * @param operation    name of the operation, e.g. {@code register}
+     * @param code         HTTP status code of the response
+     * @param latencyNanos time between the intended start and the end of the request
+     */
+    public void record(String operation, int code, long latencyNanos) {
+        latencies.computeIfAbsent(operation + " " + code, key -> new ConcurrentHistogram(3))
+                .recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * Record the time a request took to fail without an answer, such as a
+     * reset connection or a timeout, kept apart from the answered requests
+     * under the status {@code failed}
+     *
+     * @param operation    name of the operation
+     * @param latencyNanos time between the intended start and the failure
+     */
+    public void recordFailure(String operation, long latencyNanos) {
+        latencies.computeIfAbsent(operation + " failed", key -> new ConcurrentHistogram(3))
+                .recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * Count one failed request
+     *
+     * @param operation name of the operation
+     * @param reason    feedback string of the server or error of the transport
+     */
+    public void error(String operation, String reason) {
+        errors.computeIfAbsent(operation + ": " + reason, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Count one request that succeeded
+     */
+    public void success() {
+        successes.increment();
+    }
+
+    /**
+     * @return total number of recorded latencies, answered or failed
+     */
+    public long count() {
+        long count = 0;
+        for (Histogram histogram : latencies.values()) {
+            count += histogram.getTotalCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return number of requests that succeeded
+     */
+    public long successCount() {
+        return successes.sum();
+    }
+
+    /**
+     * @return number of recorded errors
+     */
+    public long errorCount() {
+        long count = 0;
+        for (LongAdder adder : errors.values()) {
+            count += adder.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Merge every histogram whose operation matches
+     *
+     * @param operation name of the operation
+     * @return latencies of the operation in microseconds for every status
+     *         code and for the failed requests
+     */
+    public Histogram latencies(String operation) {
+        Histogram merged = new Histogram(3);
+        for (Map.Entry<String, Histogram> entry : latencies.entrySet()) {
+            if (entry.getKey().startsWith(operation + " ")) {
+                merged.add(entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Print percentiles in milliseconds per operation and status code,
+     * followed by the error breakdown
+     */
+    public void print(PrintStream out) {
+        out.printf("%-20s %10s %10s %10s %10s %10s%n", "operation", "count", "p50", "p99", "p99.9", "max");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(latencies).entrySet()) {
+            Histogram histogram = entry.getValue();
+            out.printf("%-20s %10d %10.2f %10.2f %10.2f %10.2f%n",
+                    entry.getKey(),
+                    histogram.getTotalCount(),
+                    histogram.getValueAtPercentile(50) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0,
+                    histogram.getMaxValue() / 1000.0);
+        }
+        if (!errors.isEmpty()) {
+            out.println();
+            out.println("errors:");
+            for (Map.Entry<String, LongAdder> entry : new TreeMap<>(errors).entrySet()) {
+                out.printf("%10d  %s%n", entry.getValue().sum(), entry.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,615 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Durable append-only log of the registrations and deletions waiting in a
+ * {@link RegistrationOutbox}, split into segment files in one directory.
+ *
+ * Every operation gets the next sequence number, and each segment is
+ * named after the sequence number of its first operation. A segment
+ * starts with the magic {@code VOBX} and a format version, then holds one
+ * entry per operation or acknowledgement:
+ * <pre>
+ * int    length of the rest of the entry, after the checksum
+ * int    CRC32 of the rest of the entry
+ * byte   kind: 1 registration, 2 deletion, 3 acknowledgement
+ * long   sequence number of the operation, or of the acknowledged one
+ * for operations:
+ * short  citizen id length, then the citizen id in UTF-8
+ * for registrations:
+ * short  length then UTF-8 of name, surname, birth date, occupation and
+ *        phone number in turn, -1 for a missing field
+ * byte   is risk: 0 false, 1 true, -1 missing
+ * short  address length, then the address in UTF-8
+ * </pre>
+ * Entries are buffered and written out when the buffer fills, when the
+ * reader catches up with them or on {@link #flush()}, which also forces
+ * them to the storage device; a segment is forced once full.
+ *
+ * Only one bit per operation of the segments on disk is kept on the heap,
+ * recording whether it was acknowledged. A segment is deleted once every
+ * operation it holds is acknowledged, no segment before it is left and
+ * a newer one has taken the appends. On reopen the segments are replayed,
+ * a torn entry at the end of the last one is discarded, and a log with
+ * nothing left to send starts over with an empty segment.
+ */
+public class OutboxLog implements Closeable {
+    public static final byte REGISTER = 1;
+    public static final byte DELETE = 2;
+    private static final byte ACK = 3;
+
+    private static final int MAGIC = 0x564f4258;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_HEADER_SIZE = 8;
+    private static final String SUFFIX = ".log";
+
+    /**
+     * Operation read back from the log
+     */
+    public static class Entry {
+        private final long sequence;
+        private final byte kind;
+        private final String citizenId;
+        private final Citizen citizen;
+
+        Entry(long sequence, byte kind, String citizenId, Citizen citizen) {
+            this.sequence = sequence;
+            this.kind = kind;
+            this.citizenId = citizenId;
+            this.citizen = citizen;
+        }
+
+        public long sequence() {
+            return sequence;
+        }
+
+        /**
+         * @return {@link #REGISTER} or {@link #DELETE}
+         */
+        public byte kind() {
+            return kind;
+        }
+
+        public String citizenId() {
+            return citizenId;
+        }
+
+        /**
+         * @return record to register, null for a deletion
+         */
+        public Citizen citizen() {
+            return citizen;
+        }
+
+        /**
+         * @return whether both entries carry the same operation with the
+         *         same fields, whatever their sequence numbers
+         */
+        public boolean sameOperation(Entry other) {
+            if (kind != other.kind || !Objects.equals(citizenId, other.citizenId)) {
+                return false;
+            }
+            if (citizen == null || other.citizen == null) {
+                return citizen == other.citizen;
+            }
+            return Objects.equals(citizen.getName(), other.citizen.getName())
+                    && Objects.equals(citizen.getSurname(), other.citizen.getSurname())
+                    && Objects.equals(citizen.getBirthDate(), other.citizen.getBirthDate())
+                    && Objects.equals(citizen.getOccupation(), other.citizen.getOccupation())
+                    && Objects.equals(citizen.getPhoneNumber(), other.citizen.getPhoneNumber())
+                    && Objects.equals(citizen.getIsRisk(), other.citizen.getIsRisk())
+                    && Objects.equals(citizen.getAddress(), other.citizen.getAddress());
+        }
+    }
+
+    private static class Segment {
+        private final long firstSequence;
+        private final Path file;
+        private final FileChannel channel;
+        /**
+         * Bytes written to the file, buffered entries excluded
+         */
+        private long size;
+        private int operations;
+        private final BitSet acked = new BitSet();
+        private int ackedCount;
+
+        Segment(long firstSequence, Path file, FileChannel channel) {
+            this.firstSequence = firstSequence;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        boolean contains(long sequence) {
+            return sequence >= firstSequence && sequence - firstSequence < operations;
+        }
+
+        boolean drained() {
+            return ackedCount == operations;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final CRC32 crc = new CRC32();
+    private Segment active;
+    private long nextSequence;
+    private Segment readSegment;
+    private long readPosition;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+    private Segment bufferedSegment;
+    private long bufferStart;
+    private boolean closed;
+
+    /**
+     * Open the log, replaying the segments of a previous run
+     *
+     * @param directory   directory of the segments, created if absent
+     * @param segmentSize size in bytes past which a new segment is started
+     * @throws IOException if a segment could not be read, or is corrupt
+     *                     before its end
+     */
+    public OutboxLog(Path directory, long segmentSize) throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize <= " + HEADER_SIZE + ": " + segmentSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                String digits = name.substring(0, name.length() - SUFFIX.length());
+                if (!digits.isEmpty() && digits.chars().allMatch(Character::isDigit)) {
+                    files.put(Long.parseLong(digits), file);
+                }
+            }
+        }
+        try {
+            for (Map.Entry<Long, Path> file : files.entrySet()) {
+                replay(file.getKey(), file.getValue(), file.getKey().equals(files.lastKey()));
+            }
+            if (segments.values().stream().allMatch(Segment::drained)) {
+                // nothing left to send, start over with an empty segment
+                for (Segment segment : segments.values()) {
+                    delete(segment);
+                }
+                segments.clear();
+            }
+            active = segments.isEmpty() ? newSegment(nextSequence) : segments.lastEntry().getValue();
+        } catch (IOException | RuntimeException e) {
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+            throw e;
+        }
+        readSegment = segments.firstEntry().getValue();
+        readPosition = HEADER_SIZE;
+    }
+
+    private void replay(long firstSequence, Path file, boolean last) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(firstSequence, file, channel);
+        segments.put(firstSequence, segment);
+        long end = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // read the whole header
+        }
+        if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+            if (!last || end > HEADER_SIZE) {
+                throw new IOException("not an outbox segment: " + file);
+            }
+            // created but never written
+            channel.truncate(0);
+            channel.write(header.clear().putInt(MAGIC).putInt(VERSION).flip(), 0);
+            segment.size = HEADER_SIZE;
+            nextSequence = Math.max(nextSequence, firstSequence);
+            return;
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("unsupported outbox version " + header.getInt(4) + ": " + file);
+        }
+        long position = HEADER_SIZE;
+        ByteBuffer entry;
+        while ((entry = entryAt(segment, position, end)) != null) {
+            byte kind = entry.get(0);
+            long sequence = entry.getLong(1);
+            if (kind == ACK) {
+                Map.Entry<Long, Segment> target = segments.floorEntry(sequence);
+                if (target != null && target.getValue().contains(sequence)) {
+                    markAcked(target.getValue(), sequence);
+                }
+            } else if (sequence == firstSequence + segment.operations) {
+                segment.operations++;
+            } else {
+                throw new IOException("outbox entry " + sequence + " out of order in " + file);
+            }
+            position += ENTRY_HEADER_SIZE + entry.remaining();
+        }
+        if (position < end) {
+            if (!last) {
+                throw new IOException("corrupt outbox segment " + file + " at " + position);
+            }
+            channel.truncate(position);
+        }
+        segment.size = position;
+        nextSequence = Math.max(nextSequence, firstSequence + segment.operations);
+    }
+
+    /**
+     * Append an operation, readable at once and durable on the next
+     * {@link #flush()}
+     *
+     * @param kind    {@link #REGISTER} or {@link #DELETE}
+     * @param citizen record to register, or carrying the id to delete
+     * @return sequence number of the operation
+     * @throws IOException if the log could not be written
+     */
+    public synchronized long append(byte kind, Citizen citizen) throws IOException {
+        if (kind != REGISTER && kind != DELETE) {
+            throw new IllegalArgumentException("unknown operation " + kind);
+        }
+        if (citizen.getCitizenId() == null) {
+            throw new IllegalArgumentException("citizen id is missing");
+        }
+        ensureOpen();
+        long sequence = nextSequence;
+        ByteBuffer entry = encode(kind, sequence, citizen);
+        if (active.operations > 0 && active.size + writeBuffer.position() + entry.remaining() > segmentSize) {
+            writeBuffer();
+            active.channel.force(false);
+            active = newSegment(sequence);
+        }
+        write(entry);
+        nextSequence++;
+        active.operations++;
+        notifyAll();
+        return sequence;
+    }
+
+    /**
+     * Record that an operation reached the server and must not be read
+     * again, which may free its segment
+     *
+     * @param sequence of the operation
+     * @throws IOException if the log could not be written
+     */
+    public synchronized void ack(long sequence) throws IOException {
+        ensureOpen();
+        Map.Entry<Long, Segment> floor = segments.floorEntry(sequence);
+        if (floor == null || !floor.getValue().contains(sequence)) {
+            throw new IllegalArgumentException("no pending operation " + sequence);
+        }
+        Segment segment = floor.getValue();
+        if (segment.acked.get((int) (sequence - segment.firstSequence))) {
+            return;
+        }
+        write(encode(ACK, sequence, null));
+        markAcked(segment, sequence);
+        compact();
+    }
+
+    private static void markAcked(Segment segment, long sequence) {
+        int index = (int) (sequence - segment.firstSequence);
+        if (!segment.acked.get(index)) {
+            segment.acked.set(index);
+            segment.ackedCount++;
+        }
+    }
+
+    /**
+     * Take the next operation that was neither read nor acknowledged,
+     * waiting for one to be appended
+     *
+     * @return the operation, or null if none was appended in time or the
+     *         log was closed
+     * @throws IOException          if the log could not be read
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized Entry take(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!closed) {
+            Entry entry = readNext();
+            if (entry != null) {
+                return entry;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return null;
+    }
+
+    private Entry readNext() throws IOException {
+        while (true) {
+            if (readPosition >= readSegment.size) {
+                if (readSegment == active) {
+                    if (writeBuffer.position() == 0) {
+                        return null;
+                    }
+                    writeBuffer();
+                    continue;
+                }
+                readSegment = segments.higherEntry(readSegment.firstSequence).getValue();
+                readPosition = HEADER_SIZE;
+                compact();
+                continue;
+            }
+            ByteBuffer entry = entryAt(readSegment, readPosition, readSegment.size);
+            if (entry == null) {
+                throw new IOException("corrupt outbox segment " + readSegment.file + " at " + readPosition);
+            }
+            readPosition += ENTRY_HEADER_SIZE + entry.remaining();
+            byte kind = entry.get();
+            long sequence = entry.getLong();
+            if (kind == ACK || readSegment.acked.get((int) (sequence - readSegment.firstSequence))) {
+                continue;
+            }
+            String citizenId = readString(entry);
+            if (kind == DELETE) {
+                return new Entry(sequence, kind, citizenId, null);
+            }
+            Citizen.Builder citizen = new Citizen.Builder()
+                    .citizenId(citizenId)
+                    .name(readString(entry))
+                    .surname(readString(entry))
+                    .birthDate(readString(entry))
+                    .occupation(readString(entry))
+                    .phoneNumber(readString(entry));
+            byte isRisk = entry.get();
+            return new Entry(sequence, kind, citizenId, citizen
+                    .isRisk(isRisk < 0 ? null : isRisk == 1)
+                    .address(readString(entry))
+                    .build());
+        }
+    }
+
+    /**
+     * Delete the oldest segments once every operation they hold is
+     * acknowledged and the reader has left them
+     */
+    private void compact() throws IOException {
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == active || oldest == readSegment || !oldest.drained()) {
+                return;
+            }
+            segments.pollFirstEntry();
+            delete(oldest);
+        }
+    }
+
+    private void delete(Segment segment) throws IOException {
+        if (bufferedSegment == segment) {
+            bufferedSegment = null;
+        }
+        segment.channel.close();
+        Files.deleteIfExists(segment.file);
+    }
+
+    /**
+     * @return operations appended but not acknowledged
+     */
+    public synchronized long pendingCount() {
+        long pending = 0;
+        for (Segment segment : segments.values()) {
+            pending += segment.operations - segment.ackedCount;
+        }
+        return pending;
+    }
+
+    /**
+     * @return segment files on disk
+     */
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return bytes of the segments on disk, buffered entries included
+     */
+    public synchronized long sizeOnDisk() {
+        long size = writeBuffer.position();
+        for (Segment segment : segments.values()) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Write buffered entries and force them to the storage device
+     */
+    public synchronized void flush() throws IOException {
+        ensureOpen();
+        writeBuffer();
+        active.channel.force(false);
+    }
+
+    private Segment newSegment(long firstSequence) throws IOException {
+        Path file = directory.resolve(String.format("%020d%s", firstSequence, SUFFIX));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(firstSequence, file, channel);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        segment.size = HEADER_SIZE;
+        segments.put(firstSequence, segment);
+        return segment;
+    }
+
+    private ByteBuffer encode(byte kind, long sequence, Citizen citizen) throws IOException {
+        byte[][] strings = kind == ACK ? new byte[0][]
+                : kind == DELETE ? new byte[][]{utf8(citizen.getCitizenId())}
+                : new byte[][]{
+                utf8(citizen.getCitizenId()),
+                utf8(citizen.getName()),
+                utf8(citizen.getSurname()),
+                utf8(citizen.getBirthDate()),
+                utf8(citizen.getOccupation()),
+                utf8(citizen.getPhoneNumber()),
+                utf8(citizen.getAddress())};
+        int length = 1 + 8 + (kind == REGISTER ? 1 : 0);
+        for (byte[] string : strings) {
+            length += 2 + (string != null ? string.length : 0);
+        }
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE + length)
+                .putInt(length)
+                .putInt(0)
+                .put(kind)
+                .putLong(sequence);
+        for (int i = 0; i < strings.length; i++) {
+            // the flag sits at its place in the field order, between the strings
+            if (i == RegistrationEncoder.IS_RISK) {
+                Boolean isRisk = citizen.getIsRisk();
+                entry.put((byte) (isRisk == null ? -1 : isRisk ? 1 : 0));
+            }
+            if (strings[i] == null) {
+                entry.putShort((short) -1);
+            } else {
+                entry.putShort((short) strings[i].length).put(strings[i]);
+            }
+        }
+        crc.reset();
+        crc.update(entry.array(), ENTRY_HEADER_SIZE, length);
+        entry.putInt(4, (int) crc.getValue());
+        return entry.flip();
+    }
+
+    private static byte[] utf8(String value) throws IOException {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IOException("field too long for the outbox: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private static String readString(ByteBuffer entry) {
+        int length = entry.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        entry.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void write(ByteBuffer entry) throws IOException {
+        if (entry.remaining() > writeBuffer.remaining()) {
+            writeBuffer();
+        }
+        if (entry.remaining() <= writeBuffer.remaining()) {
+            writeBuffer.put(entry);
+            return;
+        }
+        while (entry.hasRemaining()) {
+            active.size += active.channel.write(entry, active.size);
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            active.size += active.channel.write(writeBuffer, active.size);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * @return the entry at a position of a segment, from its kind to its
+     *         end, or null if it is torn or fails its checksum
+     */
+    private ByteBuffer entryAt(Segment segment, long position, long end) throws IOException {
+        if (end - position < ENTRY_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = read(segment, position, ENTRY_HEADER_SIZE);
+        int length = header.getInt(0);
+        int checksum = header.getInt(4);
+        if (length < 9 || position + ENTRY_HEADER_SIZE + length > end) {
+            return null;
+        }
+        ByteBuffer entry = read(segment, position + ENTRY_HEADER_SIZE, length);
+        crc.reset();
+        crc.update(entry.duplicate());
+        return (int) crc.getValue() == checksum ? entry : null;
+    }
+
+    /**
+     * @return bytes of a segment, from the read buffer, which is refilled
+     *         from that position when it does not hold them all
+     */
+    private ByteBuffer read(Segment segment, long position, int length) throws IOException {
+        if (segment != bufferedSegment || position < bufferStart
+                || position + length > bufferStart + readBuffer.limit()) {
+            if (length > readBuffer.capacity()) {
+                readBuffer = ByteBuffer.allocate(length);
+            }
+            readBuffer.clear();
+            while (readBuffer.hasRemaining()) {
+                if (segment.channel.read(readBuffer, position + readBuffer.position()) < 0) {
+                    break;
+                }
+            }
+            readBuffer.flip();
+            bufferedSegment = segment;
+            bufferStart = position;
+            if (readBuffer.limit() < length) {
+                throw new IOException("outbox segment " + segment.file + " shorter than expected");
+            }
+        }
+        int offset = (int) (position - bufferStart);
+        return readBuffer.duplicate().position(offset).limit(offset + length).slice();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("outbox log is closed");
+        }
+    }
+
+    /**
+     * Flush buffered entries and close the segments, waking a blocked
+     * {@link #take}
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        notifyAll();
+        try {
+            writeBuffer();
+            active.channel.force(false);
+        } finally {
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+import com.google.gson.stream.JsonWriter;
+import okhttp3.HttpUrl;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Compares a local dataset of citizens with what the server has registered.
+ *
+ * Every citizen of the {@link CitizenTable} is looked up concurrently, with
+ * a bounded number of lookups in flight, and each field is compared with
+ * the server's record. Citizens holding a reservation but absent from the
+ * dataset are looked up too and reported as extra, since the API offers no
+ * other way to list registrations. Only differences are materialized.
+ *
+ * Usage: {@code Reconciliation <csv> <baseUrl|stand-in> [report.jsonl]}
+ */
+public class Reconciliation {
+    public enum Kind {
+        /**
+         * In the dataset, not registered on the server
+         */
+        MISSING,
+        /**
+         * Registered on the server, not in the dataset
+         */
+        EXTRA,
+        /**
+         * Registered with a field differing from the dataset
+         */
+        MISMATCH,
+        /**
+         * Registered with other vaccines than the dataset knows of
+         */
+        VACCINE_CHANGED
+    }
+
+    /**
+     * One difference between the dataset and the server
+     */
+    public static class Difference {
+        private final Kind kind;
+        private final String citizenId;
+        private final String field;
+        private final String local;
+        private final String server;
+
+        Difference(Kind kind, String citizenId, String field, String local, String server) {
+            this.kind = kind;
+            this.citizenId = citizenId;
+            this.field = field;
+            this.local = local;
+            this.server = server;
+        }
+
+        public Kind kind() {
+            return kind;
+        }
+
+        public String citizenId() {
+            return citizenId;
+        }
+
+        /**
+         * @return name of the differing field, or null for a missing or extra citizen
+         */
+        public String field() {
+            return field;
+        }
+
+        public String local() {
+            return local;
+        }
+
+        public String server() {
+            return server;
+        }
+
+        /**
+         * Write the difference as one JSON object
+         */
+        public void write(JsonWriter writer) throws IOException {
+            writer.beginObject()
+                    .name("kind").value(kind.name())
+                    .name("citizen_id").value(citizenId);
+            if (field != null) {
+                writer.name("field").value(field)
+                        .name("local").value(local)
+                        .name("server").value(server);
+            }
+            writer.endObject();
+        }
+
+        @Override
+        public String toString() {
+            return field == null
+                    ? kind + " " + citizenId
+                    : kind + " " + citizenId + " " + field + ": " + local + " -> " + server;
+        }
+    }
+
+    /**
+     * Counters of one reconciliation
+     */
+    public static class Report {
+        private final LongAdder checked = new LongAdder();
+        private final LongAdder matched = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder[] differences = new LongAdder[Kind.values().length];
+
+        Report() {
+            for (int i = 0; i < differences.length; i++) {
+                differences[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @return citizens looked up
+         */
+        public long checked() {
+            return checked.sum();
+        }
+
+        /**
+         * @return citizens of the dataset registered with identical fields
+         */
+        public long matched() {
+            return matched.sum();
+        }
+
+        /**
+         * @return lookups that failed, whose citizens were not compared
+         */
+        public long failed() {
+            return failed.sum();
+        }
+
+        /**
+         * @return differences of a kind, counting one per field for mismatches
+         */
+        public long count(Kind kind) {
+            return differences[kind.ordinal()].sum();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder()
+                    .append("checked=").append(checked())
+                    .append(" matched=").append(matched())
+                    .append(" failed=").append(failed());
+            for (Kind kind : Kind.values()) {
+                out.append(' ').append(kind.name().toLowerCase(Locale.ROOT)).append('=').append(count(kind));
+            }
+            return out.toString();
+        }
+    }
+
+    private static final String[] FIELDS = {
+            "name", "surname", "birth_date", "occupation", "phone_number", "is_risk", "address"
+    };
+    private static final List<Function<Citizen, String>> LOCAL_FIELDS = List.of(
+            Citizen::getName, Citizen::getSurname, Citizen::getBirthDate, Citizen::getOccupation,
+            Citizen::getPhoneNumber, citizen -> citizen.getIsRisk() == null ? null : citizen.getIsRisk().toString(),
+            Citizen::getAddress);
+    private static final List<Function<UserResponseBody, String>> SERVER_FIELDS = List.of(
+            UserResponseBody::getName, UserResponseBody::getSurname, UserResponseBody::getBirthDate,
+            UserResponseBody::getOccupation, UserResponseBody::getPhoneNumber, UserResponseBody::getIsRisk,
+            UserResponseBody::getAddress);
+
+    private final VaccineApiClient api;
+    private final CitizenTable table;
+    private final int maxInFlight;
+    private final boolean findExtras;
+
+    private Reconciliation(Builder builder) {
+        api = builder.api;
+        table = builder.table;
+        maxInFlight = builder.maxInFlight;
+        findExtras = builder.findExtras;
+    }
+
+    /**
+     * Compare the dataset with the server. A sink throwing stops the
+     * lookups, and the reconciliation fails once those in flight are done.
+     *
+     * @param sink receives every difference from the dispatcher threads, so
+     *             it must be thread-safe
+     * @return counters of the reconciliation
+     * @throws IOException if the reservations could not be read
+     * @throws InterruptedException if interrupted while waiting for a lookup
+     */
+    public Report run(Consumer<Difference> sink) throws IOException, InterruptedException {
+        Report report = new Report();
+        InFlightWindow window = new InFlightWindow(maxInFlight);
+        CompletableFuture<Void> done;
+        try {
+            for (int row = 0; !window.isFailed() && row < table.size(); row++) {
+                int local = row;
+                lookup(window, CitizenTable.formatCitizenId(table.citizenId(row)), report,
+                        user -> compare(local, user, sink, report));
+            }
+            if (findExtras) {
+                LongIntMap seen = new LongIntMap(1024);
+                try (ReservationIterator reservations = api.streamReservations()) {
+                    while (!window.isFailed() && reservations.hasNext()) {
+                        String citizenId = reservations.next().getCitizenId();
+                        long key = CitizenTable.parseCitizenId(citizenId);
+                        if (key < 0 || table.contains(key) || seen.putIfAbsent(key, 0) >= 0) {
+                            continue;
+                        }
+                        lookup(window, citizenId, report, user -> {
+                            if (user != null) {
+                                report(sink, report, new Difference(Kind.EXTRA, citizenId, null, null, null));
+                            }
+                        });
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+        } finally {
+            done = window.finish();
+        }
+        try {
+            done.get();
+        } catch (ExecutionException e) {
+            throw VaccineApiClient.asIOException(e.getCause());
+        }
+        return report;
+    }
+
+    private void lookup(InFlightWindow window, String citizenId, Report report, Consumer<UserResponseBody> compare)
+            throws InterruptedException {
+        window.submit(() -> api.getUserAsync(citizenId), (user, error) -> {
+            report.checked.increment();
+            if (error != null) {
+                report.failed.increment();
+            } else {
+                compare.accept(user);
+            }
+        });
+    }
+
+    private void compare(int row, UserResponseBody user, Consumer<Difference> sink, Report report) {
+        String citizenId = CitizenTable.formatCitizenId(table.citizenId(row));
+        if (user == null) {
+            report(sink, report, new Difference(Kind.MISSING, citizenId, null, null, null));
+            return;
+        }
+        Citizen citizen = table.citizen(row);
+        boolean matched = true;
+        for (int i = 0; i < FIELDS.length; i++) {
+            String local = LOCAL_FIELDS.get(i).apply(citizen);
+            String server = SERVER_FIELDS.get(i).apply(user);
+            // the server echoes is_risk as sent, so "False" and "false" are the same flag
+            boolean same = local == null ? server == null
+                    : FIELDS[i].equals("is_risk") ? local.equalsIgnoreCase(server) : local.equals(server);
+            if (!same) {
+                matched = false;
+                report(sink, report, new Difference(Kind.MISMATCH, citizenId, FIELDS[i], local, server));
+            }
+        }
+        String vaccineTaken = table.vaccineTaken(row);
+        if (vaccineTaken != null && !vaccineTaken.equals(user.getVaccineTaken())) {
+            matched = false;
+            report(sink, report, new Difference(
+                    Kind.VACCINE_CHANGED, citizenId, "vaccine_taken", vaccineTaken, user.getVaccineTaken()));
+        }
+        if (matched) {
+            report.matched.increment();
+        }
+    }
+
+    private static void report(Consumer<Difference> sink, Report report, Difference difference) {
+        report.differences[difference.kind().ordinal()].increment();
+        sink.accept(difference);
+    }
+
+    public static class Builder {
+        private final VaccineApiClient api;
+        private final CitizenTable table;
+        private int maxInFlight = 64;
+        private boolean findExtras = true;
+
+        /**
+         * @param api   client used to look the citizens up
+         * @param table local dataset
+         */
+        public Builder(VaccineApiClient api, CitizenTable table) {
+            this.api = api;
+            this.table = table;
+        }
+
+        /**
+         * Maximum number of lookups awaiting an answer
+         */
+        public Builder maxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight < 1: " + maxInFlight);
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Whether citizens holding a reservation are checked for registrations
+         * missing from the dataset, enabled by default
+         */
+        public Builder findExtras(boolean findExtras) {
+            this.findExtras = findExtras;
+            return this;
+        }
+
+        public Reconciliation build() {
+            return new Reconciliation(this);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: Reconciliation <csv> <baseUrl|stand-in> [report.jsonl]");
+            System.exit(2);
+        }
+        CitizenTable table = CitizenTable.load(Paths.get(args[0]));
+        StandInServer standIn = args[1].equals("stand-in") ? new StandInServer(new StandInApi(), 0) : null;
+        try (VaccineApiClient api = new VaccineApiClient.Builder()
+                .baseUrl(standIn != null ? standIn.url() : HttpUrl.get(args[1]))
+                .build();
+             Writer out = args.length > 2
+                     ? Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8)
+                     : new OutputStreamWriter(System.out, StandardCharsets.UTF_8)) {
+            JsonWriter writer = new JsonWriter(out);
+            writer.setLenient(true);
+            Report report = new Builder(api, table).build().run(difference -> {
+                synchronized (writer) {
+                    try {
+                        difference.write(writer);
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            out.flush();
+            System.err.println(report + " skipped=" + table.skippedRows());
+        } finally {
+            if (standIn != null) {
+                standIn.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+import okhttp3.HttpUrl;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Packs registrations into batches sent through
+ * {@link VaccineApiClient#registerBatchAsync}, so that many citizens share
+ * one request and one round trip.
+ *
+ * A batch is sent once it holds the maximum number of records, or once
+ * its first record has waited the maximum delay, whichever comes first.
+ * At most a fixed number of batches await an answer, and adding a record
+ * that fills a batch blocks until one of them is answered. Servers without
+ * a batch endpoint get individual registrations, see
+ * {@link VaccineApiClient#registerBatchAsync}.
+ *
+ * Usage: {@code RegistrationBatcher <baseUrl|stand-in> <count> [batchSize]},
+ * comparing individual and batched registrations of that many citizens
+ */
+public class RegistrationBatcher implements Closeable {
+    /**
+     * Record waiting for its batch to be sent
+     */
+    private static class Pending {
+        private final Citizen citizen;
+        private final CompletableFuture<RegistrationResult> result = new CompletableFuture<>();
+
+        Pending(Citizen citizen) {
+            this.citizen = citizen;
+        }
+    }
+
+    private final VaccineApiClient api;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final int maxInFlight;
+    private final Semaphore slots;
+    private final ScheduledExecutorService timer;
+    private final LongAdder batches = new LongAdder();
+    private List<Pending> pending = new ArrayList<>();
+    private ScheduledFuture<?> deadline;
+    private boolean closed;
+
+    private RegistrationBatcher(Builder builder) {
+        api = builder.api;
+        maxBatchSize = builder.maxBatchSize;
+        maxDelayNanos = builder.maxDelayNanos;
+        maxInFlight = builder.maxInFlight;
+        slots = new Semaphore(maxInFlight);
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "registration-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Add a citizen to the current batch, sending the batch if it is full
+     *
+     * @param citizen to register
+     * @return future of the result, never failed: a failed request gives a
+     *         failed result
+     * @throws IllegalStateException if the batcher is closed
+     */
+    public CompletableFuture<RegistrationResult> register(Citizen citizen) {
+        Pending record = new Pending(citizen);
+        List<Pending> full = null;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("batcher is closed");
+            }
+            pending.add(record);
+            if (pending.size() >= maxBatchSize) {
+                full = take();
+            } else if (pending.size() == 1) {
+                deadline = timer.schedule(this::flush, maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return record.result;
+    }
+
+    /**
+     * Send the current batch without waiting for it to fill
+     */
+    public void flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            batch = take();
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    /**
+     * Register every citizen of the iterator, blocking the calling thread
+     * whenever the in-flight limit is reached, then send the last batch
+     *
+     * @param citizens records to register
+     * @param sink     receives one result per record from the dispatcher
+     *                 threads, so it must be thread-safe
+     * @return future completed once every submitted record has a result,
+     *         or failed with the first exception thrown by the sink, which
+     *         stops the submission of further records
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public CompletableFuture<Void> registerAll(Iterator<Citizen> citizens, Consumer<RegistrationResult> sink)
+            throws InterruptedException {
+        // the batches in flight and the one filling up, so the window only waits when register() would
+        InFlightWindow window = new InFlightWindow((int) Math.min(Integer.MAX_VALUE,
+                (long) (maxInFlight + 1) * maxBatchSize));
+        CompletableFuture<Void> done;
+        try {
+            while (!window.isFailed() && citizens.hasNext()) {
+                Citizen citizen = citizens.next();
+                window.submit(() -> register(citizen), (result, error) -> sink.accept(result));
+            }
+            flush();
+        } finally {
+            done = window.finish();
+        }
+        return done;
+    }
+
+    /**
+     * @return batches sent so far
+     */
+    public long batchCount() {
+        return batches.sum();
+    }
+
+    private List<Pending> take() {
+        List<Pending> batch = pending;
+        pending = new ArrayList<>(maxBatchSize);
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+        return batch;
+    }
+
+    private void send(List<Pending> batch) {
+        List<Citizen> citizens = new ArrayList<>(batch.size());
+        for (Pending record : batch) {
+            citizens.add(record.citizen);
+        }
+        slots.acquireUninterruptibly();
+        batches.increment();
+        api.registerBatchAsync(citizens).whenComplete((results, error) -> {
+            slots.release();
+            for (int i = 0; i < batch.size(); i++) {
+                Pending record = batch.get(i);
+                record.result.complete(error == null
+                        ? results.get(i)
+                        : RegistrationResult.failure(record.citizen, VaccineApiClient.asIOException(error)));
+            }
+        });
+    }
+
+    /**
+     * Send the current batch and stop accepting records, batches in flight
+     * still complete
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flush();
+        timer.shutdown();
+    }
+
+    public static class Builder {
+        private final VaccineApiClient api;
+        private int maxBatchSize = 100;
+        private long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+        private int maxInFlight = 4;
+
+        /**
+         * @param api client used to send the batches
+         */
+        public Builder(VaccineApiClient api) {
+            this.api = api;
+        }
+
+        /**
+         * Records per batch, 100 by default
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException("maxBatchSize < 1: " + maxBatchSize);
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Longest time the first record of a batch waits for the batch to
+         * fill, 10 milliseconds by default
+         */
+        public Builder maxDelay(long delay, TimeUnit unit) {
+            if (delay <= 0) {
+                throw new IllegalArgumentException("delay <= 0: " + delay);
+            }
+            this.maxDelayNanos = unit.toNanos(delay);
+            return this;
+        }
+
+        /**
+         * Maximum number of batches awaiting an answer, 4 by default
+         */
+        public Builder maxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight < 1: " + maxInFlight);
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public RegistrationBatcher build() {
+            return new RegistrationBatcher(this);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: RegistrationBatcher <baseUrl|stand-in> <count> [batchSize]");
+            System.exit(2);
+        }
+        int count = Integer.parseInt(args[1]);
+        StandInServer standIn = args[0].equals("stand-in") ? new StandInServer(new StandInApi(), 0) : null;
+        // batches are JSON, so individual registrations are too
+        try (VaccineApiClient api = new VaccineApiClient.Builder()
+                .baseUrl(standIn != null ? standIn.url() : HttpUrl.get(args[0]))
+                .registrationMode(RegistrationEncoder.Mode.JSON)
+                .build()) {
+            LongAdder registered = new LongAdder();
+            Consumer<RegistrationResult> sink = result -> {
+                if (Boolean.TRUE.equals(result.isRegistrationSuccessful())) {
+                    registered.increment();
+                }
+            };
+            CitizenIdGenerator ids = new CitizenIdGenerator();
+            long start = System.nanoTime();
+            new BulkRegistration(api, 64).registerAll(citizens(ids, count), sink).join();
+            report("individual", count, registered.sumThenReset(), System.nanoTime() - start, count);
+
+            try (RegistrationBatcher batcher = new Builder(api)
+                    .maxBatchSize(args.length > 2 ? Integer.parseInt(args[2]) : 100)
+                    .build()) {
+                start = System.nanoTime();
+                batcher.registerAll(citizens(ids, count), sink).join();
+                report("batched", count, registered.sum(), System.nanoTime() - start, batcher.batchCount());
+            }
+        } finally {
+            if (standIn != null) {
+                standIn.close();
+            }
+        }
+    }
+
+    private static Iterator<Citizen> citizens(CitizenIdGenerator ids, int count) {
+        return new Iterator<Citizen>() {
+            private int left = count;
+
+            @Override
+            public boolean hasNext() {
+                return left > 0;
+            }
+
+            @Override
+            public Citizen next() {
+                left--;
+                return ids.nextCitizen("Batch", "Registration");
+            }
+        };
+    }
+
+    private static void report(String mode, int count, long registered, long elapsedNanos, long requests) {
+        System.out.printf("%-10s records=%d registered=%d requests=%d seconds=%.2f records/s=%.0f%n",
+                mode, count, registered, requests, elapsedNanos / 1e9, count * 1e9 / elapsedNanos);
+    }
+}
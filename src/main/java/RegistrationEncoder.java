@@ -0,0 +1,356 @@
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds registration requests for one base url, with the fields sent as
+ * query parameters, as an {@code application/x-www-form-urlencoded} body
+ * or as a JSON body.
+ *
+ * The url and the encoded field names are computed once. Bodies are
+ * written straight into a per-thread buffer that is reused across
+ * requests, so encoding a citizen allocates only the final body. In query
+ * mode a per-thread url builder keeps the scheme, host and path parsed,
+ * and values needing no escape are passed through as they are. Fields that
+ * are null are left out, as with {@link UserRegistrationUrl.Builder#citizen}.
+ */
+public class RegistrationEncoder {
+    public enum Mode {
+        QUERY, FORM, JSON
+    }
+
+    /**
+     * Form Media Type
+     */
+    public static final MediaType FORM = MediaType.get("application/x-www-form-urlencoded");
+
+    private static final RequestBody EMPTY_BODY = RequestBody.create(new byte[0], VaccineApiClient.JSON);
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Names of the registration fields, in the order they are encoded
+     */
+    static final String[] FIELDS = {
+            "citizen_id", "name", "surname", "birth_date", "occupation", "phone_number", "is_risk", "address"
+    };
+    /**
+     * Index of is_risk in {@link #FIELDS}, the one field that is a flag and not a string
+     */
+    static final int IS_RISK = Arrays.asList(FIELDS).indexOf("is_risk");
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    private final HttpUrl url;
+    private final HttpUrl batchUrl;
+    private final ThreadLocal<HttpUrl.Builder> urlBuilders;
+    private final byte[][] formNames;
+    private final byte[][] jsonNames;
+
+    /**
+     * @param baseUrl url the registration path is appended to
+     */
+    public RegistrationEncoder(HttpUrl baseUrl) {
+        url = baseUrl.newBuilder().addPathSegment("registration").build();
+        batchUrl = url.newBuilder().addPathSegment("batch").build();
+        urlBuilders = ThreadLocal.withInitial(url::newBuilder);
+        formNames = new byte[FIELDS.length][];
+        jsonNames = new byte[FIELDS.length][];
+        for (int i = 0; i < FIELDS.length; i++) {
+            formNames[i] = (FIELDS[i] + "=").getBytes(StandardCharsets.US_ASCII);
+            jsonNames[i] = ("\"" + FIELDS[i] + "\":").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * @return url registrations are posted to
+     */
+    public HttpUrl url() {
+        return url;
+    }
+
+    /**
+     * Build the request registering a citizen, tagged with its id
+     *
+     * @param citizen to register
+     * @param mode    where the fields are sent
+     */
+    public Request request(Citizen citizen, Mode mode) {
+        switch (mode) {
+            case QUERY:
+                return new Request.Builder()
+                        .url(queryUrl(citizen))
+                        .post(EMPTY_BODY)
+                        .tag(String.class, citizen.getCitizenId())
+                        .build();
+            case FORM:
+                return new Request.Builder()
+                        .url(url)
+                        .post(RequestBody.create(formBody(citizen), FORM))
+                        .tag(String.class, citizen.getCitizenId())
+                        .build();
+            default:
+                return new Request.Builder()
+                        .url(url)
+                        .post(RequestBody.create(jsonBody(citizen), VaccineApiClient.JSON))
+                        .tag(String.class, citizen.getCitizenId())
+                        .build();
+        }
+    }
+
+    /**
+     * Build the request registering several citizens at once as a JSON
+     * array, tagged with the id of the first one
+     *
+     * @param citizens to register, at least one
+     */
+    public Request batchRequest(List<Citizen> citizens) {
+        return new Request.Builder()
+                .url(batchUrl)
+                .post(RequestBody.create(jsonArrayBody(citizens), VaccineApiClient.JSON))
+                .tag(String.class, citizens.get(0).getCitizenId())
+                .build();
+    }
+
+    /**
+     * @return the registration url carrying the fields as query parameters
+     */
+    public HttpUrl queryUrl(Citizen citizen) {
+        // the scheme, host and path stay parsed in the builder, and values
+        // needing no escape are added as they are, so only the url is built
+        HttpUrl.Builder builder = urlBuilders.get().encodedQuery(null);
+        String[] values = values(citizen);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                builder.addEncodedQueryParameter(FIELDS[i], percentEncoded(values[i]));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the fields encoded as {@code application/x-www-form-urlencoded}
+     */
+    public byte[] formBody(Citizen citizen) {
+        Buffer buffer = BUFFERS.get();
+        buffer.length = 0;
+        writeForm(buffer, citizen);
+        return Arrays.copyOf(buffer.bytes, buffer.length);
+    }
+
+    /**
+     * @return the fields encoded as a JSON object, is_risk as a boolean
+     */
+    public byte[] jsonBody(Citizen citizen) {
+        Buffer buffer = BUFFERS.get();
+        buffer.length = 0;
+        writeJson(buffer, citizen);
+        return Arrays.copyOf(buffer.bytes, buffer.length);
+    }
+
+    /**
+     * @return the citizens encoded as a JSON array of the objects of {@link #jsonBody}
+     */
+    public byte[] jsonArrayBody(List<Citizen> citizens) {
+        Buffer buffer = BUFFERS.get();
+        buffer.length = 0;
+        buffer.write('[');
+        for (int i = 0; i < citizens.size(); i++) {
+            if (i > 0) {
+                buffer.write(',');
+            }
+            writeJson(buffer, citizens.get(i));
+        }
+        buffer.write(']');
+        return Arrays.copyOf(buffer.bytes, buffer.length);
+    }
+
+    private void writeJson(Buffer buffer, Citizen citizen) {
+        buffer.write('{');
+        int start = buffer.length;
+        String[] values = values(citizen);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            if (buffer.length > start) {
+                buffer.write(',');
+            }
+            buffer.write(jsonNames[i]);
+            if (i == IS_RISK) {
+                buffer.writeAscii(values[i]);
+            } else {
+                buffer.write('"');
+                writeJsonString(buffer, values[i]);
+                buffer.write('"');
+            }
+        }
+        buffer.write('}');
+    }
+
+    private void writeForm(Buffer buffer, Citizen citizen) {
+        int start = buffer.length;
+        String[] values = values(citizen);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            if (buffer.length > start) {
+                buffer.write('&');
+            }
+            buffer.write(formNames[i]);
+            writePercentEncoded(buffer, values[i]);
+        }
+    }
+
+    /**
+     * @return the values in the order of {@link #FIELDS}
+     */
+    private static String[] values(Citizen citizen) {
+        Buffer buffer = BUFFERS.get();
+        String[] values = buffer.values;
+        values[0] = citizen.getCitizenId();
+        values[1] = citizen.getName();
+        values[2] = citizen.getSurname();
+        values[3] = citizen.getBirthDate();
+        values[4] = citizen.getOccupation();
+        values[5] = citizen.getPhoneNumber();
+        values[IS_RISK] = citizen.getIsRisk() == null ? null : citizen.getIsRisk() ? "true" : "false";
+        values[7] = citizen.getAddress();
+        return values;
+    }
+
+    /**
+     * @return the value itself if it needs no escape, else its escaped copy
+     */
+    private static String percentEncoded(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (!isSafe(value.charAt(i))) {
+                Buffer buffer = BUFFERS.get();
+                buffer.length = 0;
+                writePercentEncoded(buffer, value);
+                return new String(buffer.bytes, 0, buffer.length, StandardCharsets.US_ASCII);
+            }
+        }
+        return value;
+    }
+
+    private static boolean isSafe(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                || c == '-' || c == '.' || c == '_' || c == '~' || c == '/';
+    }
+
+    /**
+     * Write a value as UTF-8, percent-encoding every byte but the unreserved
+     * characters of RFC 3986 and '/', which is valid both in a query and in
+     * a form. Dates and addresses are mostly left as is, so OkHttp decodes
+     * them without a copy.
+     */
+    private static void writePercentEncoded(Buffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (isSafe(c)) {
+                buffer.write(c);
+            } else if (c < 0x80) {
+                writePercent(buffer, c);
+            } else {
+                int codePoint = value.codePointAt(i);
+                i += Character.charCount(codePoint) - 1;
+                int count = utf8(codePoint, buffer.utf8);
+                for (int b = 0; b < count; b++) {
+                    writePercent(buffer, buffer.utf8[b] & 0xFF);
+                }
+            }
+        }
+    }
+
+    private static void writePercent(Buffer buffer, int b) {
+        buffer.write('%');
+        buffer.write(HEX[(b >> 4) & 0xF]);
+        buffer.write(HEX[b & 0xF]);
+    }
+
+    private static void writeJsonString(Buffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.write('\\');
+                buffer.write(c);
+            } else if (c < 0x20) {
+                buffer.writeAscii("\\u00");
+                buffer.write(HEX[c >> 4]);
+                buffer.write(HEX[c & 0xF]);
+            } else if (c < 0x80) {
+                buffer.write(c);
+            } else {
+                int codePoint = value.codePointAt(i);
+                i += Character.charCount(codePoint) - 1;
+                buffer.writeUtf8(codePoint);
+            }
+        }
+    }
+
+    /**
+     * Encode a code point above ASCII as UTF-8
+     *
+     * @return number of bytes written
+     */
+    private static int utf8(int codePoint, byte[] out) {
+        if (codePoint < 0x800) {
+            out[0] = (byte) (0xC0 | codePoint >> 6);
+            out[1] = (byte) (0x80 | codePoint & 0x3F);
+            return 2;
+        }
+        if (codePoint < 0x10000) {
+            out[0] = (byte) (0xE0 | codePoint >> 12);
+            out[1] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            out[2] = (byte) (0x80 | codePoint & 0x3F);
+            return 3;
+        }
+        out[0] = (byte) (0xF0 | codePoint >> 18);
+        out[1] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+        out[2] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+        out[3] = (byte) (0x80 | codePoint & 0x3F);
+        return 4;
+    }
+
+    /**
+     * Growable byte array reused by the requests of one thread
+     */
+    private static class Buffer {
+        private byte[] bytes = new byte[512];
+        private int length;
+        private final byte[] utf8 = new byte[4];
+        private final String[] values = new String[8];
+
+        void write(int b) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length++] = (byte) b;
+        }
+
+        void write(byte[] source) {
+            if (length + source.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(length + source.length, length * 2));
+            }
+            System.arraycopy(source, 0, bytes, length, source.length);
+            length += source.length;
+        }
+
+        void writeAscii(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                write(value.charAt(i));
+            }
+        }
+
+        void writeUtf8(int codePoint) {
+            int count = utf8(codePoint, utf8);
+            for (int b = 0; b < count; b++) {
+                write(utf8[b]);
+            }
+        }
+    }
+}
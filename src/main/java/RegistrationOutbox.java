@@ -0,0 +1,484 @@
+import com.google.gson.stream.MalformedJsonException;
+import okhttp3.HttpUrl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durable queue of registrations and deletions, appended to an
+ * {@link OutboxLog} at disk speed and replayed to the server by a drainer
+ * thread, so that intake does not depend on the server being up.
+ *
+ * Operations of one citizen are sent one at a time in the order they were
+ * enqueued, those of different citizens concurrently. At most a fixed
+ * number of operations are read from the log and not yet settled, so the
+ * heap stays bounded however long the server is down; the rest waits on
+ * disk. An operation failing in transit, with 429 or with a 5xx status is
+ * retried with exponential backoff, ahead of the later operations of its
+ * citizen, for as long as it takes. One answered with a body the client
+ * cannot decode is only retried a few times. It is settled, and
+ * acknowledged in the log, once the server answered it:
+ * <ul>
+ *     <li>{@link Outcome#DELIVERED} when the server applied it,</li>
+ *     <li>{@link Outcome#DUPLICATE} when it had no effect: the citizen was
+ *     already registered or already deleted, as when an operation sent
+ *     before a crash is replayed, or it repeats the previous operation
+ *     of its citizen still in the drainer, and is dropped unsent,</li>
+ *     <li>{@link Outcome#REJECTED} when the server or local validation
+ *     refused it, retrying would not help, or none of its answers could be
+ *     decoded.</li>
+ * </ul>
+ * Delivery is at least once: an operation answered but not yet
+ * acknowledged when the outbox closes is sent again on reopen.
+ *
+ * Usage: {@code RegistrationOutbox <directory> <count> [outageSeconds]},
+ * enqueueing registrations while the stand-in is down, then starting it
+ */
+public class RegistrationOutbox implements Closeable {
+    public enum Outcome {
+        DELIVERED,
+        DUPLICATE,
+        REJECTED
+    }
+
+    /**
+     * Operation read from the log and not yet settled
+     */
+    private static class Pending {
+        private final OutboxLog.Entry entry;
+        private int attempts;
+        private int undecodable;
+
+        Pending(OutboxLog.Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    private final OutboxLog log;
+    private final int maxInFlight;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final int decodeRetries;
+    /**
+     * Operations of each citizen in the drainer, the first one being sent
+     */
+    private final Map<String, ArrayDeque<Pending>> citizens = new HashMap<>();
+    private final LongAdder[] outcomes = new LongAdder[Outcome.values().length];
+    private final LongAdder retries = new LongAdder();
+    private int inDrainer;
+    private VaccineApiClient api;
+    private Thread drainer;
+    private ScheduledExecutorService retryTimer;
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    private RegistrationOutbox(Builder builder) throws IOException {
+        log = new OutboxLog(builder.directory, builder.segmentSize);
+        maxInFlight = builder.maxInFlight;
+        baseDelayNanos = builder.baseDelayNanos;
+        maxDelayNanos = builder.maxDelayNanos;
+        decodeRetries = builder.decodeRetries;
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Enqueue a registration
+     *
+     * @return sequence number of the operation in the log
+     * @throws IOException if the log could not be written
+     */
+    public long register(Citizen citizen) throws IOException {
+        return log.append(OutboxLog.REGISTER, citizen);
+    }
+
+    /**
+     * Enqueue the deletion of a registration
+     *
+     * @return sequence number of the operation in the log
+     * @throws IOException if the log could not be written
+     */
+    public long delete(String citizenId) throws IOException {
+        return log.append(OutboxLog.DELETE, new Citizen.Builder().citizenId(citizenId).build());
+    }
+
+    /**
+     * Force the operations enqueued so far to the storage device, after
+     * which they survive a crash
+     */
+    public void flush() throws IOException {
+        log.flush();
+    }
+
+    /**
+     * Start replaying the log to the server
+     *
+     * @param api client the operations are sent through
+     * @return this outbox
+     */
+    public synchronized RegistrationOutbox start(VaccineApiClient api) {
+        if (drainer != null) {
+            throw new IllegalStateException("already started");
+        }
+        this.api = api;
+        retryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbox-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        drainer = new Thread(this::drain, "outbox-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+        return this;
+    }
+
+    private void drain() {
+        try {
+            while (!closed) {
+                synchronized (this) {
+                    while (inDrainer >= maxInFlight && !closed) {
+                        wait();
+                    }
+                }
+                OutboxLog.Entry entry = log.take(100, TimeUnit.MILLISECONDS);
+                if (entry != null) {
+                    dispatch(new Pending(entry));
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void dispatch(Pending pending) throws IOException {
+        OutboxLog.Entry entry = pending.entry;
+        synchronized (this) {
+            ArrayDeque<Pending> queue = citizens.computeIfAbsent(entry.citizenId(), id -> new ArrayDeque<>());
+            if (!queue.isEmpty() && queue.peekLast().entry.sameOperation(entry)) {
+                outcomes[Outcome.DUPLICATE.ordinal()].increment();
+                log.ack(entry.sequence());
+                notifyAll();
+                return;
+            }
+            queue.add(pending);
+            inDrainer++;
+            if (queue.size() > 1) {
+                return;
+            }
+        }
+        send(pending);
+    }
+
+    private void send(Pending pending) {
+        OutboxLog.Entry entry = pending.entry;
+        CompletableFuture<?> sent = entry.kind() == OutboxLog.REGISTER
+                ? api.registerAsync(entry.citizen())
+                : api.deleteUserAsync(entry.citizenId());
+        sent.whenComplete((response, error) -> {
+            Outcome outcome = outcome(pending, response, error);
+            if (outcome == null) {
+                retry(pending);
+            } else {
+                settle(pending, outcome);
+            }
+        });
+    }
+
+    /**
+     * @return outcome of an answered operation, null to retry it
+     */
+    private Outcome outcome(Pending pending, Object response, Throwable error) {
+        OutboxLog.Entry entry = pending.entry;
+        if (error == null) {
+            if (entry.kind() == OutboxLog.DELETE) {
+                return Outcome.DELIVERED;
+            }
+            RegistrationOutcome registration = ((RegistrationResponseBody) response).outcome();
+            return registration.isSuccess() ? Outcome.DELIVERED
+                    : registration == RegistrationOutcome.ALREADY_REGISTERED ? Outcome.DUPLICATE
+                    : Outcome.REJECTED;
+        }
+        IOException cause = VaccineApiClient.asIOException(error);
+        if (isUndecodable(cause)) {
+            // the server answered, so sending again only helps if the garbling was transient
+            return pending.undecodable++ < decodeRetries ? null : Outcome.REJECTED;
+        }
+        if (!(cause instanceof VaccineApiException)) {
+            return null;
+        }
+        int code = ((VaccineApiException) cause).code();
+        if (code == 429 || code >= 500) {
+            return null;
+        }
+        return code == 404 && entry.kind() == OutboxLog.DELETE ? Outcome.DUPLICATE : Outcome.REJECTED;
+    }
+
+    /**
+     * @return whether the failure is an answer the client could not decode,
+     *         rather than a failure in transit
+     */
+    private static boolean isUndecodable(IOException cause) {
+        return cause instanceof MalformedJsonException || cause.getCause() instanceof RuntimeException;
+    }
+
+    private synchronized void retry(Pending pending) {
+        // close() shuts the timer down under this lock, so a retry is either scheduled before or dropped
+        if (closed) {
+            return;
+        }
+        retries.increment();
+        long delay = Math.min(maxDelayNanos, baseDelayNanos << Math.min(pending.attempts++, 20));
+        retryTimer.schedule(() -> send(pending), delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void settle(Pending pending, Outcome outcome) {
+        Pending next;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                log.ack(pending.entry.sequence());
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            outcomes[outcome.ordinal()].increment();
+            ArrayDeque<Pending> queue = citizens.get(pending.entry.citizenId());
+            queue.poll();
+            next = queue.peek();
+            if (next == null) {
+                citizens.remove(pending.entry.citizenId());
+            }
+            inDrainer--;
+            notifyAll();
+        }
+        if (next != null) {
+            send(next);
+        }
+    }
+
+    private void fail(IOException error) {
+        failure = error;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait until every enqueued operation is settled
+     *
+     * @return false if operations are still pending after the timeout
+     * @throws IOException          if the log failed, stopping the drainer
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (log.pendingCount() > 0) {
+                if (failure != null) {
+                    throw failure;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || closed) {
+                    return false;
+                }
+                // an operation enqueued after the last settlement does not notify
+                TimeUnit.NANOSECONDS.timedWait(this, Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return operations enqueued but not settled
+     */
+    public long pendingCount() {
+        return log.pendingCount();
+    }
+
+    public long count(Outcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+
+    /**
+     * @return attempts that failed in transit, with 429 or 5xx, or with an
+     *         answer that could not be decoded, and were retried
+     */
+    public long retryCount() {
+        return retries.sum();
+    }
+
+    public OutboxLog log() {
+        return log;
+    }
+
+    /**
+     * @return error of the log that stopped the drainer, null if none
+     */
+    public IOException failure() {
+        return failure;
+    }
+
+    /**
+     * Stop the drainer and close the log. Operations still pending are
+     * replayed when the directory is opened again.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread running;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            running = drainer;
+            if (retryTimer != null) {
+                retryTimer.shutdownNow();
+            }
+        }
+        if (running != null) {
+            running.interrupt();
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            // settle() acknowledges under this lock, so none is half written
+            log.close();
+        }
+    }
+
+    public static class Builder {
+        private final Path directory;
+        private long segmentSize = 64L << 20;
+        private int maxInFlight = 256;
+        private long baseDelayNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        private long maxDelayNanos = TimeUnit.SECONDS.toNanos(5);
+        private int decodeRetries = 3;
+
+        /**
+         * @param directory directory of the log segments, created if absent
+         */
+        public Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Size in bytes past which a new segment is started, 64 MB by default
+         */
+        public Builder segmentSize(long segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Maximum number of operations read from the log and not settled,
+         * including those waiting behind another of their citizen, 256 by
+         * default
+         */
+        public Builder maxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight < 1: " + maxInFlight);
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Delay before the first retry of an operation, doubled on every
+         * retry up to a maximum, 100 milliseconds to 5 seconds by default
+         */
+        public Builder retryDelay(long baseDelay, long maxDelay, TimeUnit unit) {
+            if (baseDelay <= 0 || maxDelay < baseDelay) {
+                throw new IllegalArgumentException("invalid retry delays: " + baseDelay + ", " + maxDelay);
+            }
+            this.baseDelayNanos = unit.toNanos(baseDelay);
+            this.maxDelayNanos = unit.toNanos(maxDelay);
+            return this;
+        }
+
+        /**
+         * Times an operation answered with a body that could not be decoded
+         * is sent again before it is settled as rejected, 3 by default.
+         * Failures in transit, 429 and 5xx are retried without limit.
+         */
+        public Builder decodeRetries(int decodeRetries) {
+            if (decodeRetries < 0) {
+                throw new IllegalArgumentException("decodeRetries < 0: " + decodeRetries);
+            }
+            this.decodeRetries = decodeRetries;
+            return this;
+        }
+
+        /**
+         * Open the outbox, replaying the log left by a previous run
+         *
+         * @throws IOException if the log could not be read
+         */
+        public RegistrationOutbox build() throws IOException {
+            return new RegistrationOutbox(this);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: RegistrationOutbox <directory> <count> [outageSeconds]");
+            System.exit(2);
+        }
+        int count = Integer.parseInt(args[1]);
+        long outageMillis = args.length > 2 ? (long) (Double.parseDouble(args[2]) * 1000) : 2000;
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        int port;
+        try (ServerSocket socket = new ServerSocket(0, 0, loopback)) {
+            port = socket.getLocalPort();
+        }
+        HttpUrl baseUrl = new HttpUrl.Builder().scheme("http").host(loopback.getHostAddress()).port(port).build();
+        StandInServer standIn = null;
+        try (VaccineApiClient api = new VaccineApiClient.Builder().baseUrl(baseUrl).build();
+             RegistrationOutbox outbox = new Builder(Paths.get(args[0])).build().start(api)) {
+            CitizenIdGenerator ids = new CitizenIdGenerator();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                outbox.register(ids.nextCitizen("Outbox", "Registration"));
+            }
+            outbox.flush();
+            long enqueued = System.nanoTime() - start;
+            System.out.printf("enqueued=%d seconds=%.2f per_second=%.0f pending=%d segments=%d bytes=%d%n",
+                    count, enqueued / 1e9, count * 1e9 / enqueued, outbox.pendingCount(),
+                    outbox.log().segmentCount(), outbox.log().sizeOnDisk());
+
+            Thread.sleep(Math.max(0, outageMillis - TimeUnit.NANOSECONDS.toMillis(enqueued)));
+            standIn = new StandInServer(new StandInApi(), port);
+            start = System.nanoTime();
+            boolean drained = outbox.awaitDrained(10, TimeUnit.MINUTES);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("drained=%b seconds=%.2f per_second=%.0f delivered=%d duplicate=%d rejected=%d"
+                            + " retries=%d pending=%d segments=%d bytes=%d registered=%d%n",
+                    drained, elapsed / 1e9, count * 1e9 / elapsed, outbox.count(Outcome.DELIVERED),
+                    outbox.count(Outcome.DUPLICATE), outbox.count(Outcome.REJECTED), outbox.retryCount(),
+                    outbox.pendingCount(), outbox.log().segmentCount(), outbox.log().sizeOnDisk(),
+                    standIn.api().registrationCount());
+        } finally {
+            if (standIn != null) {
+                standIn.close();
+            }
+        }
+    }
+}
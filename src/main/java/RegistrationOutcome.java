@@ -0,0 +1,82 @@
+import okio.ByteString;
+import okio.Options;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Outcome of a registration as told by the feedback of the server.
+ *
+ * Known feedbacks are resolved through a table built once, and the
+ * streaming decoder matches them on the raw bytes of the response, so
+ * checking an outcome never scans the feedback text.
+ */
+public enum RegistrationOutcome {
+    SUCCESS("registration success!"),
+    ALREADY_REGISTERED("registration failed: this person already registered"),
+    INVALID_CITIZEN_ID("registration failed: invalid citizen ID"),
+    INVALID_NAME("registration failed: invalid name format"),
+    INVALID_BIRTH_DATE("registration failed: invalid birth date format"),
+    /**
+     * Required field missing, which the server answers with an HTML page
+     */
+    BAD_REQUEST("Bad Request"),
+    /**
+     * Feedback this client does not know, or no feedback at all
+     */
+    UNKNOWN(null);
+
+    private static final RegistrationOutcome[] KNOWN;
+    private static final Map<String, RegistrationOutcome> BY_FEEDBACK = new HashMap<>();
+
+    /**
+     * Known feedbacks as JSON strings, quotes included, in the order of {@link #KNOWN}
+     */
+    static final Options JSON_FEEDBACKS;
+
+    static {
+        KNOWN = new RegistrationOutcome[values().length - 1];
+        ByteString[] quoted = new ByteString[KNOWN.length];
+        for (int i = 0; i < KNOWN.length; i++) {
+            KNOWN[i] = values()[i];
+            BY_FEEDBACK.put(KNOWN[i].feedback, KNOWN[i]);
+            quoted[i] = ByteString.encodeUtf8("\"" + KNOWN[i].feedback + "\"");
+        }
+        JSON_FEEDBACKS = Options.of(quoted);
+    }
+
+    private final String feedback;
+
+    RegistrationOutcome(String feedback) {
+        this.feedback = feedback;
+    }
+
+    /**
+     * @return feedback the server sends for this outcome, null for {@link #UNKNOWN}
+     */
+    public String feedback() {
+        return feedback;
+    }
+
+    public boolean isSuccess() {
+        return this == SUCCESS;
+    }
+
+    /**
+     * @return outcome of a feedback, {@link #UNKNOWN} if it is null or not known
+     */
+    public static RegistrationOutcome of(String feedback) {
+        if (feedback == null) {
+            return UNKNOWN;
+        }
+        RegistrationOutcome outcome = BY_FEEDBACK.get(feedback);
+        return outcome != null ? outcome : UNKNOWN;
+    }
+
+    /**
+     * @param index of a feedback matched against {@link #JSON_FEEDBACKS}
+     */
+    static RegistrationOutcome ofJsonFeedback(int index) {
+        return KNOWN[index];
+    }
+}
@@ -1,11 +1,34 @@
 public class RegistrationResponseBody {
     private String feedback;
+    /**
+     * Resolved by the streaming decoder, or on first use when Gson built the body
+     */
+    private transient RegistrationOutcome outcome;
+
+    public RegistrationResponseBody() {
+    }
+
+    RegistrationResponseBody(String feedback) {
+        this.feedback = feedback;
+    }
+
+    RegistrationResponseBody(String feedback, RegistrationOutcome outcome) {
+        this.feedback = feedback;
+        this.outcome = outcome;
+    }
 
     public String getFeedback() {
         return feedback;
     }
 
+    public RegistrationOutcome outcome() {
+        if (outcome == null) {
+            outcome = RegistrationOutcome.of(feedback);
+        }
+        return outcome;
+    }
+
     public Boolean isRegistrationSuccessful() {
-        return feedback.contains("registration success");
+        return outcome().isSuccess();
     }
 }
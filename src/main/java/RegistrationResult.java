@@ -0,0 +1,47 @@
+import java.io.IOException;
+
+/**
+ * Outcome of registering one citizen in a bulk drive: either the decoded
+ * feedback of the server or the error that prevented getting one.
+ */
+public class RegistrationResult {
+    private final Citizen citizen;
+    private final RegistrationResponseBody response;
+    private final IOException error;
+
+    private RegistrationResult(Citizen citizen, RegistrationResponseBody response, IOException error) {
+        this.citizen = citizen;
+        this.response = response;
+        this.error = error;
+    }
+
+    public static RegistrationResult success(Citizen citizen, RegistrationResponseBody response) {
+        return new RegistrationResult(citizen, response, null);
+    }
+
+    public static RegistrationResult failure(Citizen citizen, IOException error) {
+        return new RegistrationResult(citizen, null, error);
+    }
+
+    public Citizen getCitizen() {
+        return citizen;
+    }
+
+    /**
+     * @return decoded feedback, or null if the request failed
+     */
+    public RegistrationResponseBody getResponse() {
+        return response;
+    }
+
+    /**
+     * @return error of the request, or null if a feedback was decoded
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    public Boolean isRegistrationSuccessful() {
+        return response != null && response.isRegistrationSuccessful();
+    }
+}
@@ -0,0 +1,233 @@
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Checks registration fields before they are sent, so that records the
+ * server would reject never cost a round trip. The checks scan characters
+ * directly and allocate nothing.
+ *
+ * A citizen id only needs the 13 digits the server asks for. Its mod-11
+ * check digit, which the server does not verify, is checked on request.
+ */
+public final class RegistrationValidator {
+    private RegistrationValidator() {
+    }
+
+    /**
+     * Reason a registration is rejected, with the outcome the server gives
+     * for the same mistake
+     */
+    public enum Violation {
+        NONE(null),
+        MISSING_FIELD(RegistrationOutcome.BAD_REQUEST),
+        INVALID_CITIZEN_ID(RegistrationOutcome.INVALID_CITIZEN_ID),
+        INVALID_NAME(RegistrationOutcome.INVALID_NAME),
+        INVALID_BIRTH_DATE(RegistrationOutcome.INVALID_BIRTH_DATE);
+
+        private final RegistrationOutcome outcome;
+
+        Violation(RegistrationOutcome outcome) {
+            this.outcome = outcome;
+        }
+
+        /**
+         * @return outcome the server answers, null for {@link #NONE}
+         */
+        public RegistrationOutcome outcome() {
+            return outcome;
+        }
+
+        /**
+         * @return feedback the server answers, null for {@link #NONE}
+         */
+        public String feedback() {
+            return outcome != null ? outcome.feedback() : null;
+        }
+    }
+
+    private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    /**
+     * Validate every field of a registration, in the order the server checks them
+     *
+     * @return first violation found, or {@link Violation#NONE}
+     */
+    public static Violation validate(CharSequence citizenId, CharSequence name, CharSequence surname,
+                                     CharSequence birthDate, CharSequence occupation, CharSequence phoneNumber,
+                                     Boolean isRisk, CharSequence address) {
+        return validate(citizenId, name, surname, birthDate, occupation, phoneNumber, isRisk, address, false);
+    }
+
+    /**
+     * Validate every field of a registration, in the order the server checks them
+     *
+     * @param checkDigit also reject a citizen id whose check digit is wrong,
+     *                   although the server would accept it
+     * @return first violation found, or {@link Violation#NONE}
+     */
+    public static Violation validate(CharSequence citizenId, CharSequence name, CharSequence surname,
+                                     CharSequence birthDate, CharSequence occupation, CharSequence phoneNumber,
+                                     Boolean isRisk, CharSequence address, boolean checkDigit) {
+        if (citizenId == null || name == null || surname == null || birthDate == null
+                || occupation == null || phoneNumber == null || isRisk == null || address == null) {
+            return Violation.MISSING_FIELD;
+        }
+        if (checkDigit ? !hasValidCheckDigit(citizenId) : !isValidCitizenId(citizenId)) {
+            return Violation.INVALID_CITIZEN_ID;
+        }
+        if (isNumeric(name) || isNumeric(surname)) {
+            return Violation.INVALID_NAME;
+        }
+        if (!isValidBirthDate(birthDate)) {
+            return Violation.INVALID_BIRTH_DATE;
+        }
+        return Violation.NONE;
+    }
+
+    /**
+     * @see #validate(CharSequence, CharSequence, CharSequence, CharSequence, CharSequence, CharSequence, Boolean, CharSequence)
+     */
+    public static Violation validate(Citizen citizen) {
+        return validate(citizen, false);
+    }
+
+    /**
+     * Validate every field of a citizen, in the order the server checks them
+     *
+     * @param checkDigit also reject a citizen id whose check digit is wrong
+     * @return first violation found, or {@link Violation#NONE}
+     */
+    public static Violation validate(Citizen citizen, boolean checkDigit) {
+        return validate(citizen.getCitizenId(), citizen.getName(), citizen.getSurname(), citizen.getBirthDate(),
+                citizen.getOccupation(), citizen.getPhoneNumber(), citizen.getIsRisk(), citizen.getAddress(),
+                checkDigit);
+    }
+
+    /**
+     * Split a record set into valid and invalid registrations in one pass
+     *
+     * @param citizens records to validate
+     * @param valid    receives records that pass every check
+     * @param invalid  receives rejected records with their violation
+     * @return number of invalid records
+     */
+    public static int validateAll(Iterable<Citizen> citizens, Consumer<Citizen> valid,
+                                  BiConsumer<Citizen, Violation> invalid) {
+        return validateAll(citizens, valid, invalid, false);
+    }
+
+    /**
+     * Split a record set into valid and invalid registrations in one pass
+     *
+     * @param citizens   records to validate
+     * @param valid      receives records that pass every check
+     * @param invalid    receives rejected records with their violation
+     * @param checkDigit also reject a citizen id whose check digit is wrong
+     * @return number of invalid records
+     */
+    public static int validateAll(Iterable<Citizen> citizens, Consumer<Citizen> valid,
+                                  BiConsumer<Citizen, Violation> invalid, boolean checkDigit) {
+        int rejected = 0;
+        for (Citizen citizen : citizens) {
+            Violation violation = validate(citizen, checkDigit);
+            if (violation == Violation.NONE) {
+                valid.accept(citizen);
+            } else {
+                rejected++;
+                invalid.accept(citizen, violation);
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Check a citizen id the way the server does: 13 digits
+     */
+    public static boolean isValidCitizenId(CharSequence citizenId) {
+        return citizenId.length() == 13 && isNumeric(citizenId);
+    }
+
+    /**
+     * Check a Thai citizen id: 13 digits whose last digit is the mod-11
+     * checksum of the first 12 weighted from 13 down to 2
+     */
+    public static boolean hasValidCheckDigit(CharSequence citizenId) {
+        if (!isValidCitizenId(citizenId)) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (citizenId.charAt(i) - '0') * (13 - i);
+        }
+        return (11 - sum % 11) % 10 == citizenId.charAt(12) - '0';
+    }
+
+    /**
+     * Append the mod-11 check digit to a 12 digit prefix
+     *
+     * @param prefix first 12 digits of the citizen id, between 10^11 and 10^12 - 1
+     * @return checksum-valid citizen id
+     */
+    public static String withCheckDigit(long prefix) {
+        if (prefix < 100_000_000_000L || prefix > 999_999_999_999L) {
+            throw new IllegalArgumentException("prefix must have 12 digits: " + prefix);
+        }
+        int sum = 0;
+        long remaining = prefix;
+        for (int weight = 2; weight <= 13; weight++) {
+            sum += (int) (remaining % 10) * weight;
+            remaining /= 10;
+        }
+        return prefix * 10 + (11 - sum % 11) % 10 + "";
+    }
+
+    /**
+     * Check a date in {@code yyyy/MM/dd} format that exists in the calendar
+     */
+    public static boolean isValidBirthDate(CharSequence birthDate) {
+        if (birthDate.length() != 10 || birthDate.charAt(4) != '/' || birthDate.charAt(7) != '/') {
+            return false;
+        }
+        int year = digits(birthDate, 0, 4);
+        int month = digits(birthDate, 5, 7);
+        int day = digits(birthDate, 8, 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1) {
+            return false;
+        }
+        if (month == 2 && day == 29) {
+            return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+        }
+        return day <= DAYS_IN_MONTH[month - 1];
+    }
+
+    /**
+     * @return true if the value is non-empty and made of ASCII digits only
+     */
+    public static boolean isNumeric(CharSequence value) {
+        if (value.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return decimal value of the digits in [start, end), or -1 if one is not a digit
+     */
+    private static int digits(CharSequence value, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,71 @@
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import okhttp3.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the JSON array of a {@code /reservations} response one element at
+ * a time, so only the current reservation is held in memory. The response
+ * stays open until the array is exhausted or the iterator is closed.
+ */
+public class ReservationIterator implements Iterator<ReservationResponseBody>, Closeable {
+    private final Response response;
+    private final JsonReader reader;
+    private final TypeAdapter<ReservationResponseBody> adapter;
+    private boolean finished;
+
+    ReservationIterator(Response response, Reader body, TypeAdapter<ReservationResponseBody> adapter)
+            throws IOException {
+        this.response = response;
+        this.reader = new JsonReader(body);
+        this.adapter = adapter;
+        reader.beginArray();
+    }
+
+    /**
+     * @throws UncheckedIOException if the response could not be read
+     */
+    @Override
+    public boolean hasNext() {
+        if (finished) {
+            return false;
+        }
+        try {
+            if (reader.hasNext()) {
+                return true;
+            }
+            reader.endArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        close();
+        return false;
+    }
+
+    /**
+     * @throws UncheckedIOException if the response could not be read
+     */
+    @Override
+    public ReservationResponseBody next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return adapter.read(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        response.close();
+    }
+}
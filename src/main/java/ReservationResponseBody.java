@@ -0,0 +1,37 @@
+import com.google.gson.annotations.SerializedName;
+
+public class ReservationResponseBody {
+    @SerializedName("citizen_id")
+    private String citizenId;
+    @SerializedName("site_name")
+    private String siteName;
+    @SerializedName("vaccine_name")
+    private String vaccineName;
+    private String timestamp;
+    private String queue;
+    private Boolean checked;
+
+    public String getCitizenId() {
+        return citizenId;
+    }
+
+    public String getSiteName() {
+        return siteName;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    public Boolean getChecked() {
+        return checked;
+    }
+}
@@ -0,0 +1,203 @@
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Polls {@code GET /reservations} and reports only what changed since the
+ * previous poll.
+ *
+ * The last list is kept in memory, keyed by citizen id, with the ETag and
+ * Last-Modified date it was served with. Each poll revalidates them with
+ * {@code If-None-Match} and {@code If-Modified-Since}, so an unchanged list
+ * costs a 304 without a body and is not parsed. A changed list is decoded
+ * as a stream and compared with the previous one.
+ */
+public class ReservationWatcher implements Closeable {
+    public enum Kind {
+        ADDED, REMOVED, CHANGED
+    }
+
+    /**
+     * Difference of one reservation between two polls
+     */
+    public static class Change {
+        private final Kind kind;
+        private final ReservationResponseBody previous;
+        private final ReservationResponseBody current;
+
+        Change(Kind kind, ReservationResponseBody previous, ReservationResponseBody current) {
+            this.kind = kind;
+            this.previous = previous;
+            this.current = current;
+        }
+
+        public Kind kind() {
+            return kind;
+        }
+
+        public String citizenId() {
+            return current != null ? current.getCitizenId() : previous.getCitizenId();
+        }
+
+        /**
+         * @return the reservation before the change, or null if it was added
+         */
+        public ReservationResponseBody previous() {
+            return previous;
+        }
+
+        /**
+         * @return the reservation after the change, or null if it was removed
+         */
+        public ReservationResponseBody current() {
+            return current;
+        }
+    }
+
+    private final VaccineApiClient api;
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private Map<String, ReservationResponseBody> reservations = new HashMap<>();
+    private String etag;
+    private String lastModified;
+    private ScheduledExecutorService scheduler;
+
+    public ReservationWatcher(VaccineApiClient api) {
+        this.api = api;
+    }
+
+    /**
+     * Fetch the reservations and report the differences with the previous
+     * poll, the first poll reporting every reservation as added. Nothing is
+     * reported nor remembered if the poll fails, and nothing is remembered
+     * if the sink throws, so the next poll reports the changes again.
+     *
+     * @param sink receives the changes on the calling thread
+     * @return false if the server answered that nothing changed
+     * @throws IOException if an error occurred during request execution
+     */
+    public synchronized boolean poll(Consumer<Change> sink) throws IOException {
+        polls.increment();
+        Request.Builder request = api.reservationsRequest();
+        if (etag != null) {
+            request.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            request.header("If-Modified-Since", lastModified);
+        }
+        Response response = api.httpClient().newCall(request.build()).execute();
+        if (response.code() == 304) {
+            response.close();
+            notModified.increment();
+            return false;
+        }
+        String newEtag = response.header("ETag");
+        String newLastModified = response.header("Last-Modified");
+        Map<String, ReservationResponseBody> current = new HashMap<>(Math.max(16, reservations.size() * 4 / 3 + 1));
+        try (ReservationIterator iterator = api.readReservations(response)) {
+            iterator.forEachRemaining(reservation -> current.put(reservation.getCitizenId(), reservation));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Map<String, ReservationResponseBody> previous = reservations;
+        for (ReservationResponseBody reservation : current.values()) {
+            ReservationResponseBody before = previous.get(reservation.getCitizenId());
+            if (before == null) {
+                sink.accept(new Change(Kind.ADDED, null, reservation));
+            } else if (!isSame(before, reservation)) {
+                sink.accept(new Change(Kind.CHANGED, before, reservation));
+            }
+        }
+        for (ReservationResponseBody reservation : previous.values()) {
+            if (!current.containsKey(reservation.getCitizenId())) {
+                sink.accept(new Change(Kind.REMOVED, reservation, null));
+            }
+        }
+        // kept only once the sink took every change, so a failed one is reported again
+        reservations = current;
+        etag = newEtag;
+        lastModified = newLastModified;
+        return true;
+    }
+
+    private static boolean isSame(ReservationResponseBody a, ReservationResponseBody b) {
+        return Objects.equals(a.getSiteName(), b.getSiteName())
+                && Objects.equals(a.getVaccineName(), b.getVaccineName())
+                && Objects.equals(a.getTimestamp(), b.getTimestamp())
+                && Objects.equals(a.getQueue(), b.getQueue())
+                && Objects.equals(a.getChecked(), b.getChecked());
+    }
+
+    /**
+     * Poll at a fixed rate on a background thread until closed
+     *
+     * @param sink    receives the changes on the background thread
+     * @param onError receives the failures of polls, including exceptions
+     *                thrown by the sink, polling goes on
+     * @return this watcher
+     */
+    public synchronized ReservationWatcher watch(long period, TimeUnit unit, Consumer<Change> sink,
+                                                 Consumer<Exception> onError) {
+        if (scheduler != null) {
+            throw new IllegalStateException("already watching");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reservation-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            // an exception escaping the task would cancel every later poll
+            try {
+                poll(sink);
+            } catch (IOException | RuntimeException e) {
+                onError.accept(e);
+            }
+        }, 0, period, unit);
+        return this;
+    }
+
+    /**
+     * @return the reservations of the last successful poll
+     */
+    public synchronized int size() {
+        return reservations.size();
+    }
+
+    public long pollCount() {
+        return polls.sum();
+    }
+
+    /**
+     * @return polls answered 304 Not Modified
+     */
+    public long notModifiedCount() {
+        return notModified.sum();
+    }
+
+    /**
+     * Stop watching, a poll in progress completes
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService running;
+        synchronized (this) {
+            running = scheduler;
+            scheduler = null;
+        }
+        if (running != null) {
+            running.shutdown();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+import com.google.gson.stream.MalformedJsonException;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Options;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the flat JSON objects of the user and registration responses,
+ * and the arrays of registration feedbacks of batches, straight from the
+ * bytes of the response.
+ *
+ * Field names are matched on the raw bytes against tables built once, and
+ * string values are decoded from UTF-8 without first copying the body into
+ * a String or a char stream. Values are coerced to strings as Gson does:
+ * numbers and booleans keep their text. Unknown fields are skipped, nested
+ * values included.
+ */
+final class ResponseDecoder {
+    private static final String[] USER_FIELDS = {
+            "citizen_id", "name", "surname", "birth_date", "occupation", "phone_number", "is_risk", "address",
+            "vaccine_taken"
+    };
+    private static final Options USER_NAMES = names(USER_FIELDS);
+    private static final Options REGISTRATION_NAMES = names(new String[]{"feedback"});
+    private static final ByteString QUOTE_OR_BACKSLASH = ByteString.encodeUtf8("\"\\");
+    private static final ByteString END_OF_LITERAL = ByteString.encodeUtf8(" \t\r\n,:]}");
+
+    private ResponseDecoder() {
+    }
+
+    private static Options names(String[] fields) {
+        ByteString[] quoted = new ByteString[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            quoted[i] = ByteString.encodeUtf8("\"" + fields[i] + "\"");
+        }
+        return Options.of(quoted);
+    }
+
+    /**
+     * @return the user, or null if the body is the JSON literal null
+     * @throws IOException if the body is not a JSON object
+     */
+    static UserResponseBody readUser(BufferedSource source) throws IOException {
+        if (readNull(source)) {
+            return null;
+        }
+        String[] values = new String[USER_FIELDS.length];
+        beginObject(source);
+        while (hasNextField(source)) {
+            int field = source.select(USER_NAMES);
+            if (field < 0) {
+                skipName(source);
+                skipValue(source);
+            } else {
+                colon(source);
+                values[field] = readString(source);
+            }
+        }
+        return new UserResponseBody(values[0], values[1], values[2], values[3], values[4], values[5], values[6],
+                values[7], values[8]);
+    }
+
+    /**
+     * @return the feedback, or null if the body is the JSON literal null
+     * @throws IOException if the body is not a JSON object
+     */
+    static RegistrationResponseBody readRegistration(BufferedSource source) throws IOException {
+        if (readNull(source)) {
+            return null;
+        }
+        String feedback = null;
+        RegistrationOutcome outcome = RegistrationOutcome.UNKNOWN;
+        beginObject(source);
+        while (hasNextField(source)) {
+            if (source.select(REGISTRATION_NAMES) < 0) {
+                skipName(source);
+                skipValue(source);
+                continue;
+            }
+            colon(source);
+            skipWhitespace(source);
+            int known = source.select(RegistrationOutcome.JSON_FEEDBACKS);
+            if (known >= 0) {
+                outcome = RegistrationOutcome.ofJsonFeedback(known);
+                feedback = outcome.feedback();
+            } else {
+                feedback = readString(source);
+                outcome = RegistrationOutcome.of(feedback);
+            }
+        }
+        return new RegistrationResponseBody(feedback, outcome);
+    }
+
+    /**
+     * @return the feedbacks of a JSON array, in order
+     * @throws IOException if the body is not a JSON array of objects
+     */
+    static List<RegistrationResponseBody> readRegistrations(BufferedSource source) throws IOException {
+        List<RegistrationResponseBody> bodies = new ArrayList<>();
+        skipWhitespace(source);
+        expect(source, '[');
+        skipWhitespace(source);
+        if (peek(source) == ']') {
+            source.skip(1);
+            return bodies;
+        }
+        while (true) {
+            bodies.add(readRegistration(source));
+            skipWhitespace(source);
+            byte next = peek(source);
+            source.skip(1);
+            if (next == ']') {
+                return bodies;
+            }
+            if (next != ',') {
+                throw new MalformedJsonException("expected ',' or ']', found '" + (char) next + "'");
+            }
+        }
+    }
+
+    private static boolean readNull(BufferedSource source) throws IOException {
+        skipWhitespace(source);
+        if (source.request(1) && source.getBuffer().getByte(0) == 'n') {
+            expectLiteral(source, "null");
+            return true;
+        }
+        return false;
+    }
+
+    private static void beginObject(BufferedSource source) throws IOException {
+        skipWhitespace(source);
+        expect(source, '{');
+    }
+
+    /**
+     * Move to the name of the next field, past the comma separating it
+     * from the previous one
+     *
+     * @return false once the closing brace is consumed
+     */
+    private static boolean hasNextField(BufferedSource source) throws IOException {
+        skipWhitespace(source);
+        byte next = peek(source);
+        if (next == '}') {
+            source.skip(1);
+            return false;
+        }
+        if (next == ',') {
+            source.skip(1);
+            skipWhitespace(source);
+            next = peek(source);
+        }
+        if (next != '"') {
+            throw new MalformedJsonException("expected a field name, found '" + (char) next + "'");
+        }
+        return true;
+    }
+
+    private static void colon(BufferedSource source) throws IOException {
+        skipWhitespace(source);
+        expect(source, ':');
+    }
+
+    private static void skipName(BufferedSource source) throws IOException {
+        readQuoted(source);
+        colon(source);
+    }
+
+    /**
+     * @return a string value, the text of a number or boolean, or null
+     */
+    private static String readString(BufferedSource source) throws IOException {
+        skipWhitespace(source);
+        byte next = peek(source);
+        if (next == '"') {
+            return readQuoted(source);
+        }
+        if (next == '{' || next == '[') {
+            throw new MalformedJsonException("expected a string, found '" + (char) next + "'");
+        }
+        String literal = readLiteral(source);
+        return literal.equals("null") ? null : literal;
+    }
+
+    private static String readQuoted(BufferedSource source) throws IOException {
+        source.skip(1);
+        Buffer escaped = null;
+        while (true) {
+            long index = source.indexOfElement(QUOTE_OR_BACKSLASH);
+            if (index < 0) {
+                throw new MalformedJsonException("unterminated string");
+            }
+            if (source.getBuffer().getByte(index) == '"') {
+                if (escaped == null) {
+                    String value = source.readUtf8(index);
+                    source.skip(1);
+                    return value;
+                }
+                escaped.write(source, index);
+                source.skip(1);
+                return escaped.readUtf8();
+            }
+            if (escaped == null) {
+                escaped = new Buffer();
+            }
+            escaped.write(source, index);
+            source.skip(1);
+            readEscape(source, escaped);
+        }
+    }
+
+    private static void readEscape(BufferedSource source, Buffer out) throws IOException {
+        byte escape = source.readByte();
+        switch (escape) {
+            case 'n':
+                out.writeByte('\n');
+                break;
+            case 't':
+                out.writeByte('\t');
+                break;
+            case 'r':
+                out.writeByte('\r');
+                break;
+            case 'b':
+                out.writeByte('\b');
+                break;
+            case 'f':
+                out.writeByte('\f');
+                break;
+            case 'u':
+                int c = Integer.parseInt(source.readUtf8(4), 16);
+                if (Character.isHighSurrogate((char) c) && source.rangeEquals(0, ByteString.encodeUtf8("\\u"))) {
+                    source.skip(2);
+                    int low = Integer.parseInt(source.readUtf8(4), 16);
+                    out.writeUtf8CodePoint(Character.toCodePoint((char) c, (char) low));
+                } else {
+                    out.writeUtf8CodePoint(c);
+                }
+                break;
+            default:
+                // \" \\ \/ stand for themselves
+                out.writeByte(escape);
+        }
+    }
+
+    private static String readLiteral(BufferedSource source) throws IOException {
+        long end = source.indexOfElement(END_OF_LITERAL);
+        if (end <= 0) {
+            throw new MalformedJsonException("expected a value");
+        }
+        return source.readUtf8(end);
+    }
+
+    private static void skipValue(BufferedSource source) throws IOException {
+        skipWhitespace(source);
+        byte next = peek(source);
+        if (next == '"') {
+            readQuoted(source);
+        } else if (next == '{' || next == '[') {
+            int depth = 0;
+            do {
+                skipWhitespace(source);
+                byte b = peek(source);
+                if (b == '"') {
+                    readQuoted(source);
+                    continue;
+                }
+                source.skip(1);
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        } else {
+            readLiteral(source);
+        }
+    }
+
+    private static void skipWhitespace(BufferedSource source) throws IOException {
+        while (source.request(1)) {
+            byte b = source.getBuffer().getByte(0);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return;
+            }
+            source.skip(1);
+        }
+    }
+
+    private static byte peek(BufferedSource source) throws IOException {
+        if (!source.request(1)) {
+            throw new MalformedJsonException("unexpected end of JSON");
+        }
+        return source.getBuffer().getByte(0);
+    }
+
+    private static void expect(BufferedSource source, char expected) throws IOException {
+        byte next = peek(source);
+        if (next != expected) {
+            throw new MalformedJsonException("expected '" + expected + "', found '" + (char) next + "'");
+        }
+        source.skip(1);
+    }
+
+    private static void expectLiteral(BufferedSource source, String literal) throws IOException {
+        if (!source.rangeEquals(0, ByteString.encodeUtf8(literal))) {
+            throw new MalformedJsonException("expected " + literal);
+        }
+        source.skip(literal.length());
+    }
+}
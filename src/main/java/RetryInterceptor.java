@@ -0,0 +1,98 @@
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries idempotent requests (GET, HEAD, PUT, DELETE) that failed in
+ * transit or were answered with a transient status (408, 429, 5xx),
+ * sleeping a random duration between zero and an exponentially growing
+ * bound between attempts. Registrations are never retried, since the
+ * server may have stored a registration whose answer was lost.
+ *
+ * A deletion may likewise have been applied by an attempt whose answer was
+ * lost, so a DELETE answered with 404 after an attempt failed in transit
+ * is reported as deleted. After attempts answered with a status nothing
+ * was applied, and the 404 is kept.
+ */
+public class RetryInterceptor implements Interceptor {
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+
+    /**
+     * @param maxAttempts maximum number of attempts, including the first one
+     * @param baseDelay   bound of the first backoff
+     * @param maxDelay    bound no backoff exceeds
+     * @param unit        unit of both delays
+     */
+    public RetryInterceptor(int maxAttempts, long baseDelay, long maxDelay, TimeUnit unit) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts < 1: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = unit.toNanos(baseDelay);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!isIdempotent(request.method())) {
+            return chain.proceed(request);
+        }
+        boolean lostAnswer = false;
+        for (int attempt = 1; ; attempt++) {
+            boolean last = attempt >= maxAttempts;
+            try {
+                Response response = chain.proceed(request);
+                if (lostAnswer && response.code() == 404 && request.method().equals("DELETE")) {
+                    response.close();
+                    return response.newBuilder()
+                            .code(204)
+                            .message("No Content")
+                            .removeHeader("Content-Type")
+                            .removeHeader("Content-Length")
+                            .body(ResponseBody.create(new byte[0], null))
+                            .build();
+                }
+                if (last || !isTransient(response.code())) {
+                    return response;
+                }
+                response.close();
+            } catch (IOException e) {
+                if (last || chain.call().isCanceled()) {
+                    throw e;
+                }
+                lostAnswer = true;
+            }
+            backoff(attempt);
+        }
+    }
+
+    private void backoff(int attempt) throws InterruptedIOException {
+        long bound = Math.min(maxDelayNanos, baseDelayNanos << Math.min(attempt - 1, 30));
+        if (bound <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted during retry backoff");
+        }
+    }
+
+    static boolean isIdempotent(String method) {
+        return method.equals("GET") || method.equals("HEAD") || method.equals("PUT") || method.equals("DELETE");
+    }
+
+    static boolean isTransient(int code) {
+        return code == 408 || code == 429 || code >= 500;
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses concurrent calls for the same key into one: the first caller
+ * executes the call and every caller arriving before it finishes waits for
+ * and shares its result.
+ *
+ * @param <K> type of the key identifying identical calls
+ * @param <V> type of the shared result
+ */
+public class SingleFlight<K, V> {
+    /**
+     * Call executed once per key and flight
+     */
+    public interface Call<V> {
+        V call() throws IOException;
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+
+    /**
+     * Execute the call, or join the identical call already in flight
+     *
+     * @param key  identifies identical calls
+     * @param call executed if no call for the key is in flight
+     * @return result of the call, shared between joined callers
+     * @throws IOException if the shared call failed
+     */
+    public V execute(K key, Call<V> call) throws IOException {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            collapsed.increment();
+            return join(existing);
+        }
+        executed.increment();
+        try {
+            V result = call.call();
+            flight.complete(result);
+            return result;
+        } catch (Throwable e) {
+            // joiners would wait forever on a flight left incomplete, whatever was thrown
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private V join(CompletableFuture<V> flight) throws IOException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a shared call");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * @return number of calls actually executed
+     */
+    public long executedCount() {
+        return executed.sum();
+    }
+
+    /**
+     * @return number of calls that joined a call already in flight
+     */
+    public long collapsedCount() {
+        return collapsed.sum();
+    }
+
+    /**
+     * @return number of keys with a call in flight
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+}
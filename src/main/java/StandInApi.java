@@ -0,0 +1,390 @@
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory implementation of the registration and reservation routes of
+ * World Class Government API, answering with the same status codes,
+ * content types and feedback strings as the public deployment.
+ *
+ * It is independent of any transport, {@link StandInServer} exposes it
+ * over HTTP.
+ */
+public class StandInApi {
+    static final String JSON = "application/json";
+    static final String HTML = "text/html; charset=utf-8";
+
+    /**
+     * Body of the 400 page the public deployment answers for malformed requests
+     */
+    static final String BAD_REQUEST_HTML = "<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 3.2 Final//EN\">\n"
+            + "<title>400 Bad Request</title>\n"
+            + "<h1>Bad Request</h1>\n"
+            + "<p>The browser (or proxy) sent a request that this server could not understand.</p>\n";
+
+    /**
+     * Body of the 500 page of the same server, only sent when a fault is injected
+     */
+    static final String SERVER_ERROR_HTML = "<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 3.2 Final//EN\">\n"
+            + "<title>500 Internal Server Error</title>\n"
+            + "<h1>Internal Server Error</h1>\n"
+            + "<p>The server encountered an internal error and was unable to complete your request. "
+            + "Either the server is overloaded or there is an error in the application.</p>\n";
+
+    private static final DateTimeFormatter BIRTH_DATE_FORMAT = DateTimeFormatter
+            .ofPattern("uuuu/MM/dd")
+            .withResolverStyle(ResolverStyle.STRICT);
+
+    private final ConcurrentMap<String, Map<String, String>> registrations = new ConcurrentHashMap<>();
+    private final Queue<Reservation> reservations = new ConcurrentLinkedQueue<>();
+    private final AtomicLong reservationsVersion = new AtomicLong();
+    private volatile Instant reservationsModified = Instant.now();
+
+    /**
+     * Response produced by the stand-in for one request
+     */
+    public static class Reply {
+        private final int code;
+        private final String contentType;
+        private final byte[] body;
+        private final Map<String, String> headers;
+
+        Reply(int code, String contentType, String body) {
+            this(code, contentType, body, Collections.emptyMap());
+        }
+
+        Reply(int code, String contentType, String body, Map<String, String> headers) {
+            this.code = code;
+            this.contentType = contentType;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+            this.headers = headers;
+        }
+
+        public int code() {
+            return code;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public byte[] body() {
+            return body;
+        }
+
+        /**
+         * @return headers to send besides the content type
+         */
+        public Map<String, String> headers() {
+            return headers;
+        }
+    }
+
+    private static class Reservation {
+        private final String citizenId;
+        private final String siteName;
+        private final String vaccineName;
+
+        Reservation(String citizenId, String siteName, String vaccineName) {
+            this.citizenId = citizenId;
+            this.siteName = siteName;
+            this.vaccineName = vaccineName;
+        }
+    }
+
+    /**
+     * Handle one request without conditional headers
+     *
+     * @see #handle(String, String, Map, Map)
+     */
+    public Reply handle(String method, String path, Map<String, String> params) {
+        return handle(method, path, params, Collections.emptyMap());
+    }
+
+    /**
+     * Handle one request
+     *
+     * @param method  HTTP method of the request
+     * @param path    decoded path of the request
+     * @param params  query parameters merged with form body fields
+     * @param headers request headers, with lower case names
+     * @return response to send back
+     */
+    public Reply handle(String method, String path, Map<String, String> params, Map<String, String> headers) {
+        if (path.equals("/registration") && method.equals("POST")) {
+            return register(params);
+        }
+        if (path.equals("/registration/batch") && method.equals("POST")) {
+            // batches are answered by handleBatch, this one did not carry a JSON array
+            return new Reply(400, HTML, BAD_REQUEST_HTML);
+        }
+        if (path.startsWith("/registration/")) {
+            String citizenId = path.substring("/registration/".length());
+            if (method.equals("GET")) {
+                return getUser(citizenId);
+            }
+            if (method.equals("DELETE")) {
+                return deleteUser(citizenId);
+            }
+        }
+        if (path.equals("/reservations") && method.equals("GET")) {
+            return getReservations(headers);
+        }
+        return new Reply(404, HTML, "<title>404 Not Found</title>\n<h1>Not Found</h1>\n");
+    }
+
+    /**
+     * Store a reservation so that it appears in {@code GET /reservations}
+     */
+    public void addReservation(String citizenId, String siteName, String vaccineName) {
+        reservations.add(new Reservation(citizenId, siteName, vaccineName));
+        reservationsChanged();
+    }
+
+    /**
+     * Remove the reservations of a citizen
+     *
+     * @return false if the citizen had none
+     */
+    public boolean removeReservation(String citizenId) {
+        boolean removed = reservations.removeIf(reservation -> reservation.citizenId.equals(citizenId));
+        if (removed) {
+            reservationsChanged();
+        }
+        return removed;
+    }
+
+    private void reservationsChanged() {
+        reservationsModified = Instant.now();
+        reservationsVersion.incrementAndGet();
+    }
+
+    /**
+     * Replace the vaccines a registered citizen has taken, as answered in
+     * the {@code vaccine_taken} field of {@code GET /registration/{citizen_id}}
+     *
+     * @return false if the citizen is not registered
+     */
+    public boolean setVaccineTaken(String citizenId, String vaccineTaken) {
+        Map<String, String> user = registrations.get(citizenId);
+        if (user == null) {
+            return false;
+        }
+        user.put("vaccine_taken", vaccineTaken);
+        return true;
+    }
+
+    /**
+     * @return number of registered citizens
+     */
+    public int registrationCount() {
+        return registrations.size();
+    }
+
+    /**
+     * Remove every registration and reservation
+     */
+    public void clear() {
+        registrations.clear();
+        reservations.clear();
+        reservationsChanged();
+    }
+
+    private Reply register(Map<String, String> params) {
+        RegistrationOutcome outcome = registerRecord(params);
+        if (outcome == RegistrationOutcome.BAD_REQUEST) {
+            return new Reply(400, HTML, BAD_REQUEST_HTML);
+        }
+        return feedback(outcome.isSuccess() ? 201 : 400, outcome.feedback());
+    }
+
+    /**
+     * Register the citizens of a batch in order, answering one feedback
+     * object per record as a JSON array. A record missing a field is
+     * answered with the feedback {@code Bad Request} rather than failing
+     * the whole batch.
+     *
+     * @param method  HTTP method of the request
+     * @param path    decoded path of the request
+     * @param records fields of each record of the JSON array body
+     * @return response to send back
+     */
+    public Reply handleBatch(String method, String path, List<Map<String, String>> records) {
+        if (!path.equals("/registration/batch") || !method.equals("POST")) {
+            return handle(method, path, Collections.emptyMap());
+        }
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginArray();
+            for (Map<String, String> record : records) {
+                writer.beginObject().name("feedback").value(registerRecord(record).feedback()).endObject();
+            }
+            writer.endArray();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return new Reply(200, JSON, out.toString());
+    }
+
+    /**
+     * @return outcome of the registration, {@link RegistrationOutcome#BAD_REQUEST}
+     *         if a field is missing
+     */
+    private RegistrationOutcome registerRecord(Map<String, String> params) {
+        for (String field : RegistrationEncoder.FIELDS) {
+            if (params.get(field) == null) {
+                return RegistrationOutcome.BAD_REQUEST;
+            }
+        }
+        String citizenId = params.get("citizen_id");
+        if (!isCitizenId(citizenId)) {
+            return RegistrationOutcome.INVALID_CITIZEN_ID;
+        }
+        if (isNumeric(params.get("name")) || isNumeric(params.get("surname"))) {
+            return RegistrationOutcome.INVALID_NAME;
+        }
+        if (!isBirthDate(params.get("birth_date"))) {
+            return RegistrationOutcome.INVALID_BIRTH_DATE;
+        }
+        Map<String, String> user = new ConcurrentHashMap<>();
+        for (String field : RegistrationEncoder.FIELDS) {
+            user.put(field, params.get(field));
+        }
+        if (registrations.putIfAbsent(citizenId, user) != null) {
+            return RegistrationOutcome.ALREADY_REGISTERED;
+        }
+        return RegistrationOutcome.SUCCESS;
+    }
+
+    private Reply getUser(String citizenId) {
+        Map<String, String> user = registrations.get(citizenId);
+        if (user == null) {
+            return feedback(404, "citizen ID not found");
+        }
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            for (String field : RegistrationEncoder.FIELDS) {
+                writer.name(field).value(user.get(field));
+            }
+            writer.name("vaccine_taken").value(user.getOrDefault("vaccine_taken", "[]"));
+            writer.endObject();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return new Reply(200, JSON, out.toString());
+    }
+
+    private Reply deleteUser(String citizenId) {
+        if (registrations.remove(citizenId) == null) {
+            return feedback(404, "citizen ID not found");
+        }
+        return feedback(200, "deletion success!");
+    }
+
+    /**
+     * List the reservations with an ETag and a Last-Modified date, answering
+     * 304 without a body to a request whose validators are still current
+     */
+    private Reply getReservations(Map<String, String> headers) {
+        // read before the list, so a concurrent change makes the ETag stale rather than wrong
+        long version = reservationsVersion.get();
+        Instant modified = reservationsModified;
+        String etag = "\"reservations-" + version + "\"";
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(modified.atZone(ZoneOffset.UTC));
+        Map<String, String> validators = new HashMap<>();
+        validators.put("ETag", etag);
+        validators.put("Last-Modified", lastModified);
+        // the list changes at any time, caches must revalidate it on every use
+        validators.put("Cache-Control", "no-cache");
+        String ifNoneMatch = headers.get("if-none-match");
+        String ifModifiedSince = headers.get("if-modified-since");
+        if (ifNoneMatch != null ? ifNoneMatch.equals(etag) : isNotModifiedSince(ifModifiedSince, modified)) {
+            return new Reply(304, JSON, "", validators);
+        }
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginArray();
+            for (Reservation reservation : reservations) {
+                writer.beginObject()
+                        .name("citizen_id").value(reservation.citizenId)
+                        .name("site_name").value(reservation.siteName)
+                        .name("vaccine_name").value(reservation.vaccineName)
+                        .name("timestamp").nullValue()
+                        .name("queue").nullValue()
+                        .name("checked").value(false)
+                        .endObject();
+            }
+            writer.endArray();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return new Reply(200, JSON, out.toString(), validators);
+    }
+
+    private static boolean isNotModifiedSince(String date, Instant modified) {
+        if (date == null) {
+            return false;
+        }
+        try {
+            Instant since = ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return !modified.truncatedTo(ChronoUnit.SECONDS).isAfter(since);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static Reply feedback(int code, String feedback) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject().name("feedback").value(feedback).endObject();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return new Reply(code, JSON, out.toString());
+    }
+
+    private static boolean isCitizenId(String citizenId) {
+        return citizenId.length() == 13 && isNumeric(citizenId);
+    }
+
+    private static boolean isNumeric(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBirthDate(String birthDate) {
+        try {
+            LocalDate.parse(birthDate, BIRTH_DATE_FORMAT);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
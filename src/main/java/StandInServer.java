@@ -0,0 +1,313 @@
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.HttpUrl;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local HTTP server exposing a {@link StandInApi}, so the client can be
+ * tested and benchmarked without reaching the public deployment.
+ * Registration fields are read from the query, a form body or a JSON
+ * object body, and a JSON array body is handled as a batch of
+ * registrations. Request bodies may be gzipped. A {@link FaultInjector} set with {@link #faults} delays or
+ * breaks a share of the answers.
+ *
+ * Usage: {@code StandInServer [port]}
+ */
+public class StandInServer implements Closeable {
+    static {
+        // without it small responses wait on delayed ACKs and cap keep-alive throughput
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private static final String[] CONDITIONAL_HEADERS = {"If-None-Match", "If-Modified-Since"};
+
+    private final StandInApi api;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService delayer;
+    private volatile FaultInjector faults;
+
+    /**
+     * Bind the server on the loopback interface and start serving
+     *
+     * @param api  implementation answering the requests
+     * @param port port to listen on, 0 picks a free port
+     * @throws IOException if the port could not be bound
+     */
+    public StandInServer(StandInApi api, int port) throws IOException {
+        this.api = api;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        executor = Executors.newFixedThreadPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()), r -> {
+            Thread thread = new Thread(r, "stand-in-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // delayed answers wait here rather than on a worker, so they don't hold back the others
+        delayer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stand-in-server-delay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public StandInApi api() {
+        return api;
+    }
+
+    /**
+     * Inject faults into the answers from now on
+     *
+     * @param faults profile to apply, null to answer normally
+     */
+    public void faults(FaultInjector faults) {
+        this.faults = faults;
+    }
+
+    public FaultInjector faults() {
+        return faults;
+    }
+
+    /**
+     * @return base url of the server, to be passed to {@link VaccineApiClient.Builder#baseUrl}
+     */
+    public HttpUrl url() {
+        InetSocketAddress address = server.getAddress();
+        return new HttpUrl.Builder()
+                .scheme("http")
+                .host(address.getHostString())
+                .port(address.getPort())
+                .build();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        FaultInjector injector = faults;
+        FaultInjector.Decision decision = injector != null ? injector.decide(route(path)) : FaultInjector.Decision.NONE;
+        StandInApi.Reply reply;
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readAllBytes();
+            if (decision.fault() == FaultInjector.Fault.SERVER_ERROR) {
+                reply = new StandInApi.Reply(500, StandInApi.HTML, StandInApi.SERVER_ERROR_HTML);
+            } else if (decision.fault() == FaultInjector.Fault.BAD_REQUEST) {
+                reply = new StandInApi.Reply(400, StandInApi.HTML, StandInApi.BAD_REQUEST_HTML);
+            } else if (decision.fault() == FaultInjector.Fault.RESET) {
+                reply = null;
+            } else {
+                reply = answer(api, exchange.getRequestMethod(), path, exchange.getRequestURI().getRawQuery(),
+                        body, exchange.getRequestHeaders()::getFirst);
+            }
+        } catch (IOException | RuntimeException e) {
+            exchange.close();
+            throw e;
+        }
+        if (decision.delayNanos() > 0) {
+            // the delayer only times the answer, a worker writes it so a slow client can't stall the others
+            delayer.schedule(() -> {
+                try {
+                    executor.execute(() -> respond(exchange, reply, decision.fault()));
+                } catch (RejectedExecutionException e) {
+                    // the server is closing
+                    exchange.close();
+                }
+            }, decision.delayNanos(), TimeUnit.NANOSECONDS);
+        } else {
+            respond(exchange, reply, decision.fault());
+        }
+    }
+
+    private static String route(String path) {
+        int end = path.indexOf('/', 1);
+        return path.substring(1, end < 0 ? path.length() : end);
+    }
+
+    /**
+     * Send a reply, or break the connection as the fault says
+     *
+     * @param reply the answer, null to close the connection without answering
+     */
+    private static void respond(HttpExchange exchange, StandInApi.Reply reply, FaultInjector.Fault fault) {
+        try {
+            if (reply == null) {
+                // closing before the headers are sent drops the connection
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", reply.contentType());
+            reply.headers().forEach(exchange.getResponseHeaders()::set);
+            // -1 means no body, which a 304 must not have
+            exchange.sendResponseHeaders(reply.code(), reply.body().length > 0 ? reply.body().length : -1);
+            if (reply.body().length > 0) {
+                OutputStream out = exchange.getResponseBody();
+                if (fault == FaultInjector.Fault.TRUNCATE) {
+                    // the missing bytes make closing the stream drop the connection
+                    out.write(reply.body(), 0, reply.body().length / 2);
+                    out.flush();
+                } else {
+                    out.write(reply.body());
+                }
+                out.close();
+            }
+        } catch (IOException e) {
+            // the client went away, or the body was truncated on purpose
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answer a request with the api, whichever server carried it. Fields
+     * are read from the query, then from a form or JSON object body, and a
+     * JSON array body is handled as a batch. A body sent with
+     * {@code Content-Encoding: gzip} is inflated first.
+     *
+     * @param rawQuery query of the url, still percent-encoded, or null
+     * @param header   value of a request header by name, null if absent
+     */
+    static StandInApi.Reply answer(StandInApi api, String method, String path, String rawQuery, byte[] body,
+                                   Function<String, String> header) {
+        Map<String, String> params = new HashMap<>();
+        List<Map<String, String>> records = null;
+        parseForm(rawQuery, params);
+        if ("gzip".equalsIgnoreCase(header.apply("Content-Encoding"))) {
+            body = gunzip(body);
+        }
+        String contentType = header.apply("Content-Type");
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            parseForm(new String(body, StandardCharsets.UTF_8), params);
+        } else if (contentType != null && contentType.startsWith("application/json") && body.length > 0) {
+            JsonElement json = parseJson(new String(body, StandardCharsets.UTF_8));
+            if (json != null && json.isJsonArray()) {
+                records = records(json.getAsJsonArray());
+            } else if (json != null && json.isJsonObject()) {
+                putFields(json.getAsJsonObject(), params);
+            }
+        }
+        if (records != null) {
+            return api.handleBatch(method, path, records);
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (String name : CONDITIONAL_HEADERS) {
+            String value = header.apply(name);
+            if (value != null) {
+                headers.put(name.toLowerCase(Locale.ROOT), value);
+            }
+        }
+        return api.handle(method, path, params, headers);
+    }
+
+    private static byte[] gunzip(byte[] body) {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            // a body that is not gzip reads as empty, so the request is refused as incomplete
+            return new byte[0];
+        }
+    }
+
+    private static void parseForm(String form, Map<String, String> params) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        int start = 0;
+        while (start <= form.length()) {
+            int end = form.indexOf('&', start);
+            if (end < 0) {
+                end = form.length();
+            }
+            int equals = form.indexOf('=', start);
+            if (equals > start && equals < end) {
+                params.put(
+                        URLDecoder.decode(form.substring(start, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(form.substring(equals + 1, end), StandardCharsets.UTF_8));
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * @return the parsed body, null if it is not JSON
+     */
+    private static JsonElement parseJson(String json) {
+        try {
+            return JsonParser.parseString(json);
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the records of a JSON array body, as a batch of registrations
+     *
+     * @return fields of each object of the array, null if an element is
+     *         not an object
+     */
+    private static List<Map<String, String>> records(JsonArray array) {
+        List<Map<String, String>> records = new ArrayList<>(array.size());
+        for (JsonElement element : array) {
+            if (!element.isJsonObject()) {
+                return null;
+            }
+            Map<String, String> record = new HashMap<>();
+            putFields(element.getAsJsonObject(), record);
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * Merge the fields of a JSON object, scalars as their string form
+     */
+    private static void putFields(JsonObject object, Map<String, String> params) {
+        for (Map.Entry<String, JsonElement> field : object.entrySet()) {
+            if (field.getValue().isJsonPrimitive()) {
+                params.put(field.getKey(), field.getValue().getAsString());
+            }
+        }
+    }
+
+    /**
+     * Stop accepting requests and release the worker threads
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        delayer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        StandInServer server = new StandInServer(new StandInApi(), port);
+        System.out.println("Stand-in API listening on " + server.url());
+    }
+}
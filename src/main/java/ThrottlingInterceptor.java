@@ -0,0 +1,76 @@
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Holds every request until the rate cap and the adaptive concurrency
+ * limit let it through, then feeds its round trip time and outcome back
+ * to the limiter. Installed inside {@link RetryInterceptor}, so each retry
+ * attempt is throttled and measured on its own.
+ *
+ * Asynchronous calls wait on a dispatcher thread, holding one of the
+ * dispatcher's request slots meanwhile.
+ */
+public class ThrottlingInterceptor implements Interceptor {
+    private final ConcurrencyLimiter limiter;
+    private final TokenBucket rateLimit;
+
+    /**
+     * @param limiter   adaptive concurrency limit, or null for none
+     * @param rateLimit cap on the request rate, or null for none
+     */
+    public ThrottlingInterceptor(ConcurrencyLimiter limiter, TokenBucket rateLimit) {
+        this.limiter = limiter;
+        this.rateLimit = rateLimit;
+    }
+
+    public ConcurrencyLimiter limiter() {
+        return limiter;
+    }
+
+    public TokenBucket rateLimit() {
+        return rateLimit;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        try {
+            if (rateLimit != null) {
+                rateLimit.acquire();
+            }
+            if (limiter != null) {
+                limiter.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while throttled");
+        }
+        if (limiter == null) {
+            return chain.proceed(chain.request());
+        }
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException | RuntimeException e) {
+            if (chain.call().isCanceled()) {
+                limiter.onIgnore();
+            } else {
+                limiter.onDropped();
+            }
+            throw e;
+        }
+        if (isOverloaded(response.code())) {
+            limiter.onDropped();
+        } else {
+            limiter.onSuccess(System.nanoTime() - start);
+        }
+        return response;
+    }
+
+    static boolean isOverloaded(int code) {
+        return code == 429 || code >= 500;
+    }
+}
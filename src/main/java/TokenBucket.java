@@ -0,0 +1,74 @@
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Caps the rate of requests: permits are refilled continuously at a fixed
+ * rate, up to a burst, and a caller finding the bucket empty waits for the
+ * next permit. Waiting callers are served in the order they reserved.
+ */
+public class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final LongSupplier clock;
+    private long nextFreeNanos;
+
+    /**
+     * @param permitsPerSecond sustained rate
+     * @param burst            permits that can be taken at once after an idle period
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, System::nanoTime);
+    }
+
+    TokenBucket(double permitsPerSecond, int burst, LongSupplier clock) {
+        if (!(permitsPerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("invalid rate: " + permitsPerSecond + "/s, burst " + burst);
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = intervalNanos * (burst - 1);
+        this.clock = clock;
+        this.nextFreeNanos = clock.getAsLong() - burstNanos;
+    }
+
+    /**
+     * Take a permit, waiting for it if needed
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long wait = reserve();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Take a permit if one is available now
+     *
+     * @return false if the bucket is empty
+     */
+    public synchronized boolean tryAcquire() {
+        long now = clock.getAsLong();
+        if (nextFreeNanos - now > 0) {
+            return false;
+        }
+        reserve(now);
+        return true;
+    }
+
+    /**
+     * Reserve the next permit
+     *
+     * @return nanoseconds to wait before using it
+     */
+    synchronized long reserve() {
+        return reserve(clock.getAsLong());
+    }
+
+    private long reserve(long now) {
+        // unused permits accumulate up to the burst
+        long free = Math.max(nextFreeNanos, now - burstNanos);
+        nextFreeNanos = free + intervalNanos;
+        return free - now;
+    }
+}
@@ -0,0 +1,248 @@
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * How a {@link VaccineApiClient} talks to the server: which HTTP version it
+ * speaks and whether bodies are compressed.
+ *
+ * HTTP/1.1 carries one request at a time per connection, so the client
+ * keeps as many idle connections as it allows requests per host. HTTP/2 is
+ * negotiated through ALPN on https urls and multiplexes every call over one
+ * connection per host. h2c speaks HTTP/2 over cleartext without
+ * negotiation, which only servers known to support it accept, such as
+ * local stand-ins.
+ *
+ * With gzip, responses are accepted compressed. Without it, they are
+ * requested uncompressed, where OkHttp asks for gzip by default. Request
+ * bodies are compressed only with gzip-requests, since a server has to
+ * decode {@code Content-Encoding} on requests, which the stand-ins do and
+ * the deployed API does not. Empty bodies are never compressed.
+ *
+ * Every profile disables Nagle's algorithm on the client's sockets.
+ *
+ * Profiles can be written as text, e.g. {@code http1}, {@code h2},
+ * {@code h2c+gzip} or {@code h2+gzip+gzip-requests}.
+ */
+public final class TransportProfile implements Interceptor {
+    public enum Version {
+        HTTP_1_1("http1", Protocol.HTTP_1_1),
+        /**
+         * Falls back to HTTP/1.1 when the server does not negotiate HTTP/2
+         */
+        HTTP_2("h2", Protocol.HTTP_2, Protocol.HTTP_1_1),
+        /**
+         * Fails on https urls, OkHttp refuses prior knowledge over TLS
+         */
+        H2C("h2c", Protocol.H2_PRIOR_KNOWLEDGE);
+
+        private final String label;
+        private final List<Protocol> protocols;
+
+        Version(String label, Protocol... protocols) {
+            this.label = label;
+            this.protocols = Collections.unmodifiableList(Arrays.asList(protocols));
+        }
+
+        /**
+         * @return name of the version in a profile, e.g. {@code h2c}
+         */
+        public String label() {
+            return label;
+        }
+
+        static Version parse(String label) {
+            for (Version version : values()) {
+                if (version.label.equals(label)) {
+                    return version;
+                }
+            }
+            throw new IllegalArgumentException("unknown HTTP version " + label);
+        }
+    }
+
+    private static final String GZIP = "gzip";
+    private static final String GZIP_REQUESTS = "gzip-requests";
+
+    /**
+     * Opens sockets with Nagle's algorithm disabled. HTTP/2 writes small
+     * frames such as window updates between requests, and a request
+     * written behind one waits for the server's delayed ACK.
+     */
+    static final SocketFactory NO_DELAY = new SocketFactory() {
+        private final SocketFactory sockets = SocketFactory.getDefault();
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return noDelay(sockets.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return noDelay(sockets.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return noDelay(sockets.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return noDelay(sockets.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return noDelay(sockets.createSocket(address, port, localAddress, localPort));
+        }
+
+        private Socket noDelay(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+    };
+
+    private final Version version;
+    private final boolean gzip;
+    private final boolean gzipRequests;
+
+    private TransportProfile(Builder builder) {
+        version = builder.version;
+        gzip = builder.gzip;
+        gzipRequests = builder.gzipRequests;
+    }
+
+    /**
+     * @param profile an HTTP version label, optionally followed by
+     *                {@code +gzip} and {@code +gzip-requests}
+     */
+    public static TransportProfile parse(String profile) {
+        String[] parts = profile.trim().toLowerCase(Locale.ROOT).split("\\+");
+        Builder builder = new Builder(Version.parse(parts[0]));
+        for (int i = 1; i < parts.length; i++) {
+            if (parts[i].equals(GZIP)) {
+                builder.gzip(true);
+            } else if (parts[i].equals(GZIP_REQUESTS)) {
+                builder.gzipRequests(true);
+            } else {
+                throw new IllegalArgumentException("unknown transport option " + parts[i]);
+            }
+        }
+        return builder.build();
+    }
+
+    public Version version() {
+        return version;
+    }
+
+    public boolean gzip() {
+        return gzip;
+    }
+
+    public boolean gzipRequests() {
+        return gzipRequests;
+    }
+
+    /**
+     * @return protocols the client offers, in order of preference
+     */
+    public List<Protocol> protocols() {
+        return version.protocols;
+    }
+
+    /**
+     * @return whether the profile needs a cleartext url
+     */
+    public boolean cleartext() {
+        return version == Version.H2C;
+    }
+
+    /**
+     * Ask for an uncompressed response unless gzip is on, and compress a
+     * non-empty request body if gzip-requests is on
+     */
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Request.Builder builder = null;
+        // leaving Accept-Encoding unset lets OkHttp ask for gzip and inflate the response
+        if (!gzip && request.header("Accept-Encoding") == null) {
+            builder = request.newBuilder().header("Accept-Encoding", "identity");
+        }
+        RequestBody body = request.body();
+        if (gzipRequests && body != null && body.contentLength() != 0 && request.header("Content-Encoding") == null) {
+            builder = (builder != null ? builder : request.newBuilder())
+                    .header("Content-Encoding", GZIP)
+                    .method(request.method(), gzip(body));
+        }
+        return chain.proceed(builder != null ? builder.build() : request);
+    }
+
+    /**
+     * Compress a body up front, so that it keeps a Content-Length rather
+     * than being sent chunked
+     */
+    private static RequestBody gzip(RequestBody body) throws IOException {
+        Buffer compressed = new Buffer();
+        try (BufferedSink sink = Okio.buffer(new GzipSink(compressed))) {
+            body.writeTo(sink);
+        }
+        MediaType contentType = body.contentType();
+        return RequestBody.create(compressed.readByteString(), contentType);
+    }
+
+    @Override
+    public String toString() {
+        return version.label + (gzip ? "+" + GZIP : "") + (gzipRequests ? "+" + GZIP_REQUESTS : "");
+    }
+
+    public static class Builder {
+        private final Version version;
+        private boolean gzip;
+        private boolean gzipRequests;
+
+        public Builder(Version version) {
+            this.version = version;
+        }
+
+        /**
+         * Whether responses are accepted compressed, disabled by default
+         */
+        public Builder gzip(boolean gzip) {
+            this.gzip = gzip;
+            return this;
+        }
+
+        /**
+         * Whether request bodies are compressed, disabled by default. Only
+         * servers decoding {@code Content-Encoding} on requests accept them,
+         * such as the stand-ins, not the deployed API.
+         */
+        public Builder gzipRequests(boolean gzipRequests) {
+            this.gzipRequests = gzipRequests;
+            return this;
+        }
+
+        public TransportProfile build() {
+            return new TransportProfile(this);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of {@code GET /registration/{citizen_id}} results.
+ *
+ * Both registered users and "not registered" answers are cached, each with
+ * its own time to live, and the least recently used entry is evicted once
+ * the cache is full. {@link VaccineApiClient} keeps it in sync with its own
+ * registrations and deletions.
+ *
+ * A lookup still in flight when its citizen is invalidated must not put
+ * its stale answer back, so lookups read the citizen's {@link #version}
+ * before sending and store their answer with it. Versions are kept per
+ * stripe of citizen ids, which keeps them bounded at the cost of dropping
+ * some answers that raced with the invalidation of another citizen.
+ */
+public class UserLookupCache {
+    /**
+     * Cached answer of a lookup
+     */
+    public static class Entry {
+        private final UserResponseBody user;
+        private final long expiresAt;
+
+        Entry(UserResponseBody user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return the registered user, or null if the user was not registered
+         */
+        public UserResponseBody user() {
+            return user;
+        }
+    }
+
+    private final long positiveTtlNanos;
+    private final long negativeTtlNanos;
+    private final LongSupplier clock;
+    private final Map<String, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final long[] versions = new long[64];
+
+    /**
+     * @param maxSize     maximum number of cached citizen ids
+     * @param positiveTtl time a registered user is trusted
+     * @param negativeTtl time a "not registered" answer is trusted
+     * @param unit        unit of both time to live
+     */
+    public UserLookupCache(int maxSize, long positiveTtl, long negativeTtl, TimeUnit unit) {
+        this(maxSize, unit.toNanos(positiveTtl), unit.toNanos(negativeTtl), System::nanoTime);
+    }
+
+    UserLookupCache(int maxSize, long positiveTtlNanos, long negativeTtlNanos, LongSupplier clock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize < 1: " + maxSize);
+        }
+        this.positiveTtlNanos = positiveTtlNanos;
+        this.negativeTtlNanos = negativeTtlNanos;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param citizenId of the user
+     * @return the cached answer, or null if absent or expired
+     */
+    public Entry get(String citizenId) {
+        long now = clock.getAsLong();
+        synchronized (entries) {
+            Entry entry = entries.get(citizenId);
+            if (entry != null && entry.expiresAt - now > 0) {
+                hits.increment();
+                return entry;
+            }
+            if (entry != null) {
+                entries.remove(citizenId);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Cache the answer of a lookup
+     *
+     * @param citizenId of the user
+     * @param user      the registered user, or null if the user is not registered
+     */
+    public void put(String citizenId, UserResponseBody user) {
+        long ttl = user != null ? positiveTtlNanos : negativeTtlNanos;
+        if (ttl <= 0) {
+            return;
+        }
+        Entry entry = new Entry(user, clock.getAsLong() + ttl);
+        synchronized (entries) {
+            entries.put(citizenId, entry);
+        }
+    }
+
+    /**
+     * Cache the answer of a lookup unless the citizen was invalidated since
+     * the lookup read its version
+     *
+     * @param citizenId of the user
+     * @param user      the registered user, or null if the user is not registered
+     * @param version   of the citizen read before sending the lookup
+     * @return true if the answer was cached
+     */
+    public boolean put(String citizenId, UserResponseBody user, long version) {
+        long ttl = user != null ? positiveTtlNanos : negativeTtlNanos;
+        if (ttl <= 0) {
+            return false;
+        }
+        Entry entry = new Entry(user, clock.getAsLong() + ttl);
+        synchronized (entries) {
+            if (versions[stripe(citizenId)] != version) {
+                return false;
+            }
+            entries.put(citizenId, entry);
+        }
+        return true;
+    }
+
+    /**
+     * @param citizenId of the user
+     * @return version to store a lookup answer with, changed by every
+     *         invalidation of the citizen
+     */
+    public long version(String citizenId) {
+        synchronized (entries) {
+            return versions[stripe(citizenId)];
+        }
+    }
+
+    /**
+     * Forget the answer for a citizen whose registration changed, and drop
+     * the answers of lookups still in flight
+     */
+    public void invalidate(String citizenId) {
+        synchronized (entries) {
+            versions[stripe(citizenId)]++;
+            entries.remove(citizenId);
+        }
+    }
+
+    private int stripe(String citizenId) {
+        return citizenId.hashCode() & (versions.length - 1);
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+}
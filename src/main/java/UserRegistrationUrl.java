@@ -4,54 +4,94 @@ public class UserRegistrationUrl {
 
     public static class Builder {
         private final HttpUrl.Builder urlBuilder;
+        private String citizenId;
+        private String name;
+        private String surname;
+        private String birthDate;
+        private String occupation;
+        private String phoneNumber;
+        private Boolean isRisk;
+        private String address;
 
         public Builder() {
-            urlBuilder = new HttpUrl.Builder()
-                    .scheme("https")
-                    .host("wcg-apis.herokuapp.com")
+            this(HttpUrl.get(VaccineApiClient.DEFAULT_BASE_URL));
+        }
+
+        public Builder(HttpUrl baseUrl) {
+            urlBuilder = baseUrl.newBuilder()
                     .addPathSegment("registration");
         }
 
         public Builder citizenId(String citizenId) {
+            this.citizenId = citizenId;
             urlBuilder.addQueryParameter("citizen_id", citizenId);
             return this;
         }
 
         public Builder name(String name) {
+            this.name = name;
             urlBuilder.addQueryParameter("name", name);
             return this;
         }
 
         public Builder surname(String surname) {
+            this.surname = surname;
             urlBuilder.addQueryParameter("surname", surname);
             return this;
         }
 
         public Builder birthDate(String birthDate) {
+            this.birthDate = birthDate;
             urlBuilder.addQueryParameter("birth_date", birthDate);
             return this;
         }
 
         public Builder occupation(String occupation) {
+            this.occupation = occupation;
             urlBuilder.addQueryParameter("occupation", occupation);
             return this;
         }
 
         public Builder phoneNumber(String phoneNumber) {
+            this.phoneNumber = phoneNumber;
             urlBuilder.addQueryParameter("phone_number", phoneNumber);
             return this;
         }
 
         public Builder isRisk(Boolean isRisk) {
+            this.isRisk = isRisk;
             urlBuilder.addQueryParameter("is_risk", isRisk.toString());
             return this;
         }
 
         public Builder address(String address) {
+            this.address = address;
             urlBuilder.addQueryParameter("address", address);
             return this;
         }
 
+        public Builder citizen(Citizen citizen) {
+            if (citizen.getCitizenId() != null) citizenId(citizen.getCitizenId());
+            if (citizen.getName() != null) name(citizen.getName());
+            if (citizen.getSurname() != null) surname(citizen.getSurname());
+            if (citizen.getBirthDate() != null) birthDate(citizen.getBirthDate());
+            if (citizen.getOccupation() != null) occupation(citizen.getOccupation());
+            if (citizen.getPhoneNumber() != null) phoneNumber(citizen.getPhoneNumber());
+            if (citizen.getIsRisk() != null) isRisk(citizen.getIsRisk());
+            if (citizen.getAddress() != null) address(citizen.getAddress());
+            return this;
+        }
+
+        /**
+         * Check the fields set so far before sending them
+         *
+         * @return first violation the server would reject, or {@link RegistrationValidator.Violation#NONE}
+         */
+        public RegistrationValidator.Violation validate() {
+            return RegistrationValidator.validate(
+                    citizenId, name, surname, birthDate, occupation, phoneNumber, isRisk, address);
+        }
+
         public HttpUrl build() {
             return urlBuilder.build();
         }
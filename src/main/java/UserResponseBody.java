@@ -16,7 +16,55 @@ public class UserResponseBody {
     @SerializedName("vaccine_taken")
     private String vaccineTaken;
 
+    public UserResponseBody() {
+    }
+
+    UserResponseBody(String citizenId, String name, String surname, String birthDate, String occupation,
+                     String phoneNumber, String isRisk, String address, String vaccineTaken) {
+        this.citizenId = citizenId;
+        this.name = name;
+        this.surname = surname;
+        this.birthDate = birthDate;
+        this.occupation = occupation;
+        this.phoneNumber = phoneNumber;
+        this.isRisk = isRisk;
+        this.address = address;
+        this.vaccineTaken = vaccineTaken;
+    }
+
     public String getCitizenId() {
         return citizenId;
     }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSurname() {
+        return surname;
+    }
+
+    public String getBirthDate() {
+        return birthDate;
+    }
+
+    public String getOccupation() {
+        return occupation;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public String getIsRisk() {
+        return isRisk;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getVaccineTaken() {
+        return vaccineTaken;
+    }
 }
@@ -0,0 +1,1096 @@
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import okhttp3.*;
+
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.X509TrustManager;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe client for World Class Government API.
+ *
+ * One instance owns a single connection pool and dispatcher and a Gson
+ * instance whose type adapters are resolved once at construction, so it
+ * should be created once and shared by every caller. User and registration
+ * responses skip Gson and are decoded straight from the response bytes.
+ */
+public class VaccineApiClient implements Closeable {
+    /**
+     * Base url of the public World Class Government API
+     */
+    public static final String DEFAULT_BASE_URL = "https://wcg-apis.herokuapp.com";
+
+    /**
+     * JSON Media Type
+     */
+    public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final OkHttpClient httpClient;
+    private final HttpUrl baseUrl;
+    private final Gson gson;
+    private final TypeAdapter<ReservationResponseBody> reservationAdapter;
+    private final boolean validateRequests;
+    private final boolean validateCheckDigit;
+    private final UserLookupCache lookupCache;
+    private final SingleFlight<String, UserResponseBody> lookupFlights;
+    private final RetryInterceptor retryInterceptor;
+    private final HedgingPolicy hedgingPolicy;
+    private final CallMetrics metrics;
+    private final ThrottlingInterceptor throttlingInterceptor;
+    private final RegistrationEncoder registrationEncoder;
+    private final RegistrationEncoder.Mode registrationMode;
+    private final CassetteInterceptor cassetteInterceptor;
+    private final EndpointPool endpointPool;
+    private final TransportProfile transportProfile;
+    /**
+     * Cleared once the server answers a batch as an unknown route
+     */
+    private volatile boolean batchSupported = true;
+
+    private VaccineApiClient(Builder builder, OkHttpClient httpClient) {
+        this.httpClient = httpClient;
+        baseUrl = builder.baseUrl;
+        gson = builder.gson;
+        reservationAdapter = gson.getAdapter(ReservationResponseBody.class);
+        validateRequests = builder.validateRequests;
+        validateCheckDigit = builder.validateCheckDigit;
+        lookupCache = builder.lookupCache;
+        lookupFlights = builder.coalesceLookups ? new SingleFlight<>() : null;
+        retryInterceptor = builder.retryInterceptor;
+        hedgingPolicy = builder.hedgingPolicy;
+        metrics = builder.metrics;
+        throttlingInterceptor = builder.throttlingInterceptor;
+        registrationEncoder = new RegistrationEncoder(baseUrl);
+        registrationMode = builder.registrationMode;
+        cassetteInterceptor = builder.cassetteInterceptor;
+        endpointPool = builder.endpointPool;
+        transportProfile = builder.transportProfile;
+    }
+
+    /**
+     * Derive a client sharing this client's connection pool, dispatcher,
+     * Gson and lookup cache, e.g. to give some calls a different deadline
+     */
+    public Builder newBuilder() {
+        Builder builder = new Builder()
+                .baseUrl(baseUrl)
+                .httpClient(httpClient)
+                .gson(gson)
+                .validateRequests(validateRequests)
+                .validateCheckDigit(validateCheckDigit)
+                .lookupCache(lookupCache)
+                .coalesceLookups(lookupFlights != null)
+                .hedgeLookups(hedgingPolicy)
+                .metrics(metrics)
+                .registrationMode(registrationMode);
+        builder.retryInterceptor = retryInterceptor;
+        builder.throttlingInterceptor = throttlingInterceptor;
+        builder.cassetteInterceptor = cassetteInterceptor;
+        builder.endpointPool = endpointPool;
+        builder.transportProfile = transportProfile;
+        return builder;
+    }
+
+    public HttpUrl baseUrl() {
+        return baseUrl;
+    }
+
+    public OkHttpClient httpClient() {
+        return httpClient;
+    }
+
+    public Gson gson() {
+        return gson;
+    }
+
+    /**
+     * @return phase timings of the calls, or null if calls are not instrumented
+     */
+    public CallMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return adaptive limit of concurrent calls, or null if calls are not limited
+     */
+    public ConcurrencyLimiter concurrencyLimiter() {
+        return throttlingInterceptor != null ? throttlingInterceptor.limiter() : null;
+    }
+
+    /**
+     * @return nodes the calls are spread over, or null if there is only the base url
+     */
+    public EndpointPool endpointPool() {
+        return endpointPool;
+    }
+
+    /**
+     * @return HTTP version and compression of the calls, or null for the OkHttp defaults
+     */
+    public TransportProfile transportProfile() {
+        return transportProfile;
+    }
+
+    /**
+     * @return cache of user lookups, or null if lookups are not cached
+     */
+    public UserLookupCache lookupCache() {
+        return lookupCache;
+    }
+
+    /**
+     * @return coalescing of concurrent user lookups with its counters, or
+     *         null if lookups are not coalesced
+     */
+    public SingleFlight<String, UserResponseBody> lookupFlights() {
+        return lookupFlights;
+    }
+
+    /**
+     * Register a citizen, sending the fields as configured by
+     * {@link Builder#registrationMode}, as query parameters by default. Unless
+     * disabled, records the server would reject are answered locally with
+     * the same outcome, without a round trip.
+     *
+     * @param citizen to register
+     * @return decoded feedback of the registration
+     * @throws IOException if an error occurred during request execution or
+     *                     the response is not a JSON feedback
+     */
+    public RegistrationResponseBody register(Citizen citizen) throws IOException {
+        RegistrationResponseBody rejected = rejectLocally(citizen);
+        if (rejected != null) {
+            return rejected;
+        }
+        try (Response response = httpClient.newCall(registrationRequest(citizen)).execute()) {
+            return readRegistration(response);
+        } finally {
+            forget(citizen.getCitizenId());
+        }
+    }
+
+    /**
+     * Register a citizen without blocking the caller, the request is queued
+     * on the shared dispatcher and decoded on its thread
+     *
+     * @param citizen to register
+     * @return future of the decoded feedback, failed with an IOException if
+     *         the request could not be executed or decoded
+     */
+    public CompletableFuture<RegistrationResponseBody> registerAsync(Citizen citizen) {
+        CompletableFuture<RegistrationResponseBody> future = new CompletableFuture<>();
+        try {
+            RegistrationResponseBody rejected = rejectLocally(citizen);
+            if (rejected != null) {
+                future.complete(rejected);
+                return future;
+            }
+        } catch (VaccineApiException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        httpClient.newCall(registrationRequest(citizen)).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                forget(citizen.getCitizenId());
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                RegistrationResponseBody body;
+                // completed once the response is released, so a caller waiting
+                // for this call to send the next one finds the connection idle
+                try (response) {
+                    body = readRegistration(response);
+                } catch (IOException | RuntimeException e) {
+                    forget(citizen.getCitizenId());
+                    future.completeExceptionally(e);
+                    return;
+                }
+                forget(citizen.getCitizenId());
+                future.complete(body);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Register several citizens in one request, posting them as a JSON
+     * array to {@code /registration/batch}, which answers one feedback per
+     * record in the same order. Records failing validation are answered
+     * locally as with {@link #register}. With an endpoint pool, one batch is
+     * sent per node the citizens are routed to.
+     *
+     * Once the server answers a batch with 404, 405 or 501, this batch and
+     * every later one are sent as individual registrations instead.
+     *
+     * @param citizens to register
+     * @return future of one result per citizen, in order, never failed:
+     *         a request that failed gives a failed result to each of its records
+     */
+    public CompletableFuture<List<RegistrationResult>> registerBatchAsync(List<Citizen> citizens) {
+        RegistrationResult[] results = new RegistrationResult[citizens.size()];
+        List<Integer> sent = new ArrayList<>(citizens.size());
+        for (int i = 0; i < citizens.size(); i++) {
+            Citizen citizen = citizens.get(i);
+            try {
+                RegistrationResponseBody rejected = rejectLocally(citizen);
+                if (rejected != null) {
+                    results[i] = RegistrationResult.success(citizen, rejected);
+                } else {
+                    sent.add(i);
+                }
+            } catch (VaccineApiException e) {
+                results[i] = RegistrationResult.failure(citizen, e);
+            }
+        }
+        List<List<Integer>> batches = new ArrayList<>();
+        if (endpointPool != null && !sent.isEmpty()) {
+            Map<HttpUrl, List<Integer>> byNode = new LinkedHashMap<>();
+            for (int i : sent) {
+                byNode.computeIfAbsent(endpointPool.route(citizens.get(i).getCitizenId()), node -> new ArrayList<>())
+                        .add(i);
+            }
+            batches.addAll(byNode.values());
+        } else if (!sent.isEmpty()) {
+            batches.add(sent);
+        }
+        CompletableFuture<?>[] sending = new CompletableFuture<?>[batches.size()];
+        for (int b = 0; b < sending.length; b++) {
+            sending[b] = sendBatch(citizens, batches.get(b), results);
+        }
+        return CompletableFuture.allOf(sending).thenApply(ignored -> Arrays.asList(results));
+    }
+
+    /**
+     * Send the records at the given indexes as one batch, or one by one if
+     * the server does not take batches, filling their results
+     */
+    private CompletableFuture<Void> sendBatch(List<Citizen> citizens, List<Integer> indexes,
+                                              RegistrationResult[] results) {
+        if (!batchSupported) {
+            return registerEach(citizens, indexes, results);
+        }
+        List<Citizen> batch = new ArrayList<>(indexes.size());
+        for (int i : indexes) {
+            batch.add(citizens.get(i));
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        httpClient.newCall(registrationEncoder.batchRequest(batch)).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                fail(e);
+                future.complete(null);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                List<RegistrationResponseBody> bodies;
+                try (response) {
+                    if (response.code() == 404 || response.code() == 405 || response.code() == 501) {
+                        bodies = null;
+                    } else {
+                        bodies = readRegistrations(response);
+                        if (bodies.size() != batch.size()) {
+                            throw new VaccineApiException(response.code(), "Batch registration request failed: "
+                                    + bodies.size() + " feedbacks for " + batch.size() + " records");
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    fail(VaccineApiClient.asIOException(e));
+                    future.complete(null);
+                    return;
+                }
+                if (bodies == null) {
+                    batchSupported = false;
+                    registerEach(citizens, indexes, results).thenRun(() -> future.complete(null));
+                    return;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    Citizen citizen = batch.get(i);
+                    forget(citizen.getCitizenId());
+                    // a missing field, which a single registration gets as the 400 page
+                    results[indexes.get(i)] = bodies.get(i).outcome() == RegistrationOutcome.BAD_REQUEST
+                            ? RegistrationResult.failure(citizen,
+                            new VaccineApiException(400, "Registration request failed: missing required field"))
+                            : RegistrationResult.success(citizen, bodies.get(i));
+                }
+                future.complete(null);
+            }
+
+            private void fail(IOException error) {
+                for (int i : indexes) {
+                    forget(citizens.get(i).getCitizenId());
+                    results[i] = RegistrationResult.failure(citizens.get(i), error);
+                }
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<Void> registerEach(List<Citizen> citizens, List<Integer> indexes,
+                                                 RegistrationResult[] results) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[indexes.size()];
+        for (int j = 0; j < futures.length; j++) {
+            int i = indexes.get(j);
+            Citizen citizen = citizens.get(i);
+            futures[j] = registerAsync(citizen).handle((body, error) -> results[i] = error == null
+                    ? RegistrationResult.success(citizen, body)
+                    : RegistrationResult.failure(citizen, asIOException(error)));
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * @return whether registrations are still sent in batches, false once
+     *         the server answered a batch as an unknown route
+     */
+    public boolean isBatchSupported() {
+        return batchSupported;
+    }
+
+    /**
+     * Fetch the registered user with given citizen id, answering from the
+     * lookup cache when it holds a fresh entry. Concurrent lookups of the
+     * same citizen share one request and one decoded user.
+     *
+     * @param citizenId of user to fetch
+     * @return the registered user, or null if the user is not registered
+     * @throws IOException if an error occurred during request execution
+     */
+    public UserResponseBody getUser(String citizenId) throws IOException {
+        if (lookupCache != null) {
+            UserLookupCache.Entry cached = lookupCache.get(citizenId);
+            if (cached != null) {
+                return cached.user();
+            }
+        }
+        if (lookupFlights != null) {
+            return lookupFlights.execute(citizenId, () -> fetchUser(citizenId));
+        }
+        return fetchUser(citizenId);
+    }
+
+    /**
+     * Fetch a registered user without blocking the caller, answering from
+     * the lookup cache when it holds a fresh entry. Meant for scans over
+     * distinct citizens, so lookups are neither coalesced nor hedged.
+     *
+     * @param citizenId of user to fetch
+     * @return future of the registered user or null if the user is not
+     *         registered, failed with an IOException if the request could
+     *         not be executed
+     */
+    public CompletableFuture<UserResponseBody> getUserAsync(String citizenId) {
+        CompletableFuture<UserResponseBody> future = new CompletableFuture<>();
+        if (lookupCache != null) {
+            UserLookupCache.Entry cached = lookupCache.get(citizenId);
+            if (cached != null) {
+                future.complete(cached.user());
+                return future;
+            }
+        }
+        return fetchUserAsync(citizenId, future);
+    }
+
+    /**
+     * Fetch a user from the server even if the lookup cache holds it,
+     * storing the answer in the cache unless the citizen was registered or
+     * deleted meanwhile. Only a user or a 404 is an answer, any other
+     * status fails the future and leaves the cache alone.
+     */
+    CompletableFuture<UserResponseBody> fetchUserAsync(String citizenId) {
+        return fetchUserAsync(citizenId, new CompletableFuture<>());
+    }
+
+    private CompletableFuture<UserResponseBody> fetchUserAsync(String citizenId,
+                                                               CompletableFuture<UserResponseBody> future) {
+        long version = lookupCache != null ? lookupCache.version(citizenId) : 0;
+        httpClient.newCall(userRequest(citizenId)).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                UserResponseBody user;
+                try (response) {
+                    user = readUser(response);
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                if (lookupCache != null) {
+                    lookupCache.put(citizenId, user, version);
+                }
+                future.complete(user);
+            }
+        });
+        return future;
+    }
+
+    private UserResponseBody fetchUser(String citizenId) throws IOException {
+        long version = lookupCache != null ? lookupCache.version(citizenId) : 0;
+        UserResponseBody user;
+        if (hedgingPolicy != null) {
+            user = fetchUserHedged(citizenId);
+        } else {
+            try (Response response = httpClient.newCall(userRequest(citizenId)).execute()) {
+                user = readUser(response);
+            }
+        }
+        if (lookupCache != null) {
+            lookupCache.put(citizenId, user, version);
+        }
+        return user;
+    }
+
+    /**
+     * Send the lookup, and a second identical one if the first is still
+     * unanswered after the hedging delay, then keep whichever answers first
+     */
+    private UserResponseBody fetchUserHedged(String citizenId) throws IOException {
+        CompletableFuture<UserResponseBody> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger();
+        Call primary = enqueueLookup(citizenId, result, outstanding);
+        Call hedge = null;
+        try {
+            try {
+                return result.get(hedgingPolicy.delayNanos(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                hedgingPolicy.hedged();
+                hedge = enqueueLookup(citizenId, result, outstanding);
+            }
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a lookup");
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        } finally {
+            primary.cancel();
+            if (hedge != null) {
+                hedge.cancel();
+            }
+        }
+    }
+
+    /**
+     * Enqueue one lookup request completing the shared result, which fails
+     * only once every request sent for it has failed
+     */
+    private Call enqueueLookup(String citizenId, CompletableFuture<UserResponseBody> result,
+                               AtomicInteger outstanding) {
+        outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        Call call = httpClient.newCall(userRequest(citizenId));
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (outstanding.decrementAndGet() == 0) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    UserResponseBody user = readUser(response);
+                    hedgingPolicy.record(System.nanoTime() - start);
+                    result.complete(user);
+                } catch (IOException | RuntimeException e) {
+                    if (outstanding.decrementAndGet() == 0) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            }
+        });
+        return call;
+    }
+
+    /**
+     * Check if the user with given citizen id is registered
+     *
+     * @param citizenId of user for checking
+     * @return true if the user with given citizen id is registered, otherwise false
+     * @throws IOException if an error occurred during request execution
+     */
+    public boolean isUserExisted(String citizenId) throws IOException {
+        UserResponseBody user = getUser(citizenId);
+        return user != null && citizenId.equals(user.getCitizenId());
+    }
+
+    /**
+     * Delete the registered user with given citizen id
+     *
+     * @param citizenId of user to delete
+     * @throws IOException if an error occurred during request execution or
+     *                     the server refused the deletion
+     */
+    public void deleteUser(String citizenId) throws IOException {
+        try (Response response = httpClient.newCall(deleteRequest(citizenId)).execute()) {
+            if (!response.isSuccessful()) {
+                forget(citizenId);
+                throw new VaccineApiException(response.code(), "Delete user request failed");
+            }
+        }
+        forgetDeleted(citizenId);
+    }
+
+    /**
+     * Delete a registered user without blocking the caller, the response
+     * is released on the dispatcher thread whatever its outcome
+     *
+     * @param citizenId of user to delete
+     * @return future completed once deleted, failed with a
+     *         {@link VaccineApiException} carrying the status code if the
+     *         server refused the deletion (404 if the user is not
+     *         registered), or another IOException if the request failed
+     */
+    public CompletableFuture<Void> deleteUserAsync(String citizenId) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        httpClient.newCall(deleteRequest(citizenId)).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                forget(citizenId);
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                int code;
+                try (response) {
+                    code = response.code();
+                }
+                if (code < 200 || code >= 300) {
+                    forget(citizenId);
+                    future.completeExceptionally(new VaccineApiException(code, "Delete user request failed"));
+                    return;
+                }
+                forgetDeleted(citizenId);
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Fetch every reservation into a list, prefer {@link #forEachReservation}
+     * or {@link #streamReservations} when the list can be large
+     *
+     * @return list of reservations
+     * @throws IOException if an error occurred during request execution
+     */
+    public List<ReservationResponseBody> getReservations() throws IOException {
+        List<ReservationResponseBody> reservations = new ArrayList<>();
+        forEachReservation(reservations::add);
+        return reservations;
+    }
+
+    /**
+     * Pass every reservation to the consumer as soon as it is decoded, the
+     * memory used does not depend on the number of reservations
+     *
+     * @param consumer of reservations
+     * @throws IOException if an error occurred during request execution
+     */
+    public void forEachReservation(Consumer<ReservationResponseBody> consumer) throws IOException {
+        try (ReservationIterator reservations = streamReservations()) {
+            reservations.forEachRemaining(consumer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Open the reservations list for incremental reading, the caller must
+     * exhaust or close the returned iterator to release the connection
+     *
+     * @return iterator over the reservations
+     * @throws IOException if an error occurred during request execution
+     */
+    public ReservationIterator streamReservations() throws IOException {
+        return readReservations(httpClient.newCall(reservationsRequest().build()).execute());
+    }
+
+    /**
+     * Open a reservations response for incremental reading, closing it if
+     * it is not a JSON list
+     */
+    ReservationIterator readReservations(Response response) throws IOException {
+        try {
+            return new ReservationIterator(
+                    response, requireJson(response, "Get reservations request failed").charStream(),
+                    reservationAdapter);
+        } catch (IOException | RuntimeException e) {
+            response.close();
+            throw e;
+        }
+    }
+
+    Request.Builder reservationsRequest() {
+        return new Request.Builder()
+                .url(baseUrl.newBuilder().addPathSegment("reservations").build());
+    }
+
+    /**
+     * Decode registration feedback straight from the bytes of the response,
+     * resolving its outcome on the way
+     *
+     * @param response of a registration request
+     * @return decoded feedback
+     * @throws IOException if the response does not carry a JSON feedback
+     */
+    public RegistrationResponseBody readRegistration(Response response) throws IOException {
+        long start = System.nanoTime();
+        RegistrationResponseBody body = ResponseDecoder.readRegistration(
+                requireJson(response, "Registration request failed").source());
+        if (metrics != null) {
+            metrics.recordDecode(response, System.nanoTime() - start);
+        }
+        return body;
+    }
+
+    /**
+     * Decode the feedbacks of a batch registration straight from the bytes
+     * of the response
+     *
+     * @param response of a batch registration request
+     * @return decoded feedbacks, in the order of the records
+     * @throws IOException if the response does not carry a JSON array of feedbacks
+     */
+    List<RegistrationResponseBody> readRegistrations(Response response) throws IOException {
+        long start = System.nanoTime();
+        List<RegistrationResponseBody> bodies = ResponseDecoder.readRegistrations(
+                requireJson(response, "Batch registration request failed").source());
+        if (metrics != null) {
+            metrics.recordDecode(response, System.nanoTime() - start);
+        }
+        return bodies;
+    }
+
+    /**
+     * Decode a registered user straight from the bytes of the response
+     *
+     * @param response of a user request
+     * @return the registered user, or null if the citizen is not registered (404)
+     * @throws VaccineApiException if the server answered with any other
+     *                             unsuccessful status, such as 429 or 5xx
+     * @throws IOException         if an error occurred while reading the response
+     */
+    public UserResponseBody readUser(Response response) throws IOException {
+        if (response.code() == 404) {
+            return null;
+        }
+        if (!response.isSuccessful()) {
+            throw new VaccineApiException(response.code(), "Get user request failed");
+        }
+        long start = System.nanoTime();
+        UserResponseBody user = ResponseDecoder.readUser(response.body().source());
+        if (metrics != null) {
+            metrics.recordDecode(response, System.nanoTime() - start);
+        }
+        return user;
+    }
+
+    /**
+     * Drop the cached lookup of a citizen whose registration may have changed
+     */
+    private void forget(String citizenId) {
+        if (lookupCache != null && citizenId != null) {
+            lookupCache.invalidate(citizenId);
+        }
+    }
+
+    /**
+     * Cache a deleted citizen as not registered, after dropping the answers
+     * of lookups sent before the delete
+     */
+    private void forgetDeleted(String citizenId) {
+        forget(citizenId);
+        if (lookupCache != null) {
+            lookupCache.put(citizenId, null);
+        }
+    }
+
+    /**
+     * @return local feedback if the citizen fails validation, otherwise null
+     * @throws VaccineApiException if a required field is missing, like the
+     *                             400 page the server would answer
+     */
+    private RegistrationResponseBody rejectLocally(Citizen citizen) throws VaccineApiException {
+        if (!validateRequests) {
+            return null;
+        }
+        RegistrationValidator.Violation violation = RegistrationValidator.validate(citizen, validateCheckDigit);
+        switch (violation) {
+            case NONE:
+                return null;
+            case MISSING_FIELD:
+                throw new VaccineApiException(400, "Registration request failed: missing required field");
+            default:
+                return new RegistrationResponseBody(violation.feedback(), violation.outcome());
+        }
+    }
+
+    Request registrationRequest(Citizen citizen) {
+        return registrationEncoder.request(citizen, registrationMode);
+    }
+
+    Request userRequest(String citizenId) {
+        return new Request.Builder()
+                .url(userUrl(citizenId))
+                .tag(String.class, citizenId)
+                .build();
+    }
+
+    Request deleteRequest(String citizenId) {
+        return new Request.Builder()
+                .url(userUrl(citizenId))
+                .delete()
+                .tag(String.class, citizenId)
+                .build();
+    }
+
+    private HttpUrl userUrl(String citizenId) {
+        return baseUrl.newBuilder()
+                .addPathSegment("registration")
+                .addPathSegment(citizenId)
+                .build();
+    }
+
+    private static ResponseBody requireJson(Response response, String message) throws IOException {
+        MediaType contentType = response.body().contentType();
+        if (contentType == null || !"json".equals(contentType.subtype())) {
+            throw new VaccineApiException(response.code(), message);
+        }
+        return response.body();
+    }
+
+    /**
+     * Unwrap the cause of a failed future into an IOException
+     */
+    static IOException asIOException(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error instanceof IOException ? (IOException) error : new IOException(error);
+    }
+
+    /**
+     * Release pooled connections and stop the dispatcher threads
+     */
+    @Override
+    public void close() {
+        httpClient.dispatcher().executorService().shutdown();
+        httpClient.connectionPool().evictAll();
+    }
+
+    public static class Builder {
+        private HttpUrl baseUrl = HttpUrl.get(DEFAULT_BASE_URL);
+        private OkHttpClient httpClient;
+        private Gson gson;
+        private int maxIdleConnections = 32;
+        private long keepAliveSeconds = 300;
+        private int maxRequests = 256;
+        private int maxRequestsPerHost = 64;
+        private boolean validateRequests = true;
+        private boolean validateCheckDigit;
+        private UserLookupCache lookupCache;
+        private boolean coalesceLookups = true;
+        private RetryInterceptor retryInterceptor;
+        private long callTimeoutMillis;
+        private HedgingPolicy hedgingPolicy;
+        private CallMetrics metrics;
+        private ThrottlingInterceptor throttlingInterceptor;
+        private RegistrationEncoder.Mode registrationMode = RegistrationEncoder.Mode.QUERY;
+        private CassetteInterceptor cassetteInterceptor;
+        private EndpointPool endpointPool;
+        private Cache cache;
+        private TransportProfile transportProfile;
+        private SSLSocketFactory sslSocketFactory;
+        private X509TrustManager trustManager;
+
+        public Builder baseUrl(String baseUrl) {
+            return baseUrl(HttpUrl.get(baseUrl));
+        }
+
+        /**
+         * @throws IllegalStateException if {@link #endpoints} was set, whose
+         *                               first node is the base url
+         */
+        public Builder baseUrl(HttpUrl baseUrl) {
+            if (endpointPool != null) {
+                throw new IllegalStateException("the base url is the first node of the endpoints");
+            }
+            this.baseUrl = baseUrl;
+            return this;
+        }
+
+        /**
+         * Derive the transport from an existing client so that connection
+         * pools can be shared between several API clients
+         */
+        public Builder httpClient(OkHttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        /**
+         * Gson used for the reservations, user and registration responses
+         * are decoded without it
+         */
+        public Builder gson(Gson gson) {
+            this.gson = gson;
+            return this;
+        }
+
+        public Builder connectionPool(int maxIdleConnections, long keepAliveSeconds) {
+            this.maxIdleConnections = maxIdleConnections;
+            this.keepAliveSeconds = keepAliveSeconds;
+            return this;
+        }
+
+        public Builder maxRequests(int maxRequests, int maxRequestsPerHost) {
+            this.maxRequests = maxRequests;
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * Whether registrations are validated before being sent, disable it
+         * to observe how the server itself reacts to malformed records
+         */
+        public Builder validateRequests(boolean validateRequests) {
+            this.validateRequests = validateRequests;
+            return this;
+        }
+
+        /**
+         * Whether the validation also refuses citizen ids with a wrong
+         * mod-11 check digit, off by default since the server accepts any
+         * 13 digits
+         */
+        public Builder validateCheckDigit(boolean validateCheckDigit) {
+            this.validateCheckDigit = validateCheckDigit;
+            return this;
+        }
+
+        /**
+         * Cache user lookups, the cache is updated by the registrations and
+         * deletions sent through the built client
+         */
+        public Builder lookupCache(UserLookupCache lookupCache) {
+            this.lookupCache = lookupCache;
+            return this;
+        }
+
+        /**
+         * Whether concurrent lookups of the same citizen share one request
+         */
+        public Builder coalesceLookups(boolean coalesceLookups) {
+            this.coalesceLookups = coalesceLookups;
+            return this;
+        }
+
+        /**
+         * Retry idempotent requests (lookups and deletions) on transient
+         * failures with jittered exponential backoff. A retried deletion
+         * answered with 404 succeeds if an earlier attempt failed in transit,
+         * as that attempt may have applied it.
+         *
+         * @param maxAttempts maximum number of attempts, including the first one
+         * @param baseDelay   bound of the first backoff
+         * @param maxDelay    bound no backoff exceeds
+         * @param unit        unit of both delays
+         */
+        public Builder retries(int maxAttempts, long baseDelay, long maxDelay, TimeUnit unit) {
+            this.retryInterceptor = maxAttempts > 1
+                    ? new RetryInterceptor(maxAttempts, baseDelay, maxDelay, unit)
+                    : null;
+            return this;
+        }
+
+        /**
+         * Deadline of every call, covering retries, redirects and reading the body
+         */
+        public Builder callTimeout(long timeout, TimeUnit unit) {
+            this.callTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Send a second lookup request when the first one is slower than
+         * the delay chosen by the policy, null disables hedging
+         */
+        public Builder hedgeLookups(HedgingPolicy hedgingPolicy) {
+            this.hedgingPolicy = hedgingPolicy;
+            return this;
+        }
+
+        /**
+         * Where registration fields are sent: query parameters (the default),
+         * a form body or a JSON body
+         */
+        public Builder registrationMode(RegistrationEncoder.Mode registrationMode) {
+            this.registrationMode = registrationMode;
+            return this;
+        }
+
+        /**
+         * Record phase timings of every call, null disables instrumentation
+         */
+        public Builder metrics(CallMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Hold calls back until the concurrency limit and the rate cap let
+         * them through, either may be null. With metrics enabled, the limit
+         * and the calls in flight are exported as gauges.
+         *
+         * @param limiter   adaptive limit of concurrent calls
+         * @param rateLimit cap on the rate of calls
+         */
+        public Builder throttle(ConcurrencyLimiter limiter, TokenBucket rateLimit) {
+            this.throttlingInterceptor = limiter != null || rateLimit != null
+                    ? new ThrottlingInterceptor(limiter, rateLimit)
+                    : null;
+            return this;
+        }
+
+        /**
+         * Store responses in an HTTP cache, revalidated with
+         * {@code If-None-Match} or {@code If-Modified-Since} when the server
+         * sent an ETag or a Last-Modified date, null disables caching
+         */
+        public Builder httpCache(Cache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Record the exchanges of the client into a cassette, or replay
+         * them from one, null disables both
+         */
+        public Builder cassette(CassetteInterceptor cassetteInterceptor) {
+            this.cassetteInterceptor = cassetteInterceptor;
+            return this;
+        }
+
+        /**
+         * Spread the calls over several deployments, routing each citizen
+         * to one of them; the base url becomes the first node and can no
+         * longer be set. Null sends every call to the base url.
+         */
+        public Builder endpoints(EndpointPool endpointPool) {
+            this.endpointPool = endpointPool;
+            if (endpointPool != null) {
+                this.baseUrl = endpointPool.nodes().get(0);
+            }
+            return this;
+        }
+
+        /**
+         * HTTP version and compression of the calls, null keeps the OkHttp
+         * defaults. A client building its own transport for HTTP/1.1 keeps
+         * as many idle connections as it allows requests per host.
+         */
+        public Builder transport(TransportProfile transportProfile) {
+            this.transportProfile = transportProfile;
+            return this;
+        }
+
+        /**
+         * Trust the certificates of a server outside the system's trust
+         * store, such as a deployment behind a private CA or a local TLS
+         * stand-in
+         */
+        public Builder sslSocketFactory(SSLSocketFactory sslSocketFactory, X509TrustManager trustManager) {
+            this.sslSocketFactory = sslSocketFactory;
+            this.trustManager = trustManager;
+            return this;
+        }
+
+        public VaccineApiClient build() {
+            OkHttpClient.Builder transport;
+            if (httpClient != null) {
+                transport = httpClient.newBuilder();
+            } else {
+                Dispatcher dispatcher = new Dispatcher();
+                dispatcher.setMaxRequests(maxRequests);
+                dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+                // an HTTP/1.1 call in flight holds a connection, fewer idle ones would be closed and reopened
+                boolean http1 = transportProfile != null
+                        && transportProfile.version() == TransportProfile.Version.HTTP_1_1;
+                int maxIdle = http1 ? Math.max(maxIdleConnections, maxRequestsPerHost) : maxIdleConnections;
+                transport = new OkHttpClient.Builder()
+                        .connectionPool(new ConnectionPool(maxIdle, keepAliveSeconds, TimeUnit.SECONDS))
+                        .dispatcher(dispatcher);
+            }
+            transport.interceptors().removeIf(interceptor -> interceptor instanceof CassetteInterceptor
+                    || interceptor instanceof RetryInterceptor || interceptor instanceof ThrottlingInterceptor
+                    || interceptor instanceof EndpointPool || interceptor instanceof TransportProfile);
+            if (cassetteInterceptor != null) {
+                transport.addInterceptor(cassetteInterceptor);
+            }
+            if (retryInterceptor != null) {
+                transport.addInterceptor(retryInterceptor);
+            }
+            if (throttlingInterceptor != null) {
+                transport.addInterceptor(throttlingInterceptor);
+            }
+            // after retries, so that a retry goes elsewhere once a node is ejected
+            if (endpointPool != null) {
+                transport.addInterceptor(endpointPool);
+            }
+            // last, so that cassettes and retries see the bodies uncompressed
+            if (transportProfile != null) {
+                transport.protocols(transportProfile.protocols())
+                        .socketFactory(TransportProfile.NO_DELAY);
+                transport.addInterceptor(transportProfile);
+            }
+            if (sslSocketFactory != null) {
+                transport.sslSocketFactory(sslSocketFactory, trustManager);
+            }
+            if (metrics != null) {
+                transport.eventListenerFactory(metrics);
+                ConcurrencyLimiter limiter = throttlingInterceptor != null ? throttlingInterceptor.limiter() : null;
+                if (limiter != null) {
+                    metrics.gauge("vaccine_api_concurrency_limit",
+                            "Calls the adaptive limiter lets in flight", limiter::limit);
+                    metrics.gauge("vaccine_api_calls_in_flight",
+                            "Calls holding a concurrency limiter slot", limiter::inFlight);
+                }
+            }
+            if (cache != null) {
+                transport.cache(cache);
+            }
+            if (callTimeoutMillis > 0) {
+                transport.callTimeout(callTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            if (gson == null) {
+                gson = new Gson();
+            }
+            return new VaccineApiClient(this, transport.build());
+        }
+    }
+}
@@ -0,0 +1,23 @@
+import java.io.IOException;
+
+/**
+ * Thrown when the API answers with a status code or content type that
+ * cannot be decoded into a response body.
+ */
+public class VaccineApiException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+
+    public VaccineApiException(int code, String message) {
+        super(message + " (HTTP " + code + ")");
+        this.code = code;
+    }
+
+    /**
+     * @return HTTP status code of the rejected response
+     */
+    public int code() {
+        return code;
+    }
+}
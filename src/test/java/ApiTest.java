@@ -1,9 +1,13 @@
-import com.google.gson.Gson;
 import okhttp3.*;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static org.junit.Assert.*;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -12,14 +16,13 @@ import static org.hamcrest.CoreMatchers.containsString;
 /**
  * Test cases for World Class Government API
  *
+ * Every test works on its own citizen id, so test methods and classes can
+ * run concurrently against the same server.
+ *
  * @Author Tatpol Samakpong
  */
+@RunWith(ConcurrentRunner.class)
 public class ApiTest {
-    /**
-     * Base url of World Class Government API
-     */
-    private final String baseUrl = "https://wcg-apis.herokuapp.com";
-
     /**
      * JSON Media Type
      */
@@ -30,6 +33,34 @@ public class ApiTest {
      */
     private final RequestBody emptyRequestBody = RequestBody.create("", JSON);
 
+    /**
+     * Api client of World Class Government API, shared by every test so
+     * connections and Gson adapters are reused. The comma-separated base
+     * urls of the {@code api.base.urls} system property spread it over
+     * several deployments.
+     */
+    private static final VaccineApiClient remoteApi = remoteApi(System.getProperty("api.base.urls"));
+
+    /**
+     * Source of unique citizen ids shared by every test
+     */
+    private static final CitizenIdGenerator citizenIdGenerator = new CitizenIdGenerator();
+
+    /**
+     * Citizen ids used by the current test, deleted after it
+     */
+    private final List<String> citizenIds = new CopyOnWriteArrayList<>();
+
+    /**
+     * Api client of the server under test
+     */
+    private VaccineApiClient api;
+
+    /**
+     * Base url of the server under test
+     */
+    private HttpUrl baseUrl;
+
     /**
      * Http Client
      */
@@ -40,7 +71,58 @@ public class ApiTest {
      */
     @Before
     public void setUp() {
-        client = new OkHttpClient();
+        api = apiClient();
+        baseUrl = api.baseUrl();
+        client = api.httpClient();
+    }
+
+    /**
+     * Delete every user the test may have registered
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @After
+    public void tearDown() throws IOException {
+        for (String citizenId : citizenIds) {
+            if (isUserExisted(citizenId)) {
+                deleteUserByCitizenId(citizenId);
+            }
+        }
+    }
+
+    private static VaccineApiClient remoteApi(String baseUrls) {
+        if (baseUrls == null || baseUrls.isEmpty()) {
+            return new VaccineApiClient.Builder().build();
+        }
+        List<HttpUrl> urls = new ArrayList<>();
+        for (String baseUrl : baseUrls.split(",")) {
+            urls.add(HttpUrl.get(baseUrl.trim()));
+        }
+        return new VaccineApiClient.Builder()
+                .endpoints(new EndpointPool.Builder(urls).build())
+                .build();
+    }
+
+    /**
+     * Api client of the server under test, subclasses override it to run
+     * the suite against another deployment
+     *
+     * @return client of World Class Government API
+     */
+    protected VaccineApiClient apiClient() {
+        return remoteApi;
+    }
+
+    /**
+     * Helper function to get a citizen id no other test uses, the user is
+     * deleted after the test
+     *
+     * @return valid citizen id that is not registered
+     */
+    public String newCitizenId() {
+        String citizenId = citizenIdGenerator.next();
+        citizenIds.add(citizenId);
+        return citizenId;
     }
 
     /**
@@ -52,12 +134,11 @@ public class ApiTest {
      */
     public Boolean isUserExisted(String citizenId) throws IOException {
         Request request = new Request.Builder()
-                .url(baseUrl + "/registration/" + citizenId)
+                .url(baseUrl.resolve("registration/" + citizenId))
                 .build();
         try (Response response = client.newCall(request).execute()) {
             if (response.isSuccessful()) {
-                UserResponseBody responseBody = new Gson()
-                        .fromJson(response.body().string(), UserResponseBody.class);
+                UserResponseBody responseBody = api.readUser(response);
                 return responseBody.getCitizenId().equals(citizenId);
             }
             return false;
@@ -72,13 +153,14 @@ public class ApiTest {
      */
     public void deleteUserByCitizenId(String citizenId) throws IOException {
         Request request = new Request.Builder()
-                .url(baseUrl + "/registration/" + citizenId)
+                .url(baseUrl.resolve("registration/" + citizenId))
                 .delete()
                 .build();
 
-        Response response = client.newCall(request).execute();
-        if (!response.isSuccessful()) {
-            throw new IOException("Delete user request failed");
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Delete user request failed");
+            }
         }
     }
 
@@ -90,7 +172,7 @@ public class ApiTest {
     @Test
     public void testGetReservations() throws IOException {
         Request request = new Request.Builder()
-                .url(baseUrl + "/reservations")
+                .url(baseUrl.resolve("reservations"))
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
@@ -102,19 +184,14 @@ public class ApiTest {
 
     /**
      * Test registration with all require fields
-     * (This test will pass when user is not registered yet)
      *
      * @throws IOException if an error occurred during request execution
      */
     @Test
     public void testRegistrationWithQueryParams() throws IOException {
-        String citizenId = "1102003283576";
-
-        if (isUserExisted(citizenId)) {
-            deleteUserByCitizenId(citizenId);
-        }
+        String citizenId = newCitizenId();
 
-        HttpUrl url = new UserRegistrationUrl.Builder()
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
                 .citizenId(citizenId)
                 .name("Tatpol")
                 .surname("Samakpong")
@@ -130,8 +207,7 @@ public class ApiTest {
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
-            RegistrationResponseBody responseBody = new Gson()
-                    .fromJson(response.body().string(), RegistrationResponseBody.class);
+            RegistrationResponseBody responseBody = api.readRegistration(response);
             assertEquals(response.code(), 201);
             assertTrue(responseBody.isRegistrationSuccessful());
             assertEquals(responseBody.getFeedback(), "registration success!");
@@ -146,31 +222,23 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationWithFormBody() throws IOException {
-        String citizenId = "1102003283576";
-
-        if (isUserExisted(citizenId)) {
-            deleteUserByCitizenId(citizenId);
-        }
+        String citizenId = newCitizenId();
 
-        RequestBody body = new FormBody.Builder()
-                .add("name", "Tatpol")
-                .add("surname", "Samakpong")
-                .add("citizen_id", citizenId)
-                .add("birth_date", "2001/06/05")
-                .add("occupation", "Student")
-                .add("phone_number", "0970638897")
-                .add("is_risk", "false")
-                .add("address", "122/167")
+        Citizen citizen = new Citizen.Builder()
+                .citizenId(citizenId)
+                .name("Tatpol")
+                .surname("Samakpong")
+                .birthDate("2001/06/05")
+                .occupation("Student")
+                .phoneNumber("0970638897")
+                .isRisk(false)
+                .address("122/167")
                 .build();
 
-        Request request = new Request.Builder()
-                .url(baseUrl + "/registration")
-                .post(body)
-                .build();
+        Request request = new RegistrationEncoder(baseUrl).request(citizen, RegistrationEncoder.Mode.FORM);
 
         try (Response response = client.newCall(request).execute()) {
-            RegistrationResponseBody responseBody = new Gson()
-                    .fromJson(response.body().string(), RegistrationResponseBody.class);
+            RegistrationResponseBody responseBody = api.readRegistration(response);
             assertEquals(response.code(), 201);
             assertTrue(responseBody.isRegistrationSuccessful());
             assertEquals(responseBody.getFeedback(), "registration success!");
@@ -184,8 +252,20 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationWithExistingUser() throws IOException {
-        HttpUrl url = new UserRegistrationUrl.Builder()
-                .citizenId("1102003283576")
+        String citizenId = newCitizenId();
+        api.register(new Citizen.Builder()
+                .citizenId(citizenId)
+                .name("Tatpol")
+                .surname("Samakpong")
+                .birthDate("2001/06/05")
+                .occupation("Student")
+                .phoneNumber("0970638897")
+                .isRisk(false)
+                .address("122/167")
+                .build());
+
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
+                .citizenId(citizenId)
                 .name("Tatpol")
                 .surname("Samakpong")
                 .birthDate("2001/06/05")
@@ -200,8 +280,7 @@ public class ApiTest {
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
-            RegistrationResponseBody responseBody = new Gson()
-                    .fromJson(response.body().string(), RegistrationResponseBody.class);
+            RegistrationResponseBody responseBody = api.readRegistration(response);
             // registration should be failed and status code shouldn't be 200
             assertNotEquals(response.code(), 200);
             assertFalse(responseBody.isRegistrationSuccessful());
@@ -219,7 +298,7 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationWithNoCitizenId() throws IOException {
-        HttpUrl url = new UserRegistrationUrl.Builder()
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
                 // missing citizen id field
                 .name("Tatpol")
                 .surname("Samakpong")
@@ -249,8 +328,8 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationWithNoName() throws IOException {
-        HttpUrl url = new UserRegistrationUrl.Builder()
-                .citizenId("1102003283576")
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
+                .citizenId(newCitizenId())
                 // missing name field
                 .surname("Samakpong")
                 .birthDate("2001/06/05")
@@ -279,8 +358,8 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationWithNoSurname() throws IOException {
-        HttpUrl url = new UserRegistrationUrl.Builder()
-                .citizenId("1102003283576")
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
+                .citizenId(newCitizenId())
                 .name("Tatpol")
                 // missing surname field
                 .birthDate("2001/06/05")
@@ -309,8 +388,8 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationWithNoBirthDate() throws IOException {
-        HttpUrl url = new UserRegistrationUrl.Builder()
-                .citizenId("1102003283576")
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
+                .citizenId(newCitizenId())
                 .name("Tatpol")
                 .surname("Samakpong")
                 // missing birth date field
@@ -339,8 +418,8 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationWithNoOccupation() throws IOException {
-        HttpUrl url = new UserRegistrationUrl.Builder()
-                .citizenId("1102003283576")
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
+                .citizenId(newCitizenId())
                 .name("Tatpol")
                 .surname("Samakpong")
                 .birthDate("2001/06/05")
@@ -369,8 +448,8 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationWithNoAddress() throws IOException {
-        HttpUrl url = new UserRegistrationUrl.Builder()
-                .citizenId("1102003283576")
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
+                .citizenId(newCitizenId())
                 .name("Tatpol")
                 .surname("Samakpong")
                 .birthDate("2001/06/05")
@@ -399,8 +478,8 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationWithNoPhoneNumber() throws IOException {
-        HttpUrl url = new UserRegistrationUrl.Builder()
-                .citizenId("1102003283576")
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
+                .citizenId(newCitizenId())
                 .name("Tatpol")
                 .surname("Samakpong")
                 .birthDate("2001/06/05")
@@ -428,8 +507,8 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationWithNoIsRisk() throws IOException {
-        HttpUrl url = new UserRegistrationUrl.Builder()
-                .citizenId("1102003283576")
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
+                .citizenId(newCitizenId())
                 .name("Tatpol")
                 .surname("Samakpong")
                 .birthDate("2001/06/05")
@@ -457,8 +536,8 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationWithNumericName() throws IOException {
-        HttpUrl url = new UserRegistrationUrl.Builder()
-                .citizenId("1102003283576")
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
+                .citizenId(newCitizenId())
                 .name("213432994")
                 .surname("232134")
                 .birthDate("2001/06/05")
@@ -475,8 +554,7 @@ public class ApiTest {
         try (Response response = client.newCall(request).execute()) {
             // registration should be failed and status code shouldn't be 200
             assertNotEquals(response.code(), 200);
-            RegistrationResponseBody responseBody = new Gson()
-                    .fromJson(response.body().string(), RegistrationResponseBody.class);
+            RegistrationResponseBody responseBody = api.readRegistration(response);
             assertFalse(responseBody.isRegistrationSuccessful());
         }
     }
@@ -488,7 +566,7 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationWithInvalidCitizenId() throws IOException {
-        HttpUrl url = new UserRegistrationUrl.Builder()
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
                 .citizenId("okafvsapk34pmb0zed")
                 .name("213432994")
                 .surname("Samakpong")
@@ -506,8 +584,7 @@ public class ApiTest {
         try (Response response = client.newCall(request).execute()) {
             // registration should be failed and status code shouldn't be 200
             assertNotEquals(response.code(), 200);
-            RegistrationResponseBody responseBody = new Gson()
-                    .fromJson(response.body().string(), RegistrationResponseBody.class);
+            RegistrationResponseBody responseBody = api.readRegistration(response);
             assertFalse(responseBody.isRegistrationSuccessful());
             assertEquals(responseBody.getFeedback(), "registration failed: invalid citizen ID");
         }
@@ -520,8 +597,8 @@ public class ApiTest {
      */
     @Test
     public void testRegistrationMisFormatBirthDate() throws IOException {
-        HttpUrl url = new UserRegistrationUrl.Builder()
-                .citizenId("1102003283573")
+        HttpUrl url = new UserRegistrationUrl.Builder(baseUrl)
+                .citizenId(newCitizenId())
                 .name("Hello")
                 .surname("Guy")
                 .birthDate("1996/30/03")
@@ -538,8 +615,7 @@ public class ApiTest {
         try (Response response = client.newCall(request).execute()) {
             // registration should be failed and status code shouldn't be 200
             assertNotEquals(response.code(), 200);
-            RegistrationResponseBody responseBody = new Gson()
-                    .fromJson(response.body().string(), RegistrationResponseBody.class);
+            RegistrationResponseBody responseBody = api.readRegistration(response);
             assertFalse(responseBody.isRegistrationSuccessful());
             assertEquals(responseBody.getFeedback(), "registration failed: invalid birth date format");
         }
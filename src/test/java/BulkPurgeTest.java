@@ -0,0 +1,166 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for BulkPurge against a local stand-in server
+ */
+public class BulkPurgeTest extends StandInTestCase {
+    private static String citizenId(int i) {
+        return RegistrationValidator.withCheckDigit(110200332000L + i);
+    }
+
+    private void register(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            api.register(citizen(citizenId(i)));
+        }
+    }
+
+    /**
+     * Test a range is purged and verified, unregistered citizens counting
+     * as purged, with every response released
+     *
+     * @throws Exception if the purge failed
+     */
+    @Test
+    public void testPurgeRange() throws Exception {
+        register(200);
+        List<BulkPurge.Failure> failures = new CopyOnWriteArrayList<>();
+        BulkPurge.Report report = new BulkPurge.Builder(api)
+                .maxInFlight(16)
+                .verify(true)
+                .build()
+                .run(BulkPurge.range(citizenId(0), citizenId(249), true), failures::add);
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(200, report.deleted());
+        assertEquals(50, report.notFound());
+        assertEquals(250, report.verified());
+        assertEquals(250, report.processed());
+        assertEquals(0, server.api().registrationCount());
+        assertEquals(0, api.httpClient().dispatcher().runningCallsCount());
+        assertTrue(api.httpClient().connectionPool().connectionCount() <= 16);
+    }
+
+    /**
+     * Test a range covers every 13-digit id, including the ones whose check
+     * digit is not valid, unless it is limited to valid check digits
+     *
+     * @throws Exception if the purge failed
+     */
+    @Test
+    public void testPurgeRangeWithoutCheckDigit() throws Exception {
+        api.register(citizen("1102003320000"));
+        api.register(citizen("1102003320005"));
+        api.register(citizen("1102003320013"));
+        assertFalse(RegistrationValidator.hasValidCheckDigit("1102003320000"));
+
+        BulkPurge.Report report = new BulkPurge.Builder(api)
+                .build()
+                .run(BulkPurge.range("1102003320000", "1102003320019", true), failure -> { });
+        assertEquals(2, report.processed());
+        assertEquals(1, server.api().registrationCount());
+
+        report = new BulkPurge.Builder(api)
+                .build()
+                .run(BulkPurge.range("1102003320000", "1102003320019"), failure -> { });
+        assertEquals(20, report.processed());
+        assertEquals(1, report.deleted());
+        assertEquals(19, report.notFound());
+        assertEquals(0, server.api().registrationCount());
+    }
+
+    /**
+     * Test refused deletions are reported per citizen
+     *
+     * @throws Exception if the purge failed
+     */
+    @Test
+    public void testFailures() throws Exception {
+        register(10);
+        server.faults(new FaultInjector.Builder()
+                .fault("registration", FaultInjector.Fault.SERVER_ERROR, 100)
+                .build());
+        List<BulkPurge.Failure> failures = new CopyOnWriteArrayList<>();
+        BulkPurge.Report report = new BulkPurge.Builder(api)
+                .build()
+                .run(Arrays.asList(citizenId(3), citizenId(4)).iterator(), failures::add);
+
+        assertEquals(2, report.count(BulkPurge.Outcome.FAILED));
+        assertEquals(2, failures.size());
+        for (BulkPurge.Failure failure : failures) {
+            assertEquals(BulkPurge.Outcome.FAILED, failure.outcome());
+            assertEquals(500, ((VaccineApiException) failure.error()).code());
+        }
+        assertEquals(10, server.api().registrationCount());
+    }
+
+    /**
+     * Test verification catches a deletion the server acknowledged without
+     * removing the citizen
+     *
+     * @throws Exception if the purge failed
+     */
+    @Test
+    public void testStillPresent() throws Exception {
+        start(new StandInApi() {
+            @Override
+            public Reply handle(String method, String path, Map<String, String> params, Map<String, String> headers) {
+                if (method.equals("DELETE")) {
+                    return new Reply(200, JSON, "{\"feedback\": \"deletion success!\"}");
+                }
+                return super.handle(method, path, params, headers);
+            }
+        });
+        register(3);
+        List<BulkPurge.Failure> failures = new CopyOnWriteArrayList<>();
+        BulkPurge.Report report = new BulkPurge.Builder(api)
+                .verify(true)
+                .build()
+                .run(BulkPurge.range(citizenId(0), citizenId(2), true), failures::add);
+
+        assertEquals(3, report.deleted());
+        assertEquals(3, report.count(BulkPurge.Outcome.STILL_PRESENT));
+        assertEquals(0, report.verified());
+        assertEquals(3, failures.size());
+    }
+
+    /**
+     * Test a verification lookup failing with a server error leaves the
+     * citizen unverified instead of counting it as gone
+     *
+     * @throws Exception if the purge failed
+     */
+    @Test
+    public void testVerifyServerError() throws Exception {
+        start(new StandInApi() {
+            @Override
+            public Reply handle(String method, String path, Map<String, String> params, Map<String, String> headers) {
+                if (method.equals("GET")) {
+                    return new Reply(503, HTML, "Service Unavailable");
+                }
+                return super.handle(method, path, params, headers);
+            }
+        });
+        register(3);
+        List<BulkPurge.Failure> failures = new CopyOnWriteArrayList<>();
+        BulkPurge.Report report = new BulkPurge.Builder(api)
+                .verify(true)
+                .build()
+                .run(BulkPurge.range(citizenId(0), citizenId(2), true), failures::add);
+
+        assertEquals(3, report.deleted());
+        assertEquals(0, report.verified());
+        assertEquals(3, report.count(BulkPurge.Outcome.UNVERIFIED));
+        for (BulkPurge.Failure failure : failures) {
+            assertEquals(BulkPurge.Outcome.UNVERIFIED, failure.outcome());
+            assertEquals(503, ((VaccineApiException) failure.error()).code());
+        }
+    }
+}
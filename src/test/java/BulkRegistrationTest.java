@@ -0,0 +1,99 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for BulkRegistration against a local stand-in server
+ */
+public class BulkRegistrationTest extends StandInTestCase {
+    private static String citizenId(int i) {
+        return RegistrationValidator.withCheckDigit(110200336000L + i);
+    }
+
+    /**
+     * Test no more registrations than the window are awaiting an answer at
+     * once, and every record is registered
+     *
+     * @throws Exception if the registrations failed
+     */
+    @Test
+    public void testInFlightIsBounded() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        start(new StandInApi() {
+            @Override
+            public Reply handle(String method, String path, Map<String, String> params, Map<String, String> headers) {
+                peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+                return super.handle(method, path, params, headers);
+            }
+        });
+        List<RegistrationResult> results = new CopyOnWriteArrayList<>();
+        new BulkRegistration(api, 3)
+                .registerAll(IntStream.range(0, 30).mapToObj(i -> citizen(citizenId(i))), results::add)
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(30, results.size());
+        assertEquals(30, server.api().registrationCount());
+        assertTrue("peak " + peak.get(), peak.get() <= 3);
+        assertTrue("peak " + peak.get(), peak.get() > 1);
+    }
+
+    /**
+     * Test a registration throwing instead of returning its future gives a
+     * failed result, and the others still complete
+     *
+     * @throws Exception if the registrations failed
+     */
+    @Test
+    public void testSynchronousFailure() throws Exception {
+        List<RegistrationResult> results = new CopyOnWriteArrayList<>();
+        new BulkRegistration(api, 2)
+                .registerAll(Arrays.asList(citizen(citizenId(0)), null, citizen(citizenId(1))).iterator(),
+                        results::add)
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(3, results.size());
+        long failed = results.stream().filter(result -> result.getError() != null).count();
+        assertEquals(1, failed);
+        assertEquals(2, server.api().registrationCount());
+    }
+
+    /**
+     * Test a failing sink fails the future and stops the submission of
+     * further records
+     *
+     * @throws Exception if the registrations failed
+     */
+    @Test
+    public void testSinkFailure() throws Exception {
+        IllegalStateException failure = new IllegalStateException("sink failed");
+        CompletableFuture<Void> done = new BulkRegistration(api, 1)
+                .registerAll(IntStream.range(0, 20).mapToObj(i -> citizen(citizenId(i))), result -> {
+                    throw failure;
+                });
+        try {
+            done.join();
+            fail("sink failure not reported");
+        } catch (CompletionException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertEquals(1, server.api().registrationCount());
+    }
+}
@@ -0,0 +1,80 @@
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for per-phase call timings
+ */
+public class CallMetricsTest extends StandInTestCase {
+    private CallMetrics metrics;
+
+    @Before
+    public void setUp() throws IOException {
+        metrics = new CallMetrics(true);
+        start(new StandInApi(), new VaccineApiClient.Builder().metrics(metrics));
+        api.register(citizen("1102003283576"));
+        api.getUser("1234567890121");
+    }
+
+    /**
+     * Test phases are recorded per endpoint and status code
+     */
+    @Test
+    public void testPhasesAreTaggedByEndpointAndStatus() {
+        assertEquals(metrics.histogram("POST /registration", "201", CallMetrics.Phase.TOTAL).getTotalCount(), 1);
+        assertEquals(metrics.histogram("POST /registration", "201", CallMetrics.Phase.CONNECT).getTotalCount(), 1);
+        assertEquals(metrics.histogram("POST /registration", "201", CallMetrics.Phase.TTFB).getTotalCount(), 1);
+        assertEquals(metrics.histogram("POST /registration", "201", CallMetrics.Phase.DECODE).getTotalCount(), 1);
+        assertEquals(metrics.histogram("GET /registration/{citizen_id}", "404", CallMetrics.Phase.TOTAL)
+                .getTotalCount(), 1);
+        assertNull(metrics.histogram("GET /reservations", "200", CallMetrics.Phase.TOTAL));
+    }
+
+    /**
+     * Test both export formats carry the recorded phases
+     *
+     * @throws IOException if the snapshot could not be written
+     */
+    @Test
+    public void testExport() throws IOException {
+        StringWriter prometheus = new StringWriter();
+        metrics.writePrometheus(prometheus);
+        assertThat(prometheus.toString(), containsString(
+                "vaccine_api_call_phase_seconds_count{endpoint=\"POST /registration\",status=\"201\",phase=\"total\"} 1"));
+
+        StringWriter json = new StringWriter();
+        metrics.writeJson(json);
+        JsonObject snapshot = JsonParser.parseString(json.toString()).getAsJsonObject();
+        assertEquals(snapshot.getAsJsonObject("POST /registration 201")
+                .getAsJsonObject("ttfb").get("count").getAsLong(), 1);
+    }
+
+    /**
+     * Test the limit of a throttled client is exported as a gauge
+     *
+     * @throws IOException if a request failed
+     */
+    @Test
+    public void testConcurrencyLimitGauge() throws IOException {
+        try (VaccineApiClient throttled = api.newBuilder()
+                .throttle(new ConcurrencyLimiter(8, 1, 64), new TokenBucket(1000, 10))
+                .build()) {
+            throttled.getUser("1102003283576");
+            assertEquals(8, metrics.gaugeValue("vaccine_api_concurrency_limit"), 0);
+            assertEquals(0, metrics.gaugeValue("vaccine_api_calls_in_flight"), 0);
+            assertSame(throttled.concurrencyLimiter(), throttled.newBuilder().build().concurrencyLimiter());
+        }
+        StringWriter prometheus = new StringWriter();
+        metrics.writePrometheus(prometheus);
+        assertThat(prometheus.toString(), containsString("# TYPE vaccine_api_concurrency_limit gauge\n"
+                + "vaccine_api_concurrency_limit 8.0\n"));
+    }
+}
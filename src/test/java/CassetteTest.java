@@ -0,0 +1,212 @@
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for recording exchanges into a cassette and replaying them
+ */
+public class CassetteTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path record() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("session.cassette");
+        StandInApi standIn = new StandInApi();
+        standIn.addReservation("1102003283576", "OGYHSite", "Pfizer");
+        try (StandInServer server = new StandInServer(standIn, 0);
+             Cassette cassette = Cassette.create(file);
+             VaccineApiClient api = new VaccineApiClient.Builder()
+                     .baseUrl(server.url())
+                     .cassette(new CassetteInterceptor(cassette, CassetteInterceptor.Mode.RECORD))
+                     .build()) {
+            assertNull(api.getUser("1102003283576"));
+            assertTrue(api.register(TestCitizens.citizen("1102003283576")).isRegistrationSuccessful());
+            assertFalse(api.register(TestCitizens.citizen("1102003283576")).isRegistrationSuccessful());
+            assertEquals("1102003283576", api.getUser("1102003283576").getCitizenId());
+            assertEquals(1, api.getReservations().size());
+            assertEquals(5, cassette.size());
+        }
+        return file;
+    }
+
+    /**
+     * Test a replay answers the recorded responses, in the recorded order,
+     * without a server
+     *
+     * @throws IOException if the cassette could not be written or read
+     */
+    @Test
+    public void testReplayWithoutServer() throws IOException {
+        Path file = record();
+        try (Cassette cassette = Cassette.open(file);
+             VaccineApiClient api = new VaccineApiClient.Builder()
+                     .baseUrl("http://127.0.0.1:1")
+                     .registrationMode(RegistrationEncoder.Mode.FORM)
+                     .cassette(new CassetteInterceptor(cassette, CassetteInterceptor.Mode.REPLAY))
+                     .build()) {
+            assertEquals(5, cassette.size());
+            assertNull(api.getUser("1102003283576"));
+            assertTrue(api.register(TestCitizens.citizen("1102003283576")).isRegistrationSuccessful());
+            RegistrationResponseBody again = api.register(TestCitizens.citizen("1102003283576"));
+            assertEquals("registration failed: this person already registered", again.getFeedback());
+            assertEquals("1102003283576", api.getUser("1102003283576").getCitizenId());
+            List<ReservationResponseBody> reservations = api.getReservations();
+            assertEquals("OGYHSite", reservations.get(0).getSiteName());
+
+            cassette.rewind();
+            assertNull(api.getUser("1102003283576"));
+        }
+    }
+
+    /**
+     * Test a request that was never recorded fails
+     *
+     * @throws IOException if the cassette could not be written or read
+     */
+    @Test
+    public void testUnrecordedRequestFails() throws IOException {
+        Path file = record();
+        try (Cassette cassette = Cassette.open(file);
+             VaccineApiClient api = new VaccineApiClient.Builder()
+                     .baseUrl("http://127.0.0.1:1")
+                     .cassette(new CassetteInterceptor(cassette, CassetteInterceptor.Mode.REPLAY))
+                     .build()) {
+            api.getUser("1102003283584");
+            fail("unrecorded lookup was answered");
+        } catch (IOException e) {
+            assertEquals("no recorded exchange for GET /registration/1102003283584", e.getMessage());
+        }
+    }
+
+    /**
+     * Test a timed replay takes at least as long as the recorded exchange,
+     * and keeps the recorded gap between exchanges
+     *
+     * @throws Exception if the cassette could not be written or read
+     */
+    @Test
+    public void testTimedReplay() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("timed.cassette");
+        try (StandInServer server = new StandInServer(new StandInApi(), 0);
+             Cassette cassette = Cassette.create(file);
+             VaccineApiClient api = new VaccineApiClient.Builder()
+                     .baseUrl(server.url())
+                     .cassette(new CassetteInterceptor(cassette, CassetteInterceptor.Mode.RECORD))
+                     .build()) {
+            api.getUser("1102003283576");
+            Thread.sleep(300);
+            api.getUser("1102003283584");
+        }
+        Cassette.Exchange first;
+        Cassette.Exchange second;
+        try (Cassette cassette = Cassette.open(file)) {
+            first = cassette.next("GET /registration/1102003283576");
+            second = cassette.next("GET /registration/1102003283584");
+        }
+        assertTrue(second.startNanos() - first.startNanos() >= TimeUnit.MILLISECONDS.toNanos(300));
+        try (Cassette cassette = Cassette.open(file);
+             VaccineApiClient api = new VaccineApiClient.Builder()
+                     .baseUrl("http://127.0.0.1:1")
+                     .cassette(new CassetteInterceptor(cassette, CassetteInterceptor.Mode.REPLAY_TIMED))
+                     .build()) {
+            long start = System.nanoTime();
+            api.getUser("1102003283576");
+            assertTrue(System.nanoTime() - start >= first.durationNanos());
+            api.getUser("1102003283584");
+            assertTrue(System.nanoTime() - start >= second.startNanos() - first.startNanos() + second.durationNanos());
+        }
+    }
+
+    /**
+     * Test a replay serves the recorded response headers, so a conditional
+     * poll sends the recorded ETag back and is answered as unchanged
+     *
+     * @throws IOException if the cassette could not be written or read
+     */
+    @Test
+    public void testConditionalReplay() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("watch.cassette");
+        StandInApi standIn = new StandInApi();
+        standIn.addReservation("1102003283576", "OGYHSite", "Pfizer");
+        try (StandInServer server = new StandInServer(standIn, 0);
+             Cassette cassette = Cassette.create(file);
+             VaccineApiClient api = new VaccineApiClient.Builder()
+                     .baseUrl(server.url())
+                     .cassette(new CassetteInterceptor(cassette, CassetteInterceptor.Mode.RECORD))
+                     .build()) {
+            ReservationWatcher watcher = new ReservationWatcher(api);
+            assertTrue(watcher.poll(change -> { }));
+            assertFalse(watcher.poll(change -> { }));
+        }
+        try (Cassette cassette = Cassette.open(file);
+             VaccineApiClient api = new VaccineApiClient.Builder()
+                     .baseUrl("http://127.0.0.1:1")
+                     .cassette(new CassetteInterceptor(cassette, CassetteInterceptor.Mode.REPLAY))
+                     .build()) {
+            Cassette.Exchange first = cassette.next("GET /reservations");
+            assertNotNull(first.headers().get("ETag"));
+            assertNull(first.headers().get("Content-Length"));
+            cassette.rewind();
+
+            ReservationWatcher watcher = new ReservationWatcher(api);
+            List<ReservationWatcher.Change> changes = new ArrayList<>();
+            assertTrue(watcher.poll(changes::add));
+            assertEquals(1, changes.size());
+            assertFalse(watcher.poll(changes::add));
+            assertEquals(1, watcher.notModifiedCount());
+        }
+    }
+
+    /**
+     * Test keys ignore the order of the fields but tell batches and
+     * conditional requests apart
+     *
+     * @throws IOException if a body could not be read
+     */
+    @Test
+    public void testKey() throws IOException {
+        HttpUrl url = HttpUrl.get("http://127.0.0.1:1/api/registration/batch");
+        MediaType json = MediaType.get("application/json; charset=utf-8");
+        String one = Cassette.key(new Request.Builder().url(url)
+                .post(RequestBody.create("[{\"name\":\"a\",\"surname\":\"b\"}]", json)).build());
+        String reordered = Cassette.key(new Request.Builder().url(url)
+                .post(RequestBody.create("[{\"surname\":\"b\",\"name\":\"a\"}]", json)).build());
+        String other = Cassette.key(new Request.Builder().url(url)
+                .post(RequestBody.create("[{\"name\":\"c\",\"surname\":\"b\"}]", json)).build());
+        assertEquals("POST /api/registration/batch?[0].name=a&[0].surname=b", one);
+        assertEquals(one, reordered);
+        assertNotEquals(one, other);
+
+        Request.Builder poll = new Request.Builder().url("http://127.0.0.1:1/reservations");
+        assertEquals("GET /reservations", Cassette.key(poll.build()));
+        assertEquals("GET /reservations If-None-Match: \"1\"",
+                Cassette.key(poll.header("If-None-Match", "\"1\"").build()));
+    }
+
+    /**
+     * Test the api routes are recorded behind a base path, and anything
+     * else, such as a health check, is not
+     */
+    @Test
+    public void testApiRoutes() {
+        assertTrue(CassetteInterceptor.isApiRoute(HttpUrl.get("http://127.0.0.1:1/registration")));
+        assertTrue(CassetteInterceptor.isApiRoute(HttpUrl.get("http://127.0.0.1:1/api/registration/1102003283576")));
+        assertTrue(CassetteInterceptor.isApiRoute(HttpUrl.get("http://127.0.0.1:1/api/registration/batch")));
+        assertTrue(CassetteInterceptor.isApiRoute(HttpUrl.get("http://127.0.0.1:1/api/reservations")));
+        assertFalse(CassetteInterceptor.isApiRoute(HttpUrl.get("http://127.0.0.1:1/")));
+        assertFalse(CassetteInterceptor.isApiRoute(HttpUrl.get("http://127.0.0.1:1/api/health")));
+        assertFalse(CassetteInterceptor.isApiRoute(HttpUrl.get("http://127.0.0.1:1/registration/")));
+    }
+}
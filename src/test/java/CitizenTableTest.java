@@ -0,0 +1,88 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for CitizenTable
+ */
+public class CitizenTableTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Citizen citizen(String citizenId, String name, Boolean isRisk) {
+        return TestCitizens.builder(citizenId).name(name).isRisk(isRisk).build();
+    }
+
+    /**
+     * Test citizens read back from the columns equal the appended ones
+     */
+    @Test
+    public void testAddAndMaterialize() {
+        CitizenTable table = new CitizenTable(2);
+        for (int i = 0; i < 1000; i++) {
+            table.add(citizen(RegistrationValidator.withCheckDigit(100000000000L + i), "name" + i,
+                    i % 3 == 0 ? null : i % 3 == 1), i % 2 == 0 ? "[]" : null);
+        }
+        assertEquals(1000, table.size());
+        int row = table.rowOf(CitizenTable.parseCitizenId(RegistrationValidator.withCheckDigit(100000000000L + 421)));
+        assertEquals(421, row);
+        Citizen citizen = table.citizen(row);
+        assertEquals("name421", citizen.getName());
+        assertEquals(Boolean.TRUE, citizen.getIsRisk());
+        assertEquals("Student", citizen.getOccupation());
+        assertNull(table.vaccineTaken(row));
+        assertNull(table.citizen(420).getIsRisk());
+        assertEquals("[]", table.vaccineTaken(420));
+        assertEquals(-1, table.rowOf(1));
+    }
+
+    /**
+     * Test IDs with leading zeros keep their 13 digits
+     */
+    @Test
+    public void testCitizenIdRoundTrip() {
+        assertEquals(12345L, CitizenTable.parseCitizenId("0000000012345"));
+        assertEquals("0000000012345", CitizenTable.formatCitizenId(12345L));
+        assertEquals(-1, CitizenTable.parseCitizenId("12345"));
+        assertEquals(-1, CitizenTable.parseCitizenId("110200328357a"));
+    }
+
+    /**
+     * Test a duplicate citizen ID is refused
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateCitizenId() {
+        CitizenTable table = new CitizenTable();
+        table.add(citizen("1102003283573", "Tatpol", false), null);
+        table.add(citizen("1102003283573", "Other", false), null);
+    }
+
+    /**
+     * Test loading a CSV skips rows without a usable citizen ID
+     *
+     * @throws IOException if the file could not be read
+     */
+    @Test
+    public void testLoad() throws IOException {
+        Path csv = folder.newFile().toPath();
+        Files.write(csv, ("address,citizen_id,name,surname,birth_date,occupation,phone_number,is_risk,vaccine_taken\n"
+                + "\"122/167, Bangkok\",1102003283573,Tatpol,Samakpong,2001/06/05,Student,0970638897,TRUE,[]\n"
+                + "x,1234,Tatpol,Samakpong,2001/06/05,Student,0970638897,false,\n"
+                + "x,1102003283573,Again,Samakpong,2001/06/05,Student,0970638897,false,\n")
+                .getBytes(StandardCharsets.UTF_8));
+        CitizenTable table = CitizenTable.load(csv);
+        assertEquals(1, table.size());
+        assertEquals(2, table.skippedRows());
+        Citizen citizen = table.citizen(0);
+        assertEquals("122/167, Bangkok", citizen.getAddress());
+        assertEquals(Boolean.TRUE, citizen.getIsRisk());
+        assertEquals("[]", table.vaccineTaken(0));
+    }
+}
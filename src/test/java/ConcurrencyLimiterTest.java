@@ -0,0 +1,115 @@
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for ConcurrencyLimiter and TokenBucket
+ */
+public class ConcurrencyLimiterTest {
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Run rounds of requests filling the limit, all answered with the same round trip time
+     */
+    private static void saturate(ConcurrencyLimiter limiter, int rounds, long rttNanos) throws InterruptedException {
+        for (int round = 0; round < rounds; round++) {
+            int limit = limiter.limit();
+            for (int i = 0; i < limit; i++) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < limit; i++) {
+                limiter.onSuccess(rttNanos);
+            }
+        }
+    }
+
+    /**
+     * Test the limit grows while latency stays flat and shrinks once it rises
+     *
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void testLimitFollowsLatency() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 200);
+        saturate(limiter, 20, RTT);
+        int grown = limiter.limit();
+        assertTrue("limit " + grown, grown > 20);
+
+        saturate(limiter, 3, RTT * 4);
+        assertTrue("limit " + limiter.limit(), limiter.limit() < grown / 2);
+        assertEquals(0, limiter.inFlight());
+    }
+
+    /**
+     * Test an unused limit does not grow
+     *
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void testIdleLimitDoesNotGrow() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 200);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.onSuccess(RTT);
+        }
+        assertEquals(10, limiter.limit());
+    }
+
+    /**
+     * Test drops cut the limit down to its minimum
+     *
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void testDropsCutLimit() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(50, 5, 200);
+        limiter.acquire();
+        limiter.onDropped();
+        assertEquals(45, limiter.limit());
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.onDropped();
+        }
+        assertEquals(5, limiter.limit());
+    }
+
+    /**
+     * Test no request is let through past the limit until one is released
+     *
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void testAcquireWaitsForRelease() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 2);
+        limiter.acquire();
+        limiter.acquire();
+        assertFalse(limiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+        limiter.onIgnore();
+        assertTrue(limiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+        assertEquals(2, limiter.inFlight());
+    }
+
+    /**
+     * Test the bucket lets a burst through then refills at its rate
+     */
+    @Test
+    public void testTokenBucket() {
+        long[] now = {0};
+        TokenBucket bucket = new TokenBucket(100, 5, () -> now[0]);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), bucket.reserve());
+        now[0] += TimeUnit.MILLISECONDS.toNanos(20);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        now[0] += TimeUnit.SECONDS.toNanos(10);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+    }
+}
@@ -0,0 +1,37 @@
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerScheduler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JUnit runner executing the test methods of a class concurrently. The
+ * number of threads is read from the {@code api.test.threads} system
+ * property (default 8).
+ */
+public class ConcurrentRunner extends BlockJUnit4ClassRunner {
+    public ConcurrentRunner(Class<?> testClass) throws InitializationError {
+        super(testClass);
+        setScheduler(new RunnerScheduler() {
+            private final ExecutorService executor =
+                    Executors.newFixedThreadPool(Integer.getInteger("api.test.threads", 8));
+
+            @Override
+            public void schedule(Runnable childStatement) {
+                executor.execute(childStatement);
+            }
+
+            @Override
+            public void finished() {
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(10, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+}
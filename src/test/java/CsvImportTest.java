@@ -0,0 +1,107 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for CsvImport against a local stand-in server
+ */
+public class CsvImportTest extends StandInTestCase {
+    private static final String HEADER = "citizen_id,name,surname,birth_date,occupation,phone_number,is_risk,address\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path csv;
+    private Path journal;
+
+    @Before
+    public void setUp() throws IOException {
+        csv = folder.newFile("citizens.csv").toPath();
+        journal = folder.getRoot().toPath().resolve("citizens.journal");
+    }
+
+    private static String row(long prefix) {
+        return RegistrationValidator.withCheckDigit(prefix) + ",Tatpol,Samakpong,2001/06/05,Student,0970638897,FALSE,\"122/167, Bangkok\"\n";
+    }
+
+    private void writeCsv(int rows, String... extra) throws IOException {
+        StringBuilder content = new StringBuilder(HEADER);
+        for (int i = 0; i < rows; i++) {
+            content.append(row(110200328000L + i));
+        }
+        for (String line : extra) {
+            content.append(line);
+        }
+        Files.write(csv, content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private CsvImport.Summary runImport() throws IOException, InterruptedException {
+        return new CsvImport.Builder(api, csv, journal)
+                .batchSize(7)
+                .maxInFlight(4)
+                .build()
+                .run();
+    }
+
+    /**
+     * Test valid rows are registered and invalid ones rejected without a request
+     *
+     * @throws Exception if the import failed
+     */
+    @Test
+    public void testImport() throws Exception {
+        writeCsv(20, "1234,Tatpol,Samakpong,2001/06/05,Student,0970638897,false,122/167\n",
+                row(110200328999L).replace(",Tatpol,", ",,"));
+        CsvImport.Summary summary = runImport();
+        assertEquals(20, summary.registered());
+        assertEquals(2, summary.rejected());
+        assertEquals(20, standIn.registrationCount());
+        assertNotNull(api.getUser(RegistrationValidator.withCheckDigit(110200328019L)));
+    }
+
+    /**
+     * Test a second run skips every row finished by the first one
+     *
+     * @throws Exception if the import failed
+     */
+    @Test
+    public void testResumeSkipsFinishedRows() throws Exception {
+        writeCsv(10);
+        assertEquals(10, runImport().registered());
+        CsvImport.Summary summary = runImport();
+        assertEquals(0, summary.registered());
+        assertEquals(0, summary.alreadyRegistered());
+        assertEquals(10, summary.skipped());
+    }
+
+    /**
+     * Test a row sent before a crash but never answered is looked up
+     * instead of being registered again
+     *
+     * @throws Exception if the import failed
+     */
+    @Test
+    public void testInDoubtRowIsVerified() throws Exception {
+        writeCsv(3);
+        api.register(citizen(RegistrationValidator.withCheckDigit(110200328001L)));
+        try (ImportJournal crashed = new ImportJournal(journal)) {
+            crashed.append(0, ImportJournal.REGISTERED);
+            crashed.append(1, ImportJournal.STARTED);
+        }
+        CsvImport.Summary summary = runImport();
+        assertEquals(1, summary.skipped());
+        assertEquals(1, summary.alreadyRegistered());
+        assertEquals(1, summary.registered());
+        try (ImportJournal reopened = new ImportJournal(journal)) {
+            assertEquals(3, reopened.finishedCount());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for CsvRecordReader
+ */
+public class CsvRecordReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String content) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Test quoted fields, doubled quotes, CRLF line endings and empty lines
+     *
+     * @throws IOException if the file could not be read
+     */
+    @Test
+    public void testQuotedFieldsAndLineEndings() throws IOException {
+        Path file = write("a,b,c\r\n\"x, y\",\"say \"\"hi\"\"\",z\r\n\n1,,3");
+        try (CsvRecordReader reader = new CsvRecordReader(file)) {
+            CsvRecordReader.Row row = reader.next();
+            assertEquals(3, row.fieldCount());
+            assertEquals("c", row.string(2));
+            assertEquals(0, reader.rowNumber());
+
+            row = reader.next();
+            assertEquals("x, y", row.string(0));
+            assertEquals("say \"hi\"", row.string(1));
+            assertEquals("z", row.field(2).toString());
+
+            row = reader.next();
+            assertEquals(2, reader.rowNumber());
+            assertEquals(0, row.field(1).length());
+            assertEquals("3", row.string(2));
+            assertNull(reader.next());
+        }
+    }
+
+    /**
+     * Test UTF-8 fields are decoded by string()
+     *
+     * @throws IOException if the file could not be read
+     */
+    @Test
+    public void testUtf8Field() throws IOException {
+        try (CsvRecordReader reader = new CsvRecordReader(write("\u0e18\u0e19\u0e32,1\n"))) {
+            assertEquals("\u0e18\u0e19\u0e32", reader.next().string(0));
+        }
+    }
+
+    /**
+     * Test rows crossing the end of a window are read from the next one
+     *
+     * @throws IOException if the file could not be read
+     */
+    @Test
+    public void testRowsAcrossWindows() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append(i).append(",\"row ").append(i).append("\"\n");
+        }
+        try (CsvRecordReader reader = new CsvRecordReader(write(content.toString()), 16)) {
+            for (int i = 0; i < 100; i++) {
+                CsvRecordReader.Row row = reader.next();
+                assertEquals(String.valueOf(i), row.string(0));
+                assertEquals("row " + i, row.string(1));
+            }
+            assertNull(reader.next());
+        }
+    }
+
+    /**
+     * Test a row longer than a window is reported
+     *
+     * @throws IOException if the file could not be read
+     */
+    @Test(expected = IOException.class)
+    public void testRowLongerThanWindow() throws IOException {
+        try (CsvRecordReader reader = new CsvRecordReader(write("0123456789,0123456789\n"), 8)) {
+            reader.next();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for DegradationReport against its own stand-in server
+ */
+public class DegradationReportTest {
+    /**
+     * Test the baseline comes first, a delay raises the latencies, and a
+     * reset or a truncated answer fails every request while its time to
+     * failure is still measured
+     *
+     * @throws Exception if a run failed
+     */
+    @Test
+    public void testProfiles() throws Exception {
+        List<DegradationReport.Row> rows = new DegradationReport.Builder(new VaccineApiClient.Builder())
+                .requestsPerSecond(100)
+                .duration(500, TimeUnit.MILLISECONDS)
+                .mix(1, 0, 0)
+                .profile("delay", FaultInjector.parse("* delay 100% 50ms"))
+                .profile("reset", FaultInjector.parse("* reset 100%"))
+                .profile("truncate", FaultInjector.parse("* truncate 100%"))
+                .build()
+                .run();
+
+        assertEquals(4, rows.size());
+        DegradationReport.Row baseline = rows.get(0);
+        assertEquals("baseline", baseline.profile());
+        assertEquals(0, baseline.errorRate(), 0);
+        assertTrue(baseline.goodput() > 0);
+
+        DegradationReport.Row delay = rows.get(1);
+        assertEquals("delay", delay.profile());
+        assertEquals(0, delay.errorRate(), 0);
+        assertTrue(delay.latencyMillis(50) >= 50);
+        assertTrue(delay.latencyMillis(50) > baseline.latencyMillis(50));
+
+        DegradationReport.Row reset = rows.get(2);
+        assertEquals(1, reset.errorRate(), 0);
+        assertEquals(0, reset.goodput(), 0);
+        assertEquals(reset.report().errorCount(), reset.report().latencies(LoadGenerator.REGISTER).getTotalCount());
+        assertTrue(reset.latencyMillis(50) > 0);
+
+        DegradationReport.Row truncate = rows.get(3);
+        assertEquals(1, truncate.errorRate(), 0);
+        assertEquals(0, truncate.goodput(), 0);
+        assertEquals(truncate.report().errorCount(),
+                truncate.report().latencies(LoadGenerator.REGISTER).getTotalCount());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DegradationReport.print(rows, new PrintStream(out, true, StandardCharsets.UTF_8));
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(5, lines.length);
+        assertThat(lines[1], containsString("baseline"));
+        assertThat(lines[2], containsString("delay"));
+        assertThat(lines[3], containsString("100.00%"));
+    }
+}
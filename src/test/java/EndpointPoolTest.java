@@ -0,0 +1,212 @@
+import okhttp3.HttpUrl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for EndpointPool spreading a client over three local stand-in servers
+ */
+public class EndpointPoolTest {
+    private final List<StandInServer> servers = new ArrayList<>();
+    private EndpointPool pool;
+    private VaccineApiClient api;
+
+    @Before
+    public void setUp() throws IOException {
+        List<HttpUrl> urls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            StandInServer server = new StandInServer(new StandInApi(), 0);
+            servers.add(server);
+            urls.add(server.url());
+        }
+        pool = new EndpointPool.Builder(urls)
+                .ejectionThreshold(3)
+                .ejectionTime(1, 10, TimeUnit.MINUTES)
+                .build();
+        api = new VaccineApiClient.Builder()
+                .endpoints(pool)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        api.close();
+        pool.close();
+        servers.forEach(StandInServer::close);
+    }
+
+    private static String citizenId(int i) {
+        return RegistrationValidator.withCheckDigit(110200331000L + i);
+    }
+
+    private StandInServer serverOf(String citizenId) {
+        HttpUrl node = pool.route(citizenId);
+        return servers.stream().filter(server -> server.url().equals(node)).findFirst().get();
+    }
+
+    /**
+     * Test citizens are spread over every node, and only the citizens of an
+     * unavailable node move
+     */
+    @Test
+    public void testConsistentRouting() {
+        Map<HttpUrl, Integer> counts = new HashMap<>();
+        Map<String, HttpUrl> routes = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            HttpUrl node = pool.route(citizenId(i));
+            assertEquals(node, pool.route(citizenId(i)));
+            counts.merge(node, 1, Integer::sum);
+            routes.put(citizenId(i), node);
+        }
+        assertEquals(3, counts.size());
+        counts.values().forEach(count -> assertTrue(String.valueOf(count), count > 700 && count < 1300));
+
+        HttpUrl lost = servers.get(1).url();
+        servers.get(1).faults(new FaultInjector.Builder()
+                .fault("*", FaultInjector.Fault.SERVER_ERROR, 100)
+                .build());
+        pool.checkHealth(api.httpClient());
+        assertTrue(pool.isAvailable(lost));
+        pool.checkHealth(api.httpClient());
+        assertFalse(pool.isAvailable(lost));
+        for (Map.Entry<String, HttpUrl> route : routes.entrySet()) {
+            HttpUrl node = pool.route(route.getKey());
+            assertNotEquals(lost, node);
+            if (!route.getValue().equals(lost)) {
+                assertEquals(route.getValue(), node);
+            }
+        }
+
+        servers.get(1).faults(null);
+        pool.checkHealth(api.httpClient());
+        pool.checkHealth(api.httpClient());
+        assertTrue(pool.isAvailable(lost));
+        routes.forEach((citizenId, node) -> assertEquals(node, pool.route(citizenId)));
+    }
+
+    /**
+     * Test registrations, lookups and deletions of a citizen all land on its node
+     *
+     * @throws IOException if a request failed
+     */
+    @Test
+    public void testCallsFollowTheCitizen() throws IOException {
+        for (int i = 0; i < 30; i++) {
+            api.register(TestCitizens.citizen(citizenId(i)));
+        }
+        int total = 0;
+        for (StandInServer server : servers) {
+            assertTrue(server.api().registrationCount() > 0);
+            total += server.api().registrationCount();
+        }
+        assertEquals(30, total);
+        for (int i = 0; i < 30; i++) {
+            assertEquals(citizenId(i), api.getUser(citizenId(i)).getCitizenId());
+            assertTrue(api.isUserExisted(citizenId(i)));
+        }
+        StandInServer server = serverOf(citizenId(0));
+        int before = server.api().registrationCount();
+        api.deleteUser(citizenId(0));
+        assertEquals(before - 1, server.api().registrationCount());
+    }
+
+    /**
+     * Test a node failing calls in a row is ejected, and no more than one
+     * of the three nodes is ejected at once
+     *
+     * @throws IOException if the stand-in failed
+     */
+    @Test
+    public void testOutlierEjection() throws IOException {
+        String citizenId = citizenId(0);
+        StandInServer failing = serverOf(citizenId);
+        failing.faults(new FaultInjector.Builder()
+                .fault("*", FaultInjector.Fault.SERVER_ERROR, 100)
+                .build());
+        for (int i = 0; i < 3; i++) {
+            try {
+                api.register(TestCitizens.citizen(citizenId));
+                fail("registered on a failing node");
+            } catch (VaccineApiException e) {
+                assertEquals(500, e.code());
+            }
+        }
+        assertFalse(pool.isAvailable(failing.url()));
+        assertTrue(api.register(TestCitizens.citizen(citizenId)).isRegistrationSuccessful());
+        assertEquals(0, failing.api().registrationCount());
+
+        StandInServer other = serverOf(citizenId);
+        other.faults(failing.faults());
+        for (int i = 0; i < 5; i++) {
+            try {
+                api.getUser(citizenId);
+                fail("looked up on a failing node");
+            } catch (VaccineApiException e) {
+                assertEquals(500, e.code());
+            }
+        }
+        assertTrue(pool.isAvailable(other.url()));
+    }
+
+    /**
+     * Test passing health checks do not reset the ejection backoff, so a
+     * node failing again right after its ejection is ejected for longer
+     *
+     * @throws Exception if the stand-in failed
+     */
+    @Test
+    public void testEjectionBackoff() throws Exception {
+        List<HttpUrl> urls = new ArrayList<>();
+        servers.forEach(server -> urls.add(server.url()));
+        try (EndpointPool backoff = new EndpointPool.Builder(urls)
+                .ejectionThreshold(1)
+                .ejectionTime(300, 10_000, TimeUnit.MILLISECONDS)
+                .build();
+             VaccineApiClient client = new VaccineApiClient.Builder().endpoints(backoff).build()) {
+            String citizenId = citizenId(1);
+            HttpUrl node = backoff.route(citizenId);
+            StandInServer failing = servers.stream().filter(server -> server.url().equals(node)).findFirst().get();
+            failing.faults(new FaultInjector.Builder()
+                    .fault("registration", FaultInjector.Fault.SERVER_ERROR, 100)
+                    .build());
+            try {
+                client.register(TestCitizens.citizen(citizenId));
+                fail("registered on a failing node");
+            } catch (VaccineApiException e) {
+                assertEquals(500, e.code());
+            }
+            assertFalse(backoff.isAvailable(node));
+            Thread.sleep(350);
+            assertTrue(backoff.isAvailable(node));
+            backoff.checkHealth(client.httpClient());
+            backoff.checkHealth(client.httpClient());
+
+            try {
+                client.register(TestCitizens.citizen(citizenId));
+                fail("registered on a failing node");
+            } catch (VaccineApiException e) {
+                assertEquals(500, e.code());
+            }
+            Thread.sleep(350);
+            // ejected for twice the base time
+            assertFalse(backoff.isAvailable(node));
+        }
+    }
+
+    /**
+     * Test the base url cannot be set once the endpoints decide it
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testBaseUrlAfterEndpoints() {
+        new VaccineApiClient.Builder().endpoints(pool).baseUrl(servers.get(1).url());
+    }
+}
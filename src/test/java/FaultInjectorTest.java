@@ -0,0 +1,125 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for FaultInjector, alone and injecting into a local stand-in server
+ */
+public class FaultInjectorTest extends StandInTestCase {
+    private static Citizen citizen() {
+        return citizen(RegistrationValidator.withCheckDigit(110200330000L));
+    }
+
+    /**
+     * Test a profile written as text reads back the same
+     */
+    @Test
+    public void testParse() {
+        FaultInjector faults = FaultInjector.parse(
+                "registration delay 100% 20ms exponential\n * reset 2.5%; reservations truncate 5%\n");
+        assertEquals("registration delay 100% 20ms exponential; * reset 2.5%; reservations truncate 5%",
+                faults.toString());
+        assertEquals(faults.toString(), FaultInjector.parse(faults.toString()).toString());
+    }
+
+    /**
+     * Test malformed profiles and faults adding up to more than 100% are refused
+     */
+    @Test
+    public void testInvalidProfiles() {
+        for (String profile : new String[]{"registration reset", "registration reset 5", "registration explode 5%",
+                "registration delay 5%", "registration reset 60%; * server-error 50%"}) {
+            try {
+                FaultInjector.parse(profile);
+                fail("accepted " + profile);
+            } catch (IllegalArgumentException expected) {
+                // refused
+            }
+        }
+    }
+
+    /**
+     * Test faults hit about their share of the requests of their route only
+     */
+    @Test
+    public void testPercentages() {
+        FaultInjector faults = new FaultInjector.Builder()
+                .fault("registration", FaultInjector.Fault.SERVER_ERROR, 20)
+                .fault("registration", FaultInjector.Fault.RESET, 10)
+                .build();
+        int serverErrors = 0;
+        int resets = 0;
+        for (int i = 0; i < 10000; i++) {
+            FaultInjector.Fault fault = faults.decide("registration").fault();
+            if (fault == FaultInjector.Fault.SERVER_ERROR) {
+                serverErrors++;
+            } else if (fault == FaultInjector.Fault.RESET) {
+                resets++;
+            }
+            assertNull(faults.decide("reservations").fault());
+        }
+        assertTrue(String.valueOf(serverErrors), serverErrors > 1700 && serverErrors < 2300);
+        assertTrue(String.valueOf(resets), resets > 800 && resets < 1200);
+        assertEquals(serverErrors, faults.injectedCount(FaultInjector.Fault.SERVER_ERROR));
+    }
+
+    /**
+     * Test the 400 page of the public deployment is answered without registering
+     *
+     * @throws IOException if the request failed
+     */
+    @Test
+    public void testBadRequest() throws IOException {
+        server.faults(new FaultInjector.Builder()
+                .fault("registration", FaultInjector.Fault.BAD_REQUEST, 100)
+                .build());
+        try {
+            api.register(citizen());
+            fail("registered despite the fault");
+        } catch (VaccineApiException e) {
+            assertEquals(400, e.code());
+        }
+        assertEquals(0, server.api().registrationCount());
+    }
+
+    /**
+     * Test reset connections and truncated bodies surface as I/O errors
+     *
+     * @throws IOException if the stand-in failed
+     */
+    @Test
+    public void testBrokenConnections() throws IOException {
+        server.api().addReservation(citizen().getCitizenId(), "OGYHSite", "Pfizer");
+        for (FaultInjector.Fault fault : new FaultInjector.Fault[]{
+                FaultInjector.Fault.RESET, FaultInjector.Fault.TRUNCATE}) {
+            server.faults(new FaultInjector.Builder().fault("reservations", fault, 100).build());
+            try {
+                api.getReservations();
+                fail("no error with " + fault);
+            } catch (IOException expected) {
+                // the connection was closed early
+            }
+        }
+        server.faults(null);
+        assertEquals(1, api.getReservations().size());
+    }
+
+    /**
+     * Test a fixed delay holds the answer back
+     *
+     * @throws IOException if the request failed
+     */
+    @Test
+    public void testDelay() throws IOException {
+        server.faults(new FaultInjector.Builder()
+                .delay("reservations", 100, 200, TimeUnit.MILLISECONDS, FaultInjector.Distribution.FIXED)
+                .build());
+        long start = System.nanoTime();
+        api.getReservations();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(1, server.faults().injectedCount(FaultInjector.Fault.DELAY));
+    }
+}
@@ -0,0 +1,116 @@
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for LoadReport, and for LoadGenerator against a local stand-in
+ * server
+ */
+public class LoadReportTest extends StandInTestCase {
+    /**
+     * Test counts add up over every operation and status, and a merged
+     * histogram only holds the latencies of its operation
+     */
+    @Test
+    public void testCounts() {
+        LoadReport report = new LoadReport();
+        for (int i = 1; i <= 100; i++) {
+            report.record(LoadGenerator.REGISTER, 201, TimeUnit.MILLISECONDS.toNanos(i));
+            report.success();
+        }
+        report.record(LoadGenerator.REGISTER, 200, TimeUnit.MILLISECONDS.toNanos(5));
+        report.error(LoadGenerator.REGISTER, "registration failed: this person already registered");
+        report.recordFailure(LoadGenerator.LOOKUP, TimeUnit.MILLISECONDS.toNanos(30));
+        report.error(LoadGenerator.LOOKUP, "SocketTimeoutException");
+        report.error(LoadGenerator.LOOKUP, "SocketTimeoutException");
+
+        assertEquals(102, report.count());
+        assertEquals(100, report.successCount());
+        assertEquals(3, report.errorCount());
+        Histogram register = report.latencies(LoadGenerator.REGISTER);
+        assertEquals(101, register.getTotalCount());
+        assertEquals(1, report.latencies(LoadGenerator.LOOKUP).getTotalCount());
+        assertEquals(0, report.latencies(LoadGenerator.DELETE).getTotalCount());
+    }
+
+    /**
+     * Test the printed percentiles are in milliseconds, one line per
+     * operation and status in name order, followed by the errors
+     */
+    @Test
+    public void testPrint() {
+        LoadReport report = new LoadReport();
+        for (int i = 1; i <= 1000; i++) {
+            report.record(LoadGenerator.LOOKUP, 200, TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        report.record(LoadGenerator.DELETE, 404, TimeUnit.MICROSECONDS.toNanos(1500));
+        report.error(LoadGenerator.DELETE, "HTTP 404 Not Found");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        report.print(new PrintStream(out, true, StandardCharsets.UTF_8));
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+
+        assertEquals(6, lines.length);
+        assertArrayEquals(new String[]{"operation", "count", "p50", "p99", "p99.9", "max"},
+                lines[0].trim().split("\\s+"));
+        String[] delete = lines[1].trim().split("\\s+");
+        assertEquals("delete", delete[0]);
+        assertEquals("404", delete[1]);
+        assertEquals("1", delete[2]);
+        assertEquals(1.5, Double.parseDouble(delete[3]), 0.01);
+        assertEquals(1.5, Double.parseDouble(delete[6]), 0.01);
+
+        String[] lookup = lines[2].trim().split("\\s+");
+        assertEquals("lookup", lookup[0]);
+        assertEquals("1000", lookup[2]);
+        // 3 significant digits, so each value is within 0.1%
+        assertEquals(500, Double.parseDouble(lookup[3]), 0.5);
+        assertEquals(990, Double.parseDouble(lookup[4]), 1);
+        assertEquals(999, Double.parseDouble(lookup[5]), 1);
+        assertEquals(1000, Double.parseDouble(lookup[6]), 1);
+
+        assertEquals("", lines[3]);
+        assertEquals("errors:", lines[4]);
+        assertEquals("1  delete: HTTP 404 Not Found", lines[5].trim());
+    }
+
+    /**
+     * Test a run fires the expected number of requests in the requested
+     * mix, each one counted once as a success or an error
+     *
+     * @throws Exception if the run failed
+     */
+    @Test
+    public void testRun() throws Exception {
+        LoadReport report = new LoadGenerator.Builder(api)
+                .requestsPerSecond(200)
+                .duration(500, TimeUnit.MILLISECONDS)
+                .mix(1, 0, 0)
+                .build()
+                .run();
+
+        assertEquals(100, report.count());
+        assertEquals(100, report.successCount() + report.errorCount());
+        assertEquals(100, report.latencies(LoadGenerator.REGISTER).getTotalCount());
+        assertEquals(report.successCount(), server.api().registrationCount());
+        assertEquals(0, report.latencies(LoadGenerator.LOOKUP).getTotalCount());
+    }
+
+    /**
+     * Test rates that are not positive, or too high to space requests
+     * apart, are rejected
+     */
+    @Test
+    public void testInvalidRate() {
+        for (double rate : new double[]{0, -1, Double.NaN, Double.POSITIVE_INFINITY, 2e9}) {
+            assertThrows(IllegalArgumentException.class, () -> new LoadGenerator.Builder(api).requestsPerSecond(rate));
+        }
+        new LoadGenerator.Builder(api).requestsPerSecond(1e9);
+    }
+}
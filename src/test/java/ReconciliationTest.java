@@ -0,0 +1,103 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for Reconciliation against a local stand-in server
+ */
+public class ReconciliationTest extends StandInTestCase {
+    private static Citizen citizen(String citizenId, String occupation) {
+        return TestCitizens.builder(citizenId).occupation(occupation).build();
+    }
+
+    private static String citizenId(int i) {
+        return RegistrationValidator.withCheckDigit(110200328000L + i);
+    }
+
+    /**
+     * Test every kind of difference is reported once, and nothing else
+     *
+     * @throws Exception if the reconciliation failed
+     */
+    @Test
+    public void testDifferences() throws Exception {
+        CitizenTable table = new CitizenTable();
+        for (int i = 0; i < 50; i++) {
+            table.add(citizen(citizenId(i), "Student"), "[]");
+            if (i != 7) {
+                api.register(citizen(citizenId(i), i == 11 ? "Teacher" : "Student"));
+            }
+        }
+        standIn.setVaccineTaken(citizenId(23), "[\"Pfizer\"]");
+        api.register(citizen(citizenId(99), "Student"));
+        standIn.addReservation(citizenId(99), "OGYHSite", "Pfizer");
+        standIn.addReservation(citizenId(3), "OGYHSite", "Pfizer");
+
+        List<Reconciliation.Difference> differences = new CopyOnWriteArrayList<>();
+        Reconciliation.Report report = new Reconciliation.Builder(api, table)
+                .maxInFlight(8)
+                .build()
+                .run(differences::add);
+
+        assertEquals(51, report.checked());
+        assertEquals(0, report.failed());
+        assertEquals(47, report.matched());
+        assertEquals(1, report.count(Reconciliation.Kind.MISSING));
+        assertEquals(1, report.count(Reconciliation.Kind.EXTRA));
+        assertEquals(1, report.count(Reconciliation.Kind.MISMATCH));
+        assertEquals(1, report.count(Reconciliation.Kind.VACCINE_CHANGED));
+        assertEquals(4, differences.size());
+        for (Reconciliation.Difference difference : differences) {
+            switch (difference.kind()) {
+                case MISSING:
+                    assertEquals(citizenId(7), difference.citizenId());
+                    break;
+                case EXTRA:
+                    assertEquals(citizenId(99), difference.citizenId());
+                    break;
+                case MISMATCH:
+                    assertEquals(citizenId(11), difference.citizenId());
+                    assertEquals("occupation", difference.field());
+                    assertEquals("Student", difference.local());
+                    assertEquals("Teacher", difference.server());
+                    break;
+                default:
+                    assertEquals(citizenId(23), difference.citizenId());
+                    assertEquals("[\"Pfizer\"]", difference.server());
+            }
+        }
+    }
+
+    /**
+     * Test lookups failing with a server error are counted as failed, not
+     * reported as missing citizens
+     *
+     * @throws Exception if the reconciliation failed
+     */
+    @Test
+    public void testServerErrorIsNotMissing() throws Exception {
+        CitizenTable table = new CitizenTable();
+        for (int i = 0; i < 10; i++) {
+            table.add(citizen(citizenId(i), "Student"), "[]");
+            api.register(citizen(citizenId(i), "Student"));
+        }
+        server.faults(new FaultInjector.Builder()
+                .fault("registration", FaultInjector.Fault.SERVER_ERROR, 100)
+                .build());
+
+        List<Reconciliation.Difference> differences = new CopyOnWriteArrayList<>();
+        Reconciliation.Report report = new Reconciliation.Builder(api, table)
+                .findExtras(false)
+                .build()
+                .run(differences::add);
+
+        assertEquals(10, report.checked());
+        assertEquals(10, report.failed());
+        assertEquals(0, report.matched());
+        assertEquals(0, report.count(Reconciliation.Kind.MISSING));
+        assertTrue(differences.isEmpty());
+    }
+}
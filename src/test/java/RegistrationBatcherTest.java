@@ -0,0 +1,180 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for batched registrations against a local stand-in server
+ */
+public class RegistrationBatcherTest extends StandInTestCase {
+    private final AtomicInteger batchRequests = new AtomicInteger();
+    private final AtomicInteger singleRequests = new AtomicInteger();
+
+    private void start(boolean batches, boolean validateRequests) throws IOException {
+        start(new StandInApi() {
+            @Override
+            public Reply handle(String method, String path, Map<String, String> params,
+                                Map<String, String> headers) {
+                singleRequests.incrementAndGet();
+                return super.handle(method, path, params, headers);
+            }
+
+            @Override
+            public Reply handleBatch(String method, String path, List<Map<String, String>> records) {
+                batchRequests.incrementAndGet();
+                return batches ? super.handleBatch(method, path, records) : new Reply(404, HTML, "Not Found");
+            }
+        }, new VaccineApiClient.Builder().validateRequests(validateRequests));
+    }
+
+    private static String citizenId(int i) {
+        return RegistrationValidator.withCheckDigit(110200334000L + i);
+    }
+
+    private static final String INVALID_ID = "12345";
+
+    private static List<Citizen> mixed() {
+        return Arrays.asList(
+                citizen(citizenId(0)),
+                citizen(citizenId(1)),
+                citizen(citizenId(0)),
+                citizen(INVALID_ID),
+                new Citizen.Builder().citizenId(citizenId(2)).name("Tatpol").build(),
+                citizen(citizenId(3)));
+    }
+
+    private static void assertMixed(List<Citizen> citizens, List<RegistrationResult> results) {
+        assertEquals(citizens.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertSame(citizens.get(i), results.get(i).getCitizen());
+        }
+        assertTrue(results.get(0).isRegistrationSuccessful());
+        assertTrue(results.get(1).isRegistrationSuccessful());
+        assertSame(RegistrationOutcome.ALREADY_REGISTERED, results.get(2).getResponse().outcome());
+        assertSame(RegistrationOutcome.INVALID_CITIZEN_ID, results.get(3).getResponse().outcome());
+        assertEquals(400, ((VaccineApiException) results.get(4).getError()).code());
+        assertTrue(results.get(5).isRegistrationSuccessful());
+    }
+
+    /**
+     * Test one request registers a batch and its feedbacks are split back
+     * per record, in order, a missing field failing its record only
+     *
+     * @throws IOException if a lookup failed
+     */
+    @Test
+    public void testBatch() throws IOException {
+        start(true, false);
+        List<Citizen> citizens = mixed();
+        assertMixed(citizens, api.registerBatchAsync(citizens).join());
+        assertEquals(1, batchRequests.get());
+        assertEquals(0, singleRequests.get());
+        assertEquals(3, standIn.registrationCount());
+        assertEquals("Tatpol", api.getUser(citizenId(3)).getName());
+    }
+
+    /**
+     * Test a server without the batch endpoint gets individual
+     * registrations, and is not asked for batches again
+     */
+    @Test
+    public void testFallback() throws IOException {
+        start(false, false);
+        List<Citizen> citizens = mixed();
+        assertMixed(citizens, api.registerBatchAsync(citizens).join());
+        assertFalse(api.isBatchSupported());
+        assertEquals(6, singleRequests.get());
+
+        List<RegistrationResult> results = api.registerBatchAsync(
+                Arrays.asList(citizen(citizenId(4)), citizen(citizenId(5)))).join();
+        assertTrue(results.get(0).isRegistrationSuccessful());
+        assertTrue(results.get(1).isRegistrationSuccessful());
+        assertEquals(1, batchRequests.get());
+        assertEquals(8, singleRequests.get());
+        assertEquals(5, standIn.registrationCount());
+    }
+
+    /**
+     * Test records failing validation never reach the server
+     */
+    @Test
+    public void testLocalRejections() throws IOException {
+        start(true, true);
+        List<RegistrationResult> results = api.registerBatchAsync(
+                Arrays.asList(citizen(INVALID_ID), new Citizen.Builder().citizenId(citizenId(6)).build()))
+                .join();
+        assertSame(RegistrationOutcome.INVALID_CITIZEN_ID, results.get(0).getResponse().outcome());
+        assertEquals(400, ((VaccineApiException) results.get(1).getError()).code());
+        assertEquals(0, batchRequests.get());
+    }
+
+    /**
+     * Test records are sent in full batches, the remainder once the time
+     * window elapses, each result reaching its record
+     */
+    @Test
+    public void testBatcher() throws Exception {
+        start(true, true);
+        List<RegistrationResult> results = new CopyOnWriteArrayList<>();
+        try (RegistrationBatcher batcher = new RegistrationBatcher.Builder(api)
+                .maxBatchSize(4)
+                .maxDelay(50, TimeUnit.MILLISECONDS)
+                .build()) {
+            List<Citizen> citizens = new ArrayList<>();
+            for (int i = 10; i < 20; i++) {
+                citizens.add(citizen(citizenId(i)));
+            }
+            batcher.registerAll(citizens.subList(0, 8).iterator(), results::add).join();
+            assertEquals(2, batcher.batchCount());
+
+            RegistrationResult last = batcher.register(citizens.get(8)).get(5, TimeUnit.SECONDS);
+            assertSame(citizens.get(8), last.getCitizen());
+            assertTrue(last.isRegistrationSuccessful());
+            assertEquals(3, batcher.batchCount());
+        }
+        assertEquals(8, results.size());
+        for (RegistrationResult result : results) {
+            assertTrue(result.isRegistrationSuccessful());
+        }
+        assertEquals(3, batchRequests.get());
+        assertEquals(9, standIn.registrationCount());
+    }
+
+    /**
+     * Test a failing sink fails the future of registerAll and stops the
+     * submission of further records
+     */
+    @Test
+    public void testBatcherSinkFailure() throws Exception {
+        start(true, true);
+        IllegalStateException failure = new IllegalStateException("sink failed");
+        try (RegistrationBatcher batcher = new RegistrationBatcher.Builder(api)
+                .maxBatchSize(4)
+                .maxInFlight(1)
+                .build()) {
+            List<Citizen> citizens = new ArrayList<>();
+            for (int i = 20; i < 60; i++) {
+                citizens.add(citizen(citizenId(i)));
+            }
+            try {
+                batcher.registerAll(citizens.iterator(), result -> {
+                    throw failure;
+                }).get(10, TimeUnit.SECONDS);
+                fail("sink failure not reported");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        // the batch that failed the sink, and the one filling up meanwhile
+        assertTrue(standIn.registrationCount() <= 8);
+    }
+}
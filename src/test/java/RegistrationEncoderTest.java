@@ -0,0 +1,84 @@
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okio.Buffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for RegistrationEncoder
+ */
+public class RegistrationEncoderTest extends StandInTestCase {
+    private static final HttpUrl BASE_URL = HttpUrl.get("https://example.com/api");
+
+    private static Citizen citizen(String citizenId, String address) {
+        return TestCitizens.builder(citizenId).address(address).build();
+    }
+
+    /**
+     * Test the query url decodes to the same parameters as UserRegistrationUrl
+     */
+    @Test
+    public void testQueryMatchesUserRegistrationUrl() {
+        Citizen citizen = citizen("1102003283576", "122/167 \u0e0b\u0e2d\u0e22 5 & \"+\" \ud83d\ude37");
+        HttpUrl expected = new UserRegistrationUrl.Builder(BASE_URL).citizen(citizen).build();
+        HttpUrl actual = new RegistrationEncoder(BASE_URL).queryUrl(citizen);
+        assertEquals(expected.encodedPath(), actual.encodedPath());
+        assertEquals(expected.queryParameterNames(), actual.queryParameterNames());
+        for (String name : expected.queryParameterNames()) {
+            assertEquals(expected.queryParameter(name), actual.queryParameter(name));
+        }
+    }
+
+    /**
+     * Test the bodies of the form and JSON modes
+     *
+     * @throws IOException if a body could not be read
+     */
+    @Test
+    public void testBodies() throws IOException {
+        RegistrationEncoder encoder = new RegistrationEncoder(BASE_URL);
+        Citizen citizen = new Citizen.Builder()
+                .citizenId("1102003283576")
+                .name("Ta tpol")
+                .isRisk(true)
+                .address("a\"b\\c\n")
+                .build();
+        assertEquals("citizen_id=1102003283576&name=Ta%20tpol&is_risk=true&address=a%22b%5Cc%0A",
+                new String(encoder.formBody(citizen), StandardCharsets.US_ASCII));
+        assertEquals("{\"citizen_id\":\"1102003283576\",\"name\":\"Ta tpol\",\"is_risk\":true,"
+                        + "\"address\":\"a\\\"b\\\\c\\u000A\"}",
+                new String(encoder.jsonBody(citizen), StandardCharsets.UTF_8));
+
+        Request request = encoder.request(citizen, RegistrationEncoder.Mode.FORM);
+        assertEquals("https://example.com/api/registration", request.url().toString());
+        assertEquals(RegistrationEncoder.FORM, request.body().contentType());
+        Buffer body = new Buffer();
+        request.body().writeTo(body);
+        assertTrue(body.readUtf8().startsWith("citizen_id="));
+    }
+
+    /**
+     * Test the stand-in server accepts a registration in every mode
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @Test
+    public void testEveryModeRegisters() throws IOException {
+        RegistrationEncoder.Mode[] modes = RegistrationEncoder.Mode.values();
+        for (int i = 0; i < modes.length; i++) {
+            String citizenId = RegistrationValidator.withCheckDigit(110200328357L + i);
+            try (VaccineApiClient api = new VaccineApiClient.Builder()
+                    .baseUrl(server.url())
+                    .registrationMode(modes[i])
+                    .build()) {
+                Citizen citizen = citizen(citizenId, "122/167 \u0e0b\u0e2d\u0e22 5");
+                assertTrue(modes[i].name(), api.register(citizen).isRegistrationSuccessful());
+                assertEquals(citizen.getAddress(), api.getUser(citizenId).getAddress());
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for OutboxLog and for RegistrationOutbox against a local
+ * stand-in server
+ */
+public class RegistrationOutboxTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String citizenId(int i) {
+        return RegistrationValidator.withCheckDigit(110200335000L + i);
+    }
+
+    private Path directory() {
+        return folder.getRoot().toPath().resolve("outbox");
+    }
+
+    private static long fileCount(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    /**
+     * Test operations are read back with every field, and a reopened log
+     * only replays those not acknowledged
+     *
+     * @throws Exception if the log failed
+     */
+    @Test
+    public void testReplay() throws Exception {
+        Citizen partial = new Citizen.Builder().citizenId(citizenId(1)).name("\u0e17\u0e31\u0e15").build();
+        try (OutboxLog log = new OutboxLog(directory(), 1 << 20)) {
+            assertEquals(0, log.append(OutboxLog.REGISTER, TestCitizens.citizen(citizenId(0))));
+            assertEquals(1, log.append(OutboxLog.REGISTER, partial));
+            assertEquals(2, log.append(OutboxLog.DELETE, TestCitizens.citizen(citizenId(0))));
+            assertEquals(0, log.take(0, TimeUnit.SECONDS).sequence());
+            assertEquals(1, log.take(0, TimeUnit.SECONDS).sequence());
+            log.ack(0);
+            assertEquals(2, log.pendingCount());
+        }
+        try (OutboxLog log = new OutboxLog(directory(), 1 << 20)) {
+            assertEquals(2, log.pendingCount());
+            OutboxLog.Entry entry = log.take(0, TimeUnit.SECONDS);
+            assertEquals(1, entry.sequence());
+            assertEquals(OutboxLog.REGISTER, entry.kind());
+            assertEquals("\u0e17\u0e31\u0e15", entry.citizen().getName());
+            assertNull(entry.citizen().getSurname());
+            assertNull(entry.citizen().getIsRisk());
+            assertTrue(entry.sameOperation(new OutboxLog.Entry(7, OutboxLog.REGISTER, citizenId(1), partial)));
+
+            entry = log.take(0, TimeUnit.SECONDS);
+            assertEquals(2, entry.sequence());
+            assertEquals(OutboxLog.DELETE, entry.kind());
+            assertEquals(citizenId(0), entry.citizenId());
+            assertNull(entry.citizen());
+            assertNull(log.take(10, TimeUnit.MILLISECONDS));
+
+            assertEquals(3, log.append(OutboxLog.REGISTER, TestCitizens.citizen(citizenId(2))));
+            assertEquals(citizenId(2), log.take(0, TimeUnit.SECONDS).citizen().getCitizenId());
+        }
+    }
+
+    /**
+     * Test a torn entry at the end of the log is discarded
+     *
+     * @throws Exception if the log failed
+     */
+    @Test
+    public void testTornTail() throws Exception {
+        try (OutboxLog log = new OutboxLog(directory(), 1 << 20)) {
+            log.append(OutboxLog.REGISTER, TestCitizens.citizen(citizenId(0)));
+            log.append(OutboxLog.REGISTER, TestCitizens.citizen(citizenId(1)));
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory())) {
+            segment = files.findFirst().get();
+        }
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // a second entry cut short, then a garbled one
+            channel.truncate(size - 3);
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2, 3}), size - 3);
+        }
+        try (OutboxLog log = new OutboxLog(directory(), 1 << 20)) {
+            assertEquals(1, log.pendingCount());
+            assertEquals(citizenId(0), log.take(0, TimeUnit.SECONDS).citizenId());
+            assertNull(log.take(0, TimeUnit.SECONDS));
+            assertEquals(1, log.append(OutboxLog.REGISTER, TestCitizens.citizen(citizenId(1))));
+        }
+        try (OutboxLog log = new OutboxLog(directory(), 1 << 20)) {
+            assertEquals(2, log.pendingCount());
+        }
+    }
+
+    /**
+     * Test acknowledged segments are deleted as the reader leaves them,
+     * and a drained log starts over empty
+     *
+     * @throws Exception if the log failed
+     */
+    @Test
+    public void testCompaction() throws Exception {
+        try (OutboxLog log = new OutboxLog(directory(), 512)) {
+            for (int i = 0; i < 50; i++) {
+                log.append(OutboxLog.REGISTER, TestCitizens.citizen(citizenId(i)));
+            }
+            int segments = log.segmentCount();
+            assertTrue(segments > 5);
+            assertEquals(segments, fileCount(directory()));
+            for (int i = 0; i < 25; i++) {
+                log.ack(log.take(0, TimeUnit.SECONDS).sequence());
+            }
+            assertTrue(log.segmentCount() < segments);
+            assertTrue(log.segmentCount() > 1);
+            assertEquals(log.segmentCount(), fileCount(directory()));
+        }
+        try (OutboxLog log = new OutboxLog(directory(), 512)) {
+            assertEquals(25, log.pendingCount());
+            OutboxLog.Entry entry;
+            while ((entry = log.take(0, TimeUnit.SECONDS)) != null) {
+                log.ack(entry.sequence());
+            }
+            assertEquals(0, log.pendingCount());
+        }
+        try (OutboxLog log = new OutboxLog(directory(), 512)) {
+            assertEquals(1, log.segmentCount());
+            assertEquals(1, fileCount(directory()));
+            assertEquals(50, log.append(OutboxLog.REGISTER, TestCitizens.citizen(citizenId(0))));
+        }
+    }
+
+    /**
+     * Test operations enqueued while the server fails are delivered once it
+     * recovers, in order per citizen, with repeats dropped and refused
+     * ones settled
+     *
+     * @throws Exception if the outbox failed
+     */
+    @Test
+    public void testDrainAfterOutage() throws Exception {
+        try (StandInServer server = new StandInServer(new StandInApi(), 0);
+             VaccineApiClient api = new VaccineApiClient.Builder().baseUrl(server.url()).build();
+             RegistrationOutbox outbox = new RegistrationOutbox.Builder(directory())
+                     .retryDelay(10, 50, TimeUnit.MILLISECONDS)
+                     .build()) {
+            server.faults(new FaultInjector.Builder()
+                    .fault("*", FaultInjector.Fault.SERVER_ERROR, 100)
+                    .build());
+            outbox.start(api);
+            outbox.register(TestCitizens.citizen(citizenId(0)));
+            outbox.delete(citizenId(0));
+            outbox.register(TestCitizens.citizen(citizenId(1)));
+            outbox.register(TestCitizens.citizen(citizenId(1)));
+            outbox.register(TestCitizens.citizen("12345"));
+            outbox.delete(citizenId(2));
+            for (int i = 10; i < 20; i++) {
+                outbox.register(TestCitizens.citizen(citizenId(i)));
+            }
+            assertFalse(outbox.awaitDrained(300, TimeUnit.MILLISECONDS));
+            assertTrue(outbox.retryCount() > 0);
+
+            server.faults(null);
+            assertTrue(outbox.awaitDrained(10, TimeUnit.SECONDS));
+            // registered then deleted, in that order
+            assertFalse(api.isUserExisted(citizenId(0)));
+            assertTrue(api.isUserExisted(citizenId(1)));
+            assertEquals(11, server.api().registrationCount());
+            assertEquals(13, outbox.count(RegistrationOutbox.Outcome.DELIVERED));
+            // the repeated registration, and the deletion of a citizen never registered
+            assertEquals(2, outbox.count(RegistrationOutbox.Outcome.DUPLICATE));
+            assertEquals(1, outbox.count(RegistrationOutbox.Outcome.REJECTED));
+            assertNull(outbox.failure());
+        }
+    }
+
+    /**
+     * Test an operation applied before a crash but never acknowledged is
+     * settled as a duplicate on replay
+     *
+     * @throws Exception if the outbox failed
+     */
+    @Test
+    public void testReplayAfterCrash() throws Exception {
+        try (OutboxLog log = new OutboxLog(directory(), 1 << 20)) {
+            log.append(OutboxLog.REGISTER, TestCitizens.citizen(citizenId(30)));
+            log.append(OutboxLog.REGISTER, TestCitizens.citizen(citizenId(31)));
+        }
+        try (StandInServer server = new StandInServer(new StandInApi(), 0);
+             VaccineApiClient api = new VaccineApiClient.Builder().baseUrl(server.url()).build()) {
+            // sent before the crash
+            assertTrue(api.register(TestCitizens.citizen(citizenId(30))).isRegistrationSuccessful());
+            try (RegistrationOutbox outbox = new RegistrationOutbox.Builder(directory()).build()) {
+                assertEquals(2, outbox.pendingCount());
+                outbox.start(api);
+                assertTrue(outbox.awaitDrained(10, TimeUnit.SECONDS));
+                assertEquals(1, outbox.count(RegistrationOutbox.Outcome.DUPLICATE));
+                assertEquals(1, outbox.count(RegistrationOutbox.Outcome.DELIVERED));
+            }
+            assertEquals(2, server.api().registrationCount());
+        }
+        assertEquals(1, fileCount(directory()));
+    }
+
+    /**
+     * Test an operation answered with a body that cannot be decoded is
+     * retried a bounded number of times, then settled as rejected
+     *
+     * @throws Exception if the outbox failed
+     */
+    @Test
+    public void testUndecodableAnswer() throws Exception {
+        AtomicInteger posts = new AtomicInteger();
+        StandInApi garbling = new StandInApi() {
+            @Override
+            public Reply handle(String method, String path, Map<String, String> params,
+                                Map<String, String> headers) {
+                if (method.equals("POST")) {
+                    posts.incrementAndGet();
+                    return new Reply(201, JSON, "{\"feedback\": ");
+                }
+                return super.handle(method, path, params, headers);
+            }
+        };
+        try (StandInServer server = new StandInServer(garbling, 0);
+             VaccineApiClient api = new VaccineApiClient.Builder().baseUrl(server.url()).build();
+             RegistrationOutbox outbox = new RegistrationOutbox.Builder(directory())
+                     .retryDelay(1, 5, TimeUnit.MILLISECONDS)
+                     .decodeRetries(2)
+                     .build()) {
+            outbox.start(api);
+            outbox.register(TestCitizens.citizen(citizenId(40)));
+            assertTrue(outbox.awaitDrained(10, TimeUnit.SECONDS));
+            assertEquals(1, outbox.count(RegistrationOutbox.Outcome.REJECTED));
+            assertEquals(2, outbox.retryCount());
+            assertEquals(3, posts.get());
+        }
+    }
+
+    /**
+     * Test closing the outbox while operations are being retried leaves
+     * them in the log, to be replayed on reopen
+     *
+     * @throws Exception if the outbox failed
+     */
+    @Test
+    public void testCloseWhileRetrying() throws Exception {
+        try (StandInServer server = new StandInServer(new StandInApi(), 0);
+             VaccineApiClient api = new VaccineApiClient.Builder().baseUrl(server.url()).build()) {
+            server.faults(new FaultInjector.Builder()
+                    .fault("*", FaultInjector.Fault.SERVER_ERROR, 100)
+                    .build());
+            try (RegistrationOutbox outbox = new RegistrationOutbox.Builder(directory())
+                    .retryDelay(1, 1, TimeUnit.MILLISECONDS)
+                    .build()) {
+                outbox.start(api);
+                for (int i = 50; i < 60; i++) {
+                    outbox.register(TestCitizens.citizen(citizenId(i)));
+                }
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (outbox.retryCount() < 50 && System.nanoTime() < deadline) {
+                    Thread.sleep(1);
+                }
+                assertTrue(outbox.retryCount() >= 50);
+            }
+            try (RegistrationOutbox outbox = new RegistrationOutbox.Builder(directory()).build()) {
+                assertEquals(10, outbox.pendingCount());
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for client-side registration validation
+ */
+public class RegistrationValidatorTest {
+    private static Citizen.Builder citizen() {
+        return TestCitizens.builder("1102003283576");
+    }
+
+    /**
+     * Test citizen id format, and the checksum only when asked for
+     */
+    @Test
+    public void testCitizenId() {
+        assertTrue(RegistrationValidator.isValidCitizenId("1102003283576"));
+        assertTrue(RegistrationValidator.isValidCitizenId("1102003283573"));
+        assertFalse(RegistrationValidator.isValidCitizenId("110200328357"));
+        assertFalse(RegistrationValidator.isValidCitizenId("okafvsapk34pmb0zed"));
+        assertTrue(RegistrationValidator.hasValidCheckDigit("1102003283576"));
+        assertFalse(RegistrationValidator.hasValidCheckDigit("1102003283573"));
+        assertFalse(RegistrationValidator.hasValidCheckDigit("110200328357"));
+        assertEquals(RegistrationValidator.withCheckDigit(110200328357L), "1102003283576");
+    }
+
+    /**
+     * Test birth date format and calendar bounds
+     */
+    @Test
+    public void testBirthDate() {
+        assertTrue(RegistrationValidator.isValidBirthDate("2001/06/05"));
+        assertTrue(RegistrationValidator.isValidBirthDate("2000/02/29"));
+        assertFalse(RegistrationValidator.isValidBirthDate("1900/02/29"));
+        assertFalse(RegistrationValidator.isValidBirthDate("1996/30/03"));
+        assertFalse(RegistrationValidator.isValidBirthDate("2001-06-05"));
+        assertFalse(RegistrationValidator.isValidBirthDate("2001/6/5"));
+    }
+
+    /**
+     * Test violations are reported in the order the server checks them
+     */
+    @Test
+    public void testValidate() {
+        assertEquals(RegistrationValidator.validate(citizen().build()), RegistrationValidator.Violation.NONE);
+        assertEquals(RegistrationValidator.validate(citizen().address(null).build()),
+                RegistrationValidator.Violation.MISSING_FIELD);
+        assertEquals(RegistrationValidator.validate(citizen().citizenId("okafvsapk34pmb0zed").name("213432994").build()),
+                RegistrationValidator.Violation.INVALID_CITIZEN_ID);
+        assertEquals(RegistrationValidator.validate(citizen().name("213432994").build()),
+                RegistrationValidator.Violation.INVALID_NAME);
+        assertEquals(RegistrationValidator.validate(citizen().birthDate("1996/30/03").build()),
+                RegistrationValidator.Violation.INVALID_BIRTH_DATE);
+        assertEquals(RegistrationValidator.validate(citizen().citizenId("1102003283573").build()),
+                RegistrationValidator.Violation.NONE);
+        assertEquals(RegistrationValidator.validate(citizen().citizenId("1102003283573").build(), true),
+                RegistrationValidator.Violation.INVALID_CITIZEN_ID);
+    }
+
+    /**
+     * Test each violation resolves to the outcome of its own feedback
+     */
+    @Test
+    public void testViolationOutcomes() {
+        assertNull(RegistrationValidator.Violation.NONE.outcome());
+        for (RegistrationValidator.Violation violation : RegistrationValidator.Violation.values()) {
+            if (violation != RegistrationValidator.Violation.NONE) {
+                assertSame(violation.outcome(), RegistrationOutcome.of(violation.feedback()));
+            }
+        }
+        assertSame(RegistrationOutcome.BAD_REQUEST, RegistrationValidator.Violation.MISSING_FIELD.outcome());
+    }
+
+    /**
+     * Test the url builder validates the fields it was given
+     */
+    @Test
+    public void testUrlBuilderValidate() {
+        UserRegistrationUrl.Builder builder = new UserRegistrationUrl.Builder()
+                .citizenId("1102003283576")
+                .name("Tatpol");
+        assertEquals(builder.validate(), RegistrationValidator.Violation.MISSING_FIELD);
+        builder.surname("Samakpong")
+                .birthDate("2001/06/05")
+                .occupation("Student")
+                .phoneNumber("0970638897")
+                .isRisk(false)
+                .address("122/167");
+        assertEquals(builder.validate(), RegistrationValidator.Violation.NONE);
+    }
+
+    /**
+     * Test a record set is split into valid and invalid records
+     */
+    @Test
+    public void testValidateAll() {
+        List<Citizen> valid = new ArrayList<>();
+        List<RegistrationValidator.Violation> violations = new ArrayList<>();
+        int rejected = RegistrationValidator.validateAll(
+                List.of(citizen().build(), citizen().surname("232134").build(), citizen().isRisk(null).build()),
+                valid::add,
+                (citizen, violation) -> violations.add(violation));
+        assertEquals(rejected, 2);
+        assertEquals(valid.size(), 1);
+        assertEquals(violations, List.of(
+                RegistrationValidator.Violation.INVALID_NAME, RegistrationValidator.Violation.MISSING_FIELD));
+    }
+
+    /**
+     * Test bulk validation only checks the check digit on request
+     */
+    @Test
+    public void testValidateAllCheckDigit() {
+        List<Citizen> citizens = List.of(citizen().build(), citizen().citizenId("1102003283573").build());
+        List<Citizen> valid = new ArrayList<>();
+        assertEquals(RegistrationValidator.validateAll(citizens, valid::add, (citizen, violation) -> { }), 0);
+        assertEquals(valid.size(), 2);
+
+        List<RegistrationValidator.Violation> violations = new ArrayList<>();
+        assertEquals(RegistrationValidator.validateAll(citizens, citizen -> { },
+                (citizen, violation) -> violations.add(violation), true), 1);
+        assertEquals(violations, List.of(RegistrationValidator.Violation.INVALID_CITIZEN_ID));
+    }
+}
@@ -0,0 +1,68 @@
+import com.google.gson.Gson;
+import okhttp3.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for incremental decoding of the reservations list
+ */
+public class ReservationIteratorTest {
+    /**
+     * Build an in-memory response carrying the given reservations JSON
+     */
+    private Response reservationsResponse(String json) {
+        return new Response.Builder()
+                .request(new Request.Builder().url("http://localhost/reservations").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(json, MediaType.parse("application/json")))
+                .build();
+    }
+
+    private ReservationIterator iterator(Response response) throws IOException {
+        return new ReservationIterator(
+                response, response.body().charStream(), new Gson().getAdapter(ReservationResponseBody.class));
+    }
+
+    /**
+     * Test every reservation is decoded in order
+     *
+     * @throws IOException if an error occurred while reading the response
+     */
+    @Test
+    public void testIteratesReservationsInOrder() throws IOException {
+        String json = "[{\"citizen_id\": \"1102003283576\", \"site_name\": \"OGYHSite\", "
+                + "\"vaccine_name\": \"Pfizer\", \"queue\": null, \"checked\": false},"
+                + "{\"citizen_id\": \"1234567890121\", \"site_name\": \"OGYHSite\", "
+                + "\"vaccine_name\": \"Astra\", \"queue\": null, \"checked\": true}]";
+        List<String> citizenIds = new ArrayList<>();
+        try (ReservationIterator reservations = iterator(reservationsResponse(json))) {
+            ReservationResponseBody first = reservations.next();
+            citizenIds.add(first.getCitizenId());
+            assertEquals(first.getVaccineName(), "Pfizer");
+            assertFalse(first.getChecked());
+            reservations.forEachRemaining(reservation -> citizenIds.add(reservation.getCitizenId()));
+            assertFalse(reservations.hasNext());
+        }
+        assertEquals(citizenIds, List.of("1102003283576", "1234567890121"));
+    }
+
+    /**
+     * Test an empty list yields no reservation
+     *
+     * @throws IOException if an error occurred while reading the response
+     */
+    @Test
+    public void testEmptyReservations() throws IOException {
+        try (ReservationIterator reservations = iterator(reservationsResponse("[]"))) {
+            assertFalse(reservations.hasNext());
+            assertFalse(reservations.hasNext());
+        }
+    }
+}
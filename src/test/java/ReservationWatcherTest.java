@@ -0,0 +1,152 @@
+import okhttp3.Cache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for ReservationWatcher and conditional requests of the
+ * reservations against a local stand-in server
+ */
+public class ReservationWatcherTest extends StandInTestCase {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String citizenId(int i) {
+        return RegistrationValidator.withCheckDigit(110200329000L + i);
+    }
+
+    /**
+     * Test each poll reports only the reservations added, changed or
+     * removed since the previous one
+     *
+     * @throws IOException if a poll failed
+     */
+    @Test
+    public void testChanges() throws IOException {
+        standIn.addReservation(citizenId(1), "OGYHSite", "Pfizer");
+        standIn.addReservation(citizenId(2), "OGYHSite", "Pfizer");
+        ReservationWatcher watcher = new ReservationWatcher(api);
+        List<ReservationWatcher.Change> changes = new ArrayList<>();
+
+        assertTrue(watcher.poll(changes::add));
+        assertEquals(2, changes.size());
+        assertTrue(changes.stream().allMatch(change -> change.kind() == ReservationWatcher.Kind.ADDED));
+        assertEquals(2, watcher.size());
+
+        changes.clear();
+        standIn.removeReservation(citizenId(1));
+        standIn.addReservation(citizenId(1), "Bang Sue Grand Station", "Pfizer");
+        standIn.removeReservation(citizenId(2));
+        standIn.addReservation(citizenId(3), "OGYHSite", "Astra");
+        assertTrue(watcher.poll(changes::add));
+        assertEquals(3, changes.size());
+        for (ReservationWatcher.Change change : changes) {
+            if (change.citizenId().equals(citizenId(1))) {
+                assertEquals(ReservationWatcher.Kind.CHANGED, change.kind());
+                assertEquals("OGYHSite", change.previous().getSiteName());
+                assertEquals("Bang Sue Grand Station", change.current().getSiteName());
+            } else if (change.citizenId().equals(citizenId(2))) {
+                assertEquals(ReservationWatcher.Kind.REMOVED, change.kind());
+                assertNull(change.current());
+            } else {
+                assertEquals(citizenId(3), change.citizenId());
+                assertEquals(ReservationWatcher.Kind.ADDED, change.kind());
+                assertNull(change.previous());
+            }
+        }
+        assertEquals(2, watcher.size());
+    }
+
+    /**
+     * Test an unchanged list is answered 304 and reports nothing
+     *
+     * @throws IOException if a poll failed
+     */
+    @Test
+    public void testNotModified() throws IOException {
+        standIn.addReservation(citizenId(1), "OGYHSite", "Pfizer");
+        ReservationWatcher watcher = new ReservationWatcher(api);
+        List<ReservationWatcher.Change> changes = new ArrayList<>();
+        assertTrue(watcher.poll(changes::add));
+
+        changes.clear();
+        assertFalse(watcher.poll(changes::add));
+        assertFalse(watcher.poll(changes::add));
+        assertTrue(changes.isEmpty());
+        assertEquals(3, watcher.pollCount());
+        assertEquals(2, watcher.notModifiedCount());
+        assertEquals(1, watcher.size());
+
+        standIn.addReservation(citizenId(2), "OGYHSite", "Pfizer");
+        assertTrue(watcher.poll(changes::add));
+        assertEquals(1, changes.size());
+        assertEquals(citizenId(2), changes.get(0).citizenId());
+    }
+
+    /**
+     * Test a sink failing on the background thread is reported to onError,
+     * polling goes on and the changes it missed are reported again
+     *
+     * @throws Exception if the watcher failed
+     */
+    @Test
+    public void testWatchSinkFailure() throws Exception {
+        standIn.addReservation(citizenId(1), "OGYHSite", "Pfizer");
+        BlockingQueue<ReservationWatcher.Change> changes = new LinkedBlockingQueue<>();
+        BlockingQueue<Exception> errors = new LinkedBlockingQueue<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        try (ReservationWatcher watcher = new ReservationWatcher(api)) {
+            watcher.watch(10, TimeUnit.MILLISECONDS, change -> {
+                if (failed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("sink failed");
+                }
+                changes.add(change);
+            }, errors::add);
+
+            assertTrue(errors.poll(5, TimeUnit.SECONDS) instanceof IllegalStateException);
+            ReservationWatcher.Change change = changes.poll(5, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(ReservationWatcher.Kind.ADDED, change.kind());
+            assertEquals(citizenId(1), change.citizenId());
+
+            standIn.addReservation(citizenId(2), "OGYHSite", "Pfizer");
+            change = changes.poll(5, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(citizenId(2), change.citizenId());
+            assertTrue(errors.isEmpty());
+        }
+    }
+
+    /**
+     * Test an HTTP cache revalidates the list, serving the cached body
+     * while the server answers 304
+     *
+     * @throws IOException if a request failed
+     */
+    @Test
+    public void testHttpCache() throws IOException {
+        Cache cache = new Cache(folder.newFolder("http-cache"), 1024 * 1024);
+        try (VaccineApiClient cached = api.newBuilder().httpCache(cache).build()) {
+            standIn.addReservation(citizenId(1), "OGYHSite", "Pfizer");
+            assertEquals(1, cached.getReservations().size());
+            assertEquals(1, cached.getReservations().size());
+            assertEquals(1, cache.hitCount());
+
+            standIn.addReservation(citizenId(2), "OGYHSite", "Pfizer");
+            assertEquals(2, cached.getReservations().size());
+            assertEquals(3, cache.networkCount());
+        } finally {
+            cache.close();
+        }
+    }
+}
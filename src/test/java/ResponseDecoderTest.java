@@ -0,0 +1,134 @@
+import com.google.gson.Gson;
+import com.google.gson.stream.MalformedJsonException;
+import okio.Buffer;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for ResponseDecoder and RegistrationOutcome
+ */
+public class ResponseDecoderTest {
+    private static final String USER_JSON = "{\"citizen_id\": \"1102003283576\", \"name\": \"Tatpol\", "
+            + "\"surname\": \"Samakpong\", \"birth_date\": \"2001/06/05\", \"occupation\": \"Student\", "
+            + "\"phone_number\": \"0970638897\", \"is_risk\": \"False\", \"address\": \"122/167\", "
+            + "\"vaccine_taken\": \"[]\"}";
+
+    private static UserResponseBody user(String json) throws IOException {
+        return ResponseDecoder.readUser(new Buffer().writeUtf8(json));
+    }
+
+    private static RegistrationResponseBody registration(String json) throws IOException {
+        return ResponseDecoder.readRegistration(new Buffer().writeUtf8(json));
+    }
+
+    /**
+     * Test a user decodes to the same fields as with Gson
+     *
+     * @throws IOException if the user failed to decode
+     */
+    @Test
+    public void testUserMatchesGson() throws IOException {
+        UserResponseBody expected = new Gson().fromJson(USER_JSON, UserResponseBody.class);
+        UserResponseBody user = user(USER_JSON);
+        assertEquals(expected.getCitizenId(), user.getCitizenId());
+        assertEquals(expected.getName(), user.getName());
+        assertEquals(expected.getSurname(), user.getSurname());
+        assertEquals(expected.getBirthDate(), user.getBirthDate());
+        assertEquals(expected.getOccupation(), user.getOccupation());
+        assertEquals(expected.getPhoneNumber(), user.getPhoneNumber());
+        assertEquals(expected.getIsRisk(), user.getIsRisk());
+        assertEquals(expected.getAddress(), user.getAddress());
+        assertEquals(expected.getVaccineTaken(), user.getVaccineTaken());
+    }
+
+    /**
+     * Test escapes, unknown fields, nested values, literals and null
+     *
+     * @throws IOException if the user failed to decode
+     */
+    @Test
+    public void testUserEdgeCases() throws IOException {
+        UserResponseBody user = user("\n{ \"extra\" : {\"a\": [1, \"}\", {\"b\": null}]},"
+                + "\"name\":\"Ta\\\"t\\\\p\\/ol\\n\","
+                + "\"address\": \"\\u0e01\\ud83d\\ude00 caf\u00e9\", \"is_risk\": true, \"phone_number\": 970638897,"
+                + " \"surname\": null, \"more\": [], \"occupation\": \"\" }");
+        assertEquals("Ta\"t\\p/ol\n", user.getName());
+        assertEquals("\u0e01\ud83d\ude00 caf\u00e9", user.getAddress());
+        assertEquals("true", user.getIsRisk());
+        assertEquals("970638897", user.getPhoneNumber());
+        assertNull(user.getSurname());
+        assertEquals("", user.getOccupation());
+        assertNull(user.getCitizenId());
+
+        assertNull(user("null"));
+        assertNull(user("{}").getName());
+    }
+
+    /**
+     * Test malformed bodies are refused
+     */
+    @Test
+    public void testMalformed() {
+        String[] bodies = {"", "[]", "{\"name\": \"Tatpol\"", "{\"name\" \"Tatpol\"}", "{\"name\": \"Tat",
+                "{name: \"Tatpol\"}", "{\"name\": {\"first\": \"Tatpol\"}}", "<html></html>"};
+        for (String body : bodies) {
+            try {
+                user(body);
+                fail("decoded " + body);
+            } catch (MalformedJsonException e) {
+                // expected
+            } catch (IOException e) {
+                fail(body + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Test every known feedback resolves to its outcome, whether matched on
+     * the bytes, escaped or decoded by Gson
+     *
+     * @throws IOException if a feedback failed to decode
+     */
+    @Test
+    public void testOutcomes() throws IOException {
+        for (RegistrationOutcome outcome : RegistrationOutcome.values()) {
+            if (outcome == RegistrationOutcome.UNKNOWN) {
+                continue;
+            }
+            String json = "{\"feedback\": \"" + outcome.feedback() + "\"}";
+            RegistrationResponseBody body = registration(json);
+            assertSame(outcome, body.outcome());
+            assertSame(outcome.feedback(), body.getFeedback());
+            assertEquals(outcome.isSuccess(), body.isRegistrationSuccessful());
+            assertSame(outcome, new Gson().fromJson(json, RegistrationResponseBody.class).outcome());
+            assertSame(outcome, registration(json.replace("r", "\\u0072")).outcome());
+        }
+        assertTrue(registration("{\"feedback\": \"registration success!\"}").isRegistrationSuccessful());
+        assertSame(RegistrationOutcome.ALREADY_REGISTERED,
+                registration("{\"feedback\":\"registration failed: this person already registered\"}").outcome());
+    }
+
+    /**
+     * Test feedbacks this client does not know keep their text
+     *
+     * @throws IOException if a feedback failed to decode
+     */
+    @Test
+    public void testUnknownFeedback() throws IOException {
+        RegistrationResponseBody body = registration("{\"feedback\": \"registration success!!\", \"code\": 7}");
+        assertSame(RegistrationOutcome.UNKNOWN, body.outcome());
+        assertEquals("registration success!!", body.getFeedback());
+        assertFalse(body.isRegistrationSuccessful());
+
+        body = registration("{\"feedback\": \"registration\"}");
+        assertSame(RegistrationOutcome.UNKNOWN, body.outcome());
+        assertEquals("registration", body.getFeedback());
+
+        assertSame(RegistrationOutcome.UNKNOWN, registration("{}").outcome());
+        assertNull(registration("{}").getFeedback());
+        assertSame(RegistrationOutcome.UNKNOWN, RegistrationOutcome.of(null));
+    }
+}
@@ -0,0 +1,138 @@
+import okhttp3.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for retries of idempotent requests
+ */
+public class RetryInterceptorTest {
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    /**
+     * Client whose requests fail with the given status until the given attempt
+     */
+    private OkHttpClient client(int failingAttempts, int failureCode) {
+        return new OkHttpClient.Builder()
+                .addInterceptor(new RetryInterceptor(3, 1, 5, TimeUnit.MILLISECONDS))
+                .addInterceptor(chain -> new Response.Builder()
+                        .request(chain.request())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(attempts.incrementAndGet() <= failingAttempts ? failureCode : 200)
+                        .message("")
+                        .body(ResponseBody.create("{}", MediaType.parse("application/json")))
+                        .build())
+                .build();
+    }
+
+    private Request request(String method) {
+        return new Request.Builder()
+                .url("http://localhost/registration/1102003283576")
+                .method(method, method.equals("POST") ? RequestBody.create("", null) : null)
+                .build();
+    }
+
+    /**
+     * Test a lookup answered with 503 is retried until it succeeds
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @Test
+    public void testTransientStatusIsRetried() throws IOException {
+        try (Response response = client(2, 503).newCall(request("GET")).execute()) {
+            assertEquals(response.code(), 200);
+        }
+        assertEquals(attempts.get(), 3);
+    }
+
+    /**
+     * Test the last answer is returned once attempts are exhausted
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @Test
+    public void testAttemptsAreBounded() throws IOException {
+        try (Response response = client(5, 503).newCall(request("DELETE")).execute()) {
+            assertEquals(response.code(), 503);
+        }
+        assertEquals(attempts.get(), 3);
+    }
+
+    /**
+     * Test registrations and client errors are never retried
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @Test
+    public void testNonIdempotentAndClientErrorsAreNotRetried() throws IOException {
+        try (Response response = client(5, 503).newCall(request("POST")).execute()) {
+            assertEquals(response.code(), 503);
+        }
+        try (Response response = client(5, 404).newCall(request("GET")).execute()) {
+            assertEquals(response.code(), 404);
+        }
+        assertEquals(attempts.get(), 2);
+    }
+
+    /**
+     * Test a deletion answered with 404 after an attempt failed in transit
+     * is reported as deleted, since that attempt may have applied it, but
+     * not after an attempt answered with a 5xx nor on the first attempt
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @Test
+    public void testRetriedDeleteNotFoundIsDeleted() throws IOException {
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new RetryInterceptor(3, 1, 5, TimeUnit.MILLISECONDS))
+                .addInterceptor(chain -> {
+                    if (attempts.incrementAndGet() == 1) {
+                        throw new SocketTimeoutException("timeout");
+                    }
+                    return new Response.Builder()
+                            .request(chain.request())
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(404)
+                            .message("")
+                            .header("Content-Type", "text/html")
+                            .header("Content-Length", "9")
+                            .body(ResponseBody.create("Not Found", MediaType.parse("text/html")))
+                            .build();
+                })
+                .build();
+        try (Response response = client.newCall(request("DELETE")).execute()) {
+            assertEquals(response.code(), 204);
+            assertNull(response.header("Content-Type"));
+            assertNull(response.header("Content-Length"));
+            assertEquals(response.body().string(), "");
+        }
+        assertEquals(attempts.get(), 2);
+
+        attempts.set(0);
+        OkHttpClient failingFirst = new OkHttpClient.Builder()
+                .addInterceptor(new RetryInterceptor(3, 1, 5, TimeUnit.MILLISECONDS))
+                .addInterceptor(chain -> new Response.Builder()
+                        .request(chain.request())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(attempts.incrementAndGet() == 1 ? 503 : 404)
+                        .message("")
+                        .body(ResponseBody.create("Not Found", MediaType.parse("text/html")))
+                        .build())
+                .build();
+        try (Response response = failingFirst.newCall(request("DELETE")).execute()) {
+            assertEquals(response.code(), 404);
+        }
+        assertEquals(attempts.get(), 2);
+
+        attempts.set(0);
+        try (Response response = client(5, 404).newCall(request("DELETE")).execute()) {
+            assertEquals(response.code(), 404);
+        }
+        assertEquals(attempts.get(), 1);
+    }
+}
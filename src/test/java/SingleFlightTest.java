@@ -0,0 +1,106 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for coalescing of concurrent identical calls
+ */
+public class SingleFlightTest {
+    private final SingleFlight<String, String> flights = new SingleFlight<>();
+
+    /**
+     * Test concurrent callers of one key share a single execution
+     *
+     * @throws Exception if a caller failed
+     */
+    @Test
+    public void testConcurrentCallsAreCollapsed() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> flights.execute("1102003283576", () -> {
+                    executions.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    return "user";
+                })));
+            }
+            while (flights.collapsedCount() < 7) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals(result.get(), "user");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(executions.get(), 1);
+        assertEquals(flights.executedCount(), 1);
+        assertEquals(flights.inFlightCount(), 0);
+    }
+
+    /**
+     * Test a failure is shared and the next call executes again
+     *
+     * @throws IOException if the second call failed
+     */
+    @Test
+    public void testFailureIsNotRemembered() throws IOException {
+        assertThrows(IOException.class, () -> flights.execute("1102003283576", () -> {
+            throw new IOException("timeout");
+        }));
+        assertEquals(flights.execute("1102003283576", () -> "user"), "user");
+        assertEquals(flights.executedCount(), 2);
+    }
+
+    /**
+     * Test an error thrown by the call is shared with the callers that
+     * joined it instead of leaving them waiting
+     *
+     * @throws Exception if the joined caller did not finish
+     */
+    @Test
+    public void testErrorIsShared() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> flights.execute("1102003283576", () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                throw new AssertionError("call failed");
+            }));
+            while (flights.inFlightCount() == 0) {
+                Thread.sleep(1);
+            }
+            Future<String> joined = executor.submit(() -> flights.execute("1102003283576", () -> "user"));
+            while (flights.collapsedCount() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            ExecutionException e = assertThrows(ExecutionException.class, () -> joined.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof AssertionError);
+            e = assertThrows(ExecutionException.class, first::get);
+            assertTrue(e.getCause() instanceof AssertionError);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(flights.inFlightCount(), 0);
+    }
+}
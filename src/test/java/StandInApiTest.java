@@ -0,0 +1,36 @@
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+import java.io.IOException;
+
+/**
+ * Runs every test case of {@link ApiTest} against a local {@link StandInServer}
+ */
+public class StandInApiTest extends ApiTest {
+    private static StandInServer server;
+    private static VaccineApiClient api;
+
+    /**
+     * Start the stand-in shared by every test
+     *
+     * @throws IOException if the server could not be started
+     */
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new StandInServer(new StandInApi(), 0);
+        api = new VaccineApiClient.Builder()
+                .baseUrl(server.url())
+                .build();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        api.close();
+        server.close();
+    }
+
+    @Override
+    protected VaccineApiClient apiClient() {
+        return api;
+    }
+}
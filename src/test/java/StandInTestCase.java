@@ -0,0 +1,59 @@
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.IOException;
+
+/**
+ * Base of the test cases running against a local stand-in server: a
+ * stand-in and a client to it are started before each test and closed
+ * after it
+ */
+public abstract class StandInTestCase {
+    protected StandInApi standIn;
+    protected StandInServer server;
+    protected VaccineApiClient api;
+
+    @Before
+    public void startStandIn() throws IOException {
+        start(new StandInApi());
+    }
+
+    /**
+     * Replace the stand-in with one serving the given implementation
+     */
+    protected void start(StandInApi standIn) throws IOException {
+        start(standIn, new VaccineApiClient.Builder());
+    }
+
+    /**
+     * Replace the stand-in with one serving the given implementation, and
+     * the client with one built by the builder
+     *
+     * @param builder client settings, the base url is set to the stand-in
+     */
+    protected void start(StandInApi standIn, VaccineApiClient.Builder builder) throws IOException {
+        stopStandIn();
+        this.standIn = standIn;
+        server = new StandInServer(standIn, 0);
+        api = builder.baseUrl(server.url()).build();
+    }
+
+    @After
+    public void stopStandIn() {
+        if (api != null) {
+            api.close();
+            api = null;
+        }
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+    }
+
+    /**
+     * @see TestCitizens#citizen
+     */
+    protected static Citizen citizen(String citizenId) {
+        return TestCitizens.citizen(citizenId);
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Citizens with valid fields, shared by the test cases
+ */
+final class TestCitizens {
+    private TestCitizens() {
+    }
+
+    /**
+     * @return builder with every field set to a valid value, to be changed
+     *         by the test
+     */
+    static Citizen.Builder builder(String citizenId) {
+        return new Citizen.Builder()
+                .citizenId(citizenId)
+                .name("Tatpol")
+                .surname("Samakpong")
+                .birthDate("2001/06/05")
+                .occupation("Student")
+                .phoneNumber("0970638897")
+                .isRisk(false)
+                .address("122/167");
+    }
+
+    /**
+     * @return citizen with every field set to a valid value
+     */
+    static Citizen citizen(String citizenId) {
+        return builder(citizenId).build();
+    }
+}
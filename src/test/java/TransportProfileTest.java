@@ -0,0 +1,176 @@
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.Request;
+import okhttp3.tls.HandshakeCertificates;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for TransportProfile against local TLS and h2c stand-in servers
+ */
+public class TransportProfileTest {
+    private static Http2StandInServer tls;
+    private static Http2StandInServer cleartext;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        tls = new Http2StandInServer(new StandInApi(), true);
+        cleartext = new Http2StandInServer(new StandInApi(), false);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        tls.close();
+        cleartext.close();
+    }
+
+    private static VaccineApiClient client(String profile) {
+        TransportProfile transport = TransportProfile.parse(profile);
+        Http2StandInServer server = transport.cleartext() ? cleartext : tls;
+        VaccineApiClient.Builder builder = new VaccineApiClient.Builder()
+                .baseUrl(server.url())
+                .transport(transport)
+                .registrationMode(RegistrationEncoder.Mode.JSON);
+        HandshakeCertificates certificates = server.clientCertificates();
+        if (certificates != null) {
+            builder.sslSocketFactory(certificates.sslSocketFactory(), certificates.trustManager());
+        }
+        return builder.build();
+    }
+
+    private static String citizenId(int i) {
+        return RegistrationValidator.withCheckDigit(110200333000L + i);
+    }
+
+    /**
+     * Test profiles are parsed back from their text
+     */
+    @Test
+    public void testParse() {
+        for (String profile : new String[]{"http1", "h2", "h2c", "http1+gzip", "h2+gzip", "h2c+gzip",
+                "h2+gzip-requests", "h2c+gzip+gzip-requests"}) {
+            assertEquals(profile, TransportProfile.parse(profile).toString());
+        }
+        TransportProfile profile = TransportProfile.parse(" H2C+GZIP ");
+        assertEquals(TransportProfile.Version.H2C, profile.version());
+        assertTrue(profile.gzip());
+        assertFalse(profile.gzipRequests());
+        assertTrue(profile.cleartext());
+        try {
+            TransportProfile.parse("h3");
+            fail("parsed h3");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            TransportProfile.parse("h2+brotli");
+            fail("parsed brotli");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test each profile speaks its HTTP version and calls go through, with
+     * HTTP/2 keeping every call on one connection
+     *
+     * @throws IOException if a call failed
+     */
+    @Test
+    public void testProtocols() throws IOException {
+        String[][] cases = {{"http1", "http/1.1"}, {"h2", "h2"}, {"h2c", "h2_prior_knowledge"},
+                {"h2+gzip", "h2"}};
+        for (int i = 0; i < cases.length; i++) {
+            try (VaccineApiClient api = client(cases[i][0])) {
+                String citizenId = citizenId(i);
+                assertTrue(cases[i][0], api.register(TestCitizens.citizen(citizenId)).isRegistrationSuccessful());
+                assertEquals(citizenId, api.getUser(citizenId).getCitizenId());
+                try (Response response = api.httpClient().newCall(api.userRequest(citizenId)).execute()) {
+                    assertEquals(cases[i][0], Protocol.get(cases[i][1]), response.protocol());
+                }
+                api.deleteUser(citizenId);
+                assertFalse(api.isUserExisted(citizenId));
+                if (!cases[i][0].startsWith("http1")) {
+                    assertEquals(cases[i][0], 1, api.httpClient().connectionPool().connectionCount());
+                }
+            }
+        }
+    }
+
+    /**
+     * Test gzip compresses the responses only, and its absence keeps them
+     * uncompressed
+     *
+     * @throws IOException if a call failed
+     */
+    @Test
+    public void testGzip() throws IOException {
+        String citizenId = citizenId(10);
+        try (VaccineApiClient api = client("h2c+gzip")) {
+            assertTrue(api.register(TestCitizens.citizen(citizenId)).isRegistrationSuccessful());
+            Response network;
+            try (Response response = api.httpClient().newCall(api.userRequest(citizenId)).execute()) {
+                // transparently inflated, so the header is gone from the response itself
+                assertNull(response.header("Content-Encoding"));
+                assertTrue(response.body().string().contains(citizenId));
+                network = response.networkResponse();
+            }
+            assertEquals("gzip", network.header("Content-Encoding"));
+            assertEquals("gzip", network.request().header("Accept-Encoding"));
+            try (Response response = api.httpClient().newCall(api.registrationRequest(TestCitizens.citizen(citizenId)))
+                    .execute()) {
+                assertNull(response.networkResponse().request().header("Content-Encoding"));
+            }
+        }
+        try (VaccineApiClient api = client("h2c")) {
+            try (Response response = api.httpClient().newCall(api.userRequest(citizenId)).execute()) {
+                assertEquals("identity", response.networkResponse().request().header("Accept-Encoding"));
+                assertNull(response.header("Content-Encoding"));
+                assertTrue(response.body().string().contains(citizenId));
+            }
+            api.deleteUser(citizenId);
+        }
+    }
+
+    /**
+     * Test gzip-requests compresses non-empty request bodies, which both
+     * stand-ins decode, and leaves empty ones alone
+     *
+     * @throws IOException if a call failed
+     */
+    @Test
+    public void testGzipRequests() throws IOException {
+        String citizenId = citizenId(20);
+        try (VaccineApiClient api = client("h2c+gzip-requests")) {
+            try (Response response = api.httpClient().newCall(api.registrationRequest(TestCitizens.citizen(citizenId)))
+                    .execute()) {
+                assertEquals("gzip", response.networkResponse().request().header("Content-Encoding"));
+                assertTrue(response.body().string().contains("registration success!"));
+            }
+            api.deleteUser(citizenId);
+        }
+        try (StandInServer server = new StandInServer(new StandInApi(), 0)) {
+            for (RegistrationEncoder.Mode mode : RegistrationEncoder.Mode.values()) {
+                try (VaccineApiClient api = new VaccineApiClient.Builder()
+                        .baseUrl(server.url())
+                        .transport(TransportProfile.parse("http1+gzip-requests"))
+                        .registrationMode(mode)
+                        .build()) {
+                    Request request = api.registrationRequest(TestCitizens.citizen(citizenId));
+                    try (Response response = api.httpClient().newCall(request).execute()) {
+                        // the query mode posts an empty body
+                        assertEquals(mode.name(), mode == RegistrationEncoder.Mode.QUERY ? null : "gzip",
+                                response.networkResponse().request().header("Content-Encoding"));
+                        assertTrue(mode.name(), response.body().string().contains("registration success!"));
+                    }
+                    api.deleteUser(citizenId);
+                }
+            }
+        }
+    }
+}
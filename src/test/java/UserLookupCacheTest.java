@@ -0,0 +1,74 @@
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the user lookup cache
+ */
+public class UserLookupCacheTest {
+    private final AtomicLong now = new AtomicLong();
+    private final UserLookupCache cache = new UserLookupCache(2, 100, 10, now::get);
+
+    /**
+     * Test registered and not registered answers expire after their own time to live
+     */
+    @Test
+    public void testPositiveAndNegativeTtl() {
+        UserResponseBody user = new UserResponseBody();
+        cache.put("1102003283576", user);
+        cache.put("1234567890121", null);
+        assertSame(cache.get("1102003283576").user(), user);
+        assertNull(cache.get("1234567890121").user());
+
+        now.set(10);
+        assertNotNull(cache.get("1102003283576"));
+        assertNull(cache.get("1234567890121"));
+
+        now.set(100);
+        assertNull(cache.get("1102003283576"));
+        assertEquals(cache.hitCount(), 3);
+        assertEquals(cache.missCount(), 2);
+    }
+
+    /**
+     * Test the least recently used entry is evicted when the cache is full
+     */
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        cache.put("1", null);
+        cache.put("2", null);
+        cache.get("1");
+        cache.put("3", null);
+        assertEquals(cache.size(), 2);
+        assertNotNull(cache.get("1"));
+        assertNull(cache.get("2"));
+        assertNotNull(cache.get("3"));
+    }
+
+    /**
+     * Test an invalidated entry is no longer answered
+     */
+    @Test
+    public void testInvalidate() {
+        cache.put("1102003283576", null);
+        cache.invalidate("1102003283576");
+        assertNull(cache.get("1102003283576"));
+    }
+
+    /**
+     * Test the answer of a lookup sent before an invalidation is not cached
+     */
+    @Test
+    public void testStaleAnswerDropped() {
+        long version = cache.version("1102003283576");
+        cache.invalidate("1102003283576");
+        assertFalse(cache.put("1102003283576", new UserResponseBody(), version));
+        assertNull(cache.get("1102003283576"));
+
+        version = cache.version("1102003283576");
+        assertTrue(cache.put("1102003283576", null, version));
+        assertNotNull(cache.get("1102003283576"));
+    }
+}
@@ -0,0 +1,252 @@
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for VaccineApiClient against a local stand-in server
+ */
+public class VaccineApiClientTest extends StandInTestCase {
+    /**
+     * Test a registered user can be fetched then deleted
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @Test
+    public void testRegisterGetAndDeleteUser() throws IOException {
+        assertNull(api.getUser("1102003283576"));
+        assertTrue(api.register(citizen("1102003283576")).isRegistrationSuccessful());
+        assertEquals(api.getUser("1102003283576").getCitizenId(), "1102003283576");
+        api.deleteUser("1102003283576");
+        assertNull(api.getUser("1102003283576"));
+    }
+
+    /**
+     * Test cached lookups follow the registrations and deletions of the client
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @Test
+    public void testLookupCacheIsUpdatedByWrites() throws IOException {
+        UserLookupCache cache = new UserLookupCache(100, 1, 1, TimeUnit.MINUTES);
+        try (VaccineApiClient cachingApi = new VaccineApiClient.Builder()
+                .baseUrl(server.url())
+                .lookupCache(cache)
+                .build()) {
+            assertFalse(cachingApi.isUserExisted("1102003283576"));
+            assertFalse(cachingApi.isUserExisted("1102003283576"));
+            assertEquals(cache.hitCount(), 1);
+
+            cachingApi.register(citizen("1102003283576"));
+            assertTrue(cachingApi.isUserExisted("1102003283576"));
+            assertTrue(cachingApi.isUserExisted("1102003283576"));
+
+            cachingApi.deleteUser("1102003283576");
+            assertFalse(cachingApi.isUserExisted("1102003283576"));
+            assertEquals(cache.missCount(), 2);
+        }
+    }
+
+    /**
+     * Test a lookup answered before a delete but read after it does not
+     * cache the deleted user over the delete's "not registered" answer
+     *
+     * @throws Exception if an error occurred during request execution
+     */
+    @Test
+    public void testLookupRacingDeleteIsNotCached() throws Exception {
+        CountDownLatch answered = new CountDownLatch(1);
+        CountDownLatch deleted = new CountDownLatch(1);
+        OkHttpClient stallingLookup = api.httpClient().newBuilder()
+                .addInterceptor(chain -> {
+                    Response response = chain.proceed(chain.request());
+                    if (!chain.request().method().equals("GET")) {
+                        return response;
+                    }
+                    ResponseBody body = response.body();
+                    Response buffered = response.newBuilder()
+                            .body(ResponseBody.create(body.bytes(), body.contentType()))
+                            .build();
+                    answered.countDown();
+                    try {
+                        deleted.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    return buffered;
+                })
+                .build();
+        UserLookupCache cache = new UserLookupCache(100, 1, 1, TimeUnit.MINUTES);
+        try (VaccineApiClient cachingApi = api.newBuilder()
+                .httpClient(stallingLookup)
+                .lookupCache(cache)
+                .build()) {
+            api.register(citizen("1102003283576"));
+            CompletableFuture<UserResponseBody> lookup = cachingApi.getUserAsync("1102003283576");
+            assertTrue(answered.await(5, TimeUnit.SECONDS));
+            cachingApi.deleteUser("1102003283576");
+            deleted.countDown();
+            assertEquals("1102003283576", lookup.get(5, TimeUnit.SECONDS).getCitizenId());
+
+            assertNull(cache.get("1102003283576").user());
+            assertFalse(cachingApi.isUserExisted("1102003283576"));
+        }
+    }
+
+    /**
+     * Test a failed lookup is not cached as "not registered"
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @Test
+    public void testFailedLookupIsNotCached() throws IOException {
+        UserLookupCache cache = new UserLookupCache(100, 1, 1, TimeUnit.MINUTES);
+        try (VaccineApiClient cachingApi = new VaccineApiClient.Builder()
+                .baseUrl(server.url())
+                .lookupCache(cache)
+                .build()) {
+            cachingApi.register(citizen("1102003283576"));
+            server.faults(new FaultInjector.Builder()
+                    .fault("*", FaultInjector.Fault.SERVER_ERROR, 100)
+                    .build());
+            try {
+                cachingApi.getUser("1102003283576");
+                fail("lookup answered despite a server error");
+            } catch (VaccineApiException e) {
+                assertEquals(500, e.code());
+            }
+            assertEquals(0, cache.size());
+
+            server.faults(null);
+            assertTrue(cachingApi.isUserExisted("1102003283576"));
+        }
+    }
+
+    /**
+     * Test a slow lookup is answered by the hedged request
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @Test
+    public void testSlowLookupIsHedged() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        OkHttpClient stallingFirstCall = api.httpClient().newBuilder()
+                .addInterceptor(chain -> {
+                    if (calls.incrementAndGet() == 1) {
+                        try {
+                            Thread.sleep(5000);
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                    }
+                    return chain.proceed(chain.request());
+                })
+                .build();
+        HedgingPolicy hedging = new HedgingPolicy(10, 50, TimeUnit.MILLISECONDS);
+        VaccineApiClient hedgingApi = api.newBuilder()
+                .httpClient(stallingFirstCall)
+                .hedgeLookups(hedging)
+                .build();
+        api.register(citizen("1102003283576"));
+
+        long start = System.nanoTime();
+        assertTrue(hedgingApi.isUserExisted("1102003283576"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+        assertEquals(hedging.hedgedCount(), 1);
+        assertEquals(calls.get(), 2);
+    }
+
+    /**
+     * Test deleting an unknown user fails with the status code of the server
+     */
+    @Test
+    public void testDeleteUnknownUser() {
+        VaccineApiException e = assertThrows(VaccineApiException.class, () -> api.deleteUser("1102003283576"));
+        assertEquals(e.code(), 404);
+    }
+
+    /**
+     * Test a missing field surfaces the 400 status of the HTML error page
+     */
+    @Test
+    public void testRegisterWithMissingField() {
+        Citizen citizen = new Citizen.Builder()
+                .citizenId("1102003283576")
+                .name("Tatpol")
+                .build();
+        VaccineApiException e = assertThrows(VaccineApiException.class, () -> api.register(citizen));
+        assertEquals(e.code(), 400);
+    }
+
+    /**
+     * Test an invalid citizen id is answered locally with the server feedback
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @Test
+    public void testRegisterWithInvalidCitizenIdIsRejectedLocally() throws IOException {
+        RegistrationResponseBody responseBody = api.register(citizen("110200328357"));
+        assertFalse(responseBody.isRegistrationSuccessful());
+        assertEquals(responseBody.getFeedback(), "registration failed: invalid citizen ID");
+        assertEquals(server.api().registrationCount(), 0);
+    }
+
+    /**
+     * Test a wrong check digit, which the server accepts, is only refused
+     * locally when the client is asked to
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @Test
+    public void testCheckDigitIsOptIn() throws IOException {
+        try (VaccineApiClient strict = api.newBuilder().validateCheckDigit(true).build()) {
+            RegistrationResponseBody responseBody = strict.register(citizen("1102003283573"));
+            assertEquals(responseBody.getFeedback(), "registration failed: invalid citizen ID");
+            assertEquals(server.api().registrationCount(), 0);
+        }
+        assertTrue(api.register(citizen("1102003283573")).isRegistrationSuccessful());
+        assertEquals(server.api().registrationCount(), 1);
+    }
+
+    /**
+     * Test reservations are decoded from the stand-in
+     *
+     * @throws IOException if an error occurred during request execution
+     */
+    @Test
+    public void testGetReservations() throws IOException {
+        server.api().addReservation("1102003283576", "OGYHSite", "Pfizer");
+        List<ReservationResponseBody> reservations = api.getReservations();
+        assertEquals(reservations.size(), 1);
+        assertEquals(reservations.get(0).getSiteName(), "OGYHSite");
+    }
+
+    /**
+     * Test bulk registration yields one result per record
+     *
+     * @throws Exception if the drive failed
+     */
+    @Test
+    public void testBulkRegistration() throws Exception {
+        ConcurrentLinkedQueue<RegistrationResult> results = new ConcurrentLinkedQueue<>();
+        Stream<Citizen> citizens = IntStream.range(0, 200)
+                .mapToObj(i -> citizen(RegistrationValidator.withCheckDigit(110200328300L + i)));
+        new BulkRegistration(api, 16).registerAll(citizens, results::add).get();
+        assertEquals(results.size(), 200);
+        assertTrue(results.stream().allMatch(RegistrationResult::isRegistrationSuccessful));
+        assertEquals(server.api().registrationCount(), 200);
+    }
+}
@@ -0,0 +1,269 @@
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+import javax.net.ServerSocketFactory;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local server exposing a {@link StandInApi} over HTTP/2, which the JDK
+ * server behind {@link StandInServer} does not speak.
+ *
+ * Over TLS, with a self-signed certificate the client trusts through
+ * {@link #clientCertificates}, HTTP/2 and HTTP/1.1 are negotiated per
+ * connection through ALPN. Over cleartext, only h2c with prior knowledge
+ * is accepted. Request bodies may be gzipped, and responses are gzipped
+ * for clients that accept it. The bytes crossing the server's sockets are
+ * counted, TLS records included, so that transports can be compared.
+ */
+public class Http2StandInServer implements Closeable {
+    // keep a reference, or the level is lost when the logger is collected
+    private static final Logger SERVER_LOGGER = Logger.getLogger(MockWebServer.class.getName());
+
+    static {
+        // the server logs every request otherwise
+        SERVER_LOGGER.setLevel(Level.WARNING);
+    }
+
+    private final StandInApi api;
+    private final MockWebServer server = new MockWebServer();
+    private final HandshakeCertificates clientCertificates;
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+
+    /**
+     * Bind the server on the loopback interface and start serving
+     *
+     * @param api implementation answering the requests
+     * @param tls whether to serve https negotiating HTTP/2 or HTTP/1.1, or
+     *            cleartext h2c only
+     * @throws IOException if the port could not be bound
+     */
+    public Http2StandInServer(StandInApi api, boolean tls) throws IOException {
+        this.api = api;
+        if (tls) {
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+            HeldCertificate certificate = new HeldCertificate.Builder()
+                    .commonName("stand-in")
+                    .addSubjectAlternativeName(loopback.getCanonicalHostName())
+                    .addSubjectAlternativeName(loopback.getHostAddress())
+                    .build();
+            HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder()
+                    .heldCertificate(certificate)
+                    .build();
+            clientCertificates = new HandshakeCertificates.Builder()
+                    .addTrustedCertificate(certificate.certificate())
+                    .build();
+            server.useHttps(serverCertificates.sslSocketFactory(), false);
+            server.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        } else {
+            clientCertificates = null;
+            server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        }
+        server.setServerSocketFactory(new CountingServerSocketFactory());
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                // every request is also queued for takeRequest(), drop them so a long run doesn't fill the heap
+                server.takeRequest(0, TimeUnit.NANOSECONDS);
+                return handle(request);
+            }
+        });
+        server.start(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    public StandInApi api() {
+        return api;
+    }
+
+    /**
+     * @return base url of the server, to be passed to {@link VaccineApiClient.Builder#baseUrl}
+     */
+    public HttpUrl url() {
+        return server.url("/");
+    }
+
+    /**
+     * @return certificates a client must trust to reach the server over TLS,
+     * null if the server speaks cleartext
+     */
+    public HandshakeCertificates clientCertificates() {
+        return clientCertificates;
+    }
+
+    /**
+     * @return bytes read from the clients since the start or the last reset
+     */
+    public long bytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * @return bytes written to the clients since the start or the last reset
+     */
+    public long bytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * @return connections accepted since the start or the last reset
+     */
+    public long connectionCount() {
+        return connections.sum();
+    }
+
+    public void resetCounters() {
+        bytesReceived.reset();
+        bytesSent.reset();
+        connections.reset();
+    }
+
+    private MockResponse handle(RecordedRequest request) {
+        HttpUrl url = request.getRequestUrl();
+        StandInApi.Reply reply = StandInServer.answer(api, request.getMethod(), url.encodedPath(),
+                url.encodedQuery(), request.getBody().readByteArray(), request::getHeader);
+
+        MockResponse response = new MockResponse()
+                .setResponseCode(reply.code())
+                .setHeader("Content-Type", reply.contentType());
+        reply.headers().forEach(response::setHeader);
+        Buffer replyBody = new Buffer().write(reply.body());
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (replyBody.size() > 0 && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            replyBody = gzip(replyBody);
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        return response.setBody(replyBody);
+    }
+
+    private static Buffer gzip(Buffer body) {
+        Buffer compressed = new Buffer();
+        try (BufferedSink sink = Okio.buffer(new GzipSink(compressed))) {
+            sink.writeAll(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed;
+    }
+
+    /**
+     * Stop accepting requests and close the open connections
+     */
+    @Override
+    public void close() {
+        try {
+            server.shutdown();
+        } catch (IOException e) {
+            // already stopped
+        }
+    }
+
+    /**
+     * Hands out server sockets whose accepted sockets count the bytes they carry
+     */
+    private class CountingServerSocketFactory extends ServerSocketFactory {
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new ServerSocket() {
+                @Override
+                public Socket accept() throws IOException {
+                    Socket socket = new CountingSocket();
+                    implAccept(socket);
+                    // small answers would otherwise wait for the client's delayed ACK
+                    socket.setTcpNoDelay(true);
+                    connections.increment();
+                    return socket;
+                }
+            };
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            return createServerSocket(port, 50);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+            return createServerSocket(port, backlog, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog, InetAddress address) throws IOException {
+            ServerSocket socket = createServerSocket();
+            socket.bind(new InetSocketAddress(address, port), backlog);
+            return socket;
+        }
+    }
+
+    /**
+     * TLS is layered over this socket, so the counts include the TLS records
+     */
+    private class CountingSocket extends Socket {
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new FilterInputStream(super.getInputStream()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        bytesReceived.increment();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    int read = super.read(bytes, offset, length);
+                    if (read > 0) {
+                        bytesReceived.add(read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return new FilterOutputStream(super.getOutputStream()) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    bytesSent.increment();
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    // FilterOutputStream would write byte by byte
+                    out.write(bytes, offset, length);
+                    bytesSent.add(length);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import okhttp3.OkHttpClient;
+import okhttp3.tls.HandshakeCertificates;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compares transport profiles by running the same load through each of
+ * them against a local {@link Http2StandInServer}.
+ *
+ * https profiles reach a TLS stand-in negotiating HTTP/2 or HTTP/1.1, h2c
+ * profiles a cleartext one. Each profile gets an empty stand-in and a fresh
+ * client, which first opens its connections in an unreported warm-up run,
+ * so the measured run shows the steady state rather than a burst of TLS
+ * handshakes; the first profile is also run once unreported beforehand. Bytes are counted on the server's sockets during the
+ * measured run, so they include framing, headers and TLS records;
+ * connections are counted from the start of the warm-up.
+ *
+ * Usage: {@code TransportReport <requestsPerSecond> <seconds> <profile>...},
+ * with profiles such as {@code http1}, {@code h2}, {@code h2c} or {@code h2+gzip}
+ */
+public class TransportReport {
+    private static final String[] OPERATIONS = {LoadGenerator.REGISTER, LoadGenerator.LOOKUP, LoadGenerator.DELETE};
+
+    /**
+     * Outcome of the run through one profile
+     */
+    public static class Row {
+        private final TransportProfile profile;
+        private final double seconds;
+        private final LoadReport report;
+        private final long bytesSent;
+        private final long bytesReceived;
+        private final long connections;
+        private final Histogram latencies = new Histogram(3);
+
+        Row(TransportProfile profile, double seconds, LoadReport report, Http2StandInServer server,
+            long connections) {
+            this.profile = profile;
+            this.seconds = seconds;
+            this.report = report;
+            bytesSent = server.bytesReceived();
+            bytesReceived = server.bytesSent();
+            this.connections = connections;
+            for (String operation : OPERATIONS) {
+                latencies.add(report.latencies(operation));
+            }
+        }
+
+        public TransportProfile profile() {
+            return profile;
+        }
+
+        public LoadReport report() {
+            return report;
+        }
+
+        /**
+         * @return requests that succeeded per second
+         */
+        public double goodput() {
+            return report.successCount() / seconds;
+        }
+
+        /**
+         * @return share of the requests that failed, from 0 to 1
+         */
+        public double errorRate() {
+            long total = report.successCount() + report.errorCount();
+            return total == 0 ? 0 : (double) report.errorCount() / total;
+        }
+
+        /**
+         * @return latency at a percentile over every operation, in milliseconds
+         */
+        public double latencyMillis(double percentile) {
+            return latencies.getValueAtPercentile(percentile) / 1000.0;
+        }
+
+        /**
+         * @return bytes the client wrote per answered request
+         */
+        public double bytesSentPerRequest() {
+            return (double) bytesSent / Math.max(1, report.count());
+        }
+
+        /**
+         * @return bytes the client read per answered request
+         */
+        public double bytesReceivedPerRequest() {
+            return (double) bytesReceived / Math.max(1, report.count());
+        }
+
+        /**
+         * @return connections the client opened, warm-up included
+         */
+        public long connections() {
+            return connections;
+        }
+    }
+
+    private final VaccineApiClient.Builder client;
+    private final double requestsPerSecond;
+    private final long durationNanos;
+    private final int[] mix;
+    private final List<TransportProfile> profiles;
+
+    private TransportReport(Builder builder) {
+        client = builder.client;
+        requestsPerSecond = builder.requestsPerSecond;
+        durationNanos = builder.durationNanos;
+        mix = builder.mix;
+        profiles = new ArrayList<>(builder.profiles);
+    }
+
+    /**
+     * Run every profile in turn
+     *
+     * @return one row per profile, in the order they were added
+     * @throws IOException          if a stand-in server could not start or
+     *                              did not answer the first call of a client
+     * @throws InterruptedException if interrupted during a run
+     */
+    public List<Row> run() throws IOException, InterruptedException {
+        List<Row> rows = new ArrayList<>();
+        try (Http2StandInServer tls = new Http2StandInServer(new StandInApi(), true);
+             Http2StandInServer cleartext = new Http2StandInServer(new StandInApi(), false)) {
+            // the first run pays for class loading and JIT compilation, which would handicap the first profile
+            if (!profiles.isEmpty()) {
+                TransportProfile first = profiles.get(0);
+                run(first.cleartext() ? cleartext : tls, first);
+            }
+            for (TransportProfile profile : profiles) {
+                rows.add(run(profile.cleartext() ? cleartext : tls, profile));
+            }
+        }
+        return rows;
+    }
+
+    private Row run(Http2StandInServer server, TransportProfile profile) throws IOException, InterruptedException {
+        server.api().clear();
+        server.resetCounters();
+        HandshakeCertificates certificates = server.clientCertificates();
+        client.baseUrl(server.url())
+                .transport(profile)
+                .sslSocketFactory(certificates != null ? certificates.sslSocketFactory() : null,
+                        certificates != null ? certificates.trustManager() : null);
+        try (VaccineApiClient api = client.build()) {
+            // one call first, or concurrent calls each open a connection before HTTP/2 is negotiated
+            api.isUserExisted(RegistrationValidator.withCheckDigit(110200320000L));
+            load(api, Math.min(durationNanos, TimeUnit.SECONDS.toNanos(3))).run();
+            long connections = server.connectionCount();
+            server.resetCounters();
+            LoadReport report = load(api, durationNanos).run();
+            return new Row(profile, durationNanos / 1e9, report, server, connections + server.connectionCount());
+        }
+    }
+
+    private LoadGenerator load(VaccineApiClient api, long durationNanos) {
+        return new LoadGenerator.Builder(api)
+                .requestsPerSecond(requestsPerSecond)
+                .duration(durationNanos, TimeUnit.NANOSECONDS)
+                .mix(mix[0], mix[1], mix[2])
+                .build();
+    }
+
+    /**
+     * Print one line per profile, with the goodput and p99 relative to the
+     * first row
+     */
+    public static void print(List<Row> rows, PrintStream out) {
+        out.printf("%-21s %10s %8s %8s %8s %8s %9s %9s %6s %8s %8s%n",
+                "profile", "goodput/s", "errors", "p50", "p99", "p99.9", "out B/req", "in B/req", "conns",
+                "p99 x", "goodput x");
+        Row first = rows.get(0);
+        for (Row row : rows) {
+            out.printf("%-21s %10.1f %7.2f%% %8.2f %8.2f %8.2f %9.1f %9.1f %6d %8.2f %8.2f%n",
+                    row.profile(),
+                    row.goodput(),
+                    row.errorRate() * 100,
+                    row.latencyMillis(50),
+                    row.latencyMillis(99),
+                    row.latencyMillis(99.9),
+                    row.bytesSentPerRequest(),
+                    row.bytesReceivedPerRequest(),
+                    row.connections(),
+                    row.latencyMillis(99) / Math.max(first.latencyMillis(99), 0.001),
+                    row.goodput() / Math.max(first.goodput(), 0.001));
+        }
+    }
+
+    public static class Builder {
+        private final VaccineApiClient.Builder client;
+        private double requestsPerSecond = 100;
+        private long durationNanos = TimeUnit.SECONDS.toNanos(10);
+        private int[] mix = {1, 1, 1};
+        private final List<TransportProfile> profiles = new ArrayList<>();
+
+        /**
+         * @param client configuration of the client under test, its base
+         *               url, transport and trusted certificates are replaced
+         *               for each run
+         */
+        public Builder(VaccineApiClient.Builder client) {
+            this.client = client;
+        }
+
+        public Builder requestsPerSecond(double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        /**
+         * Duration of each run
+         */
+        public Builder duration(long duration, TimeUnit unit) {
+            this.durationNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Relative weights of the operations, see {@link LoadGenerator.Builder#mix}
+         */
+        public Builder mix(int register, int lookup, int delete) {
+            this.mix = new int[]{register, lookup, delete};
+            return this;
+        }
+
+        public Builder profile(TransportProfile profile) {
+            profiles.add(profile);
+            return this;
+        }
+
+        public TransportReport build() {
+            return new TransportReport(this);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: TransportReport <requestsPerSecond> <seconds> <profile>...");
+            System.exit(2);
+        }
+        // the stand-in's HTTP/2 server logs every stream the client resets after skipping its body
+        Logger.getLogger(OkHttpClient.class.getName()).setLevel(Level.WARNING);
+        // JSON registrations carry a body, so that compression applies both ways
+        Builder builder = new Builder(new VaccineApiClient.Builder()
+                .registrationMode(RegistrationEncoder.Mode.JSON))
+                .requestsPerSecond(Double.parseDouble(args[0]))
+                .duration(Long.parseLong(args[1]), TimeUnit.SECONDS);
+        for (int i = 2; i < args.length; i++) {
+            builder.profile(TransportProfile.parse(args[i]));
+        }
+        print(builder.build().run(), System.out);
+    }
+}